@@ -0,0 +1,233 @@
+package be.cytomine.appengine.models.task.collection;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.support.GenericApplicationContext;
+
+import be.cytomine.appengine.models.task.TypePersistence;
+import be.cytomine.appengine.models.task.integer.IntegerType;
+import be.cytomine.appengine.repositories.TypePersistenceRepository;
+import be.cytomine.appengine.repositories.collection.CollectionPersistenceRepository;
+import be.cytomine.appengine.repositories.integer.IntegerPersistenceRepository;
+import be.cytomine.appengine.utils.AppEngineApplicationContext;
+
+/*
+ * Provisioning of a collection item by item (one call of persistProvision per item, as done by
+ * the collection item provisioning endpoints), for collections of increasing sizes.
+ * The repositories are in memory and count the rows that persistProvision reads and writes
+ * (reported by the rowsRead and rowsWritten counters): the rows per item stay constant when the
+ * collection grows, whereas reloading and saving the whole collection for each item made them grow
+ * with its size. The native attachItem and countItem statements are only counted as one written row
+ * each, so the time does not include any database access and is not a measure of the SQL.
+ * Run with ./gradlew :app-engine:jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CollectionItemProvisioningBenchmark {
+
+    @Param({"1000", "5000", "20000"})
+    private int size;
+
+    private CollectionType collectionType;
+
+    private InMemoryStore store;
+
+    private GenericApplicationContext context;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Setup(Level.Trial)
+    public void createType() {
+        collectionType = new CollectionType();
+        collectionType.setMinSize(0);
+        collectionType.setMaxSize(size);
+        collectionType.setSubType(new IntegerType());
+    }
+
+    @Setup(Level.Iteration)
+    public void createStore() {
+        store = new InMemoryStore();
+        context = new GenericApplicationContext();
+        context.registerBean(
+            CollectionPersistenceRepository.class,
+            () -> store.repository(CollectionPersistenceRepository.class)
+        );
+        context.registerBean(
+            TypePersistenceRepository.class,
+            () -> store.repository(TypePersistenceRepository.class)
+        );
+        context.registerBean(
+            IntegerPersistenceRepository.class,
+            () -> store.repository(IntegerPersistenceRepository.class)
+        );
+        context.refresh();
+        new AppEngineApplicationContext().setApplicationContext(context);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeStore() {
+        context.close();
+    }
+
+    @Benchmark
+    public void provisionItemByItem(Rows rows, Blackhole blackhole) throws Exception {
+        UUID runId = UUID.randomUUID();
+        for (int i = 0; i < size; i++) {
+            ObjectNode provision = mapper.createObjectNode();
+            provision.put("index", "tiles/" + i);
+            provision.put("value", i);
+            collectionType.persistProvision(provision, runId);
+        }
+        rows.rowsRead += store.rowsRead;
+        rows.rowsWritten += store.rowsWritten;
+        blackhole.consume(store.rowsWritten);
+    }
+
+    /**
+     * Rows read and written by the repositories, reported next to the time of each iteration
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Rows {
+
+        public long rowsRead;
+
+        public long rowsWritten;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rowsRead = 0;
+            rowsWritten = 0;
+        }
+    }
+
+    /**
+     * Rows of the type persistence tables, with the queries of the repositories used by the
+     * collection item provisioning.
+     */
+    private static class InMemoryStore {
+
+        private final Map<String, TypePersistence> byName = new HashMap<>();
+
+        private final Map<UUID, TypePersistence> byId = new HashMap<>();
+
+        private long rowsRead;
+
+        private long rowsWritten;
+
+        @SuppressWarnings("unchecked")
+        private <T> T repository(Class<T> repositoryClass) {
+            return (T) Proxy.newProxyInstance(
+                repositoryClass.getClassLoader(),
+                new Class<?>[] {repositoryClass},
+                (proxy, method, args) -> invoke(proxy, method, args)
+            );
+        }
+
+        private static String key(Object name, Object run, Object parameterType) {
+            return name + "|" + run + "|" + parameterType;
+        }
+
+        private TypePersistence find(Object[] args) {
+            TypePersistence row = byName.get(key(args[0], args[1], args[2]));
+            if (row != null) {
+                rowsRead++;
+            }
+            return row;
+        }
+
+        private Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "findIdByParameterNameAndRunIdAndParameterType":
+                    return Optional.ofNullable(find(args)).map(TypePersistence::getId);
+                case "findTypePersistenceByParameterNameAndRunIdAndParameterType":
+                case "findIntegerPersistenceByParameterNameAndRunIdAndParameterType":
+                    return find(args);
+                case "findCollectionPersistenceByParameterNameAndRunIdAndParameterType":
+                    CollectionPersistence collection = (CollectionPersistence) find(args);
+                    if (collection == null) {
+                        return null;
+                    }
+                    // the items of a collection are loaded with it
+                    CollectionPersistence loaded = new CollectionPersistence();
+                    loaded.setId(collection.getId());
+                    loaded.setParameterName(collection.getParameterName());
+                    loaded.setRunId(collection.getRunId());
+                    loaded.setParameterType(collection.getParameterType());
+                    loaded.setValueType(collection.getValueType());
+                    loaded.setSize(collection.getSize());
+                    loaded.setItems(new ArrayList<>());
+                    for (TypePersistence item : collection.getItems()) {
+                        loaded.getItems().add(byId.get(item.getId()));
+                        rowsRead++;
+                    }
+                    return loaded;
+                case "save":
+                case "saveAndFlush":
+                    return save((TypePersistence) args[0]);
+                case "attachItem":
+                    rowsWritten++;
+                    CollectionPersistence parent = (CollectionPersistence) byId.get(args[0]);
+                    parent.getItems().add(byId.get(args[1]));
+                    return null;
+                case "countItem":
+                    rowsWritten++;
+                    CollectionPersistence counted = (CollectionPersistence) byId.get(args[0]);
+                    counted.setSize(counted.getSize() + 1);
+                    counted.setProvisioned(
+                        counted.getSize() >= (int) args[1] && counted.getSize() <= (int) args[2]
+                    );
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(this);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "InMemoryStore";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+
+        private TypePersistence save(TypePersistence row) {
+            if (row.getId() == null) {
+                row.setId(UUID.randomUUID());
+            }
+            if (row instanceof CollectionPersistence collection) {
+                // the items of a collection are saved with it
+                if (collection.getItems() == null) {
+                    collection.setItems(new ArrayList<>());
+                }
+                for (TypePersistence item : collection.getItems()) {
+                    save(item);
+                }
+            }
+            rowsWritten++;
+            byId.put(row.getId(), row);
+            byName.put(key(row.getParameterName(), row.getRunId(), row.getParameterType()), row);
+            return row;
+        }
+    }
+}
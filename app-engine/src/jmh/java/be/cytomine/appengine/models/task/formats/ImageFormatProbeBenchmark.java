@@ -0,0 +1,165 @@
+package be.cytomine.appengine.models.task.formats;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+
+import org.apache.commons.imaging.formats.tiff.TiffField;
+import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+import org.apache.commons.imaging.formats.tiff.TiffImageParser;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * Dimension probing of the image formats: full decoding (previous implementations)
+ * against header-only probes, and the cached probes used by the validation.
+ * Run with ./gradlew :app-engine:jmh (the gc profiler reports the allocated memory).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageFormatProbeBenchmark {
+
+    @Param({"1024", "4096"})
+    private int size;
+
+    private Path directory;
+
+    private File jpeg;
+
+    private File tiff;
+
+    private File dicom;
+
+    @Setup(Level.Trial)
+    public void createImages() throws IOException {
+        directory = Files.createTempDirectory("probe-benchmark-");
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                image.setRGB(x, y, (x * 31 + y * 17) & 0xFFFFFF);
+            }
+        }
+
+        jpeg = directory.resolve("image.jpg").toFile();
+        ImageIO.write(image, "jpg", jpeg);
+        tiff = directory.resolve("image.tif").toFile();
+        ImageIO.write(image, "tif", tiff);
+        dicom = directory.resolve("image.dcm").toFile();
+        writeDicom(dicom, size);
+        ProbeCache.clear();
+    }
+
+    private static void writeDicom(File file, int size) throws IOException {
+        Attributes dataset = new Attributes();
+        dataset.setString(Tag.SOPClassUID, VR.UI, UID.SecondaryCaptureImageStorage);
+        dataset.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4");
+        dataset.setInt(Tag.Rows, VR.US, size);
+        dataset.setInt(Tag.Columns, VR.US, size);
+        dataset.setInt(Tag.SamplesPerPixel, VR.US, 1);
+        dataset.setInt(Tag.BitsAllocated, VR.US, 8);
+        dataset.setInt(Tag.BitsStored, VR.US, 8);
+        dataset.setInt(Tag.HighBit, VR.US, 7);
+        dataset.setString(Tag.PhotometricInterpretation, VR.CS, "MONOCHROME2");
+        dataset.setBytes(Tag.PixelData, VR.OB, new byte[size * size]);
+
+        try (DicomOutputStream output = new DicomOutputStream(file)) {
+            output.writeDataset(
+                dataset.createFileMetaInformation(UID.ExplicitVRLittleEndian),
+                dataset
+            );
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteImages() throws IOException {
+        try (var paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public Dimension jpegDecode() throws IOException {
+        BufferedImage image = ImageIO.read(jpeg);
+        return new Dimension(image.getWidth(), image.getHeight());
+    }
+
+    @Benchmark
+    public Dimension jpegHeader() {
+        return JpegFormat.readDimensions(jpeg);
+    }
+
+    @Benchmark
+    public Dimension jpegCached() {
+        return new JpegFormat().getDimensions(jpeg);
+    }
+
+    @Benchmark
+    public Dimension dicomDataset() throws IOException {
+        try (DicomInputStream input = new DicomInputStream(dicom)) {
+            Attributes attributes = input.readDataset();
+            return new Dimension(
+                attributes.getInt(Tag.Columns, -1),
+                attributes.getInt(Tag.Rows, -1)
+            );
+        }
+    }
+
+    @Benchmark
+    public Dimension dicomHeader() {
+        return DicomFormat.readDimensions(dicom);
+    }
+
+    @Benchmark
+    public boolean tiffMetadata() throws IOException {
+        TiffImageParser parser = new TiffImageParser();
+        parser.getImageSize(tiff);
+        TiffImageMetadata metadata = (TiffImageMetadata) parser.getMetadata(tiff);
+        List<TiffField> fields = metadata.getAllFields();
+        TiffField samplesPerPixel = fields
+            .stream()
+            .filter(field -> field.getTagInfo().name.equals("SamplesPerPixel"))
+            .findFirst()
+            .orElse(null);
+        TiffField tileWidth = fields
+            .stream()
+            .filter(field -> field.getTagInfo().name.equals("TileWidth"))
+            .findFirst()
+            .orElse(null);
+        return samplesPerPixel != null && samplesPerPixel.getIntValue() == 3
+            && (tileWidth == null || tileWidth.getIntValue() == 0);
+    }
+
+    @Benchmark
+    public boolean tiffHeader() {
+        TiffHeader header = TiffHeader.read(tiff);
+        return header.getSamplesPerPixel() == 3 && header.getTileWidth() == 0;
+    }
+
+    @Benchmark
+    public boolean tiffCached() {
+        TiffFormat format = new TiffFormat();
+        return format.getDimensions(tiff) != null && format.validate(tiff);
+    }
+}
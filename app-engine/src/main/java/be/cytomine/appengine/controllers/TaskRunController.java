@@ -20,11 +20,13 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import be.cytomine.appengine.dto.inputs.task.State;
 import be.cytomine.appengine.dto.inputs.task.StateAction;
@@ -37,9 +39,9 @@ import be.cytomine.appengine.exceptions.FileStorageException;
 import be.cytomine.appengine.exceptions.ProvisioningException;
 import be.cytomine.appengine.exceptions.SchedulingException;
 import be.cytomine.appengine.exceptions.TypeValidationException;
-import be.cytomine.appengine.handlers.StorageData;
 import be.cytomine.appengine.models.task.ParameterType;
 import be.cytomine.appengine.services.TaskProvisioningService;
+import be.cytomine.appengine.utils.IOArchive;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -129,6 +131,27 @@ public class TaskRunController {
         return ResponseEntity.ok(provisioned);
     }
 
+    @PutMapping(
+        value = "/task-runs/{run_id}/input-provisions/{param_name}/items",
+        consumes = MediaType.APPLICATION_JSON_VALUE
+    )
+    @ResponseStatus(code = HttpStatus.OK)
+    public ResponseEntity<?> provisionCollectionItemsJson(
+        @PathVariable("run_id") String runId,
+        @PathVariable("param_name") String parameterName,
+        @RequestBody List<JsonNode> items
+    ) throws ProvisioningException {
+        log.info("/task-runs/{run_id}/input-provisions/{param_name}/items JSON PUT");
+        List<JsonNode> provisioned = taskRunService.provisionCollectionItems(
+            runId,
+            parameterName,
+            items
+        );
+        log.info("/task-runs/{run_id}/input-provisions/{param_name}/items JSON PUT Ended");
+
+        return ResponseEntity.ok(provisioned);
+    }
+
     @GetMapping(
         value = "/task-runs/{run_id}/input/{param_name}/indexes",
         produces = MediaType.MULTIPART_FORM_DATA_VALUE
@@ -285,23 +308,13 @@ public class TaskRunController {
     @GetMapping(value = "/task-runs/{run_id}/inputs.zip")
     @ResponseStatus(code = HttpStatus.OK)
     public ResponseEntity<?> getInputProvisionsArchives(
-        @PathVariable("run_id") String runId
+        @PathVariable("run_id") String runId,
+        @RequestHeader(value = HttpHeaders.RANGE, required = false) String range
     ) throws ProvisioningException, IOException, FileStorageException {
         log.info("/task-runs/{run_id}/inputs.zip GET");
-        StorageData data = taskRunService.retrieveIOZipArchive(runId, ParameterType.INPUT);
-        File file = data.peek().getData();
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.add(
-            HttpHeaders.CONTENT_DISPOSITION,
-            "attachment; filename=\"" + file.getName() + "\""
-        );
-        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-
+        ResponseEntity<?> response = getIOArchive(runId, ParameterType.INPUT, range);
         log.info("/task-runs/{run_id}/inputs.zip GET Ended");
-        return ResponseEntity.ok()
-            .headers(headers)
-            .body(new FileSystemResource(file));
+        return response;
     }
 
     @GetMapping(value = "/task-runs/{run_id}/inputs")
@@ -383,23 +396,13 @@ public class TaskRunController {
     @GetMapping(value = "/task-runs/{run_id}/outputs.zip")
     @ResponseStatus(code = HttpStatus.OK)
     public ResponseEntity<?> getOutputsProvisionsArchives(
-        @PathVariable("run_id") String runId
+        @PathVariable("run_id") String runId,
+        @RequestHeader(value = HttpHeaders.RANGE, required = false) String range
     ) throws ProvisioningException, IOException, FileStorageException {
         log.info("/task-runs/{run_id}/outputs.zip GET");
-        StorageData data = taskRunService.retrieveIOZipArchive(runId, ParameterType.OUTPUT);
-        File file = data.peek().getData();
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.add(
-            HttpHeaders.CONTENT_DISPOSITION,
-            "attachment; filename=\"" + file.getName() + "\""
-        );
-        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-
+        ResponseEntity<?> response = getIOArchive(runId, ParameterType.OUTPUT, range);
         log.info("/task-runs/{run_id}/outputs.zip GET Ended");
-        return ResponseEntity.ok()
-            .headers(headers)
-            .body(new FileSystemResource(file));
+        return response;
     }
 
     @PostMapping(value = "/task-runs/{run_id}/{secret}/outputs.zip")
@@ -429,4 +432,42 @@ public class TaskRunController {
         log.info("/task-runs/{run_id}/state_actions POST Ended");
         return new ResponseEntity<>(stateAction, HttpStatus.OK);
     }
+
+    /**
+     * Archive streamed while it is written, or served from the cache with range support
+     * (a resumed download is served once the archive is cached).
+     * Without cache, the archive is always streamed in full.
+     */
+    private ResponseEntity<?> getIOArchive(
+        String runId,
+        ParameterType type,
+        String range
+    ) throws ProvisioningException, IOException, FileStorageException {
+        IOArchive archive = taskRunService.openIOZipArchive(runId, type);
+        String io = type.equals(ParameterType.INPUT) ? "inputs" : "outputs";
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(
+            HttpHeaders.CONTENT_DISPOSITION,
+            "attachment; filename=\"" + io + "-archive-" + runId + ".zip\""
+        );
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+
+        if (archive.getCachedFile().isPresent() || (range != null && archive.isCached())) {
+            return ResponseEntity.ok()
+                .headers(headers)
+                .body(new FileSystemResource(archive.writeToFile()));
+        }
+
+        if (archive.isCached()) {
+            headers.add(HttpHeaders.ACCEPT_RANGES, "bytes");
+        }
+        if (archive.getLength() >= 0) {
+            headers.setContentLength(archive.getLength());
+        }
+        StreamingResponseBody body = archive::writeTo;
+        return ResponseEntity.ok()
+            .headers(headers)
+            .body(body);
+    }
 }
@@ -1,5 +1,8 @@
 package be.cytomine.appengine.handlers;
 
+import java.io.File;
+import java.io.InputStream;
+
 import be.cytomine.appengine.dto.handlers.filestorage.Storage;
 import be.cytomine.appengine.exceptions.FileStorageException;
 
@@ -16,5 +19,11 @@ public interface StorageHandler {
 
     void saveStorageData(Storage storage, StorageData storageData) throws FileStorageException;
 
+    // write the data in a file of the storage, without closing the stream
+    File writeStorageFile(Storage storage, String name, InputStream data) throws FileStorageException;
+
+    // move the entries (written with writeStorageFile) to another storage, and update their data
+    void moveStorageData(Storage storage, StorageData storageData) throws FileStorageException;
+
     StorageData readStorageData(StorageData emptyFile) throws FileStorageException;
 }
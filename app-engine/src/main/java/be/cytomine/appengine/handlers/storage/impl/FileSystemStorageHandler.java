@@ -65,6 +65,62 @@ public class FileSystemStorageHandler implements StorageHandler {
         }
     }
 
+    @Override
+    public File writeStorageFile(
+        Storage storage,
+        String name,
+        InputStream data
+    ) throws FileStorageException {
+        String storageId = storage.getIdStorage();
+        Path storagePath = Paths.get(basePath, storageId).normalize();
+        Path filePath = storagePath.resolve(name).normalize();
+        if (!filePath.startsWith(storagePath)) {
+            String error = "Invalid file name " + name + " in storage " + storageId;
+            throw new FileStorageException(error);
+        }
+
+        try {
+            Files.createDirectories(filePath.getParent());
+            Files.copy(data, filePath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            String error = "Failed to create file " + name;
+            error += " in storage " + storageId + ": " + e.getMessage();
+            throw new FileStorageException(error);
+        }
+        return filePath.toFile();
+    }
+
+    @Override
+    public void moveStorageData(
+        Storage storage,
+        StorageData storageData
+    ) throws FileStorageException {
+        String storageId = storage.getIdStorage();
+        for (StorageDataEntry current : storageData.getEntryList()) {
+            String filename = current.getName();
+            Path path = Paths.get(basePath, storageId, filename);
+            try {
+                if (current.getStorageDataType() == StorageDataType.FILE) {
+                    Files.createDirectories(path.getParent());
+                    // a rename when both storages are on the same file system
+                    Files.move(
+                        current.getData().toPath(),
+                        path,
+                        StandardCopyOption.REPLACE_EXISTING);
+                    current.setData(path.toFile());
+                }
+
+                if (current.getStorageDataType() == StorageDataType.DIRECTORY) {
+                    Files.createDirectories(path);
+                }
+            } catch (IOException e) {
+                String error = "Failed to move " + filename;
+                error += " to storage " + storageId + ": " + e.getMessage();
+                throw new FileStorageException(error);
+            }
+        }
+    }
+
     @Override
     public void createStorage(Storage storage) throws FileStorageException {
         String storageId = storage.getIdStorage();
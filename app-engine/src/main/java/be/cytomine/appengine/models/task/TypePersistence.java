@@ -8,6 +8,8 @@ import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
 import jakarta.persistence.Inheritance;
 import jakarta.persistence.InheritanceType;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -21,6 +23,10 @@ import be.cytomine.appengine.models.BaseEntity;
 @Data
 @Inheritance(strategy = InheritanceType.JOINED)
 @Entity
+@Table(uniqueConstraints = @UniqueConstraint(
+    name = "uk_type_persistence_run_parameter",
+    columnNames = {"run_id", "parameter_name", "parameter_type"}
+))
 public class TypePersistence extends BaseEntity {
     @Id
     @Column(name = "id", updatable = false, nullable = false)
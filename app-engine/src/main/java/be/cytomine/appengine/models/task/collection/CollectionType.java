@@ -9,10 +9,9 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -62,6 +61,8 @@ import be.cytomine.appengine.models.task.integer.IntegerPersistence;
 import be.cytomine.appengine.models.task.number.NumberPersistence;
 import be.cytomine.appengine.models.task.string.StringPersistence;
 import be.cytomine.appengine.models.task.wsi.WsiPersistence;
+import be.cytomine.appengine.models.task.wsi.WsiType;
+import be.cytomine.appengine.repositories.TypePersistenceRepository;
 import be.cytomine.appengine.repositories.bool.BooleanPersistenceRepository;
 import be.cytomine.appengine.repositories.collection.CollectionPersistenceRepository;
 import be.cytomine.appengine.repositories.datetime.DateTimePersistenceRepository;
@@ -435,7 +436,6 @@ public class CollectionType extends Type {
         }
     }
 
-    @Transactional
     @Override
     public void persistProvision(JsonNode provision, UUID runId)
         throws ProvisioningException {
@@ -446,246 +446,133 @@ public class CollectionType extends Type {
         }
     }
 
+    /**
+     * Persist an item of the collection at its index (parameter name then indexes).
+     * The parent collection is found by name (indexed) and the item is attached to it and counted
+     * with single statements, without loading or rewriting the items already provisioned.
+     * Called within the transaction of the provisioning service, which holds the lock of the run.
+     */
     private void persistCollectionItem(JsonNode provision, UUID runId) throws ProvisioningException {
-        Type currentType = new CollectionType(this);
         CollectionPersistenceRepository collectionRepo =
             AppEngineApplicationContext.getBean(CollectionPersistenceRepository.class);
-        String leafType;
-        CollectionType parentType = null;
+        TypePersistenceRepository typePersistenceRepo =
+            AppEngineApplicationContext.getBean(TypePersistenceRepository.class);
+
         String[] indexes = provision.get("index").textValue().split("/");
-        CollectionPersistence persistedProvision = new CollectionPersistence();
-        for (int i = 0; i < indexes.length; i++) {
-            if (currentType instanceof CollectionType) {
-                if (i == 0) { // first item which is the parameter
-                    persistedProvision =
-                        collectionRepo.findCollectionPersistenceByParameterNameAndRunIdAndParameterType(
-                            indexes[i], runId, ParameterType.INPUT);
-                    if (Objects.isNull(persistedProvision)) {
-                        persistedProvision = new CollectionPersistence();
-                        persistedProvision.setRunId(runId);
-                        persistedProvision.setParameterType(ParameterType.INPUT);
-                        persistedProvision.setParameterName(indexes[i]);
-                        persistedProvision.setValueType(ValueType.ARRAY);
-                        persistedProvision.setItems(new ArrayList<>());
-                        persistedProvision = collectionRepo.save(persistedProvision);
-                    }
-                    parentType = (CollectionType) currentType;
-                    currentType = ((CollectionType) currentType).getSubType();
-                    continue;
-                } else {
-                    if (i == indexes.length - 1) { // this is the last item, yet it is still a collection (nested)
-                        while (currentType instanceof CollectionType) {
-                            ((CollectionType) currentType).setParentType(currentType);
-                            currentType = ((CollectionType) currentType).getSubType();
-                        }
-                        leafType = currentType.getClass().getSimpleName();
-                        String parameterName = transform(indexes);
-                        CollectionPersistence collectionAsItem = (CollectionPersistence) persistNode(provision, runId, parameterName, leafType);
-                        String collectionIndex = transform(indexes);
-                        collectionIndex = collectionIndex.substring(collectionIndex.indexOf("["));
-                        collectionAsItem.setCollectionIndex(collectionIndex);
-                        persistedProvision.getItems().add(collectionAsItem);
-                        // make collection provisioned
-                        if (persistedProvision.getItems().size() >= parentType.minSize
-                            && persistedProvision.getItems().size() <= parentType.maxSize) {
-                            persistedProvision.setProvisioned(true);
-                        }
-                        collectionRepo.saveAndFlush(persistedProvision);
-                        break; // do nothing after this
-                    } else {
-                        List<TypePersistence> items = persistedProvision.getItems();
-                        for (TypePersistence item : items) {
-                            if (indexes[i].equalsIgnoreCase(getNumberAtPosition(item.getCollectionIndex(), i))) {
-                                persistedProvision = (CollectionPersistence) item;
-                                break;
-                            }
-                        }
-                    }
-                    parentType = (CollectionType) currentType;
-                    currentType = ((CollectionType) currentType).getSubType();
-                }
+        String itemName = transform(indexes);
+        Type itemType = getCollectionTypeAt(indexes.length - 1).getSubType();
+        Type currentType = itemType;
+        while (currentType instanceof CollectionType) {
+            currentType = ((CollectionType) currentType).getSubType();
+        }
+        String leafType = currentType.getClass().getSimpleName();
 
-            } else { // reached the end of crawling the subtypes then insert into the items of persisted provision
-                leafType = currentType.getClass().getSimpleName();
-                String collectionItemParameterName;
-                switch (leafType) {
-                    case "IntegerType":
-                        IntegerPersistence integerPersistence = new IntegerPersistence();
-                        integerPersistence.setParameterType(ParameterType.INPUT);
-                        collectionItemParameterName = transform(provision.get("index").textValue());
-                        integerPersistence.setParameterName(collectionItemParameterName);
-                        integerPersistence.setRunId(runId);
-                        integerPersistence.setValueType(ValueType.INTEGER);
-                        integerPersistence.setProvisioned(true);
-                        integerPersistence.setValue(provision.get("value").asInt());
-                        integerPersistence.setCollectionIndex(collectionItemParameterName.substring(collectionItemParameterName.indexOf("[")));
-                        persistedProvision.getItems().add(integerPersistence);
-                        persistedProvision.setSize(persistedProvision.getItems().size());
-
-                        // make collection provisioned
-                        if (persistedProvision.getItems().size() >= parentType.minSize
-                            && persistedProvision.getItems().size() <= parentType.maxSize) {
-                            persistedProvision.setProvisioned(true);
-                        }
-                        collectionRepo.saveAndFlush(persistedProvision);
-                        break;
-                    case "StringType":
-                        StringPersistence stringPersistence = new StringPersistence();
-                        stringPersistence.setParameterType(ParameterType.INPUT);
-                        collectionItemParameterName = transform(provision.get("index").textValue());
-                        stringPersistence.setParameterName(collectionItemParameterName);
-                        stringPersistence.setRunId(runId);
-                        stringPersistence.setValueType(ValueType.STRING);
-                        stringPersistence.setProvisioned(true);
-                        stringPersistence.setValue(provision.get("value").asText());
-                        stringPersistence.setCollectionIndex(collectionItemParameterName.substring(collectionItemParameterName.indexOf("[")));
-                        persistedProvision.getItems().add(stringPersistence);
-                        persistedProvision.setSize(persistedProvision.getItems().size());
-
-                        // make collection provisioned
-                        if (persistedProvision.getItems().size() >= parentType.minSize
-                            && persistedProvision.getItems().size() <= parentType.maxSize) {
-                            persistedProvision.setProvisioned(true);
-                        }
+        UUID parentId = findOrCreateCollection(indexes, indexes.length - 1, runId);
+
+        TypePersistence item;
+        if (itemType instanceof CollectionType) { // the item is itself a (nested) collection
+            item = persistNode(provision, runId, itemName, leafType);
+        } else if (currentType instanceof FileType
+            || currentType instanceof ImageType
+            || currentType instanceof WsiType) { // the content of the item is in the storage
+            item = typePersistenceRepo.findTypePersistenceByParameterNameAndRunIdAndParameterType(
+                itemName, runId, ParameterType.INPUT);
+            if (Objects.isNull(item)) {
+                item = newFileItemPersistence(currentType);
+            }
+        } else {
+            item = persistNode(provision.get("value"), runId, itemName, leafType);
+        }
+        if (Objects.isNull(item)) {
+            return;
+        }
 
-                        collectionRepo.saveAndFlush(persistedProvision);
-                        break;
-                    case "NumberType":
-                        NumberPersistence numberPersistence = new NumberPersistence();
-                        numberPersistence.setParameterType(ParameterType.INPUT);
-                        collectionItemParameterName = transform(provision.get("index").textValue());
-                        numberPersistence.setParameterName(collectionItemParameterName);
-                        numberPersistence.setRunId(runId);
-                        numberPersistence.setValueType(ValueType.NUMBER);
-                        numberPersistence.setProvisioned(true);
-                        numberPersistence.setValue(provision.get("value").asDouble());
-                        numberPersistence.setCollectionIndex(collectionItemParameterName.substring(collectionItemParameterName.indexOf("[")));
-                        persistedProvision.getItems().add(numberPersistence);
-                        persistedProvision.setSize(persistedProvision.getItems().size());
-                        // make collection provisioned
-                        if (persistedProvision.getItems().size() >= parentType.minSize
-                            && persistedProvision.getItems().size() <= parentType.maxSize) {
-                            persistedProvision.setProvisioned(true);
-                        }
+        boolean isNewItem = Objects.isNull(item.getId());
+        item.setParameterType(ParameterType.INPUT);
+        item.setParameterName(itemName);
+        item.setRunId(runId);
+        item.setCollectionIndex(itemName.substring(itemName.indexOf("[")));
+        item.setProvisioned(true);
+        item = typePersistenceRepo.save(item);
+
+        // a provision of an item already provisioned replaces its value
+        if (isNewItem) {
+            CollectionType parentType = getCollectionTypeAt(indexes.length - 1);
+            collectionRepo.attachItem(parentId, item.getId());
+            collectionRepo.countItem(parentId, getMinSize(parentType), getMaxSize(parentType));
+        }
+    }
 
-                        collectionRepo.saveAndFlush(persistedProvision);
-                        break;
-                    case "BooleanType":
-                        BooleanPersistence booleanPersistence = new BooleanPersistence();
-                        booleanPersistence.setParameterType(ParameterType.INPUT);
-                        collectionItemParameterName = transform(provision.get("index").textValue());
-                        booleanPersistence.setParameterName(collectionItemParameterName);
-                        booleanPersistence.setRunId(runId);
-                        booleanPersistence.setValueType(ValueType.BOOLEAN);
-                        booleanPersistence.setProvisioned(true);
-                        booleanPersistence.setValue(provision.get("value").asBoolean());
-                        booleanPersistence.setCollectionIndex(collectionItemParameterName.substring(collectionItemParameterName.indexOf("[")));
-                        persistedProvision.getItems().add(booleanPersistence);
-                        persistedProvision.setSize(persistedProvision.getItems().size());
-                        // make collection provisioned
-                        if (persistedProvision.getItems().size() >= parentType.minSize
-                            && persistedProvision.getItems().size() <= parentType.maxSize) {
-                            persistedProvision.setProvisioned(true);
-                        }
+    /**
+     * Id of the collection at the given depth of the indexes, created empty (and attached to
+     * its parent) if none of its items were provisioned yet (the run is locked by the caller)
+     */
+    private UUID findOrCreateCollection(String[] indexes, int depth, UUID runId) {
+        CollectionPersistenceRepository collectionRepo =
+            AppEngineApplicationContext.getBean(CollectionPersistenceRepository.class);
+        String name = transform(Arrays.copyOf(indexes, depth));
+        Optional<UUID> id = collectionRepo.findIdByParameterNameAndRunIdAndParameterType(
+            name, runId, ParameterType.INPUT);
+        if (id.isPresent()) {
+            return id.get();
+        }
 
-                        collectionRepo.saveAndFlush(persistedProvision);
-                        break;
-                    case "EnumerationType":
-                        EnumerationPersistence enumPersistence = new EnumerationPersistence();
-                        enumPersistence.setParameterType(ParameterType.INPUT);
-                        collectionItemParameterName = transform(provision.get("index").textValue());
-                        enumPersistence.setParameterName(collectionItemParameterName);
-                        enumPersistence.setRunId(runId);
-                        enumPersistence.setValueType(ValueType.ENUMERATION);
-                        enumPersistence.setValue(provision.get("value").asText());
-                        enumPersistence.setProvisioned(true);
-                        enumPersistence.setCollectionIndex(collectionItemParameterName.substring(collectionItemParameterName.indexOf("[")));
-                        persistedProvision.getItems().add(enumPersistence);
-                        persistedProvision.setSize(persistedProvision.getItems().size());
-                        // make collection provisioned
-                        if (persistedProvision.getItems().size() >= parentType.minSize
-                            && persistedProvision.getItems().size() <= parentType.maxSize) {
-                            persistedProvision.setProvisioned(true);
-                        }
-                        collectionRepo.saveAndFlush(persistedProvision);
-                        break;
-                    case "GeometryType":
-                        GeometryPersistence geoPersistence = new GeometryPersistence();
-                        geoPersistence.setParameterType(ParameterType.INPUT);
-                        collectionItemParameterName = transform(provision.get("index").textValue());
-                        geoPersistence.setParameterName(collectionItemParameterName);
-                        geoPersistence.setRunId(runId);
-                        geoPersistence.setValueType(ValueType.GEOMETRY);
-                        geoPersistence.setProvisioned(true);
-                        geoPersistence.setValue(provision.get("value").asText());
-                        geoPersistence.setCollectionIndex(collectionItemParameterName.substring(collectionItemParameterName.indexOf("[")));
-                        persistedProvision.getItems().add(geoPersistence);
-                        persistedProvision.setSize(persistedProvision.getItems().size());
-                        // make collection provisioned
-                        if (persistedProvision.getItems().size() >= parentType.minSize
-                            && persistedProvision.getItems().size() <= parentType.maxSize) {
-                            persistedProvision.setProvisioned(true);
-                        }
-                        collectionRepo.saveAndFlush(persistedProvision);
-                        break;
-                    case "FileType":
-                        FilePersistence filePersistence = new FilePersistence();
-                        filePersistence.setParameterType(ParameterType.INPUT);
-                        collectionItemParameterName = transform(provision.get("index").textValue());
-                        filePersistence.setParameterName(collectionItemParameterName);
-                        filePersistence.setRunId(runId);
-                        filePersistence.setValueType(ValueType.FILE);
-                        filePersistence.setProvisioned(true);
-                        filePersistence.setCollectionIndex(collectionItemParameterName.substring(collectionItemParameterName.indexOf("[")));
-                        persistedProvision.getItems().add(filePersistence);
-                        persistedProvision.setSize(persistedProvision.getItems().size());
-                        // make collection provisioned
-                        if (persistedProvision.getItems().size() >= parentType.minSize
-                            && persistedProvision.getItems().size() <= parentType.maxSize) {
-                            persistedProvision.setProvisioned(true);
-                        }
-                        collectionRepo.saveAndFlush(persistedProvision);
-                        break;
-                    case "ImageType":
-                        ImagePersistence imagePersistence = new ImagePersistence();
-                        imagePersistence.setParameterType(ParameterType.INPUT);
-                        collectionItemParameterName = transform(provision.get("index").textValue());
-                        imagePersistence.setParameterName(collectionItemParameterName);
-                        imagePersistence.setRunId(runId);
-                        imagePersistence.setValueType(ValueType.IMAGE);
-                        imagePersistence.setProvisioned(true);
-                        imagePersistence.setCollectionIndex(collectionItemParameterName.substring(collectionItemParameterName.indexOf("[")));
-                        persistedProvision.getItems().add(imagePersistence);
-                        persistedProvision.setSize(persistedProvision.getItems().size());
-                        // make collection provisioned
-                        if (persistedProvision.getItems().size() >= parentType.minSize
-                            && persistedProvision.getItems().size() <= parentType.maxSize) {
-                            persistedProvision.setProvisioned(true);
-                        }
-                        collectionRepo.saveAndFlush(persistedProvision);
-                        break;
-                    case "WsiType":
-                        WsiPersistence wsiPersistence = new WsiPersistence();
-                        wsiPersistence.setParameterType(ParameterType.INPUT);
-                        collectionItemParameterName = transform(provision.get("index").textValue());
-                        wsiPersistence.setParameterName(collectionItemParameterName);
-                        wsiPersistence.setProvisioned(true);
-                        wsiPersistence.setRunId(runId);
-                        wsiPersistence.setValueType(ValueType.WSI);
-                        wsiPersistence.setCollectionIndex(collectionItemParameterName.substring(collectionItemParameterName.indexOf("[")));
-                        persistedProvision.getItems().add(wsiPersistence);
-                        persistedProvision.setSize(persistedProvision.getItems().size());
-                        // make collection provisioned
-                        if (persistedProvision.getItems().size() >= parentType.minSize
-                            && persistedProvision.getItems().size() <= parentType.maxSize) {
-                            persistedProvision.setProvisioned(true);
-                        }
-                        collectionRepo.saveAndFlush(persistedProvision);
-                        break;
-                    default: break;
-                }
-            }
+        CollectionPersistence collection = new CollectionPersistence();
+        collection.setRunId(runId);
+        collection.setParameterType(ParameterType.INPUT);
+        collection.setParameterName(name);
+        collection.setValueType(ValueType.ARRAY);
+        collection.setSize(0);
+        collection.setItems(new ArrayList<>());
+        if (depth > 1) {
+            collection.setCollectionIndex(name.substring(name.indexOf("[")));
+        }
+        collection = collectionRepo.save(collection);
+
+        if (depth > 1) {
+            UUID parentId = findOrCreateCollection(indexes, depth - 1, runId);
+            CollectionType parentType = getCollectionTypeAt(depth - 1);
+            collectionRepo.attachItem(parentId, collection.getId());
+            collectionRepo.countItem(parentId, getMinSize(parentType), getMaxSize(parentType));
+        }
+        return collection.getId();
+    }
+
+    /**
+     * Type of the collection at the given depth (1 for the parameter itself)
+     */
+    private CollectionType getCollectionTypeAt(int depth) {
+        CollectionType collectionType = this;
+        for (int i = 1; i < depth; i++) {
+            collectionType = (CollectionType) collectionType.getSubType();
+        }
+        return collectionType;
+    }
+
+    private static int getMinSize(CollectionType collectionType) {
+        return Objects.isNull(collectionType.getMinSize()) ? 0 : collectionType.getMinSize();
+    }
+
+    private static int getMaxSize(CollectionType collectionType) {
+        return Objects.isNull(collectionType.getMaxSize())
+            ? Integer.MAX_VALUE
+            : collectionType.getMaxSize();
+    }
+
+    private static TypePersistence newFileItemPersistence(Type leafType) {
+        if (leafType instanceof ImageType) {
+            ImagePersistence imagePersistence = new ImagePersistence();
+            imagePersistence.setValueType(ValueType.IMAGE);
+            return imagePersistence;
+        }
+        if (leafType instanceof WsiType) {
+            WsiPersistence wsiPersistence = new WsiPersistence();
+            wsiPersistence.setValueType(ValueType.WSI);
+            return wsiPersistence;
         }
+        FilePersistence filePersistence = new FilePersistence();
+        filePersistence.setValueType(ValueType.FILE);
+        return filePersistence;
     }
 
     private String transform(String[] indexes) {
@@ -722,22 +609,6 @@ public class CollectionType extends Type {
         return result.toString();
     }
 
-    public String getNumberAtPosition(String input, int position) {
-        Pattern pattern = Pattern.compile("\\d+"); // Regex to match numbers
-        Matcher matcher = pattern.matcher(input);
-
-        List<String> numbers = new ArrayList<>();
-        while (matcher.find()) {
-            numbers.add(matcher.group()); // Extract and parse numbers
-        }
-
-        // Ensure the position is valid
-        if (position > 0 && position <= numbers.size()) {
-            return numbers.get(position - 1); // Return number at the requested position
-        }
-        return null; // Invalid position
-    }
-
     private void persistCollection(JsonNode provision, UUID runId) throws ProvisioningException {
         Type currentType = new CollectionType(this);
         while (currentType instanceof CollectionType) {
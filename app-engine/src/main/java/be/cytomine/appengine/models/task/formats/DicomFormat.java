@@ -37,8 +37,14 @@ public class DicomFormat implements FileFormat {
 
     @Override
     public Dimension getDimensions(File file) {
+        Dimension dimension = ProbeCache.get("dicom-dimensions", file, DicomFormat::readDimensions);
+        return dimension == null ? null : new Dimension(dimension);
+    }
+
+    /* Read the dimensions from the attributes before the pixel data, which is not loaded */
+    public static Dimension readDimensions(File file) {
         try (DicomInputStream dis = new DicomInputStream(file)) {
-            Attributes attributes = dis.readDataset();
+            Attributes attributes = dis.readDatasetUntilPixelData();
 
             int width = attributes.getInt(Tag.Columns, -1);
             int height = attributes.getInt(Tag.Rows, -1);
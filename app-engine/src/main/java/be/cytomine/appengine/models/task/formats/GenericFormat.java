@@ -1,11 +1,12 @@
 package be.cytomine.appengine.models.task.formats;
 
 import java.awt.Dimension;
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Iterator;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 public class GenericFormat implements FileFormat {
 
@@ -21,13 +22,28 @@ public class GenericFormat implements FileFormat {
 
     @Override
     public Dimension getDimensions(File file) {
-        try (FileInputStream bais = new FileInputStream(file)) {
-            BufferedImage image = ImageIO.read(bais);
-            if (image == null) {
-                throw new IOException("Unable to read image");
-            }
+        Dimension dimension = ProbeCache
+            .get("generic-dimensions", file, GenericFormat::readDimensions);
+        return dimension == null ? null : new Dimension(dimension);
+    }
 
-            return new Dimension(image.getWidth(), image.getHeight());
+    /* Read the dimensions from the header of the image, with the first ImageIO reader of it */
+    public static Dimension readDimensions(File file) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
         } catch (IOException e) {
             return null;
         }
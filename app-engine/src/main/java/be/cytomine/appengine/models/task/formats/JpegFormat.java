@@ -1,12 +1,12 @@
 package be.cytomine.appengine.models.task.formats;
 
 import java.awt.Dimension;
-import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Arrays;
-import javax.imageio.ImageIO;
 
 public class JpegFormat implements FileFormat {
 
@@ -30,14 +30,56 @@ public class JpegFormat implements FileFormat {
 
     @Override
     public Dimension getDimensions(File file) {
-        try {
-            BufferedImage image = ImageIO.read(file);
-            return new Dimension(image.getWidth(), image.getHeight());
+        Dimension dimension = ProbeCache.get("jpeg-dimensions", file, JpegFormat::readDimensions);
+        return dimension == null ? null : new Dimension(dimension);
+    }
+
+    /* Read the dimensions from the first start of frame (SOFn) marker, before any scan data */
+    public static Dimension readDimensions(File file) {
+        try (DataInputStream input = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readUnsignedShort() != 0xFFD8) {
+                return null;
+            }
+            while (true) {
+                int marker = input.readUnsignedByte();
+                if (marker != 0xFF) {
+                    return null;
+                }
+                // markers may be preceded by fill bytes
+                while (marker == 0xFF) {
+                    marker = input.readUnsignedByte();
+                }
+                if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                    continue; // markers without segment
+                }
+                if (marker == 0xD9 || marker == 0xDA) {
+                    return null; // end of image or start of scan without frame header
+                }
+                int length = input.readUnsignedShort();
+                if (isStartOfFrame(marker)) {
+                    input.readUnsignedByte(); // sample precision
+                    int height = input.readUnsignedShort();
+                    int width = input.readUnsignedShort();
+                    if (height == 0) {
+                        // height defined after the first scan (DNL marker)
+                        return GenericFormat.readDimensions(file);
+                    }
+                    return new Dimension(width, height);
+                }
+                input.skipNBytes(length - 2);
+            }
         } catch (IOException e) {
             return null;
         }
     }
 
+    // SOF0 to SOF15, except DHT (C4), JPG (C8) and DAC (CC)
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF
+            && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
     @Override
     public boolean validate(File file) {
         return true;
@@ -0,0 +1,43 @@
+package be.cytomine.appengine.models.task.formats;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/* Results of the header probes of the formats, by file path, modification time and size */
+public final class ProbeCache {
+
+    private static final int MAX_ENTRIES = 1024;
+
+    private static final Map<String, Optional<Object>> CACHE = Collections.synchronizedMap(
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Optional<Object>> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        }
+    );
+
+    private ProbeCache() {}
+
+    /* Result of the probe for the file, the probe is only run if the file changed */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(String probe, File file, Function<File, T> reader) {
+        String key = probe + "|" + file.getAbsolutePath()
+            + "|" + file.lastModified() + "|" + file.length();
+        Optional<Object> cached = CACHE.get(key);
+        if (cached == null) {
+            // probes run outside of the lock, the same file may be probed twice
+            cached = Optional.ofNullable(reader.apply(file));
+            CACHE.put(key, cached);
+        }
+        return (T) cached.orElse(null);
+    }
+
+    public static void clear() {
+        CACHE.clear();
+    }
+}
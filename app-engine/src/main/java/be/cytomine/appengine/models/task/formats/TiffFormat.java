@@ -5,12 +5,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.List;
-
-import org.apache.commons.imaging.ImagingException;
-import org.apache.commons.imaging.formats.tiff.TiffField;
-import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
-import org.apache.commons.imaging.formats.tiff.TiffImageParser;
 
 public class TiffFormat implements FileFormat {
 
@@ -54,12 +48,11 @@ public class TiffFormat implements FileFormat {
 
     @Override
     public Dimension getDimensions(File file) {
-        TiffImageParser parser = new TiffImageParser();
-        try {
-            return parser.getImageSize(file);
-        } catch (IOException e) {
+        TiffHeader header = readHeader(file);
+        if (header == null) {
             return null;
         }
+        return new Dimension((int) header.getWidth(), (int) header.getHeight());
     }
 
     @Override
@@ -68,35 +61,17 @@ public class TiffFormat implements FileFormat {
     }
 
     public boolean isPlanar(File file) {
-        TiffImageParser parser = new TiffImageParser();
-        TiffImageMetadata metadata = null;
-
-        try {
-            metadata = (TiffImageMetadata) parser.getMetadata(file);
-        } catch (IOException e) {
+        TiffHeader header = readHeader(file);
+        if (header == null) {
             return false;
         }
 
-        List<TiffField> fields = metadata.getAllFields();
-
-        TiffField samplesPerPixel = fields
-            .stream()
-            .filter(field -> field.getTagInfo().name.equals("SamplesPerPixel"))
-            .findFirst()
-            .orElse(null);
-
-        TiffField tileWidth = fields
-            .stream()
-            .filter(field -> field.getTagInfo().name.equals("TileWidth"))
-            .findFirst()
-            .orElse(null);
+        boolean isRGB = header.getSamplesPerPixel() == 3;
+        boolean isTiled = header.getTileWidth() != 0;
+        return isRGB && !isTiled;
+    }
 
-        try {
-            boolean isRGB = samplesPerPixel.getIntValue() == 3;
-            boolean isTiled = tileWidth != null && tileWidth.getIntValue() != 0;
-            return isRGB && !isTiled;
-        } catch (ImagingException e) {
-            return false;
-        }
+    private static TiffHeader readHeader(File file) {
+        return ProbeCache.get("tiff-ifd0", file, TiffHeader::read);
     }
 }
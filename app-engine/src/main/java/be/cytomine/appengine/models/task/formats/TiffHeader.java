@@ -0,0 +1,124 @@
+package be.cytomine.appengine.models.task.formats;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/* Fields of the first image file directory (IFD-0) of a TIFF file */
+@Getter
+@AllArgsConstructor
+public class TiffHeader {
+
+    private static final int IMAGE_WIDTH = 256;
+
+    private static final int IMAGE_LENGTH = 257;
+
+    private static final int SAMPLES_PER_PIXEL = 277;
+
+    private static final int TILE_WIDTH = 322;
+
+    private static final int SHORT = 3;
+
+    private static final int LONG = 4;
+
+    private static final int ENTRY_SIZE = 12;
+
+    private final long width;
+
+    private final long height;
+
+    private final long samplesPerPixel;
+
+    private final long tileWidth;
+
+    /* Read the IFD-0 entries only, with positional reads: image data is never loaded */
+    public static TiffHeader read(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, 8, ByteOrder.BIG_ENDIAN);
+            if (header == null) {
+                return null;
+            }
+            ByteOrder order;
+            if (header.get(0) == 'I' && header.get(1) == 'I') {
+                order = ByteOrder.LITTLE_ENDIAN;
+            } else if (header.get(0) == 'M' && header.get(1) == 'M') {
+                order = ByteOrder.BIG_ENDIAN;
+            } else {
+                return null;
+            }
+            header.order(order);
+            if (header.getShort(2) != 42) {
+                return null;
+            }
+
+            long offset = Integer.toUnsignedLong(header.getInt(4));
+            ByteBuffer count = read(channel, offset, 2, order);
+            if (count == null) {
+                return null;
+            }
+            int entryCount = Short.toUnsignedInt(count.getShort(0));
+            ByteBuffer entries = read(channel, offset + 2, entryCount * ENTRY_SIZE, order);
+            if (entries == null) {
+                return null;
+            }
+
+            long width = -1;
+            long height = -1;
+            // TIFF defaults of the optional fields
+            long samplesPerPixel = 1;
+            long tileWidth = 0;
+            for (int i = 0; i < entryCount; i++) {
+                int position = i * ENTRY_SIZE;
+                int tag = Short.toUnsignedInt(entries.getShort(position));
+                long value = value(entries, position);
+                switch (tag) {
+                    case IMAGE_WIDTH -> width = value;
+                    case IMAGE_LENGTH -> height = value;
+                    case SAMPLES_PER_PIXEL -> samplesPerPixel = value;
+                    case TILE_WIDTH -> tileWidth = value;
+                    default -> {
+                    }
+                }
+            }
+            if (width < 0 || height < 0) {
+                return null;
+            }
+            return new TiffHeader(width, height, samplesPerPixel, tileWidth);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // value of a single SHORT or LONG entry, stored in the entry itself
+    private static long value(ByteBuffer entries, int position) {
+        int type = Short.toUnsignedInt(entries.getShort(position + 2));
+        if (type == SHORT) {
+            return Short.toUnsignedInt(entries.getShort(position + 8));
+        }
+        if (type == LONG) {
+            return Integer.toUnsignedLong(entries.getInt(position + 8));
+        }
+        return -1;
+    }
+
+    private static ByteBuffer read(
+        FileChannel channel,
+        long position,
+        int size,
+        ByteOrder order
+    ) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(order);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return null;
+            }
+        }
+        return buffer;
+    }
+}
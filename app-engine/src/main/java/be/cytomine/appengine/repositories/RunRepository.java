@@ -1,11 +1,21 @@
 package be.cytomine.appengine.repositories;
 
+import java.util.Optional;
 import java.util.UUID;
 
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import be.cytomine.appengine.models.task.Run;
 
 @Repository
-public interface RunRepository extends JpaRepository<Run, UUID> {}
+public interface RunRepository extends JpaRepository<Run, UUID> {
+    // serializes the provisioning of a run until the end of the transaction
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT r FROM Run r WHERE r.id = :id")
+    Optional<Run> findLockedById(@Param("id") UUID id);
+}
@@ -16,6 +16,12 @@ public interface TypePersistenceRepository extends JpaRepository<TypePersistence
         UUID run
     );
 
+    TypePersistence findTypePersistenceByParameterNameAndRunIdAndParameterType(
+        String parameterName,
+        UUID run,
+        ParameterType parameterType
+    );
+
     List<TypePersistence> findTypePersistenceByRunIdAndParameterType(
         UUID run,
         ParameterType parameterType
@@ -25,4 +31,10 @@ public interface TypePersistenceRepository extends JpaRepository<TypePersistence
         UUID run,
         ParameterType parameterType,
         List<String> parameterNames);
+
+    // counted in the database: the provisioned flag of collections is updated by native queries
+    long countByRunIdAndParameterTypeAndParameterNameInAndProvisionedTrue(
+        UUID run,
+        ParameterType parameterType,
+        List<String> parameterNames);
 }
@@ -1,8 +1,13 @@
 package be.cytomine.appengine.repositories.collection;
 
+import java.util.Optional;
 import java.util.UUID;
 
+import jakarta.transaction.Transactional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import be.cytomine.appengine.models.task.ParameterType;
@@ -21,4 +26,41 @@ public interface CollectionPersistenceRepository
         String parameterName,
         UUID run
     );
+
+    // id only, the items of the collection are not loaded
+    @Query("SELECT c.id FROM CollectionPersistence c "
+        + "WHERE c.parameterName = :parameterName AND c.runId = :run "
+        + "AND c.parameterType = :parameterType")
+    Optional<UUID> findIdByParameterNameAndRunIdAndParameterType(
+        @Param("parameterName") String parameterName,
+        @Param("run") UUID run,
+        @Param("parameterType") ParameterType parameterType
+    );
+
+    @Modifying(flushAutomatically = true)
+    @Transactional
+    @Query(
+        value = "UPDATE type_persistence SET collection_id = :collection WHERE id = :item",
+        nativeQuery = true
+    )
+    void attachItem(@Param("collection") UUID collection, @Param("item") UUID item);
+
+    // one more item in the collection, which is provisioned if its size is within the bounds
+    @Modifying(flushAutomatically = true)
+    @Transactional
+    @Query(
+        value = "WITH counted AS ("
+            + "UPDATE collection_type_persistence SET size = COALESCE(size, 0) + 1 "
+            + "WHERE id = :collection RETURNING size"
+            + ") "
+            + "UPDATE type_persistence "
+            + "SET provisioned = (SELECT size BETWEEN :minSize AND :maxSize FROM counted) "
+            + "WHERE id = :collection",
+        nativeQuery = true
+    )
+    void countItem(
+        @Param("collection") UUID collection,
+        @Param("minSize") int minSize,
+        @Param("maxSize") int maxSize
+    );
 }
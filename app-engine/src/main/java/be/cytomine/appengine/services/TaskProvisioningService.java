@@ -2,31 +2,43 @@ package be.cytomine.appengine.services;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.UUID;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PreDestroy;
+import jakarta.transaction.Transactional;
 import jakarta.validation.constraints.NotNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import be.cytomine.appengine.dto.handlers.filestorage.Storage;
@@ -66,6 +78,7 @@ import be.cytomine.appengine.repositories.RunRepository;
 import be.cytomine.appengine.repositories.TypePersistenceRepository;
 import be.cytomine.appengine.repositories.collection.CollectionPersistenceRepository;
 import be.cytomine.appengine.states.TaskRunState;
+import be.cytomine.appengine.utils.IOArchive;
 
 
 
@@ -74,6 +87,9 @@ import be.cytomine.appengine.states.TaskRunState;
 @Service
 public class TaskProvisioningService {
 
+    public static final Pattern INDEXES_PATTERN =
+        Pattern.compile("^(0(/[0-9]+)*|[1-9][0-9]*(/[0-9]+)*)$");
+
     private final TypePersistenceRepository typePersistenceRepository;
 
     private final CollectionPersistenceRepository collectionPersistenceRepository;
@@ -86,6 +102,33 @@ public class TaskProvisioningService {
 
     private final TaskService taskService;
 
+    @Value("${storage.archive-cache-enabled:true}")
+    private boolean archiveCacheEnabled = true;
+
+    @Value("${storage.archive-cache-path:}")
+    private String archiveCachePath;
+
+    @Value("${storage.archive-cache-ttl:7d}")
+    private Duration archiveCacheTtl = Duration.ofDays(7);
+
+    @Value("${storage.archive-cache-max-size:10GB}")
+    private DataSize archiveCacheMaxSize = DataSize.ofGigabytes(10);
+
+    // outputs are validated in parallel, on a pool bounded by the number of processors
+    private final ExecutorService validationPool = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(),
+        runnable -> {
+            Thread thread = new Thread(runnable, "outputs-validation");
+            thread.setDaemon(true);
+            return thread;
+        }
+    );
+
+    @PreDestroy
+    public void shutdownValidationPool() {
+        validationPool.shutdownNow();
+    }
+
     public JsonNode provisionRunParameter(
         String runId,
         String name,
@@ -163,13 +206,11 @@ public class TaskProvisioningService {
             .filter(parameter -> parameter.getParameterType().equals(ParameterType.INPUT))
             .collect(Collectors.toSet());
 
-        List<TypePersistence> persistenceList = typePersistenceRepository
-            .findTypePersistenceByRunIdAndParameterTypeAndParameterNameIn(run.getId(),
+        long provisionedCount = typePersistenceRepository
+            .countByRunIdAndParameterTypeAndParameterNameInAndProvisionedTrue(run.getId(),
             ParameterType.INPUT,
             inputParameters.stream().map(Parameter::getName).toList());
-        boolean allParametersAreChecked = inputParameters.size() == persistenceList.size();
-        if (allParametersAreChecked
-            && persistenceList.stream().allMatch(TypePersistence::isProvisioned)) {
+        if (provisionedCount == inputParameters.size()) {
             run.setState(TaskRunState.PROVISIONED);
             runRepository.saveAndFlush(run);
             log.info("ProvisionParameter: RUN PROVISIONED");
@@ -403,6 +444,21 @@ public class TaskProvisioningService {
     public StorageData retrieveIOZipArchive(
         String runId,
         ParameterType type
+    ) throws ProvisioningException, FileStorageException, IOException {
+        IOArchive archive = openIOZipArchive(runId, type);
+        log.info("Retrieving IO Archive: zipping...");
+        File file = archive.writeToFile();
+        log.info("Retrieving IO Archive: zipped...");
+
+        return new StorageData(file);
+    }
+
+    /**
+     * Open the archive of the inputs or outputs of the run, to be streamed or served from cache
+     */
+    public IOArchive openIOZipArchive(
+        String runId,
+        ParameterType type
     ) throws ProvisioningException, FileStorageException, IOException {
         log.info("Retrieving IO Archive: retrieving...");
         Run run = getRunIfValid(runId);
@@ -422,11 +478,8 @@ public class TaskProvisioningService {
             throw new ProvisioningException(error);
         }
 
-        log.info("Retrieving IO Archive: zipping...");
-
         String io = type.equals(ParameterType.INPUT) ? "inputs" : "outputs";
-        Path tempFile = Files.createTempFile(io + "-archive-", runId);
-        ZipOutputStream zipOut = new ZipOutputStream(Files.newOutputStream(tempFile));
+        List<StorageDataEntry> entries = new ArrayList<>();
         for (TypePersistence provision : provisions) {
             // check that this type persistence is actually associated with a parameter
             Parameter parameter = getParameter(
@@ -439,30 +492,21 @@ public class TaskProvisioningService {
             StorageData provisionFileData = fileStorageHandler.readStorageData(
                 new StorageData(provision.getParameterName(), "task-run-" + io + "-" + run.getId())
             );
-
-            for (StorageDataEntry current : provisionFileData.getEntryList()) {
-                String entryName;
-                if (current.getStorageDataType().equals(StorageDataType.FILE)) {
-                    entryName = current.getName();
-                } else {
-                    entryName = current.getName() + "/";
-                }
-                ZipEntry zipEntry = new ZipEntry(entryName);
-                zipOut.putNextEntry(zipEntry);
-
-                if (current.getStorageDataType().equals(StorageDataType.FILE)) {
-                    Files.copy(current.getData().toPath(), zipOut);
-                }
-
-                zipOut.closeEntry();
-            }
-
+            entries.addAll(provisionFileData.getEntryList());
         }
-        zipOut.close();
 
-        log.info("Retrieving IO Archive: zipped...");
+        if (!archiveCacheEnabled) {
+            return IOArchive.open(entries, null, io + "-archive-" + run.getId());
+        }
+        IOArchive.evict(getArchiveCachePath(), archiveCacheTtl, archiveCacheMaxSize.toBytes());
+        return IOArchive.open(entries, getArchiveCachePath(), io + "-archive-" + run.getId());
+    }
 
-        return new StorageData(tempFile.toFile());
+    private Path getArchiveCachePath() {
+        if (archiveCachePath == null || archiveCachePath.isBlank()) {
+            return Path.of(System.getProperty("java.io.tmpdir"), "appengine-archives");
+        }
+        return Path.of(archiveCachePath);
     }
 
     public List<TaskRunParameterValue> postOutputsZipArchive(
@@ -509,57 +553,30 @@ public class TaskProvisioningService {
         Set<Parameter> runTaskOutputs,
         Run run
     ) throws IOException, ProvisioningException {
+        Map<String, Parameter> outputsByName = runTaskOutputs
+            .stream()
+            .collect(Collectors.toMap(Parameter::getName, parameter -> parameter));
+        // entries of each output, sorted by path so that a directory comes before its contents
+        Map<String, SortedMap<String, StorageDataEntry>> entriesByOutput = new HashMap<>();
+        // files are written once, in a storage next to the outputs storage,
+        // and moved there if they are valid
+        Storage stagingStorage = new Storage("task-run-outputs-" + run.getId() + "-staging");
+
         // read files from the archive
         try (ZipArchiveInputStream zais = new ZipArchiveInputStream(outputs.getInputStream())) {
             log.info("Posting Outputs Archive: unzipped");
-            List<Parameter> remainingOutputs = new ArrayList<>(runTaskOutputs);
-            List<TaskRunParameterValue> taskRunParameterValues = new ArrayList<>();
-            List<StorageData> contentsOfZip = new ArrayList<>();
-            List<Parameter> remainingUnStoredOutputs = new ArrayList<>(runTaskOutputs);
-            boolean remainingOutputsAreCollections = true;
             ZipEntry ze;
             while ((ze = zais.getNextZipEntry()) != null) {
-                // look for output matching file name
-                Parameter currentOutput = null;
-                for (int i = 0; i < remainingOutputs.size(); i++) {
-                    currentOutput = remainingOutputs.get(i);
-                    if (currentOutput.getName().equals(ze.getName())) { // assuming it's a file
-                        remainingOutputs.remove(i);
-                        StorageData parameterZipEntryStorageData;
-                        String outputName = currentOutput.getName();
-                        Path tempFile = Files.createTempFile(outputName, null);
-                        Files.copy(zais, tempFile, StandardCopyOption.REPLACE_EXISTING);
-                        parameterZipEntryStorageData = new StorageData(
-                            tempFile.toFile(),
-                            outputName);
-                        contentsOfZip.add(parameterZipEntryStorageData);
-                        break;
-                    }
-                    // assuming it's the main directory of a collection parameter
-                    if (ze.getName().startsWith(currentOutput.getName() + "/")) {
-                        StorageData partialParameterZipEntryStorageData;
-                        if (ze.isDirectory()) {
-                            partialParameterZipEntryStorageData = new StorageData(ze.getName());
-                            contentsOfZip.add(partialParameterZipEntryStorageData);
-                        } else {
-                            Path tempFile = Files.createTempFile(ze
-                                .getName()
-                                .replace("/", ""), null);
-                            Files.copy(zais, tempFile, StandardCopyOption.REPLACE_EXISTING);
-                            partialParameterZipEntryStorageData = new StorageData(
-                                tempFile.toFile(),
-                                ze.getName());
-                            contentsOfZip.add(partialParameterZipEntryStorageData);
-                        }
-
-                        break;
-                    }
-
-                    currentOutput = null;
-                }
+                // a file output, or an entry of the main directory of a collection output
+                String entryName = ze.getName();
+                int separator = entryName.indexOf('/');
+                String outputName = separator < 0 ? entryName : entryName.substring(0, separator);
+                SortedMap<String, StorageDataEntry> entries = outputsByName.containsKey(outputName)
+                    ? entriesByOutput.computeIfAbsent(outputName, name -> new TreeMap<>())
+                    : null;
 
                 // there's a file that do not match any output parameter
-                if (currentOutput == null) {
+                if (entries == null || (separator < 0 && entries.containsKey(entryName))) {
                     AppEngineError error = ErrorBuilder.build(ErrorCode.INTERNAL_UNKNOWN_OUTPUT);
                     log.info("Posting Outputs Archive: output invalid (unknown output)");
                     run.setState(TaskRunState.FAILED);
@@ -568,18 +585,25 @@ public class TaskProvisioningService {
                     throw new ProvisioningException(error);
                 }
 
+                if (ze.isDirectory()) {
+                    entries.put(entryName, new StorageDataEntry(entryName));
+                } else {
+                    File data = writeOutputInStagingStorage(run, stagingStorage, entryName, zais);
+                    entries.put(
+                        entryName,
+                        new StorageDataEntry(data, entryName, StorageDataType.FILE));
+                }
             }
 
-            // check if remaining outputs are all collections
-            int numberOfCollections = remainingOutputs
+            // every output which is not a collection must be in the archive
+            boolean missingOutputs = runTaskOutputs
                 .stream()
-                .filter(parameter -> parameter.getType() instanceof CollectionType)
-                .toList()
-                .size();
-            remainingOutputsAreCollections = numberOfCollections > 0
-                && numberOfCollections == remainingOutputs.size();
+                .filter(parameter -> !(parameter.getType() instanceof CollectionType))
+                .anyMatch(parameter -> !entriesByOutput
+                    .getOrDefault(parameter.getName(), Collections.emptySortedMap())
+                    .containsKey(parameter.getName()));
 
-            if (!remainingOutputs.isEmpty() && !remainingOutputsAreCollections) {
+            if (missingOutputs) {
                 AppEngineError error = ErrorBuilder.build(ErrorCode.INTERNAL_MISSING_OUTPUTS);
                 log.info("Posting Outputs Archive: output invalid (missing outputs)");
                 run.setState(TaskRunState.FAILED);
@@ -588,66 +612,42 @@ public class TaskProvisioningService {
                 throw new ProvisioningException(error);
             }
 
-            // a compaction step
-            // order by the length of name
-            // to make sure deeper files and directories are merged first
-            contentsOfZip = contentsOfZip
-                .stream()
-                .sorted((s1, s2) -> Integer.compare(
-                    s2.peek().getName().length(),
-                    s1.peek().getName().length())
-                )
-                .toList(); // now immutable
-            List<StorageData> sortedContentsOfZip = new CopyOnWriteArrayList<>(contentsOfZip);
-            // merge StorageData objects together
-            for (StorageData storageData : sortedContentsOfZip) {
-                for (StorageData compared : sortedContentsOfZip) {
-                    if (storageData.equals(compared)) {
-                        continue;
-                    }
-                    if (compared
-                        .peek()
-                        .getName()
-                        .startsWith(storageData.peek().getName())) {
-                        storageData.merge(compared);
-                        sortedContentsOfZip.remove(compared);
-                    }
+            // build the data of each output: its file or main directory, then its contents
+            List<Parameter> orderedOutputs = new ArrayList<>(runTaskOutputs);
+            Map<String, StorageData> storageDataByOutput = new HashMap<>();
+            for (Parameter currentOutput : orderedOutputs) {
+                String rootName = currentOutput.getType() instanceof CollectionType
+                    ? currentOutput.getName() + "/" : currentOutput.getName();
+                SortedMap<String, StorageDataEntry> entries = entriesByOutput
+                    .get(currentOutput.getName());
+                if (entries != null && entries.containsKey(rootName)) {
+                    StorageData currentOutputStorageData =
+                        new StorageData(entries.remove(rootName));
+                    entries.values().forEach(currentOutputStorageData::add);
+                    storageDataByOutput.put(currentOutput.getName(), currentOutputStorageData);
                 }
             }
 
+            // validate files/directories contents and structure, outputs are independent
+            List<AppEngineError> validationErrors = validateOutputs(
+                run,
+                orderedOutputs,
+                storageDataByOutput
+            );
+
             // prepare error list just in case
             List<AppEngineError> multipleErrors = new ArrayList<>();
+            List<TaskRunParameterValue> taskRunParameterValues = new ArrayList<>();
 
             // processing of files
-            for (Parameter currentOutput : remainingUnStoredOutputs) {
-                Optional<StorageData> currentOutputStorageDataOptional = sortedContentsOfZip
-                    .stream()
-                    .filter(s -> s
-                    .peek()
-                    .getName()
-                    .equals(
-                    currentOutput.getType() instanceof CollectionType
-                    ? currentOutput.getName() + "/" : currentOutput.getName()))
-                    .findFirst();
-                StorageData currentOutputStorageData = null;
-                if (currentOutputStorageDataOptional.isPresent()) {
-                    currentOutputStorageData = currentOutputStorageDataOptional.get();
-                }
-                // read file
-                String outputName = currentOutput.getName();
-                // validate files/directories contents and structure
-                try {
-                    validateFiles(run, currentOutput, currentOutputStorageData);
-                } catch (TypeValidationException e) {
-                    log.info(
-                        "ProcessOutputFiles: "
-                        + "output provision is invalid value validation failed"
-                    );
-                    ParameterError parameterError = new ParameterError(outputName);
-                    AppEngineError error = ErrorBuilder.build(e.getErrorCode(), parameterError);
-                    multipleErrors.add(error);
+            for (int i = 0; i < orderedOutputs.size(); i++) {
+                Parameter currentOutput = orderedOutputs.get(i);
+                if (validationErrors.get(i) != null) {
+                    multipleErrors.add(validationErrors.get(i));
                     continue;
                 }
+                String outputName = currentOutput.getName();
+                StorageData currentOutputStorageData = storageDataByOutput.get(outputName);
                 // saving to database does not care about the type
                 saveOutput(run, currentOutput, currentOutputStorageData);
                 // saving to the storage does not care about the type
@@ -672,18 +672,99 @@ public class TaskProvisioningService {
 
             log.info("Posting Outputs Archive: posted");
             return taskRunParameterValues;
+        } finally {
+            deleteStagingStorage(stagingStorage);
+        }
+    }
+
+    /**
+     * Validate the outputs on the validation pool
+     *
+     * @return the error of each output, or null if it is valid
+     */
+    private List<AppEngineError> validateOutputs(
+        Run run,
+        List<Parameter> outputs,
+        Map<String, StorageData> storageDataByOutput
+    ) throws IOException {
+        List<Callable<AppEngineError>> validations = outputs
+            .stream()
+            .<Callable<AppEngineError>>map(currentOutput -> () -> validateFiles(
+                run,
+                currentOutput,
+                storageDataByOutput.get(currentOutput.getName())))
+            .toList();
+
+        List<AppEngineError> validationErrors = new ArrayList<>();
+        try {
+            for (Future<AppEngineError> validation : validationPool.invokeAll(validations)) {
+                validationErrors.add(validation.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Outputs validation interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Outputs validation failed", e.getCause());
         }
+        return validationErrors;
     }
 
-    private void validateFiles(
+    /**
+     * @return the error of the output, or null if it is valid
+     */
+    private AppEngineError validateFiles(
         Run run,
         Parameter currentOutput,
         StorageData currentOutputStorageData
-    ) throws TypeValidationException {
+    ) {
         log.info("Posting Outputs Archive: "
             + "validating files and directories contents and structure...");
-        currentOutput.getType().validateFiles(run, currentOutput, currentOutputStorageData);
+        try {
+            currentOutput.getType().validateFiles(run, currentOutput, currentOutputStorageData);
+        } catch (TypeValidationException e) {
+            log.info(
+                "ProcessOutputFiles: "
+                + "output provision is invalid value validation failed"
+            );
+            ParameterError parameterError = new ParameterError(currentOutput.getName());
+            return ErrorBuilder.build(e.getErrorCode(), parameterError);
+        }
         log.info("Posting Outputs Archive: validated finished...");
+        return null;
+    }
+
+    private File writeOutputInStagingStorage(
+        Run run,
+        Storage stagingStorage,
+        String name,
+        ZipArchiveInputStream data
+    ) throws ProvisioningException {
+        try {
+            return fileStorageHandler.writeStorageFile(stagingStorage, name, data);
+        } catch (FileStorageException e) {
+            run.setState(TaskRunState.FAILED);
+            runRepository.saveAndFlush(run);
+            log.info("Posting Outputs Archive: updated Run state to FAILED");
+            AppEngineError error = ErrorBuilder.buildParamRelatedError(
+                ErrorCode.STORAGE_STORING_INPUT_FAILED,
+                name,
+                e.getMessage()
+            );
+            throw new ProvisioningException(error);
+        }
+    }
+
+    private void deleteStagingStorage(Storage stagingStorage) {
+        try {
+            if (fileStorageHandler.checkStorageExists(stagingStorage)) {
+                fileStorageHandler.deleteStorage(stagingStorage);
+            }
+        } catch (FileStorageException e) {
+            log.warn("Posting Outputs Archive: cannot delete staging storage: " + e.getMessage());
+        }
     }
 
     private void storeOutputInFileStorage(
@@ -694,7 +775,7 @@ public class TaskProvisioningService {
         log.info("Posting Outputs Archive: storing in file storage...");
         Storage outputsStorage = new Storage("task-run-outputs-" + run.getId());
         try {
-            fileStorageHandler.saveStorageData(outputsStorage, outputFileData);
+            fileStorageHandler.moveStorageData(outputsStorage, outputFileData);
         } catch (FileStorageException e) {
             run.setState(TaskRunState.FAILED);
             runRepository.saveAndFlush(run);
@@ -743,7 +824,18 @@ public class TaskProvisioningService {
     }
 
     private Run getRunIfValid(String runId) throws ProvisioningException {
-        Optional<Run> runOptional = runRepository.findById(UUID.fromString(runId));
+        return getRunIfValid(runRepository.findById(UUID.fromString(runId)));
+    }
+
+    /**
+     * Run locked until the end of the transaction, so that concurrent provisions of the items
+     * of its collections do not create the same collection twice
+     */
+    private Run getLockedRunIfValid(String runId) throws ProvisioningException {
+        return getRunIfValid(runRepository.findLockedById(UUID.fromString(runId)));
+    }
+
+    private Run getRunIfValid(Optional<Run> runOptional) throws ProvisioningException {
         if (runOptional.isEmpty()) {
             AppEngineError error = ErrorBuilder.build(ErrorCode.RUN_NOT_FOUND);
             throw new ProvisioningException(error);
@@ -1078,6 +1170,7 @@ public class TaskProvisioningService {
         );
     }
 
+    @Transactional(rollbackOn = ProvisioningException.class)
     public JsonNode provisionCollectionItem(
         String runId,
         String name,
@@ -1086,10 +1179,92 @@ public class TaskProvisioningService {
         throws ProvisioningException, TypeValidationException {
         // get run and make sure it is valid
         log.info("ProvisionCollectionItem: finding associated task run...");
-        Run run = getRunIfValid(runId);
+        Run run = getLockedRunIfValid(runId);
         log.info("ProvisionCollectionItem: found");
 
-        // create the collection or get if valid
+        checkCollectionParameter(name, run);
+        JsonNode provision = prepareCollectionItem(name, value, indexesArray, run);
+
+        // store item in storage -> crawl indexes and store
+        log.info("ProvisionCollectionItem: storing provision to storage...");
+        saveProvisionInStorage(name, provision, run);
+        log.info("ProvisionCollectionItem: stored");
+
+        // store item in the database
+        log.info("ProvisionCollectionItem: validating item...");
+        saveInDatabase(name, provision, run);
+        log.info("ProvisionCollectionItem: item validated");
+
+        changeStateToProvisioned(run);
+
+        return getInputParameterType(name, run)
+            .createInputProvisioningEndpointResponse(provision, run);
+    }
+
+    /**
+     * Provision many items of a collection at once: items are {"index": "0/4", "value": ...}.
+     * All items are validated before any of them is stored, and stored in a single transaction.
+     */
+    @Transactional(rollbackOn = ProvisioningException.class)
+    public List<JsonNode> provisionCollectionItems(
+        String runId,
+        String name,
+        List<JsonNode> items)
+        throws ProvisioningException {
+        log.info("ProvisionCollectionItems: finding associated task run...");
+        Run run = getLockedRunIfValid(runId);
+        log.info("ProvisionCollectionItems: found");
+
+        checkCollectionParameter(name, run);
+
+        log.info("ProvisionCollectionItems: validating {} items...", items.size());
+        List<AppEngineError> multipleErrors = new ArrayList<>();
+        List<JsonNode> provisions = new ArrayList<>();
+        for (JsonNode item : items) {
+            String indexes = item.has("index") ? item.get("index").asText() : "";
+            if (!INDEXES_PATTERN.matcher(indexes).matches()) {
+                multipleErrors.add(ErrorBuilder.buildParamRelatedError(
+                    ErrorCode.INTERNAL_INVALID_INDEXES_PATTERN,
+                    name,
+                    "indexes [" + indexes + "] is not a valid"
+                ));
+                continue;
+            }
+            try {
+                provisions.add(prepareCollectionItem(name, item, indexes.split("/"), run));
+            } catch (TypeValidationException e) {
+                multipleErrors.add(Objects.isNull(e.getErrorCode())
+                    ? ErrorBuilder.buildParamRelatedError(
+                        ErrorCode.INTERNAL_PARAMETER_VALIDATION_ERROR,
+                        name,
+                        e.getMessage())
+                    : ErrorBuilder.build(e.getErrorCode(), new ParameterError(name)));
+            } catch (ProvisioningException e) {
+                multipleErrors.add(e.getError());
+            }
+        }
+        if (!multipleErrors.isEmpty()) {
+            AppEngineError error = ErrorBuilder.buildBatchError(multipleErrors);
+            throw new ProvisioningException(error);
+        }
+        log.info("ProvisionCollectionItems: items validated");
+
+        log.info("ProvisionCollectionItems: storing items...");
+        Type type = getInputParameterType(name, run);
+        List<JsonNode> response = new ArrayList<>();
+        for (JsonNode provision : provisions) {
+            saveProvisionInStorage(name, provision, run);
+            saveInDatabase(name, provision, run);
+            response.add(type.createInputProvisioningEndpointResponse(provision, run));
+        }
+        log.info("ProvisionCollectionItems: stored");
+
+        changeStateToProvisioned(run);
+
+        return response;
+    }
+
+    private void checkCollectionParameter(String name, Run run) throws ProvisioningException {
         Parameter parameter = getParameter(name, ParameterType.INPUT, run);
         if (Objects.isNull(parameter)) {
             log.info("ProvisionCollectionItem: parameter does not exist");
@@ -1107,7 +1282,17 @@ public class TaskProvisioningService {
             );
             throw new ProvisioningException(error);
         }
+    }
 
+    /**
+     * Validate an item of the collection and build its provision {"index": ..., "value": ...}
+     */
+    private JsonNode prepareCollectionItem(
+        String name,
+        Object value,
+        String[] indexesArray,
+        Run run)
+        throws ProvisioningException, TypeValidationException {
         log.info("ProvisionCollectionItem: preparing generic provision...");
 
         // prepare item as generic provision
@@ -1135,7 +1320,7 @@ public class TaskProvisioningService {
             genericParameterProvision.setValue(value);
         }
 
-        genericParameterProvision.setRunId(runId);
+        genericParameterProvision.setRunId(run.getId().toString());
         log.info("ProvisionCollectionItem: generic provision prepared");
 
         log.info("ProvisionCollectionItem: validating item...");
@@ -1155,20 +1340,6 @@ public class TaskProvisioningService {
             objectNode.put("value", ((File) value).getAbsolutePath());
             provision = objectNode;
         }
-
-        // store item in storage -> crawl indexes and store
-        log.info("ProvisionCollectionItem: storing provision to storage...");
-        saveProvisionInStorage(name, provision, run);
-        log.info("ProvisionCollectionItem: stored");
-
-        // store item in the database
-        log.info("ProvisionCollectionItem: validating item...");
-        saveInDatabase(name, provision, run);
-        log.info("ProvisionCollectionItem: item validated");
-
-        changeStateToProvisioned(run);
-
-        return getInputParameterType(name, run)
-            .createInputProvisioningEndpointResponse(provision, run);
+        return provision;
     }
 }
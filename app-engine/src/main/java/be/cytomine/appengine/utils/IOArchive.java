@@ -0,0 +1,546 @@
+package be.cytomine.appengine.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.tika.Tika;
+
+import be.cytomine.appengine.handlers.StorageDataEntry;
+import be.cytomine.appengine.handlers.StorageDataType;
+
+/**
+ * Zip archive of the inputs or outputs of a task run, written entry by entry to a stream.
+ * Already compressed data (images, archives...) is STORED as is, text data (values, JSON, YAML...)
+ * is deflated ahead of writing on a shared pool, so that the length of the archive is known
+ * before its first byte is written. Large files are not read ahead: they are written with a
+ * data descriptor, and the length of the archive is then unknown.
+ * If a cache directory is given, the archive is cached in a file named after the content of its
+ * entries: it is built once and served from the cache until an entry changes, and the cache is
+ * bounded by evict().
+ */
+@Slf4j
+public class IOArchive {
+
+    // Text files larger than this are deflated while writing, the length is then unknown
+    private static final long MAX_PREPARED_DEFLATE_SIZE = 16L * 1024 * 1024;
+
+    // Other files larger than this are not read for their checksum before writing, they are
+    // deflated without compression (STORED requires the checksum in the local header)
+    private static final long MAX_PREPARED_STORED_SIZE = 256L * 1024 * 1024;
+
+    // Beyond these limits the archive needs ZIP64 records and its length is not computed
+    private static final long MAX_ZIP32_OFFSET = 0xFFFFFFFFL;
+
+    private static final int MAX_ZIP32_ENTRIES = 0xFFFF;
+
+    private static final int LOCAL_HEADER_LENGTH = 30;
+
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+
+    private static final Set<String> TEXT_TYPES = Set.of(
+        "application/json",
+        "application/geo+json",
+        "application/xml",
+        "application/x-yaml",
+        "application/yaml",
+        "application/javascript",
+        "image/svg+xml"
+    );
+
+    private static final ExecutorService PREPARATION_POOL = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(),
+        runnable -> {
+            Thread thread = new Thread(runnable, "io-archive-preparation");
+            thread.setDaemon(true);
+            return thread;
+        }
+    );
+
+    private static final Tika TIKA = new Tika();
+
+    // null if the archive is not cached
+    private final Path cacheFile;
+
+    // null if the archive is served from the cache
+    private final List<Entry> entries;
+
+    private final long length;
+
+    private IOArchive(Path cacheFile, List<Entry> entries, long length) {
+        this.cacheFile = cacheFile;
+        this.entries = entries;
+        this.length = length;
+    }
+
+    /**
+     * Open the archive of the given storage entries, from the cache if it is up to date.
+     * Otherwise, the entries are prepared for writing and outdated archives of the same
+     * prefix are removed from the cache.
+     *
+     * @param cacheDirectory directory of the cached archives, or null to not cache the archive
+     */
+    public static IOArchive open(
+        List<StorageDataEntry> storageEntries,
+        Path cacheDirectory,
+        String prefix
+    ) throws IOException {
+        if (cacheDirectory == null) {
+            List<Entry> entries = prepare(storageEntries);
+            return new IOArchive(null, entries, computeLength(entries));
+        }
+
+        Files.createDirectories(cacheDirectory);
+        Path cacheFile = cacheDirectory.resolve(
+            prefix + "-" + fingerprint(storageEntries) + ".zip"
+        );
+        if (Files.isRegularFile(cacheFile)) {
+            log.info("IO Archive: served from cache {}", cacheFile);
+            // the modification date is the last use of the archive, for the eviction
+            Files.setLastModifiedTime(cacheFile, FileTime.from(Instant.now()));
+            return new IOArchive(cacheFile, null, Files.size(cacheFile));
+        }
+
+        try (DirectoryStream<Path> outdated = Files.newDirectoryStream(
+            cacheDirectory,
+            prefix + "-*.zip"
+        )) {
+            for (Path path : outdated) {
+                Files.deleteIfExists(path);
+            }
+        }
+
+        List<Entry> entries = prepare(storageEntries);
+        return new IOArchive(cacheFile, entries, computeLength(entries));
+    }
+
+    /**
+     * Remove from the cache the archives unused for longer than the time to live, then the least
+     * recently used archives until the cache fits in the maximal size.
+     * Temporary files left by an interrupted writing are removed after the time to live.
+     */
+    public static void evict(Path cacheDirectory, Duration timeToLive, long maxSize)
+        throws IOException {
+        if (!Files.isDirectory(cacheDirectory)) {
+            return;
+        }
+
+        Instant expiration = Instant.now().minus(timeToLive);
+        List<Path> archives = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(cacheDirectory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".zip") || name.startsWith(".io-archive-")) {
+                    archives.add(file);
+                }
+            }
+        }
+
+        List<CachedFile> cachedFiles = new ArrayList<>();
+        for (Path archive : archives) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(
+                    archive,
+                    BasicFileAttributes.class
+                );
+                if (attributes.lastModifiedTime().toInstant().isBefore(expiration)) {
+                    log.info("IO Archive: evicting expired {}", archive);
+                    Files.deleteIfExists(archive);
+                } else if (archive.getFileName().toString().endsWith(".zip")) {
+                    cachedFiles.add(new CachedFile(
+                        archive,
+                        attributes.lastModifiedTime(),
+                        attributes.size()
+                    ));
+                }
+            } catch (NoSuchFileException e) {
+                // removed meanwhile, as an outdated archive
+            }
+        }
+
+        cachedFiles.sort(Comparator.comparing(CachedFile::lastModified).reversed());
+        long size = 0;
+        for (CachedFile cachedFile : cachedFiles) {
+            size += cachedFile.size();
+            if (size > maxSize) {
+                log.info("IO Archive: evicting {} (cache full)", cachedFile.path());
+                Files.deleteIfExists(cachedFile.path());
+            }
+        }
+    }
+
+    private record CachedFile(Path path, FileTime lastModified, long size) {}
+
+    /**
+     * Fingerprint of the names, sizes and modification dates of the entries
+     */
+    static String fingerprint(List<StorageDataEntry> storageEntries) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (StorageDataEntry storageEntry : storageEntries) {
+                digest.update(entryName(storageEntry).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                if (storageEntry.getStorageDataType() == StorageDataType.FILE) {
+                    File file = storageEntry.getData();
+                    String version = file.length() + ":" + file.lastModified();
+                    digest.update(version.getBytes(StandardCharsets.UTF_8));
+                }
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest(), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String entryName(StorageDataEntry storageEntry) {
+        if (storageEntry.getStorageDataType() == StorageDataType.FILE) {
+            return storageEntry.getName();
+        }
+        return storageEntry.getName() + "/";
+    }
+
+    private static List<Entry> prepare(List<StorageDataEntry> storageEntries) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        List<Future<?>> preparations = new ArrayList<>();
+        for (StorageDataEntry storageEntry : storageEntries) {
+            boolean isFile = storageEntry.getStorageDataType() == StorageDataType.FILE;
+            Entry entry = new Entry(
+                entryName(storageEntry),
+                isFile ? storageEntry.getData() : null
+            );
+            if (isFile) {
+                preparations.add(PREPARATION_POOL.submit(() -> {
+                    entry.prepare();
+                    return null;
+                }));
+            }
+            entries.add(entry);
+        }
+
+        try {
+            for (Future<?> preparation : preparations) {
+                preparation.get();
+            }
+        } catch (InterruptedException e) {
+            preparations.forEach(preparation -> preparation.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IOException("Archive preparation interrupted", e);
+        } catch (ExecutionException e) {
+            preparations.forEach(preparation -> preparation.cancel(true));
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Archive preparation failed", e.getCause());
+        }
+        return entries;
+    }
+
+    private static long computeLength(List<Entry> entries) {
+        if (entries.size() >= MAX_ZIP32_ENTRIES) {
+            return -1;
+        }
+
+        long offset = 0;
+        long centralDirectory = 0;
+        for (Entry entry : entries) {
+            if (entry.getWrittenSize() < 0 || offset >= MAX_ZIP32_OFFSET) {
+                return -1;
+            }
+            int nameLength = entry.name.getBytes(StandardCharsets.UTF_8).length;
+            offset += LOCAL_HEADER_LENGTH + nameLength + entry.getWrittenSize();
+            centralDirectory += CENTRAL_HEADER_LENGTH + nameLength;
+        }
+        if (offset + centralDirectory >= MAX_ZIP32_OFFSET) {
+            return -1;
+        }
+        return offset + centralDirectory + END_OF_CENTRAL_DIRECTORY_LENGTH;
+    }
+
+    private static boolean isText(File file) throws IOException {
+        String type = TIKA.detect(file);
+        return type.startsWith("text/") || TEXT_TYPES.contains(type);
+    }
+
+    /**
+     * Archive file if it is already in the cache
+     */
+    public Optional<File> getCachedFile() {
+        return entries == null ? Optional.of(cacheFile.toFile()) : Optional.empty();
+    }
+
+    /**
+     * Whether the archive is written to the cache, and then served from it
+     */
+    public boolean isCached() {
+        return cacheFile != null;
+    }
+
+    /**
+     * Length of the archive in bytes, or -1 if it is only known once written
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Write the archive to the cache if it is not already in it.
+     * If the archive is not cached, it is written to a temporary file.
+     */
+    public File writeToFile() throws IOException {
+        if (cacheFile == null) {
+            Path tempFile = Files.createTempFile("io-archive-", ".zip");
+            tempFile.toFile().deleteOnExit();
+            try (OutputStream output = Files.newOutputStream(tempFile)) {
+                writeEntries(output);
+            }
+            return tempFile.toFile();
+        }
+        if (entries != null && !Files.isRegularFile(cacheFile)) {
+            writeTo(OutputStream.nullOutputStream());
+        }
+        return cacheFile.toFile();
+    }
+
+    /**
+     * Write the archive to the output, and to the cache if it is not already in it.
+     * If the output fails (e.g. the client disconnects), the cache is still completed
+     * so that a retry is served from it.
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        if (cacheFile == null) {
+            writeEntries(output);
+            return;
+        }
+        if (entries == null) {
+            Files.copy(cacheFile, output);
+            return;
+        }
+
+        Path tempFile = Files.createTempFile(cacheFile.getParent(), ".io-archive-", ".tmp");
+        try {
+            TeeOutputStream tee;
+            try (OutputStream cache = Files.newOutputStream(tempFile)) {
+                tee = new TeeOutputStream(cache, output);
+                writeEntries(tee);
+            }
+            Files.move(
+                tempFile,
+                cacheFile,
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING
+            );
+            if (tee.getOutputError() != null) {
+                throw tee.getOutputError();
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private void writeEntries(OutputStream output) throws IOException {
+        ZipArchiveOutputStream zip = new ZipArchiveOutputStream(output);
+        for (Entry entry : entries) {
+            entry.write(zip);
+        }
+        zip.finish();
+        zip.flush();
+    }
+
+    private static final class Entry {
+
+        private final String name;
+
+        private final File file;
+
+        private int method = ZipEntry.STORED;
+
+        private int level = Deflater.DEFAULT_COMPRESSION;
+
+        private long size;
+
+        private long crc;
+
+        // Deflated content prepared ahead of writing
+        private byte[] deflated;
+
+        private Entry(String name, File file) {
+            this.name = name;
+            this.file = file;
+        }
+
+        private void prepare() throws IOException {
+            size = Files.size(file.toPath());
+            if (!isText(file)) {
+                if (size > MAX_PREPARED_STORED_SIZE) {
+                    method = ZipEntry.DEFLATED;
+                    level = Deflater.NO_COMPRESSION;
+                } else {
+                    crc = checksum(file);
+                }
+                return;
+            }
+
+            method = ZipEntry.DEFLATED;
+            if (size <= MAX_PREPARED_DEFLATE_SIZE) {
+                CRC32 checksum = new CRC32();
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                try (InputStream input = Files.newInputStream(file.toPath());
+                     DeflaterOutputStream output = new DeflaterOutputStream(compressed, deflater)) {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = input.read(buffer)) != -1) {
+                        checksum.update(buffer, 0, read);
+                        output.write(buffer, 0, read);
+                    }
+                } finally {
+                    deflater.end();
+                }
+                crc = checksum.getValue();
+                deflated = compressed.toByteArray();
+            }
+        }
+
+        private static long checksum(File file) throws IOException {
+            CRC32 checksum = new CRC32();
+            try (InputStream input = Files.newInputStream(file.toPath())) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    checksum.update(buffer, 0, read);
+                }
+            }
+            return checksum.getValue();
+        }
+
+        /**
+         * Size of the data of the entry in the archive, or -1 if it is deflated while writing
+         */
+        private long getWrittenSize() {
+            if (file == null) {
+                return 0;
+            }
+            if (method == ZipEntry.STORED) {
+                return size;
+            }
+            return deflated == null ? -1 : deflated.length;
+        }
+
+        private void write(ZipArchiveOutputStream zip) throws IOException {
+            ZipArchiveEntry zipEntry = new ZipArchiveEntry(name);
+            zipEntry.setMethod(method);
+            if (file == null) {
+                zipEntry.setSize(0);
+                zipEntry.setCrc(0);
+                zip.putArchiveEntry(zipEntry);
+                zip.closeArchiveEntry();
+                return;
+            }
+
+            zipEntry.setTime(file.lastModified());
+            if (deflated != null) {
+                zipEntry.setSize(size);
+                zipEntry.setCompressedSize(deflated.length);
+                zipEntry.setCrc(crc);
+                zip.addRawArchiveEntry(zipEntry, new ByteArrayInputStream(deflated));
+                return;
+            }
+
+            if (method == ZipEntry.STORED) {
+                zipEntry.setSize(size);
+                zipEntry.setCrc(crc);
+            }
+            zip.setLevel(level);
+            zip.putArchiveEntry(zipEntry);
+            Files.copy(file.toPath(), zip);
+            zip.closeArchiveEntry();
+        }
+    }
+
+    /**
+     * Copy of the archive to the cache and to the output.
+     * A failure of the output is recorded and the output is skipped afterwards.
+     */
+    private static final class TeeOutputStream extends OutputStream {
+
+        private final OutputStream cache;
+
+        private final OutputStream output;
+
+        private IOException outputError;
+
+        private TeeOutputStream(OutputStream cache, OutputStream output) {
+            this.cache = cache;
+            this.output = output;
+        }
+
+        private IOException getOutputError() {
+            return outputError;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            cache.write(b, off, len);
+            if (outputError == null) {
+                try {
+                    output.write(b, off, len);
+                } catch (IOException e) {
+                    log.info("IO Archive: output failed, completing the cache only");
+                    outputError = e;
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            cache.flush();
+            if (outputError == null) {
+                try {
+                    output.flush();
+                } catch (IOException e) {
+                    outputError = e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+--liquibase formatted sql
+
+-- A provision is identified by its run, parameter name (with the indexes of a collection item) and
+-- parameter type: concurrent provisions of the items of a collection must not insert it twice.
+-- type_persistence is generated from the entities, which declare this unique constraint for new databases:
+-- the migration only adds it to an existing table, and refuses to upgrade a database with duplicated provisions
+-- rather than choosing which of them to delete.
+
+--changeset cytomine:add-type-persistence-unique-provision-1 splitStatements:false
+DO $$
+DECLARE
+    duplicates bigint;
+BEGIN
+    IF to_regclass('public.type_persistence') IS NULL
+        OR EXISTS (SELECT 1 FROM pg_constraint WHERE conname = 'uk_type_persistence_run_parameter') THEN
+        RETURN;
+    END IF;
+
+    SELECT count(*) INTO duplicates
+    FROM (
+        SELECT 1
+        FROM public.type_persistence
+        WHERE run_id IS NOT NULL AND parameter_name IS NOT NULL AND parameter_type IS NOT NULL
+        GROUP BY run_id, parameter_name, parameter_type
+        HAVING count(*) > 1
+    ) duplicated;
+
+    IF duplicates > 0 THEN
+        RAISE EXCEPTION 'type_persistence has % duplicated provisions (same run_id, parameter_name and parameter_type), remove the extra rows before upgrading', duplicates;
+    END IF;
+
+    ALTER TABLE public.type_persistence
+        ADD CONSTRAINT uk_type_persistence_run_parameter UNIQUE (run_id, parameter_name, parameter_type);
+END
+$$;
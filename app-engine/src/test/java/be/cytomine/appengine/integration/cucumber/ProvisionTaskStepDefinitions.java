@@ -45,6 +45,7 @@ import be.cytomine.appengine.handlers.StorageHandler;
 import be.cytomine.appengine.models.task.*;
 import be.cytomine.appengine.models.task.bool.BooleanPersistence;
 import be.cytomine.appengine.models.task.collection.CollectionPersistence;
+import be.cytomine.appengine.models.task.collection.CollectionType;
 import be.cytomine.appengine.models.task.datetime.DateTimePersistence;
 import be.cytomine.appengine.models.task.enumeration.EnumerationPersistence;
 import be.cytomine.appengine.models.task.file.FilePersistence;
@@ -722,6 +723,86 @@ public class ProvisionTaskStepDefinitions {
     }
 
 
+    // Provisioning of collection items
+
+    @Given("the collection parameter {string} accepts between {int} and {int} items")
+    public void theCollectionParameterAcceptsBetweenAndItems(String parameterName, int minSize, int maxSize) {
+        CollectionType type = (CollectionType) getInput(parameterName).getType();
+        type.setMinSize(minSize);
+        type.setMaxSize(maxSize);
+        persistedTask = taskRepository.saveAndFlush(persistedTask);
+    }
+
+    @Given("the collection parameter {string} is a collection of these collections accepting between {int} and {int} items")
+    public void theCollectionParameterIsACollectionOfTheseCollections(String parameterName, int minSize, int maxSize) {
+        Parameter input = getInput(parameterName);
+        CollectionType nested = new CollectionType();
+        nested.setId("array");
+        nested.setCharset(input.getType().getCharset());
+        nested.setMinSize(minSize);
+        nested.setMaxSize(maxSize);
+        nested.setSubType(input.getType());
+        input.setType(nested);
+        persistedTask = taskRepository.saveAndFlush(persistedTask);
+    }
+
+    @When("a user calls the items provisioning endpoint of collection {string} with {string}")
+    public void aUserCallsTheItemsProvisioningEndpointOfCollectionWith(String parameterName, String items)
+        throws JsonProcessingException {
+        try {
+            apiClient.provisionInputItems(persistedRun.getId().toString(), parameterName, new ObjectMapper().readTree(items));
+        } catch (RestClientResponseException e) {
+            persistedException = e;
+        }
+    }
+
+    @Then("the collection {string} is saved in the database with {int} items and provisioned {string}")
+    public void theCollectionIsSavedInTheDatabaseWithItems(String parameterName, int size, String provisioned) {
+        CollectionPersistence collection = collectionPersistenceRepository
+            .findCollectionPersistenceByParameterNameAndRunIdAndParameterType(parameterName, persistedRun.getId(), ParameterType.INPUT);
+        Assertions.assertNotNull(collection);
+        Assertions.assertEquals(size, collection.getSize());
+        Assertions.assertEquals(size, collection.getItems().size());
+        Assertions.assertEquals(Boolean.parseBoolean(provisioned), collection.isProvisioned());
+    }
+
+    @Then("the item {string} of the collection has the value {int}")
+    public void theItemOfTheCollectionHasTheValue(String itemName, int value) {
+        IntegerPersistence item = integerProvisionRepository
+            .findIntegerPersistenceByParameterNameAndRunIdAndParameterType(itemName, persistedRun.getId(), ParameterType.INPUT);
+        Assertions.assertNotNull(item);
+        Assertions.assertEquals(value, item.getValue());
+    }
+
+    @Then("the App Engine returns a {string} batch error response with {int} errors")
+    public void theAppEngineReturnsABatchErrorResponseWithErrors(String response, int errors) throws JsonProcessingException {
+        Assertions.assertNotNull(persistedException);
+        Assertions.assertEquals(Integer.parseInt(response), persistedException.getStatusCode().value());
+        JsonNode error = new ObjectMapper().readTree(persistedException.getResponseBodyAsString());
+        Assertions.assertEquals("APPE-internal-batch-request-error", error.get("error_code").asText());
+        Assertions.assertEquals(errors, error.get("details").get("errors").size());
+    }
+
+    @Then("no item of the collection {string} is saved in the database")
+    public void noItemOfTheCollectionIsSavedInTheDatabase(String parameterName) {
+        Assertions.assertNull(collectionPersistenceRepository
+            .findCollectionPersistenceByParameterNameAndRunIdAndParameterType(parameterName, persistedRun.getId(), ParameterType.INPUT));
+        Assertions.assertTrue(typePersistenceRepository
+            .findTypePersistenceByRunIdAndParameterType(persistedRun.getId(), ParameterType.INPUT)
+            .isEmpty());
+    }
+
+    private Parameter getInput(String parameterName) {
+        Parameter input = persistedTask
+            .getParameters()
+            .stream()
+            .filter(i -> i.getName().equals(parameterName) && i.getParameterType().equals(ParameterType.INPUT))
+            .findFirst()
+            .orElse(null);
+        Assertions.assertNotNull(input);
+        return input;
+    }
+
     // Constraint validations
 
     @Given("the parameter {string} has validation rules")
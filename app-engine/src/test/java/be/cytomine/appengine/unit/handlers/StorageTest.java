@@ -1,5 +1,6 @@
 package be.cytomine.appengine.unit.handlers;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -193,4 +194,39 @@ public class StorageTest {
         Assertions.assertTrue(Files.exists(randomPath));
         Assertions.assertTrue(Files.exists(orderedPath));
     }
+
+    @Test
+    @DisplayName("Testing successful move of written files")
+    public void successfulStorageDataWriteAndMove() throws IOException, FileStorageException {
+        Storage staging = new Storage("main/staging");
+        Storage dir = new Storage("main/moved");
+        String randomText = "This is a random text";
+
+        File written = storageHandler.writeStorageFile(
+            staging,
+            "folder/random",
+            new ByteArrayInputStream(randomText.getBytes(StandardCharsets.UTF_8))
+        );
+        StorageData storageData = new StorageData("folder/");
+        storageData.add(new StorageDataEntry(written, "folder/random", StorageDataType.FILE));
+        storageHandler.moveStorageData(dir, storageData);
+
+        Path randomPath = Paths.get(basePath, dir.getIdStorage(), "folder/random");
+        Assertions.assertTrue(Files.exists(randomPath));
+        Assertions.assertFalse(written.exists());
+        Assertions.assertEquals(randomPath.toFile(), storageData.get("folder/random").getData());
+        Assertions.assertEquals(randomText, Files.readString(randomPath));
+    }
+
+    @Test
+    @DisplayName("Testing rejection of a file written outside of its storage")
+    public void failedStorageFileWriteOutsideStorage() {
+        Storage staging = new Storage("main/staging");
+
+        Assertions.assertThrows(FileStorageException.class, () -> storageHandler.writeStorageFile(
+            staging,
+            "../../outside",
+            new ByteArrayInputStream(new byte[0])
+        ));
+    }
 }
@@ -1,20 +1,28 @@
 package be.cytomine.appengine.unit.models;
 
 import java.awt.Dimension;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.Stream;
+import javax.imageio.ImageIO;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import be.cytomine.appengine.models.task.formats.FileFormat;
+import be.cytomine.appengine.models.task.formats.GenericFormat;
 import be.cytomine.appengine.models.task.formats.JpegFormat;
 import be.cytomine.appengine.models.task.formats.PngFormat;
 import be.cytomine.appengine.models.task.formats.TiffFormat;
@@ -83,4 +91,22 @@ public class ImageFormatTest {
         File image = images.get(formatKey);
         Assertions.assertTrue(format.validate(image), "Validation should return true.");
     }
+
+    @Test
+    public void testDimensionsAreProbedAgainWhenFileChanges() throws IOException {
+        Path copy = Files.createTempFile("image", ".jpg");
+        try {
+            Files.copy(images.get("JPEG").toPath(), copy, StandardCopyOption.REPLACE_EXISTING);
+            FileFormat format = new GenericFormat();
+            Assertions.assertEquals(EXPECTED_WIDTH, format.getDimensions(copy.toFile()).getWidth());
+
+            BufferedImage smaller = new BufferedImage(10, 20, BufferedImage.TYPE_INT_RGB);
+            ImageIO.write(smaller, "png", copy.toFile());
+            Files.setLastModifiedTime(copy, FileTime.fromMillis(System.currentTimeMillis() + 1000));
+
+            Assertions.assertEquals(new Dimension(10, 20), format.getDimensions(copy.toFile()));
+        } finally {
+            Files.delete(copy);
+        }
+    }
 }
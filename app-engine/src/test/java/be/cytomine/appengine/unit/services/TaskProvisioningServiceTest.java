@@ -1,23 +1,32 @@
 package be.cytomine.appengine.unit.services;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import be.cytomine.appengine.models.task.Parameter;
 import be.cytomine.appengine.models.task.Task;
-import be.cytomine.appengine.models.task.TypePersistence;
+import be.cytomine.appengine.models.task.Type;
 import be.cytomine.appengine.models.task.ValueType;
+import be.cytomine.appengine.models.task.collection.CollectionType;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -29,10 +38,14 @@ import be.cytomine.appengine.dto.inputs.task.State;
 import be.cytomine.appengine.dto.inputs.task.StateAction;
 import be.cytomine.appengine.dto.inputs.task.TaskRunParameterValue;
 import be.cytomine.appengine.dto.inputs.task.TaskRunResponse;
+import be.cytomine.appengine.dto.responses.errors.ErrorCode;
 import be.cytomine.appengine.exceptions.FileStorageException;
 import be.cytomine.appengine.exceptions.ProvisioningException;
+import be.cytomine.appengine.exceptions.TypeValidationException;
 import be.cytomine.appengine.handlers.SchedulerHandler;
 import be.cytomine.appengine.handlers.StorageData;
+import be.cytomine.appengine.handlers.StorageDataEntry;
+import be.cytomine.appengine.handlers.StorageDataType;
 import be.cytomine.appengine.handlers.StorageHandler;
 import be.cytomine.appengine.models.task.ParameterType;
 import be.cytomine.appengine.models.task.Run;
@@ -45,6 +58,7 @@ import be.cytomine.appengine.services.TaskProvisioningService;
 import be.cytomine.appengine.services.TaskService;
 import be.cytomine.appengine.states.TaskRunState;
 import be.cytomine.appengine.utils.AppEngineApplicationContext;
+import be.cytomine.appengine.utils.FileHelper;
 import be.cytomine.appengine.utils.TaskUtils;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -52,7 +66,12 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -235,7 +254,7 @@ public class TaskProvisioningServiceTest {
         StorageData result = taskProvisioningService.retrieveIOZipArchive(run.getId().toString(), ParameterType.INPUT);
     
         assertEquals(mockStorageData.getEntryList().size(), result.getEntryList().size());
-        assertTrue(result.peek().getData().getName().matches("inputs-archive-\\d*" + run.getId()));
+        assertTrue(result.peek().getData().getName().matches("inputs-archive-" + run.getId() + "-[0-9a-f]+\\.zip"));
         verify(runRepository, times(1)).findById(run.getId());
         verify(storageHandler, times(1)).readStorageData(any(StorageData.class));
         verify(typePersistenceRepository, times(1)).findTypePersistenceByRunIdAndParameterType(run.getId(), ParameterType.INPUT);
@@ -285,6 +304,8 @@ public class TaskProvisioningServiceTest {
 
         when(outputs.getInputStream()).thenReturn(new ByteArrayInputStream(TaskUtils.createFakeOutputsZip("out")));
         when(runRepository.findById(localRun.getId())).thenReturn(Optional.of(localRun));
+        when(storageHandler.writeStorageFile(any(Storage.class), eq("out"), any(InputStream.class)))
+            .thenAnswer(invocation -> FileHelper.write("out", invocation.getArgument(2, InputStream.class).readAllBytes()));
 
         List<TaskRunParameterValue> results = taskProvisioningService.postOutputsZipArchive(localRun.getId().toString(), localRun.getSecret(), outputs);
 
@@ -362,6 +383,142 @@ public class TaskProvisioningServiceTest {
         verify(runRepository, times(1)).findById(localRun.getId());
     }
 
+    @DisplayName("Successfully save the outputs archive when an output name is a prefix of another")
+    @Test
+    public void postOutputsZipArchiveShouldNotMixOutputsSharingAPrefix() throws Exception {
+        Task task = TaskUtils.createTestTask(false);
+        task.setParameters(Set.of(TaskUtils.createTestOutput("out", false), TaskUtils.createTestOutput("out2", false)));
+        task.setMatches(new ArrayList<>());
+        Run localRun = TaskUtils.createTestRun(false);
+        localRun.setTask(task);
+        localRun.setState(TaskRunState.RUNNING);
+        MultipartFile outputs = mock(MultipartFile.class);
+
+        when(outputs.getInputStream()).thenReturn(new ByteArrayInputStream(TaskUtils.createFakeOutputsZip("out", "out2")));
+        when(runRepository.findById(localRun.getId())).thenReturn(Optional.of(localRun));
+        when(storageHandler.writeStorageFile(any(Storage.class), anyString(), any(InputStream.class)))
+            .thenAnswer(invocation -> FileHelper.write(invocation.getArgument(1, String.class), invocation.getArgument(2, InputStream.class).readAllBytes()));
+
+        List<TaskRunParameterValue> results = taskProvisioningService.postOutputsZipArchive(localRun.getId().toString(), localRun.getSecret(), outputs);
+
+        assertEquals(2, results.size());
+        ArgumentCaptor<StorageData> moved = ArgumentCaptor.forClass(StorageData.class);
+        verify(storageHandler, times(2)).moveStorageData(any(Storage.class), moved.capture());
+        assertEquals(
+            Set.of(List.of("out"), List.of("out2")),
+            moved.getAllValues().stream().map(TaskProvisioningServiceTest::entryNames).collect(Collectors.toSet())
+        );
+    }
+
+    @DisplayName("Successfully group the entries of a collection output under its main directory")
+    @Test
+    public void postOutputsZipArchiveShouldGroupCollectionEntries() throws Exception {
+        CollectionType collectionType = mock(CollectionType.class);
+        Parameter collection = TaskUtils.createTestOutput("out", false);
+        collection.setType(collectionType);
+        Task task = TaskUtils.createTestTask(false);
+        task.setParameters(Set.of(collection, TaskUtils.createTestOutput("out2", false)));
+        task.setMatches(new ArrayList<>());
+        Run localRun = TaskUtils.createTestRun(false);
+        localRun.setTask(task);
+        localRun.setState(TaskRunState.RUNNING);
+        MultipartFile outputs = mock(MultipartFile.class);
+
+        when(outputs.getInputStream()).thenReturn(new ByteArrayInputStream(createOutputsZip("out/1", "out2", "out/", "out/0", "out/array.yml")));
+        when(runRepository.findById(localRun.getId())).thenReturn(Optional.of(localRun));
+        when(storageHandler.writeStorageFile(any(Storage.class), anyString(), any(InputStream.class)))
+            .thenAnswer(invocation -> FileHelper.write("entry", invocation.getArgument(2, InputStream.class).readAllBytes()));
+
+        taskProvisioningService.postOutputsZipArchive(localRun.getId().toString(), localRun.getSecret(), outputs);
+
+        ArgumentCaptor<StorageData> validated = ArgumentCaptor.forClass(StorageData.class);
+        verify(collectionType, times(1)).validateFiles(eq(localRun), eq(collection), validated.capture());
+        assertEquals(List.of("out/", "out/0", "out/1", "out/array.yml"), entryNames(validated.getValue()));
+        assertEquals(StorageDataType.DIRECTORY, validated.getValue().peek().getStorageDataType());
+        verify(collectionType, times(1)).persistResult(localRun, collection, validated.getValue());
+        verify(storageHandler, times(2)).moveStorageData(any(Storage.class), any(StorageData.class));
+    }
+
+    @DisplayName("Failed to save the outputs archive and throw 'ProvisioningException' when an entry is duplicated")
+    @Test
+    public void postOutputsZipArchiveShouldThrowProvisioningExceptionWhenDuplicatedEntry() throws Exception {
+        Run localRun = TaskUtils.createTestRun(false);
+        localRun.setState(TaskRunState.RUNNING);
+        MultipartFile outputs = mock(MultipartFile.class);
+
+        when(outputs.getInputStream()).thenReturn(new ByteArrayInputStream(createOutputsZip("out", "out")));
+        when(runRepository.findById(localRun.getId())).thenReturn(Optional.of(localRun));
+        when(storageHandler.writeStorageFile(any(Storage.class), eq("out"), any(InputStream.class)))
+            .thenAnswer(invocation -> FileHelper.write("out", invocation.getArgument(2, InputStream.class).readAllBytes()));
+        when(storageHandler.checkStorageExists(any(Storage.class))).thenReturn(true);
+
+        ProvisioningException exception = assertThrows(
+            ProvisioningException.class,
+            () -> taskProvisioningService.postOutputsZipArchive(localRun.getId().toString(), localRun.getSecret(), outputs)
+        );
+        assertEquals("unexpected output, did not match an actual task output", exception.getMessage());
+        assertEquals(TaskRunState.FAILED, localRun.getState());
+        verify(storageHandler, times(1)).writeStorageFile(any(Storage.class), eq("out"), any(InputStream.class));
+        verify(storageHandler, times(1)).deleteStorage(argThat(storage -> isStagingStorage(storage, localRun)));
+        verify(storageHandler, never()).moveStorageData(any(Storage.class), any(StorageData.class));
+    }
+
+    @DisplayName("Failed to save the outputs archive and delete the staging storage when an output is invalid")
+    @Test
+    public void postOutputsZipArchiveShouldDeleteStagingStorageWhenInvalidOutput() throws Exception {
+        Type invalidType = mock(Type.class);
+        Parameter invalid = TaskUtils.createTestOutput("out2", false);
+        invalid.setType(invalidType);
+        Task task = TaskUtils.createTestTask(false);
+        task.setParameters(Set.of(TaskUtils.createTestOutput("out", false), invalid));
+        task.setMatches(new ArrayList<>());
+        Run localRun = TaskUtils.createTestRun(false);
+        localRun.setTask(task);
+        localRun.setState(TaskRunState.RUNNING);
+        MultipartFile outputs = mock(MultipartFile.class);
+
+        when(outputs.getInputStream()).thenReturn(new ByteArrayInputStream(TaskUtils.createFakeOutputsZip("out", "out2")));
+        when(runRepository.findById(localRun.getId())).thenReturn(Optional.of(localRun));
+        when(storageHandler.writeStorageFile(any(Storage.class), anyString(), any(InputStream.class)))
+            .thenAnswer(invocation -> FileHelper.write(invocation.getArgument(1, String.class), invocation.getArgument(2, InputStream.class).readAllBytes()));
+        doThrow(new TypeValidationException(ErrorCode.INTERNAL_INVALID_OUTPUT))
+            .when(invalidType).validateFiles(eq(localRun), eq(invalid), any(StorageData.class));
+        when(storageHandler.checkStorageExists(any(Storage.class))).thenReturn(true);
+
+        ProvisioningException exception = assertThrows(
+            ProvisioningException.class,
+            () -> taskProvisioningService.postOutputsZipArchive(localRun.getId().toString(), localRun.getSecret(), outputs)
+        );
+        assertEquals("Error(s) occurred during a handling of a batch request.", exception.getMessage());
+        verify(invalidType, never()).persistResult(any(Run.class), any(Parameter.class), any(StorageData.class));
+        verify(storageHandler, times(1)).moveStorageData(any(Storage.class), any(StorageData.class));
+        verify(storageHandler, times(1)).deleteStorage(argThat(storage -> isStagingStorage(storage, localRun)));
+    }
+
+    private static byte[] createOutputsZip(String... names) throws IOException {
+        // java.util.zip rejects duplicated entries, an archive written by a task may still contain them
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+             ZipArchiveOutputStream zos = new ZipArchiveOutputStream(baos)) {
+            for (String name : names) {
+                zos.putArchiveEntry(new ZipArchiveEntry(name));
+                if (!name.endsWith("/")) {
+                    zos.write("42".getBytes());
+                }
+                zos.closeArchiveEntry();
+            }
+            zos.finish();
+            return baos.toByteArray();
+        }
+    }
+
+    private static List<String> entryNames(StorageData storageData) {
+        return storageData.getEntryList().stream().map(StorageDataEntry::getName).toList();
+    }
+
+    private static boolean isStagingStorage(Storage storage, Run run) {
+        return storage.getIdStorage().equals("task-run-outputs-" + run.getId() + "-staging");
+    }
+
     @DisplayName("Successfully retrieve the outputs")
     @Test
     public void retrieveRunOutputsShouldReturnOutputs() throws Exception {
@@ -493,23 +650,13 @@ public class TaskProvisioningServiceTest {
         State desiredState = new State();
         desiredState.setDesired(TaskRunState.PROVISIONED);
 
-        IntegerPersistence persistedProvision = new IntegerPersistence();
-        persistedProvision.setValueType(ValueType.INTEGER);
-        persistedProvision.setParameterType(ParameterType.INPUT);
-        persistedProvision.setParameterName("name");
-        persistedProvision.setRunId(localRun.getId());
-        persistedProvision.setValue(100);
-        persistedProvision.setProvisioned(true);
-
-        List<TypePersistence> persistenceList = List.of(persistedProvision);
-
         when(runRepository.findById(localRun.getId())).thenReturn(Optional.of(localRun));
         when(typePersistenceRepository
-            .findTypePersistenceByRunIdAndParameterTypeAndParameterNameIn(
+            .countByRunIdAndParameterTypeAndParameterNameInAndProvisionedTrue(
                 localRun.getId(),
                 ParameterType.INPUT,
                 List.of("name")))
-            .thenReturn(persistenceList);
+            .thenReturn(1L);
 
         StateAction result = taskProvisioningService.updateRunState(localRun.getId().toString(), desiredState);
 
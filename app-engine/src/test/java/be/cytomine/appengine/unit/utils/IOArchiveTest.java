@@ -0,0 +1,211 @@
+package be.cytomine.appengine.unit.utils;
+
+import be.cytomine.appengine.handlers.StorageDataEntry;
+import be.cytomine.appengine.handlers.StorageDataType;
+import be.cytomine.appengine.utils.IOArchive;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class IOArchiveTest {
+
+    @TempDir
+    Path storage;
+
+    @TempDir
+    Path cache;
+
+    private List<StorageDataEntry> createEntries(byte[] image) throws IOException {
+        File value = Files.writeString(storage.resolve("value"), "42").toFile();
+        File json = Files.writeString(storage.resolve("geometry.json"), "{\"type\": \"Point\", \"coordinates\": [0, 0]}").toFile();
+        File collection = Files.createDirectories(storage.resolve("images")).toFile();
+        File imageFile = Files.write(storage.resolve("images").resolve("0"), image).toFile();
+
+        return List.of(
+            new StorageDataEntry(value, "value", StorageDataType.FILE),
+            new StorageDataEntry(json, "geometry.json", StorageDataType.FILE),
+            new StorageDataEntry(collection, "images", StorageDataType.DIRECTORY),
+            new StorageDataEntry(imageFile, "images/0", StorageDataType.FILE)
+        );
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(0).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testArchiveLengthIsKnownBeforeWriting() throws IOException {
+        byte[] image = randomBytes(100_000);
+        IOArchive archive = IOArchive.open(createEntries(image), cache, "inputs-archive-run");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        archive.writeTo(output);
+
+        Assertions.assertTrue(archive.getLength() > 0);
+        Assertions.assertEquals(archive.getLength(), output.size());
+
+        Map<String, ZipEntry> entries = new HashMap<>();
+        Map<String, byte[]> contents = new HashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                entries.put(entry.getName(), entry);
+                contents.put(entry.getName(), zip.readAllBytes());
+            }
+        }
+
+        Assertions.assertEquals(4, entries.size());
+        Assertions.assertEquals(ZipEntry.DEFLATED, entries.get("value").getMethod());
+        Assertions.assertEquals(ZipEntry.DEFLATED, entries.get("geometry.json").getMethod());
+        Assertions.assertTrue(entries.get("images/").isDirectory());
+        Assertions.assertEquals(ZipEntry.STORED, entries.get("images/0").getMethod());
+        Assertions.assertEquals("42", new String(contents.get("value"), StandardCharsets.UTF_8));
+        Assertions.assertArrayEquals(image, contents.get("images/0"));
+    }
+
+    @Test
+    public void testArchiveIsServedFromCacheUntilAnEntryChanges() throws IOException {
+        List<StorageDataEntry> entries = createEntries(randomBytes(1000));
+        IOArchive archive = IOArchive.open(entries, cache, "inputs-archive-run");
+        Assertions.assertTrue(archive.getCachedFile().isEmpty());
+        File cached = archive.writeToFile();
+
+        IOArchive reopened = IOArchive.open(entries, cache, "inputs-archive-run");
+        Assertions.assertEquals(cached, reopened.getCachedFile().orElseThrow());
+        Assertions.assertEquals(cached.length(), reopened.getLength());
+
+        Files.writeString(storage.resolve("value"), "43000");
+        IOArchive changed = IOArchive.open(entries, cache, "inputs-archive-run");
+        Assertions.assertTrue(changed.getCachedFile().isEmpty());
+        Assertions.assertFalse(cached.exists());
+    }
+
+    @Test
+    public void testCacheIsCompletedWhenOutputFails() throws IOException {
+        List<StorageDataEntry> entries = createEntries(randomBytes(100_000));
+        IOArchive archive = IOArchive.open(entries, cache, "inputs-archive-run");
+
+        OutputStream disconnected = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        Assertions.assertThrows(IOException.class, () -> archive.writeTo(disconnected));
+
+        IOArchive reopened = IOArchive.open(entries, cache, "inputs-archive-run");
+        Assertions.assertTrue(reopened.getCachedFile().isPresent());
+        Assertions.assertEquals(archive.getLength(), reopened.getLength());
+    }
+
+    @Test
+    public void testArchiveIsNotCachedWithoutCacheDirectory() throws IOException {
+        List<StorageDataEntry> entries = createEntries(randomBytes(1000));
+        IOArchive archive = IOArchive.open(entries, null, "inputs-archive-run");
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        archive.writeTo(output);
+
+        Assertions.assertFalse(archive.isCached());
+        Assertions.assertTrue(archive.getCachedFile().isEmpty());
+        Assertions.assertEquals(archive.getLength(), output.size());
+        try (Stream<Path> cached = Files.list(cache)) {
+            Assertions.assertEquals(0, cached.count());
+        }
+    }
+
+    @Test
+    public void testLargeFileIsWrittenWithoutReadingItAhead() throws IOException {
+        File large = storage.resolve("large.bin").toFile();
+        try (RandomAccessFile file = new RandomAccessFile(large, "rw")) {
+            file.setLength(257L * 1024 * 1024);
+        }
+        IOArchive archive = IOArchive.open(
+            List.of(new StorageDataEntry(large, "large.bin", StorageDataType.FILE)),
+            null,
+            "outputs-archive-run"
+        );
+
+        CountingOutputStream output = new CountingOutputStream();
+        archive.writeTo(output);
+
+        Assertions.assertEquals(-1, archive.getLength());
+        Assertions.assertTrue(output.count > large.length());
+    }
+
+    @Test
+    public void testCacheIsEvictedAfterTimeToLiveAndBeyondMaxSize() throws IOException {
+        Instant now = Instant.now();
+        Path expired = createCachedFile("inputs-archive-expired-0.zip", 10, now.minus(Duration.ofDays(8)));
+        Path interrupted = createCachedFile(".io-archive-1.tmp", 10, now.minus(Duration.ofDays(8)));
+        Path oldest = createCachedFile("inputs-archive-oldest-0.zip", 100, now.minus(Duration.ofDays(3)));
+        Path older = createCachedFile("inputs-archive-older-0.zip", 100, now.minus(Duration.ofDays(2)));
+        Path recent = createCachedFile("inputs-archive-recent-0.zip", 100, now.minus(Duration.ofDays(1)));
+
+        IOArchive.evict(cache, Duration.ofDays(7), 250);
+
+        Assertions.assertFalse(Files.exists(expired));
+        Assertions.assertFalse(Files.exists(interrupted));
+        Assertions.assertFalse(Files.exists(oldest));
+        Assertions.assertTrue(Files.exists(older));
+        Assertions.assertTrue(Files.exists(recent));
+    }
+
+    @Test
+    public void testArchiveServedFromCacheIsNotEvictedFirst() throws IOException {
+        List<StorageDataEntry> entries = createEntries(randomBytes(1000));
+        File cached = IOArchive.open(entries, cache, "inputs-archive-run").writeToFile();
+        Files.setLastModifiedTime(cached.toPath(), FileTime.from(Instant.now().minus(Duration.ofDays(3))));
+        Path other = createCachedFile("outputs-archive-run-0.zip", cached.length(), Instant.now().minus(Duration.ofDays(1)));
+
+        IOArchive.open(entries, cache, "inputs-archive-run");
+        IOArchive.evict(cache, Duration.ofDays(7), cached.length());
+
+        Assertions.assertTrue(cached.exists());
+        Assertions.assertFalse(Files.exists(other));
+    }
+
+    private Path createCachedFile(String name, long size, Instant lastModified) throws IOException {
+        Path file = Files.write(cache.resolve(name), new byte[(int) size]);
+        Files.setLastModifiedTime(file, FileTime.from(lastModified));
+        return file;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -331,6 +331,14 @@ public class ApiClient {
         return put(baseUrl + "/task-runs/" + uuid + "/input-provisions/" + parameterName + "/indexes", entity, JsonNode.class, params).getBody();
     }
 
+    public List<JsonNode> provisionInputItems(String uuid, String parameterName, JsonNode items) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<Object> entity = new HttpEntity<>(items, headers);
+
+        return put(baseUrl + "/task-runs/" + uuid + "/input-provisions/" + parameterName + "/items", entity, new ParameterizedTypeReference<List<JsonNode>>() {}).getBody();
+    }
+
     public Resource retrieveInputPart(String uuid, String parameterName, int index)  {
 
         Map<String,String> params = new HashMap<>();
@@ -248,6 +248,85 @@ Feature: [URS00003-TASK] Provision a task run
       | task_namespace                                   | task_version | param_name | item_type  | payload    | index | item_value  | task_run_initial_state | task_run_new_state | param_file_content   |
       | com.cytomine.dummy.identity.file.collection      | 0.1.0        | input      | file       | item       | 0     | some_random_value       | CREATED                | PROVISIONED        | content             |
 
+  Scenario Outline: successful provisioning of the items of a collection using the items endpoint
+  See "src/main/resources/spec/api/openapi_spec_v0.1.0.yml" file, in particular the paths:
+  - '/task-runs/{run_id}/input-provisions/{param_name}/items'
+
+    Given a task has been successfully uploaded
+    And this task has "<task_namespace>" and "<task_version>"
+    And this task has only one input parameter "<param_name>" of type "array"
+    And the collection parameter "<param_name>" accepts between <min_size> and <max_size> items
+    And a task run has been created for this task
+    And this task run has not been provisioned yet and is therefore in state "CREATED"
+    When a user calls the items provisioning endpoint of collection "<param_name>" with "<items>"
+    Then the App Engine returns a '200 OK' HTTP response with the updated task run information as JSON payload
+    And the collection "<param_name>" is saved in the database with <size> items and provisioned "<provisioned>"
+    And the task run states changes to "<task_run_new_state>" because the task is now completely provisioned
+
+    Examples:
+      | task_namespace                                 | task_version | param_name | min_size | max_size | items                                                                  | size | provisioned | task_run_new_state |
+      | com.cytomine.dummy.identity.integer.collection | 0.1.0        | input      | 2        | 3        | [{\"index\": \"0\", \"value\": 1}]                                     | 1    | false       | CREATED            |
+      | com.cytomine.dummy.identity.integer.collection | 0.1.0        | input      | 2        | 3        | [{\"index\": \"0\", \"value\": 1}, {\"index\": \"1\", \"value\": 2}]   | 2    | true        | PROVISIONED        |
+      | com.cytomine.dummy.identity.integer.collection | 0.1.0        | input      | 1        | 1        | [{\"index\": \"0\", \"value\": 1}, {\"index\": \"1\", \"value\": 2}]   | 2    | false       | CREATED            |
+
+  Scenario Outline: successful re-provisioning of an item of a collection using the items endpoint
+
+    Given a task has been successfully uploaded
+    And this task has "<task_namespace>" and "<task_version>"
+    And this task has only one input parameter "<param_name>" of type "array"
+    And the collection parameter "<param_name>" accepts between 2 and 3 items
+    And a task run has been created for this task
+    And this task run has not been provisioned yet and is therefore in state "CREATED"
+    And a user calls the items provisioning endpoint of collection "<param_name>" with "<items>"
+    When a user calls the items provisioning endpoint of collection "<param_name>" with "<new_items>"
+    Then the App Engine returns a '200 OK' HTTP response with the updated task run information as JSON payload
+    And the collection "<param_name>" is saved in the database with 2 items and provisioned "true"
+    And the item "<item_name>" of the collection has the value <item_value>
+    And the task run states changes to "PROVISIONED" because the task is now completely provisioned
+
+    Examples:
+      | task_namespace                                 | task_version | param_name | items                                                                | new_items                          | item_name | item_value |
+      | com.cytomine.dummy.identity.integer.collection | 0.1.0        | input      | [{\"index\": \"0\", \"value\": 1}, {\"index\": \"1\", \"value\": 2}] | [{\"index\": \"1\", \"value\": 3}] | input[1]  | 3          |
+      | com.cytomine.dummy.identity.integer.collection | 0.1.0        | input      | [{\"index\": \"0\", \"value\": 1}, {\"index\": \"0\", \"value\": 2}] | [{\"index\": \"1\", \"value\": 3}] | input[0]  | 2          |
+
+  Scenario Outline: successful provisioning of the items of nested collections using the items endpoint
+
+    Given a task has been successfully uploaded
+    And this task has "<task_namespace>" and "<task_version>"
+    And this task has only one input parameter "<param_name>" of type "array"
+    And the collection parameter "<param_name>" accepts between 1 and 2 items
+    And the collection parameter "<param_name>" is a collection of these collections accepting between 2 and 2 items
+    And a task run has been created for this task
+    And this task run has not been provisioned yet and is therefore in state "CREATED"
+    When a user calls the items provisioning endpoint of collection "<param_name>" with "<items>"
+    Then the App Engine returns a '200 OK' HTTP response with the updated task run information as JSON payload
+    And the collection "<param_name>" is saved in the database with 2 items and provisioned "true"
+    And the collection "<param_name>[0]" is saved in the database with 2 items and provisioned "true"
+    And the collection "<param_name>[1]" is saved in the database with 1 items and provisioned "true"
+    And the item "<param_name>[0][1]" of the collection has the value 2
+    And the task run states changes to "PROVISIONED" because the task is now completely provisioned
+
+    Examples:
+      | task_namespace                                 | task_version | param_name | items                                                                                                                  |
+      | com.cytomine.dummy.identity.integer.collection | 0.1.0        | input      | [{\"index\": \"0/0\", \"value\": 1}, {\"index\": \"0/1\", \"value\": 2}, {\"index\": \"1/0\", \"value\": 3}]           |
+
+  Scenario Outline: failed provisioning of the items of a collection with invalid items using the items endpoint
+
+    Given a task has been successfully uploaded
+    And this task has "<task_namespace>" and "<task_version>"
+    And this task has only one input parameter "<param_name>" of type "array"
+    And a task run has been created for this task
+    And this task run has not been provisioned yet and is therefore in state "CREATED"
+    When a user calls the items provisioning endpoint of collection "<param_name>" with "<items>"
+    Then the App Engine returns a "400" batch error response with <errors> errors
+    And no item of the collection "<param_name>" is saved in the database
+    And the task run states changes to "CREATED" because the task is now completely provisioned
+
+    Examples:
+      | task_namespace                                 | task_version | param_name | items                                                                                                           | errors |
+      | com.cytomine.dummy.identity.integer.collection | 0.1.0        | input      | [{\"index\": \"0\", \"value\": 1}, {\"index\": \"a/b\", \"value\": 2}]                                          | 1      |
+      | com.cytomine.dummy.identity.integer.collection | 0.1.0        | input      | [{\"index\": \"0\", \"value\": \"one\"}, {\"index\": \"1\", \"value\": 2}, {\"index\": \"-1\", \"value\": 3}]   | 2      |
+
   # TODO failed re-provisioning of a task of which the state is not one of {'CREATED', 'PROVISIONED'}
 
 
@@ -1,14 +1,115 @@
 package be.cytomine.config;
 
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.HttpClientProperties;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cloud.gateway.mvc.config.ProxyExchangeArgumentResolver;
+import org.springframework.cloud.gateway.mvc.config.ProxyProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
+import org.springframework.web.client.DefaultResponseErrorHandler;
 import org.springframework.web.client.RestTemplate;
 
+/**
+ * Outbound HTTP clients.
+ * Each upstream (image server, app engine, others) has its own pool of keep-alive connections,
+ * so that a burst of tile requests cannot starve app engine calls (and the other way around).
+ * RestTemplate beans are monitored by JavaMelody (latency and errors per request) when it is enabled.
+ */
 @Configuration
 public class RestClientConfig {
 
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public CloseableHttpClient generalHttpClient(ApplicationProperties applicationProperties) {
+        return buildHttpClient(applicationProperties.getHttpClient().getGeneral());
+    }
+
+    @Bean
+    public CloseableHttpClient imageServerHttpClient(ApplicationProperties applicationProperties) {
+        return buildHttpClient(applicationProperties.getHttpClient().getImageServer());
+    }
+
+    @Bean
+    public CloseableHttpClient appEngineHttpClient(ApplicationProperties applicationProperties) {
+        return buildHttpClient(applicationProperties.getHttpClient().getAppEngine());
+    }
+
+    @Bean
+    @Primary
+    public RestTemplate restTemplate(@Qualifier("generalHttpClient") CloseableHttpClient httpClient) {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+    }
+
+    @Bean
+    public RestTemplate imageServerRestTemplate(@Qualifier("imageServerHttpClient") CloseableHttpClient httpClient) {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+    }
+
+    @Bean
+    public RestTemplate appEngineRestTemplate(@Qualifier("appEngineHttpClient") CloseableHttpClient httpClient) {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+    }
+
+    /**
+     * ProxyExchange arguments (image server responses proxied to the client) use the image server pool.
+     * Replaces the resolver of ProxyResponseAutoConfiguration, built the same way but from its own RestTemplate,
+     * so that the auto-configured RestTemplateBuilder is left to the other clients.
+     */
+    @Bean
+    public ProxyExchangeArgumentResolver proxyExchangeArgumentResolver(@Qualifier("imageServerHttpClient") CloseableHttpClient httpClient,
+                                                                       ProxyProperties proxyProperties) {
+        RestTemplate template = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+        // the responses of the image server are given back to the client as they are, errors included
+        template.setErrorHandler(new DefaultResponseErrorHandler() {
+            @Override
+            public void handleError(ClientHttpResponse response) {
+            }
+        });
+        template.getMessageConverters().add(new ByteArrayHttpMessageConverter() {
+            @Override
+            public boolean supports(Class<?> clazz) {
+                return true;
+            }
+        });
+
+        ProxyExchangeArgumentResolver resolver = new ProxyExchangeArgumentResolver(template);
+        resolver.setHeaders(proxyProperties.convertHeaders());
+        resolver.setAutoForwardedHeaders(proxyProperties.getAutoForward());
+        resolver.setSensitive(proxyProperties.getSensitive());
+        return resolver;
+    }
+
+    private static CloseableHttpClient buildHttpClient(HttpClientProperties.Pool pool) {
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(pool.getMaxConnections())
+                .setMaxConnPerRoute(pool.getMaxConnectionsPerRoute())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(pool.getConnectTimeout()))
+                        .setSocketTimeout(Timeout.of(pool.getResponseTimeout()))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(pool.getConnectionRequestTimeout()))
+                        .setResponseTimeout(Timeout.of(pool.getResponseTimeout()))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(pool.getIdleTimeout()))
+                .build();
     }
 }
@@ -3,7 +3,10 @@ package be.cytomine.config.nosqlmigration;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import be.cytomine.service.social.ImageConsultationActivityService;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.IndexModel;
 import com.mongodb.client.model.IndexOptions;
 import com.mongodb.client.model.Indexes;
@@ -89,6 +92,47 @@ public class InitialMongodbSetupMigration {
                 new IndexModel(Indexes.compoundIndex(Indexes.ascending("image")), new IndexOptions().name("image_1").version(1))
             )
         );
+
+        createCollectionIfNotExists(
+            ImageConsultationActivityService.ACTIVITY_COLLECTION,
+            List.of(
+                new IndexModel(Indexes.ascending("_id"), new IndexOptions().name("_id_").version(1)),
+                new IndexModel(Indexes.compoundIndex( Indexes.ascending("user"), Indexes.ascending("image"), Indexes.descending("created")), new IndexOptions().name("user_1_image_1_created_-1").version(1)),
+                new IndexModel(Indexes.ascending("image"), new IndexOptions().name("image_1").version(1))
+            )
+        );
+
+        if (!template.collectionExists(ImageConsultationActivityService.SUMMARY_COLLECTION)) {
+            createCollectionIfNotExists(
+                ImageConsultationActivityService.SUMMARY_COLLECTION,
+                List.of(
+                    new IndexModel(Indexes.ascending("_id"), new IndexOptions().name("_id_").version(1)),
+                    new IndexModel(Indexes.compoundIndex( Indexes.ascending("_id.project"), Indexes.ascending("_id.user")), new IndexOptions().name("_id.project_1__id.user_1").version(1)),
+                    new IndexModel(Indexes.ascending("_id.image"), new IndexOptions().name("_id.image_1").version(1))
+                )
+            );
+            summarizeImageConsultations();
+        }
+    }
+
+    /**
+     * Fill the consultation summaries with the existing consultations.
+     * Consultations still open are counted without time, their time is added to the summary when they are closed.
+     */
+    private void summarizeImageConsultations() {
+        log.info("summarize image consultations");
+        template.getCollection("persistentImageConsultation").aggregate(List.of(
+            Aggregates.sort(Indexes.ascending("created")),
+            Aggregates.group(new Document("project", "$project").append("user", "$user").append("image", "$image"),
+                Accumulators.sum("time", new Document("$ifNull", List.of("$time", 0L))),
+                Accumulators.sum("frequency", 1),
+                Accumulators.sum("countCreatedAnnotations", new Document("$ifNull", List.of("$countCreatedAnnotations", 0))),
+                Accumulators.min("first", "$created"),
+                Accumulators.max("last", "$created"),
+                Accumulators.last("imageName", "$imageName"),
+                Accumulators.last("imageThumb", "$imageThumb")),
+            Aggregates.merge(ImageConsultationActivityService.SUMMARY_COLLECTION)
+        )).allowDiskUse(true).toCollection();
     }
 
     public MongoCollection<Document> createCollectionIfNotExists(String name, List<IndexModel> indexes) {
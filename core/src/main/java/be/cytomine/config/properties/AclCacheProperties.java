@@ -0,0 +1,60 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.Data;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * Cache of the ACL masks (see AclPermissionCache)
+ */
+@Data
+@ToString
+public class AclCacheProperties {
+
+    public enum Replication {
+        /**
+         * Invalidations only reach the instance doing the change, for a single instance deployment
+         * (the other instances see the change after expireAfterWrite)
+         */
+        NONE,
+        /**
+         * Invalidations are broadcast to the other instances through a Postgres LISTEN/NOTIFY channel.
+         * Each instance keeps a database connection to listen to the channel.
+         */
+        POSTGRES
+    }
+
+    private boolean enabled = true;
+
+    /**
+     * Maximum number of (domain, user) masks kept by this instance
+     */
+    private int maxEntries = 10000;
+
+    /**
+     * Bound the time during which a change of ACL done by another instance is not seen by this one
+     * (if an invalidation is lost)
+     */
+    private Duration expireAfterWrite = Duration.ofSeconds(60);
+
+    private Replication replication = Replication.POSTGRES;
+
+    private String channel = "cytomine_acl_cache";
+}
@@ -0,0 +1,48 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+import lombok.Data;
+import lombok.ToString;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * Daily rollup of the project activity used by the evolution statistics (see ProjectActivityRollupService)
+ */
+@Data
+@ToString
+public class ActivityRollupProperties {
+
+    /**
+     * If true, the annotation evolution charts are aligned on days and full past days are read from the rollup
+     */
+    private boolean enabled = false;
+
+    private Duration refreshInterval = Duration.ofMinutes(10);
+
+    /**
+     * Number of days before the last refresh recomputed at each refresh (e.g. to take deleted annotations into account)
+     */
+    private int recomputeDays = 7;
+
+    /**
+     * Zone of the days of the rollup, and of the periods of the evolution charts aligned on days
+     */
+    private ZoneId zone = ZoneOffset.UTC;
+}
@@ -0,0 +1,45 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+import lombok.Data;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * Compaction of the annotation counter deltas, see AnnotationCounterCompactor.
+ * The counters written by the triggers are deferred unless the datasource sets cytomine.annotation_counters to 'immediate'.
+ */
+@Data
+@ToString
+public class AnnotationCounterProperties {
+
+    /**
+     * If false, deltas are still recorded but not compacted by this instance
+     */
+    private boolean enabled = true;
+
+    /**
+     * Maximum number of deltas folded in one transaction
+     */
+    private int batchSize = 10000;
+
+    /**
+     * Bound the staleness of the stored counters (project listing, image listing)
+     */
+    private Duration pollInterval = Duration.ofSeconds(1);
+}
@@ -0,0 +1,39 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.Data;
+import lombok.ToString;
+
+/**
+ * Bulk import of user annotations and of task run outputs, see UserAnnotationImportService
+ * and TaskRunOutputIngestionService
+ */
+@Data
+@ToString
+public class AnnotationImportProperties {
+
+    /**
+     * Number of annotations inserted at once (and committed at once by the user annotation import)
+     */
+    private int batchSize = 1000;
+
+    /**
+     * Number of threads processing the locations (parsing, conversion, simplification, validation)
+     */
+    private int parallelism = 4;
+}
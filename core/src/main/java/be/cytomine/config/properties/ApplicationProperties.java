@@ -28,6 +28,32 @@ public class ApplicationProperties {
 
     private AppEngineProperties appEngine;
 
+    private TaskRunProvisioningProperties taskRunProvisioning = new TaskRunProvisioningProperties();
+
+    private HttpClientProperties httpClient = new HttpClientProperties();
+
+    private ImageCacheProperties imageCache = new ImageCacheProperties();
+
+    private CbirIndexProperties cbirIndex = new CbirIndexProperties();
+
+    private UserPositionProperties userPosition = new UserPositionProperties();
+
+    private SequenceProperties sequence = new SequenceProperties();
+
+    private AnnotationImportProperties annotationImport = new AnnotationImportProperties();
+
+    private AclCacheProperties aclCache = new AclCacheProperties();
+
+    private AnnotationCounterProperties annotationCounter = new AnnotationCounterProperties();
+
+    private AnnotationClusterGridProperties annotationClusterGrid = new AnnotationClusterGridProperties();
+
+    private ActivityRollupProperties activityRollup = new ActivityRollupProperties();
+
+    private LockProperties lock = new LockProperties();
+
+    private PresenceProperties presence = new PresenceProperties();
+
     private String instanceHostWebsite;
 
     private String instanceHostSupportMail;
@@ -0,0 +1,58 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.Data;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * Asynchronous indexing of annotations in the CBIR service, see CbirIndexWorker
+ */
+@Data
+@ToString
+public class CbirIndexProperties {
+
+    /**
+     * If false, events are still recorded but not processed by this instance
+     */
+    private boolean enabled = true;
+
+    private int workers = 4;
+
+    /**
+     * Maximum number of events claimed at once
+     */
+    private int batchSize = 32;
+
+    private Duration pollInterval = Duration.ofSeconds(2);
+
+    /**
+     * Claimed events are retried by any instance after this delay if they are not processed (e.g. crash)
+     */
+    private Duration lease = Duration.ofMinutes(5);
+
+    /**
+     * Events are marked as failed after this number of attempts
+     */
+    private int maxAttempts = 10;
+
+    private Duration initialBackoff = Duration.ofSeconds(5);
+
+    private Duration maxBackoff = Duration.ofHours(1);
+}
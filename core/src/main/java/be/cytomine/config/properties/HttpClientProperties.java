@@ -0,0 +1,69 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * Outbound HTTP connection pools, one per upstream (see RestClientConfig)
+ */
+@Data
+@ToString
+public class HttpClientProperties {
+
+    private Pool general = new Pool(50, 20, Duration.ofSeconds(5), Duration.ofSeconds(60), Duration.ofSeconds(10), Duration.ofSeconds(30));
+
+    private Pool imageServer = new Pool(200, 200, Duration.ofSeconds(5), Duration.ofSeconds(60), Duration.ofSeconds(10), Duration.ofSeconds(30));
+
+    private Pool appEngine = new Pool(50, 50, Duration.ofSeconds(5), Duration.ofSeconds(300), Duration.ofSeconds(10), Duration.ofSeconds(30));
+
+    @Data
+    @ToString
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Pool {
+
+        /**
+         * Maximum number of open connections, requests above this limit wait for a free connection
+         */
+        private int maxConnections;
+
+        private int maxConnectionsPerRoute;
+
+        private Duration connectTimeout;
+
+        /**
+         * Maximum time between two packets of the response
+         */
+        private Duration responseTimeout;
+
+        /**
+         * Maximum time to wait for a free connection in the pool
+         */
+        private Duration connectionRequestTimeout;
+
+        /**
+         * Idle keep-alive connections are closed after this delay
+         */
+        private Duration idleTimeout;
+    }
+}
@@ -0,0 +1,46 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.Data;
+import lombok.ToString;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Cache of image server responses (thumbs, labels, tiles, crops), see ImageResponseCache
+ */
+@Data
+@ToString
+public class ImageCacheProperties {
+
+    private boolean enabled = true;
+
+    private DataSize memorySize = DataSize.ofMegabytes(256);
+
+    /**
+     * Larger responses are never cached
+     */
+    private DataSize maxEntrySize = DataSize.ofMegabytes(4);
+
+    /**
+     * Directory of the disk tier, the disk tier is disabled if empty.
+     * Files are stored in its image-response-cache subdirectory, which is cleared on startup.
+     */
+    private String diskPath;
+
+    private DataSize diskSize = DataSize.ofGigabytes(4);
+}
@@ -0,0 +1,56 @@
+package be.cytomine.config.properties;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.Data;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * Locks shared by the requests (ex: image deletion in a project), see LockService
+ */
+@Data
+@ToString
+public class LockProperties {
+
+    public enum Backend {
+        /**
+         * Locks of this instance only, for a single instance deployment
+         */
+        MEMORY,
+        /**
+         * Postgres advisory locks, shared by all the instances. Each held (or awaited) lock uses a database connection,
+         * from a pool of maxLocks connections dedicated to the locks.
+         */
+        POSTGRES
+    }
+
+    private Backend backend = Backend.POSTGRES;
+
+    /**
+     * Maximum time to wait for a lock
+     */
+    private Duration waitTimeout = Duration.ofSeconds(60);
+
+    /**
+     * Maximum number of locks held or awaited at the same time by this instance (and size of the connection pool
+     * of the POSTGRES backend)
+     */
+    private int maxLocks = 16;
+}
@@ -0,0 +1,57 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.Data;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * Registry of the online users, see PresenceService
+ */
+@Data
+@ToString
+public class PresenceProperties {
+
+    public enum Replication {
+        /**
+         * Heartbeats are only known by the instance receiving them, for a single instance deployment
+         */
+        NONE,
+        /**
+         * Heartbeats are broadcast to the other instances through a Postgres LISTEN/NOTIFY channel.
+         * Each instance keeps a database connection to listen to the channel.
+         */
+        POSTGRES
+    }
+
+    /**
+     * A user is online during this duration after its last heartbeat
+     */
+    private Duration ttl = Duration.ofMinutes(5);
+
+    private Replication replication = Replication.POSTGRES;
+
+    private String channel = "cytomine_presence";
+
+    /**
+     * A heartbeat of a user (in a project, on an image) is broadcast at most once per interval.
+     * It must be shorter than the ttl and than the window of the online users of an image (30 seconds).
+     */
+    private Duration broadcastInterval = Duration.ofSeconds(10);
+}
@@ -0,0 +1,45 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.Data;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * Provisioning of the binary items of task run collections, see TaskRunProvisioningPipeline
+ */
+@Data
+@ToString
+public class TaskRunProvisioningProperties {
+
+    /**
+     * Number of items transferred at the same time from the image server to the app engine, for all runs
+     */
+    private int workers = 8;
+
+    /**
+     * Maximum number of items of a single provisioning transferred at the same time
+     */
+    private int parallelism = 4;
+
+    /**
+     * Progress of a finished provisioning is kept for this duration
+     */
+    private Duration progressRetention = Duration.ofHours(1);
+}
@@ -0,0 +1,74 @@
+package be.cytomine.config.properties;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.Data;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * Recording of the user positions, see UserPositionBuffer
+ */
+@Data
+@ToString
+public class UserPositionProperties {
+
+    public enum Durability {
+        /**
+         * Positions are written to the database before the response
+         */
+        SYNCHRONOUS,
+        /**
+         * Positions are buffered and written by batches. Positions not flushed yet are lost if the instance crashes.
+         */
+        WRITE_BEHIND
+    }
+
+    private Durability durability = Durability.WRITE_BEHIND;
+
+    /**
+     * Maximum delay before a buffered position is written
+     */
+    private Duration flushInterval = Duration.ofSeconds(1);
+
+    /**
+     * A flush is triggered as soon as this number of positions are buffered
+     */
+    private int batchSize = 500;
+
+    /**
+     * Maximum number of buffered positions. When reached, requests write the buffer themselves.
+     */
+    private int maxPending = 20000;
+
+    /**
+     * Maximum number of (user, image, slice) latest positions kept in memory
+     */
+    private int maxTracked = 50000;
+
+    /**
+     * True if this instance is the only one recording positions: the positions kept in memory are then complete
+     * and reads do not query the database. Otherwise, they are merged with the positions of the database.
+     */
+    private boolean singleNode = false;
+
+    /**
+     * Number of times a batch that cannot be written is retried (at each flush interval) before its positions are lost
+     */
+    private int maxRetries = 3;
+}
@@ -27,12 +27,13 @@ import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.exceptions.ServerException;
 import be.cytomine.service.CurrentRoleService;
 import be.cytomine.service.CurrentUserService;
+import be.cytomine.service.lock.HeldLock;
+import be.cytomine.service.lock.LockService;
 import be.cytomine.service.meta.PropertyService;
 import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
-import be.cytomine.utils.Lock;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
@@ -59,6 +60,8 @@ public class CustomUIController extends RestCytomineController {
 
     private final PropertyService propertyService;
 
+    private final LockService lockService;
+
     private final ApplicationProperties applicationProperties;
 
     static String CUSTOM_UI_PROJECT = "@CUSTOM_UI_PROJECT";
@@ -101,33 +104,32 @@ public class CustomUIController extends RestCytomineController {
         Project project = projectService.find(projectId)
                 .orElseThrow(() -> new ObjectNotFoundException("Project", projectId));
 
-        if (Lock.getInstance().lockCustomUI(project)) {
-            try {
-                Optional<Property> optionalProperty = propertyService.findByDomainAndKey(project,CUSTOM_UI_PROJECT);
-                securityACLService.check(project,ADMINISTRATION);
-
-                if(optionalProperty.isEmpty()) {
-                    Property property = new Property();
-                    property.setKey(CUSTOM_UI_PROJECT);
-                    property.setValue(jsonObject.toJsonString());
-                    property.setDomain(project);
-
-                    CommandResponse result = propertyService.add(property.toJsonObject());
-                    responseSuccess((String)((LinkedHashMap)result.getData().get("property")).get("value"));
-                } else {
-                    JsonObject jsonEdit = optionalProperty.get().toJsonObject()
-                            .withChange("value", jsonObject.toJsonString());
-
-                    CommandResponse result = propertyService.update(optionalProperty.get(),jsonEdit);
-                    responseSuccess((String)((LinkedHashMap)result.getData().get("property")).get("value"));
-                }
-
-                return responseSuccess(JsonObject.toJsonString(getProjectConfig(project)));
-            } finally {
-                Lock.getInstance().unlockCustomUI(project);
+        try (HeldLock lock = lockService.tryLock("customUI/" + project.getId())
+                .orElseThrow(() -> new ServerException("Cannot acquire lock for custom UI project " + project.getId()))) {
+            Optional<Property> optionalProperty = propertyService.findByDomainAndKey(project,CUSTOM_UI_PROJECT);
+            securityACLService.check(project,ADMINISTRATION);
+            if (!lock.isValid()) {
+                // the property is saved in its own transaction: check the lock before, another request may hold it
+                throw new ServerException("Lock for custom UI project " + project.getId() + " lost");
             }
-        } else {
-            throw new ServerException("Cannot acquire lock for custom UI project " + project.getId()  + " , tryLock return false");
+
+            if(optionalProperty.isEmpty()) {
+                Property property = new Property();
+                property.setKey(CUSTOM_UI_PROJECT);
+                property.setValue(jsonObject.toJsonString());
+                property.setDomain(project);
+
+                CommandResponse result = propertyService.add(property.toJsonObject());
+                responseSuccess((String)((LinkedHashMap)result.getData().get("property")).get("value"));
+            } else {
+                JsonObject jsonEdit = optionalProperty.get().toJsonObject()
+                        .withChange("value", jsonObject.toJsonString());
+
+                CommandResponse result = propertyService.update(optionalProperty.get(),jsonEdit);
+                responseSuccess((String)((LinkedHashMap)result.getData().get("property")).get("value"));
+            }
+
+            return responseSuccess(JsonObject.toJsonString(getProjectConfig(project)));
         }
     }
 
@@ -19,6 +19,7 @@ import be.cytomine.utils.RequestParams;
 import be.cytomine.utils.Task;
 import be.cytomine.utils.filters.SearchParameterEntry;
 import be.cytomine.utils.filters.SearchParametersUtils;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
@@ -33,11 +34,13 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URLDecoder;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -227,6 +230,54 @@ public abstract class RestCytomineController {
         return JsonResponseEntity.status(HttpStatus.OK).body(buildJsonList(list, offsetParameter, maxParameter).toJsonString()); //TODO: perf convert after buildJsonList will avoid converting unused items (out of page)
     }
 
+    /**
+     * Write a collection directly into the response, item by item, as the producer sends them.
+     * The envelope is the same as buildJsonList, but paging metadata are written after the collection
+     * since the total size is only known at the end.
+     * Nothing is written until the first item is produced, so that errors raised before can still be handled.
+     */
+    protected void responseSuccessStream(Consumer<Consumer<Object>> producer, Long offsetParameter, Long maxParameter) throws IOException {
+        long offset = offsetParameter != null ? offsetParameter : 0;
+        long max = (maxParameter != null && maxParameter != 0) ? maxParameter : Integer.MAX_VALUE;
+
+        response.setStatus(200);
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+
+        JsonGenerator generator = new ObjectMapper().getFactory().createGenerator(response.getOutputStream());
+        long[] size = {0};
+        try {
+            producer.accept(item -> {
+                try {
+                    if (size[0] == 0) {
+                        generator.writeStartObject();
+                        generator.writeArrayFieldStart("collection");
+                    }
+                    if (size[0] >= offset && size[0] - offset < max) {
+                        generator.writeObject(item);
+                    }
+                    size[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (size[0] == 0) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("collection");
+        }
+        generator.writeEndArray();
+        generator.writeNumberField("offset", offset);
+        generator.writeNumberField("perPage", Math.min(max, size[0]));
+        generator.writeNumberField("size", size[0]);
+        generator.writeNumberField("totalPages", (int) Math.ceil((double) size[0] / (double) max));
+        generator.writeEndObject();
+        generator.close();
+    }
+
     protected ResponseEntity<String> responseSuccess(CytomineDomain response, boolean isFilterRequired) {
         JsonObject json = response.toJsonObject();
         if (isFilterRequired) {
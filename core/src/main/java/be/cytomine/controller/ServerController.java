@@ -4,10 +4,12 @@ import be.cytomine.config.properties.ApplicationProperties;
 import be.cytomine.domain.security.User;
 import be.cytomine.domain.social.LastConnection;
 import be.cytomine.domain.social.PersistentConnection;
+import be.cytomine.exceptions.CytomineException;
 import be.cytomine.repositorynosql.social.LastConnectionRepository;
 import be.cytomine.repositorynosql.social.PersistentConnectionRepository;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.database.SequenceService;
+import be.cytomine.service.social.PresenceService;
 import be.cytomine.utils.JsonObject;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -41,6 +43,8 @@ public class ServerController extends RestCytomineController {
 
     private final LastConnectionRepository lastConnectionRepository;
 
+    private final PresenceService presenceService;
+
     @RequestMapping(value = {"/server/ping.json", "/server/ping"}, method = {RequestMethod.GET, RequestMethod.POST}) // without.json is deprecated
     public ResponseEntity<String> ping(HttpSession session) throws IOException {
         log.debug("REST request to ping");
@@ -51,6 +55,11 @@ public class ServerController extends RestCytomineController {
         response.put("serverURL", applicationProperties.getServerURL());
         response.put("serverID", applicationProperties.getServerId());
 
+        if (isAuthenticated()) {
+            // the pings of the web UI are the heartbeats of the online users
+            addHeartbeat(json);
+        }
+
         // TODO 2024.2 - LAST CONNECTION (IN A PROJECT)
 //        if (isAuthenticated()) {
 //            User user = currentUserService.getCurrentUser();
@@ -81,6 +90,14 @@ public class ServerController extends RestCytomineController {
                 .map(GrantedAuthority::getAuthority);
     }
 
+    private void addHeartbeat(JsonObject json) {
+        try {
+            presenceService.heartbeat(currentUserService.getCurrentUser().getId(), json.getJSONAttrLong("project", null));
+        } catch (CytomineException e) {
+            log.debug("Ping without heartbeat: " + e.getMessage());
+        }
+    }
+
     void addLastConnection(User user, Long idProject) {
         try {
             LastConnection connection = new LastConnection();
@@ -8,13 +8,16 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import be.cytomine.domain.annotation.Annotation;
 import be.cytomine.domain.annotation.AnnotationLayer;
+import be.cytomine.dto.annotation.AnnotationViewportPage;
 import be.cytomine.dto.appengine.task.TaskRunLayerValue;
 import be.cytomine.exceptions.ObjectNotFoundException;
 import be.cytomine.service.annotation.AnnotationLayerService;
+import be.cytomine.service.annotation.AnnotationViewportService;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -22,8 +25,12 @@ import be.cytomine.service.annotation.AnnotationLayerService;
 @RestController
 public class AnnotationLayerController {
 
+    public static final String MAPBOX_VECTOR_TILE = "application/vnd.mapbox-vector-tile";
+
     private final AnnotationLayerService annotationLayerService;
 
+    private final AnnotationViewportService annotationViewportService;
+
     @GetMapping("/image-instances/{id}/annotation-layers")
     public ResponseEntity<List<AnnotationLayer>> getAnnotationLayersByImage(@PathVariable Long id) {
         log.info("Retrieve all annotation layers for image instance {}", id);
@@ -34,11 +41,30 @@ public class AnnotationLayerController {
     public ResponseEntity<List<Annotation>> getAnnotationsByLayer(@PathVariable Long id) {
         log.info("Retrieve all annotations for annotation layer {}", id);
 
-        AnnotationLayer layer = annotationLayerService
-            .find(id)
-            .orElseThrow(() -> new ObjectNotFoundException("AnnotationLayer " + id + " not found"));
+        return ResponseEntity.ok(annotationLayerService.findAnnotationsByLayer(findLayer(id)));
+    }
 
-        return ResponseEntity.ok(annotationLayerService.findAnnotationsByLayer(layer));
+    @GetMapping("/annotation-layers/{id}/annotations/viewport")
+    public ResponseEntity<AnnotationViewportPage> getAnnotationsByLayerInViewport(
+        @PathVariable Long id,
+        @RequestParam String bbox,
+        @RequestParam(defaultValue = "0") Integer level,
+        @RequestParam(required = false) Integer limit,
+        @RequestParam(required = false) String cursor
+    ) {
+        log.info("Retrieve annotations for annotation layer {} in viewport {} at level {}", id, bbox, level);
+        return ResponseEntity.ok(annotationViewportService.findInViewport(findLayer(id), bbox, level, limit, cursor));
+    }
+
+    @GetMapping(value = "/annotation-layers/{id}/tiles/{level}/{x}/{y}.mvt", produces = MAPBOX_VECTOR_TILE)
+    public ResponseEntity<byte[]> getAnnotationTile(
+        @PathVariable Long id,
+        @PathVariable Integer level,
+        @PathVariable Integer x,
+        @PathVariable Integer y
+    ) {
+        log.debug("Retrieve tile {}/{}/{} for annotation layer {}", level, x, y, id);
+        return ResponseEntity.ok(annotationViewportService.findTile(findLayer(id), level, x, y));
     }
 
     @GetMapping("/annotation-layers/{id}/task-run-layer")
@@ -46,4 +72,10 @@ public class AnnotationLayerController {
         log.info("Restrieve all the task run layers for annotation layer {}", id);
         return ResponseEntity.ok(annotationLayerService.findTaskRunLayer(id));
     }
+
+    private AnnotationLayer findLayer(Long id) {
+        return annotationLayerService
+            .find(id)
+            .orElseThrow(() -> new ObjectNotFoundException("AnnotationLayer " + id + " not found"));
+    }
 }
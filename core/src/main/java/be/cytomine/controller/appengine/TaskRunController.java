@@ -98,6 +98,22 @@ public class TaskRunController {
         return taskRunService.provisionBinaryData(file, project, task, parameterName);
     }
 
+    @GetMapping("/project/{project}/task-runs/{task}/input-provisions/progress")
+    public ResponseEntity<String> provisioningProgress(
+        @PathVariable Long project,
+        @PathVariable UUID task
+    ) {
+        return taskRunService.getProvisioningProgress(project, task);
+    }
+
+    @PostMapping("/project/{project}/task-runs/{task}/input-provisions/cancel")
+    public ResponseEntity<String> cancelProvisioning(
+        @PathVariable Long project,
+        @PathVariable UUID task
+    ) {
+        return taskRunService.cancelProvisioning(project, task);
+    }
+
     @PostMapping("/project/{project}/task-runs/{task}/state-actions")
     public ResponseEntity<String> stateAction(
         @PathVariable Long project,
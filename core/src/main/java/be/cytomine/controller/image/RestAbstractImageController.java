@@ -18,7 +18,6 @@ import be.cytomine.utils.JsonObject;
 import org.locationtech.jts.io.ParseException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cloud.gateway.mvc.ProxyExchange;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -108,7 +107,7 @@ public class RestAbstractImageController extends RestCytomineController {
 
     // TODO:MIGRATION GET params vs POST params!
     @RequestMapping(value = "/abstractimage/{id}/thumb.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> thumb(
+    public void thumb(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Boolean refresh,
@@ -118,9 +117,7 @@ public class RestAbstractImageController extends RestCytomineController {
             @RequestParam(required = false) Double contrast,
             @RequestParam(required = false) Double gamma,
             @RequestParam(required = false) String bits,
-            @RequestParam(required = false) String Authorization,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String Authorization
     ) throws IOException {
         log.debug("REST request get abstractimage {} thumb {}", id, format);
         ImageParameter thumbParameter = new ImageParameter();
@@ -137,12 +134,12 @@ public class RestAbstractImageController extends RestCytomineController {
         AbstractImage abstractImage = abstractImageService.find(id, Authorization)
                 .orElseThrow(() -> new ObjectNotFoundException("AbstractImage", id));
         String etag = getRequestETag();
-        return imageServerService.thumb(sliceCoordinatesService.getReferenceSlice(abstractImage), thumbParameter, etag, proxy);
+        imageServerService.thumb(sliceCoordinatesService.getReferenceSlice(abstractImage), thumbParameter, etag, request, response);
     }
 
 
     @RequestMapping(value = "/abstractimage/{id}/preview.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> preview(
+    public void preview(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(defaultValue = "1024", required = false) Integer maxSize,
@@ -150,9 +147,7 @@ public class RestAbstractImageController extends RestCytomineController {
             @RequestParam(required = false) Boolean inverse,
             @RequestParam(required = false) Double contrast,
             @RequestParam(required = false) Double gamma,
-            @RequestParam(required = false) String bits,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String bits
     ) throws IOException {
         log.debug("REST request get abstractimage {} preview {}", id, format);
         ImageParameter previewParameter = new ImageParameter();
@@ -168,7 +163,7 @@ public class RestAbstractImageController extends RestCytomineController {
         AbstractImage abstractImage = abstractImageService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("AbstractImage", id));
         String etag = getRequestETag();
-        return imageServerService.thumb(sliceCoordinatesService.getReferenceSlice(abstractImage), previewParameter, etag, proxy);
+        imageServerService.thumb(sliceCoordinatesService.getReferenceSlice(abstractImage), previewParameter, etag, request, response);
     }
 
 
@@ -181,13 +176,12 @@ public class RestAbstractImageController extends RestCytomineController {
     }
 
     @RequestMapping(value = "/abstractimage/{id}/associated/{label}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> label(
+    public void label(
             @PathVariable Long id,
             @PathVariable String label,
             @PathVariable String format,
-            @RequestParam(defaultValue = "256") Integer maxSize,
-
-            ProxyExchange<byte[]> proxy) throws IOException {
+            @RequestParam(defaultValue = "256") Integer maxSize
+    ) throws IOException {
         log.debug("REST request to get associated image of a abstract image");
         AbstractImage abstractImage = abstractImageService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("AbstractImage", id));
@@ -196,11 +190,11 @@ public class RestAbstractImageController extends RestCytomineController {
         labelParameter.setLabel(label);
         labelParameter.setMaxSize(maxSize);
         String etag = getRequestETag();
-        return imageServerService.label(abstractImage, labelParameter, etag, proxy);
+        imageServerService.label(abstractImage, labelParameter, etag, request, response);
     }
 
     @RequestMapping(value = "/abstractimage/{id}/crop.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> crop(
+    public void crop(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(defaultValue = "256") Integer maxSize,
@@ -227,9 +221,7 @@ public class RestAbstractImageController extends RestCytomineController {
             @RequestParam(required = false) Integer alpha,
             @RequestParam(required = false) Integer thickness,
             @RequestParam(required = false) String color,
-            @RequestParam(required = false) Integer jpegQuality,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) Integer jpegQuality
     ) throws IOException, ParseException {
         log.debug("REST request to get associated image of a abstract image");
         AbstractImage abstractImage = abstractImageService.find(id)
@@ -263,20 +255,18 @@ public class RestAbstractImageController extends RestCytomineController {
         cropParameter.setFormat(format);
 
         String etag = getRequestETag();
-        return imageServerService.crop(sliceCoordinatesService.getReferenceSlice(abstractImage), cropParameter, etag, proxy);
+        imageServerService.crop(sliceCoordinatesService.getReferenceSlice(abstractImage), cropParameter, etag, request, response);
     }
 
     @RequestMapping(value = "/abstractimage/{id}/window-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> window(
+    public void window(
             @PathVariable Long id,
             @PathVariable String format,
             @PathVariable Integer x,
             @PathVariable Integer y,
             @PathVariable Integer w,
             @PathVariable Integer h,
-            @RequestParam(defaultValue = "false", required = false) Boolean withExterior,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(defaultValue = "false", required = false) Boolean withExterior
     ) throws IOException, ParseException {
         log.debug("REST request get abstractimage {} window {}", id, format);
         WindowParameter windowParameter = new WindowParameter();
@@ -289,19 +279,17 @@ public class RestAbstractImageController extends RestCytomineController {
         AbstractImage abstractImage = abstractImageService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("AbstractImage", id));
         String etag = getRequestETag();
-        return imageServerService.window(sliceCoordinatesService.getReferenceSlice(abstractImage), windowParameter, etag, proxy);
+        imageServerService.window(sliceCoordinatesService.getReferenceSlice(abstractImage), windowParameter, etag, request, response);
     }
 
     @RequestMapping(value = "/abstractimage/{id}/camera-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> camera(
+    public void camera(
             @PathVariable Long id,
             @PathVariable String format,
             @PathVariable Integer x,
             @PathVariable Integer y,
             @PathVariable Integer w,
-            @PathVariable Integer h,
-
-            ProxyExchange<byte[]> proxy
+            @PathVariable Integer h
     ) throws IOException, ParseException {
         log.debug("REST request get abstractimage {} camera {}", id, format);
         WindowParameter windowParameter = new WindowParameter();
@@ -314,7 +302,7 @@ public class RestAbstractImageController extends RestCytomineController {
         AbstractImage abstractImage = abstractImageService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("AbstractImage", id));
         String etag = getRequestETag();
-        return imageServerService.window(sliceCoordinatesService.getReferenceSlice(abstractImage), windowParameter, etag, proxy);
+        imageServerService.window(sliceCoordinatesService.getReferenceSlice(abstractImage), windowParameter, etag, request, response);
     }
 
     @GetMapping("/abstractimage/{id}/metadata.json")
@@ -349,13 +337,13 @@ public class RestAbstractImageController extends RestCytomineController {
     }
 
     @GetMapping("/abstractimage/{id}/download")
-    public ResponseEntity<byte[]> download(
+    public void download(
         @PathVariable Long id,
-        @RequestParam String Authorization,
-        ProxyExchange<byte[]> proxy) throws IOException {
+        @RequestParam String Authorization
+    ) throws IOException {
         log.debug("REST request to download image instance");
         AbstractImage abstractImage = abstractImageService.find(id, Authorization)
                 .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", id));
-        return imageServerService.download(abstractImage, proxy);
+        imageServerService.download(abstractImage, request, response);
     }
 }
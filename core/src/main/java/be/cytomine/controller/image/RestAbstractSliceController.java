@@ -17,7 +17,6 @@ import be.cytomine.utils.JsonObject;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.io.ParseException;
-import org.springframework.cloud.gateway.mvc.ProxyExchange;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -122,7 +121,7 @@ public class RestAbstractSliceController extends RestCytomineController {
     }
 
     @GetMapping("/abstractslice/{id}/normalized-tile/zoom/{z}/tx/{tx}/ty/{ty}.{format}")
-    public ResponseEntity<byte[]> tile(
+    public void tile(
             @PathVariable Long id,
             @PathVariable Long z,
             @PathVariable Long tx,
@@ -136,9 +135,7 @@ public class RestAbstractSliceController extends RestCytomineController {
             @RequestParam(required = false) String minIntensities,
             @RequestParam(required = false) String maxIntensities,
             @RequestParam(required = false) String gammas,
-            @RequestParam(required = false) String colormaps,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String colormaps
     ) throws IOException {
         /* Request parameter validation is delegated to PIMS to avoid double validation. Moreover, these parameter
         validation is complex as they can accept multiple types: e.g. 'gammas' accept a Double or List<Double> whose
@@ -163,14 +160,14 @@ public class RestAbstractSliceController extends RestCytomineController {
         tileParameters.setColormaps(colormaps);
 
         String etag = getRequestETag();
-        return imageServerService.normalizedTile(abstractSlice, tileParameters, etag, proxy);
+        imageServerService.normalizedTile(abstractSlice, tileParameters, etag, request, response);
     }
 
 
     //
 //    // TODO:MIGRATION GET params vs POST params!
     @RequestMapping(value = "/abstractslice/{id}/thumb.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]>thumb(
+    public void thumb(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Boolean refresh,
@@ -179,9 +176,7 @@ public class RestAbstractSliceController extends RestCytomineController {
             @RequestParam(required = false) Boolean inverse,
             @RequestParam(required = false) Double contrast,
             @RequestParam(required = false) Double gamma,
-            @RequestParam(required = false) String bits,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String bits
     ) throws IOException {
         log.debug("REST request get abstractslice {} thumb {}", id, format);
         ImageParameter thumbParameter = new ImageParameter();
@@ -198,11 +193,11 @@ public class RestAbstractSliceController extends RestCytomineController {
         AbstractSlice abstractSlice = abstractSliceService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("AbstractSlice", id));
         String etag = getRequestETag();
-        return imageServerService.thumb(abstractSlice, thumbParameter, etag, proxy);
+        imageServerService.thumb(abstractSlice, thumbParameter, etag, request, response);
     }
 
     @RequestMapping(value = "/abstractslice/{id}/crop.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> crop(
+    public void crop(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(defaultValue = "256") Integer maxSize,
@@ -229,9 +224,7 @@ public class RestAbstractSliceController extends RestCytomineController {
             @RequestParam(required = false) Integer alpha,
             @RequestParam(required = false) Integer thickness,
             @RequestParam(required = false) String color,
-            @RequestParam(required = false) Integer jpegQuality,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) Integer jpegQuality
     ) throws IOException, ParseException {
         log.debug("REST request to get associated image of a abstract slice");
         AbstractSlice abstractSlice = abstractSliceService.find(id)
@@ -265,20 +258,18 @@ public class RestAbstractSliceController extends RestCytomineController {
         cropParameter.setBits(bits!=null && !bits.equals("max") ? Integer.parseInt(bits): null);
         cropParameter.setFormat(format);
         String etag = getRequestETag();
-        return imageServerService.crop(abstractSlice, cropParameter, etag, proxy);
+        imageServerService.crop(abstractSlice, cropParameter, etag, request, response);
     }
 
     @RequestMapping(value = "/abstractslice/{id}/window-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> window(
+    public void window(
             @PathVariable Long id,
             @PathVariable String format,
             @PathVariable Integer x,
             @PathVariable Integer y,
             @PathVariable Integer w,
             @PathVariable Integer h,
-            @RequestParam(defaultValue = "false", required = false) Boolean withExterior,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(defaultValue = "false", required = false) Boolean withExterior
     ) throws IOException, ParseException {
         log.debug("REST request get abstractslice {} window {}", id, format);
         WindowParameter windowParameter = new WindowParameter();
@@ -291,19 +282,17 @@ public class RestAbstractSliceController extends RestCytomineController {
         AbstractSlice abstractSlice = abstractSliceService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("AbstractSlice", id));
         String etag = getRequestETag();
-        return  imageServerService.window(abstractSlice, windowParameter, etag, proxy);
+        imageServerService.window(abstractSlice, windowParameter, etag, request, response);
     }
 
     @RequestMapping(value = "/abstractslice/{id}/camera-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> camera(
+    public void camera(
             @PathVariable Long id,
             @PathVariable String format,
             @PathVariable Integer x,
             @PathVariable Integer y,
             @PathVariable Integer w,
-            @PathVariable Integer h,
-
-            ProxyExchange<byte[]> proxy
+            @PathVariable Integer h
     ) throws IOException, ParseException {
         log.debug("REST request get abstractslice {} camera {}", id, format);
         WindowParameter windowParameter = new WindowParameter();
@@ -316,7 +305,7 @@ public class RestAbstractSliceController extends RestCytomineController {
         AbstractSlice abstractSlice = abstractSliceService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("AbstractSlice", id));
         String etag = getRequestETag();
-        return imageServerService.window(abstractSlice, windowParameter, etag, proxy);
+        imageServerService.window(abstractSlice, windowParameter, etag, request, response);
     }
 
 }
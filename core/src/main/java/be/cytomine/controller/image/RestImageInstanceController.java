@@ -32,7 +32,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.io.ParseException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.cloud.gateway.mvc.ProxyExchange;
 
 import java.io.IOException;
 import java.util.Map;
@@ -197,7 +196,7 @@ public class RestImageInstanceController extends RestCytomineController {
 
     //    // TODO:MIGRATION GET params vs POST params!
     @RequestMapping(value = "/imageinstance/{id}/thumb.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> thumb(
+    public void thumb(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(defaultValue = "512", required = false) Integer maxSize,
@@ -206,9 +205,7 @@ public class RestImageInstanceController extends RestCytomineController {
             @RequestParam(required = false) Double contrast,
             @RequestParam(required = false) Double gamma,
             @RequestParam(required = false) String bits,
-            @RequestParam(required = false) String Authorization,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String Authorization
     ) throws IOException {
         log.debug("REST request get imageinstance {} thumb {}", id, format);
         ImageParameter thumbParameter = new ImageParameter();
@@ -224,12 +221,12 @@ public class RestImageInstanceController extends RestCytomineController {
                 .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", id));
 
         String etag = getRequestETag();
-        return imageServerService.thumb(imageInstance, thumbParameter, etag, proxy);
+        imageServerService.thumb(imageInstance, thumbParameter, etag, request, response);
     }
 
 
     @RequestMapping(value = "/imageinstance/{id}/preview.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> preview(
+    public void preview(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(defaultValue = "1024", required = false) Integer maxSize,
@@ -237,9 +234,7 @@ public class RestImageInstanceController extends RestCytomineController {
             @RequestParam(required = false) Boolean inverse,
             @RequestParam(required = false) Double contrast,
             @RequestParam(required = false) Double gamma,
-            @RequestParam(required = false) String bits,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String bits
     ) throws IOException {
         log.debug("REST request get imageInstance {} preview {}", id, format);
         ImageParameter previewParameter = new ImageParameter();
@@ -256,7 +251,7 @@ public class RestImageInstanceController extends RestCytomineController {
                 .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", id));
 
         String etag = getRequestETag();
-        return imageServerService.thumb(sliceCoordinatesService.getReferenceSlice(imageInstance.getBaseImage()), previewParameter, etag, proxy);
+        imageServerService.thumb(sliceCoordinatesService.getReferenceSlice(imageInstance.getBaseImage()), previewParameter, etag, request, response);
     }
 
 
@@ -308,13 +303,12 @@ public class RestImageInstanceController extends RestCytomineController {
 
 
     @RequestMapping(value = "/imageinstance/{id}/associated/{label}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> label(
+    public void label(
             @PathVariable Long id,
             @PathVariable String label,
             @PathVariable String format,
-            @RequestParam(defaultValue = "256") Integer maxSize,
-
-            ProxyExchange<byte[]> proxy) throws IOException {
+            @RequestParam(defaultValue = "256") Integer maxSize
+    ) throws IOException {
         log.debug("REST request to get associated image of an imageInstance image");
         ImageInstance imageInstance = imageInstanceService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", id));
@@ -326,11 +320,11 @@ public class RestImageInstanceController extends RestCytomineController {
         labelParameter.setLabel(label);
         labelParameter.setMaxSize(maxSize);
         String etag = getRequestETag();
-        return imageServerService.label(imageInstance, labelParameter, etag, proxy);
+        imageServerService.label(imageInstance, labelParameter, etag, request, response);
     }
 
     @RequestMapping(value = "/imageinstance/{id}/crop.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> crop(
+    public void crop(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(defaultValue = "256") Integer maxSize,
@@ -357,9 +351,7 @@ public class RestImageInstanceController extends RestCytomineController {
             @RequestParam(required = false) Integer alpha,
             @RequestParam(required = false) Integer thickness,
             @RequestParam(required = false) String color,
-            @RequestParam(required = false) Integer jpegQuality,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) Integer jpegQuality
     ) throws IOException, ParseException {
         log.debug("REST request to get associated image of a abstract image");
         ImageInstance imageInstance = imageInstanceService.find(id)
@@ -394,20 +386,18 @@ public class RestImageInstanceController extends RestCytomineController {
         cropParameter.setBits(bits != null && !bits.equals("max") ? Integer.parseInt(bits) : null);
         cropParameter.setFormat(format);
         String etag = getRequestETag();
-        return imageServerService.crop(sliceCoordinatesService.getReferenceSlice(imageInstance.getBaseImage()), cropParameter, etag, proxy);
+        imageServerService.crop(sliceCoordinatesService.getReferenceSlice(imageInstance.getBaseImage()), cropParameter, etag, request, response);
     }
 
     @RequestMapping(value = "/imageinstance/{id}/window-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> window(
+    public void window(
             @PathVariable Long id,
             @PathVariable String format,
             @PathVariable Integer x,
             @PathVariable Integer y,
             @PathVariable Integer w,
             @PathVariable Integer h,
-            @RequestParam(defaultValue = "false", required = false) Boolean withExterior,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(defaultValue = "false", required = false) Boolean withExterior
     ) throws IOException, ParseException {
         log.debug("REST request get imageInstance {} window {}", id, format);
         WindowParameter windowParameter = new WindowParameter();
@@ -422,19 +412,17 @@ public class RestImageInstanceController extends RestCytomineController {
                 .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", id));
 
         String etag = getRequestETag();
-        return imageServerService.window(sliceCoordinatesService.getReferenceSlice(imageInstance.getBaseImage()), windowParameter, etag, proxy);
+        imageServerService.window(sliceCoordinatesService.getReferenceSlice(imageInstance.getBaseImage()), windowParameter, etag, request, response);
     }
 
     @RequestMapping(value = "/imageinstance/{id}/camera-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> camera(
+    public void camera(
             @PathVariable Long id,
             @PathVariable String format,
             @PathVariable Integer x,
             @PathVariable Integer y,
             @PathVariable Integer w,
-            @PathVariable Integer h,
-
-            ProxyExchange<byte[]> proxy
+            @PathVariable Integer h
     ) throws IOException, ParseException {
         log.debug("REST request get imageInstance {} camera {}", id, format);
         WindowParameter windowParameter = new WindowParameter();
@@ -448,19 +436,19 @@ public class RestImageInstanceController extends RestCytomineController {
                 .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", id));
         // TODO : should we handle other window parameters?
         String etag = getRequestETag();
-        return imageServerService.window(sliceCoordinatesService.getReferenceSlice(imageInstance.getBaseImage()), windowParameter, etag, proxy);
+        imageServerService.window(sliceCoordinatesService.getReferenceSlice(imageInstance.getBaseImage()), windowParameter, etag, request, response);
     }
 
     @GetMapping("/imageinstance/{id}/download")
-    public ResponseEntity<byte[]> download(
+    public void download(
         @PathVariable Long id,
-        @RequestParam String Authorization,
-        ProxyExchange<byte[]> proxy) throws IOException {
+        @RequestParam String Authorization
+    ) throws IOException {
         log.debug("REST request to download image instance");
         ImageInstance imageinstance = imageInstanceService.find(id, Authorization)
                 .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", id));
 
-        return imageServerService.download(imageinstance.getBaseImage(), proxy);
+        imageServerService.download(imageinstance.getBaseImage(), request, response);
     }
 
     @GetMapping("/imageinstance/{id}/sliceinstance/reference.json")
@@ -5,7 +5,6 @@ import java.io.IOException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.io.ParseException;
-import org.springframework.cloud.gateway.mvc.ProxyExchange;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -88,7 +87,7 @@ public class RestSliceInstanceController extends RestCytomineController {
     }
 
     @GetMapping("/sliceinstance/{id}/normalized-tile/zoom/{z}/tx/{tx}/ty/{ty}.{format}")
-    public ResponseEntity<byte[]> tile(
+    public void tile(
             @PathVariable Long id,
             @PathVariable Long z,
             @PathVariable Long tx,
@@ -102,9 +101,7 @@ public class RestSliceInstanceController extends RestCytomineController {
             @RequestParam(required = false) String minIntensities,
             @RequestParam(required = false) String maxIntensities,
             @RequestParam(required = false) String gammas,
-            @RequestParam(required = false) String colormaps,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String colormaps
     ) throws IOException {
         /* Request parameter validation is delegated to PIMS to avoid double validation. Moreover, these parameter
         validation is complex as they can accept multiple types: e.g. 'gammas' accept a Double or List<Double> whose
@@ -129,12 +126,12 @@ public class RestSliceInstanceController extends RestCytomineController {
         tileParameters.setColormaps(colormaps);
 
         String etag = getRequestETag();
-        return imageServerService.normalizedTile(sliceInstance, tileParameters, etag, proxy);
+        imageServerService.normalizedTile(sliceInstance, tileParameters, etag, request, response);
     }
 
 //    // TODO:MIGRATION GET params vs POST params!
     @RequestMapping(value = "/sliceinstance/{id}/thumb.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> thumb(
+    public void thumb(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Boolean refresh,
@@ -143,9 +140,7 @@ public class RestSliceInstanceController extends RestCytomineController {
             @RequestParam(required = false) Boolean inverse,
             @RequestParam(required = false) Double contrast,
             @RequestParam(required = false) Double gamma,
-            @RequestParam(required = false) String bits,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String bits
     ) throws IOException {
         log.debug("REST request get sliceinstance {} thumb {}", id, format);
         ImageParameter thumbParameter = new ImageParameter();
@@ -163,11 +158,11 @@ public class RestSliceInstanceController extends RestCytomineController {
                 .orElseThrow(() -> new ObjectNotFoundException("SliceInstance", id));
 
         String etag = getRequestETag();
-        return imageServerService.thumb(sliceInstance, thumbParameter, etag, proxy);
+        imageServerService.thumb(sliceInstance, thumbParameter, etag, request, response);
     }
 
     @RequestMapping(value = "/sliceinstance/{id}/crop.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> crop(
+    public void crop(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(defaultValue = "256") Integer maxSize,
@@ -194,9 +189,7 @@ public class RestSliceInstanceController extends RestCytomineController {
             @RequestParam(required = false) Integer alpha,
             @RequestParam(required = false) Integer thickness,
             @RequestParam(required = false) String color,
-            @RequestParam(required = false) Integer jpegQuality,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) Integer jpegQuality
     ) throws IOException, ParseException {
         log.debug("REST request to get associated image of a slice instance");
         SliceInstance sliceInstance = sliceInstanceService.find(id)
@@ -232,20 +225,18 @@ public class RestSliceInstanceController extends RestCytomineController {
 
         String etag = getRequestETag();
 
-        return imageServerService.crop(sliceInstance.getBaseSlice(), cropParameter,etag, proxy);
+        imageServerService.crop(sliceInstance.getBaseSlice(), cropParameter,etag, request, response);
     }
 
     @RequestMapping(value = "/sliceinstance/{id}/window-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> window(
+    public void window(
             @PathVariable Long id,
             @PathVariable String format,
             @PathVariable Integer x,
             @PathVariable Integer y,
             @PathVariable Integer w,
             @PathVariable Integer h,
-            @RequestParam(defaultValue = "false", required = false) Boolean withExterior,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(defaultValue = "false", required = false) Boolean withExterior
     ) throws IOException, ParseException {
         log.debug("REST request get sliceinstance {} window {}", id, format);
         WindowParameter windowParameter = new WindowParameter();
@@ -263,19 +254,17 @@ public class RestSliceInstanceController extends RestCytomineController {
 //            params.location = getWKTGeometry(sliceInstance, params)
 
         String etag = getRequestETag();
-        return  imageServerService.window(sliceInstance.getBaseSlice(), windowParameter, etag, proxy);
+        imageServerService.window(sliceInstance.getBaseSlice(), windowParameter, etag, request, response);
     }
 
     @RequestMapping(value = "/sliceinstance/{id}/camera-{x}-{y}-{w}-{h}.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> camera(
+    public void camera(
             @PathVariable Long id,
             @PathVariable String format,
             @PathVariable Integer x,
             @PathVariable Integer y,
             @PathVariable Integer w,
-            @PathVariable Integer h,
-
-            ProxyExchange<byte[]> proxy
+            @PathVariable Integer h
     ) throws IOException, ParseException {
         log.debug("REST request get sliceinstance {} camera {}", id, format);
         WindowParameter windowParameter = new WindowParameter();
@@ -289,7 +278,7 @@ public class RestSliceInstanceController extends RestCytomineController {
                 .orElseThrow(() -> new ObjectNotFoundException("SliceInstance", id));
 
         String etag = getRequestETag();
-        return  imageServerService.window(sliceInstance.getBaseSlice(), windowParameter, etag, proxy);
+        imageServerService.window(sliceInstance.getBaseSlice(), windowParameter, etag, request, response);
     }
 
     @GetMapping("/sliceinstance/{id}/histogram.json")
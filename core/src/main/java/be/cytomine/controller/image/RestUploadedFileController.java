@@ -12,7 +12,6 @@ import be.cytomine.utils.JsonObject;
 import be.cytomine.utils.RequestParams;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cloud.gateway.mvc.ProxyExchange;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.view.RedirectView;
@@ -87,10 +86,10 @@ public class RestUploadedFileController extends RestCytomineController {
 
 
     @GetMapping("/uploadedfile/{id}/download")
-    public ResponseEntity<byte[]> download(@PathVariable Long id, ProxyExchange<byte[]> proxy) throws IOException {
+    public void download(@PathVariable Long id) throws IOException {
         log.debug("REST request to download uploadedFile");
         UploadedFile uploadedFile = uploadedFileService.find(id)
                 .orElseThrow(() -> new ObjectNotFoundException("UploadedFile", id));
-        return imageServerService.download(uploadedFile, proxy);
+        imageServerService.download(uploadedFile, request, response);
     }
 }
@@ -8,7 +8,6 @@ import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.io.ParseException;
-import org.springframework.cloud.gateway.mvc.ProxyExchange;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -17,6 +16,7 @@ import be.cytomine.domain.CytomineDomain;
 import be.cytomine.domain.image.ImageInstance;
 import be.cytomine.domain.ontology.*;
 import be.cytomine.domain.security.User;
+import be.cytomine.dto.annotation.AnnotationPage;
 import be.cytomine.dto.annotation.SimplifiedAnnotation;
 import be.cytomine.dto.image.CropParameter;
 import be.cytomine.exceptions.CytomineMethodNotYetImplementedException;
@@ -78,6 +78,11 @@ public class RestAnnotationDomainController extends RestCytomineController {
     public ResponseEntity<String> search() throws IOException {
         JsonObject params = mergeQueryParamsAndBodyParams();
         AnnotationListing annotationListing = annotationListingBuilder.buildAnnotationListing(params);
+        if (!annotationListing.getKmeans() && (annotationListing.getMax() != null || annotationListing.getSeekId() != null)) {
+            // only the annotations of the page are read
+            AnnotationPage page = annotationListingService.listPage(annotationListing, params.getJSONAttrBoolean("withTotal", true));
+            return responseSuccess(buildJsonPage(page, annotationListing));
+        }
         List annotations = annotationListingService.listGeneric(annotationListing);
 //        if (annotationListing instanceof AlgoAnnotationListing) {
 //            //if algo, we look for user_annotation JOIN algo_annotation_term  too
@@ -91,6 +96,40 @@ public class RestAnnotationDomainController extends RestCytomineController {
         return responseSuccess(annotations, params.getJSONAttrLong("offset", 0L),params.getJSONAttrLong("max", 0L));
     }
 
+    private JsonObject buildJsonPage(AnnotationPage page, AnnotationListing annotationListing) {
+        JsonObject response = new JsonObject();
+        response.put("collection", page.getCollection());
+        response.put("offset", annotationListing.getOffset());
+        if (page.getTotal() != null) {
+            response.put("perPage", Math.min(annotationListing.getMax(), page.getTotal()));
+            response.put("size", page.getTotal());
+            response.put("totalPages", (int) Math.ceil((double) page.getTotal() / (double) annotationListing.getMax()));
+        } else {
+            response.put("perPage", page.getCollection().size());
+        }
+        response.put("nextCursor", page.getNextCursor());
+        return response;
+    }
+
+    @RequestMapping(value = { "/annotation/search.json"}, method = {RequestMethod.GET, RequestMethod.POST}, params = "stream=true")
+    public void searchSpecifiedStream() throws IOException {
+        searchStream();
+    }
+
+    /**
+     * Same as search, but annotations are written to the response while they are read from the database
+     */
+    @RequestMapping(value = {"/annotation.json"}, method = {RequestMethod.GET}, params = "stream=true")
+    public void searchStream() throws IOException {
+        JsonObject params = mergeQueryParamsAndBodyParams();
+        AnnotationListing annotationListing = annotationListingBuilder.buildAnnotationListing(params);
+        responseSuccessStream(
+                consumer -> annotationListingService.streamGeneric(annotationListing, consumer),
+                params.getJSONAttrLong("offset", 0L),
+                params.getJSONAttrLong("max", 0L)
+        );
+    }
+
     @RequestMapping(value = {"/project/{project}/annotation/download"}, method = {RequestMethod.GET})
     public void download(
             @PathVariable Long project,
@@ -112,7 +151,7 @@ public class RestAnnotationDomainController extends RestCytomineController {
     }
 
     @RequestMapping(value = "/annotation/{id}/crop.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> crop(
+    public void crop(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Integer maxSize,
@@ -139,9 +178,7 @@ public class RestAnnotationDomainController extends RestCytomineController {
             @RequestParam(required = false) Integer alpha,
             @RequestParam(required = false) Integer thickness,
             @RequestParam(required = false) String color,
-            @RequestParam(required = false) Integer jpegQuality,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) Integer jpegQuality
     ) throws IOException, ParseException {
         log.debug("REST request to get crop for annotation domain");
         AnnotationDomain annotation = AnnotationDomain.getAnnotationDomain(entityManager, id);
@@ -174,7 +211,7 @@ public class RestAnnotationDomainController extends RestCytomineController {
         cropParameter.setBits(bits!=null && !bits.equals("max") ? Integer.parseInt(bits): null);
         cropParameter.setFormat(format);
         String etag = getRequestETag();
-        return imageServerService.crop(annotation, cropParameter, etag, proxy);
+        imageServerService.crop(annotation, cropParameter, etag, request, response);
     }
 
     @GetMapping("/imageinstance/{image}/annotation/included.json")
@@ -24,7 +24,6 @@ import be.cytomine.utils.Task;
 import org.locationtech.jts.io.ParseException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cloud.gateway.mvc.ProxyExchange;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -278,7 +277,7 @@ public class RestReviewedAnnotationController extends RestCytomineController {
     }
 
     @RequestMapping(value = "/reviewedannotation/{id}/crop.{format}", method = {GET, POST})
-    public ResponseEntity<byte[]> crop(
+    public void crop(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Integer maxSize,
@@ -305,9 +304,7 @@ public class RestReviewedAnnotationController extends RestCytomineController {
             @RequestParam(required = false) Integer alpha,
             @RequestParam(required = false) Integer thickness,
             @RequestParam(required = false) String color,
-            @RequestParam(required = false) Integer jpegQuality,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) Integer jpegQuality
     ) throws IOException, ParseException {
         log.debug("REST request to get associated image of a abstract image");
         ReviewedAnnotation reviewedannotation = reviewedAnnotationService.find(id)
@@ -341,11 +338,11 @@ public class RestReviewedAnnotationController extends RestCytomineController {
         cropParameter.setBits(bits!=null && !bits.equals("max") ? Integer.parseInt(bits): null);
         cropParameter.setFormat(format);
         String etag = getRequestETag();
-        return imageServerService.crop(reviewedannotation, cropParameter, etag, proxy);
+        imageServerService.crop(reviewedannotation, cropParameter, etag, request, response);
     }
 
     @RequestMapping(value = "/reviewedannotation/{id}/mask.{format}", method = {GET, POST})
-    public ResponseEntity<byte[]> cropMask(
+    public void cropMask(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Integer maxSize,
@@ -370,9 +367,7 @@ public class RestReviewedAnnotationController extends RestCytomineController {
             @RequestParam(required = false) Integer alpha,
             @RequestParam(required = false) Integer thickness,
             @RequestParam(required = false) String color,
-            @RequestParam(required = false) Integer jpegQuality,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) Integer jpegQuality
     ) throws IOException, ParseException {
         log.debug("REST request to get associated image of a abstract image");
         ReviewedAnnotation reviewedannotation = reviewedAnnotationService.find(id)
@@ -406,11 +401,11 @@ public class RestReviewedAnnotationController extends RestCytomineController {
         cropParameter.setBits(bits!=null && !bits.equals("max") ? Integer.parseInt(bits): null);
         cropParameter.setFormat(format);
         String etag = getRequestETag();
-        return imageServerService.crop(reviewedannotation, cropParameter, etag, proxy);
+        imageServerService.crop(reviewedannotation, cropParameter, etag, request, response);
     }
 
     @RequestMapping(value = "/reviewedannotation/{id}/alphamask.{format}", method = {GET, POST})
-    public ResponseEntity<byte[]> cropAlphaMask(
+    public void cropAlphaMask(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Integer maxSize,
@@ -435,9 +430,7 @@ public class RestReviewedAnnotationController extends RestCytomineController {
             @RequestParam(required = false) Integer alpha,
             @RequestParam(required = false) Integer thickness,
             @RequestParam(required = false) String color,
-            @RequestParam(required = false) Integer jpegQuality,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) Integer jpegQuality
     ) throws IOException, ParseException {
         log.debug("REST request to get associated image of a abstract image");
         ReviewedAnnotation reviewedannotation = reviewedAnnotationService.find(id)
@@ -470,6 +463,6 @@ public class RestReviewedAnnotationController extends RestCytomineController {
         cropParameter.setBits(bits!=null && !bits.equals("max") ? Integer.parseInt(bits): null);
         cropParameter.setFormat(format);
         String etag = getRequestETag();
-        return imageServerService.crop(reviewedannotation, cropParameter, etag, proxy);
+        imageServerService.crop(reviewedannotation, cropParameter, etag, request, response);
     }
 }
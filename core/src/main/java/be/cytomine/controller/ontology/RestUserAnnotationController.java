@@ -14,19 +14,21 @@ import be.cytomine.service.ModelService;
 import be.cytomine.service.middleware.ImageServerService;
 import be.cytomine.service.ontology.SharedAnnotationService;
 import be.cytomine.service.ontology.TermService;
+import be.cytomine.service.ontology.UserAnnotationImportService;
 import be.cytomine.service.ontology.UserAnnotationService;
 import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.report.ReportService;
 import be.cytomine.service.security.UserService;
+import be.cytomine.service.utils.TaskService;
 import be.cytomine.utils.AnnotationListingBuilder;
 import be.cytomine.utils.CommandResponse;
 import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.Task;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.locationtech.jts.io.ParseException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cloud.gateway.mvc.ProxyExchange;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -55,6 +57,10 @@ public class RestUserAnnotationController extends RestCytomineController {
 
     private final AnnotationListingBuilder annotationListingBuilder;
 
+    private final UserAnnotationImportService userAnnotationImportService;
+
+    private final TaskService taskService;
+
     @GetMapping("/userannotation.json")
     public ResponseEntity<String> listLight(
     ) {
@@ -214,6 +220,26 @@ public class RestUserAnnotationController extends RestCytomineController {
     }
 
 
+    /**
+     * Import a large list of annotations (see UserAnnotationImportService).
+     * Imported annotations cannot be undone.
+     */
+    @PostMapping("/userannotation/import.json")
+    public ResponseEntity<String> importAnnotations(
+            @RequestBody JsonMultipleObject json,
+            @RequestParam(required = false) Long minPoint,
+            @RequestParam(required = false) Long maxPoint,
+            @RequestParam(required = false) Long task
+    ) {
+        log.debug("REST request to import {} user annotations", json.size());
+        for (JsonObject datum : json) {
+            datum.putIfAbsent("minPoint", minPoint);
+            datum.putIfAbsent("maxPoint", maxPoint);
+        }
+        Task existingTask = taskService.get(task);
+        return responseSuccess(userAnnotationImportService.importAnnotations(json, existingTask));
+    }
+
     @PutMapping("/userannotation/{id}.json")
     public ResponseEntity<String> edit(@PathVariable String id, @RequestBody JsonObject json) {
         log.debug("REST request to edit user annotation : " + id);
@@ -242,7 +268,7 @@ public class RestUserAnnotationController extends RestCytomineController {
 
 
     @RequestMapping(value = "/userannotation/{id}/crop.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> crop(
+    public void crop(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Integer maxSize,
@@ -270,8 +296,7 @@ public class RestUserAnnotationController extends RestCytomineController {
             @RequestParam(required = false) Integer thickness,
             @RequestParam(required = false) String color,
             @RequestParam(required = false) Integer jpegQuality,
-            @RequestParam(required = false) String Authorization,
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) String Authorization
     ) throws IOException, ParseException {
         log.debug("REST request to get associated image of a abstract image");
         UserAnnotation userAnnotation = userAnnotationService.find(id, Authorization)
@@ -305,11 +330,11 @@ public class RestUserAnnotationController extends RestCytomineController {
         cropParameter.setBits(bits!=null && !bits.equals("max") ? Integer.parseInt(bits): null);
         cropParameter.setFormat(format);
         String etag = getRequestETag();
-        return imageServerService.crop(userAnnotation, cropParameter, etag, proxy);
+        imageServerService.crop(userAnnotation, cropParameter, etag, request, response);
     }
 
     @RequestMapping(value = "/userannotation/{id}/mask.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> cropMask(
+    public void cropMask(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Integer maxSize,
@@ -334,9 +359,7 @@ public class RestUserAnnotationController extends RestCytomineController {
             @RequestParam(required = false) Integer alpha,
             @RequestParam(required = false) Integer thickness,
             @RequestParam(required = false) String color,
-            @RequestParam(required = false) Integer jpegQuality,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) Integer jpegQuality
     ) throws IOException, ParseException {
         log.debug("REST request to get associated image of a abstract image");
         UserAnnotation userAnnotation = userAnnotationService.find(id)
@@ -370,11 +393,11 @@ public class RestUserAnnotationController extends RestCytomineController {
         cropParameter.setBits(bits!=null && !bits.equals("max") ? Integer.parseInt(bits): null);
         cropParameter.setFormat(format);
         String etag = getRequestETag();
-        return imageServerService.crop(userAnnotation, cropParameter, etag, proxy);
+        imageServerService.crop(userAnnotation, cropParameter, etag, request, response);
     }
 
     @RequestMapping(value = "/userannotation/{id}/alphamask.{format}", method = {RequestMethod.GET, RequestMethod.POST})
-    public ResponseEntity<byte[]> cropAlphaMask(
+    public void cropAlphaMask(
             @PathVariable Long id,
             @PathVariable String format,
             @RequestParam(required = false) Integer maxSize,
@@ -399,9 +422,7 @@ public class RestUserAnnotationController extends RestCytomineController {
             @RequestParam(required = false) Integer alpha,
             @RequestParam(required = false) Integer thickness,
             @RequestParam(required = false) String color,
-            @RequestParam(required = false) Integer jpegQuality,
-
-            ProxyExchange<byte[]> proxy
+            @RequestParam(required = false) Integer jpegQuality
     ) throws IOException, ParseException {
         log.debug("REST request to get associated image of a abstract image");
         UserAnnotation userAnnotation = userAnnotationService.find(id)
@@ -434,6 +455,6 @@ public class RestUserAnnotationController extends RestCytomineController {
         cropParameter.setBits(bits!=null && !bits.equals("max") ? Integer.parseInt(bits): null);
         cropParameter.setFormat(format);
         String etag = getRequestETag();
-        return imageServerService.crop(userAnnotation, cropParameter, etag, proxy);
+        imageServerService.crop(userAnnotation, cropParameter, etag, request, response);
     }
 }
@@ -6,13 +6,22 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import be.cytomine.domain.ontology.AnnotationDomain;
+import be.cytomine.domain.project.Project;
 import be.cytomine.dto.search.SearchResponse;
+import be.cytomine.exceptions.ObjectNotFoundException;
+import be.cytomine.service.project.ProjectService;
+import be.cytomine.service.search.CbirIndexOutbox;
 import be.cytomine.service.search.RetrievalService;
+import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.utils.JsonObject;
+
+import static org.springframework.security.acls.domain.BasePermission.ADMINISTRATION;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -24,6 +33,12 @@ public class RetrievalController {
 
     private final RetrievalService retrievalService;
 
+    private final CbirIndexOutbox cbirIndexOutbox;
+
+    private final ProjectService projectService;
+
+    private final SecurityACLService securityACLService;
+
     @GetMapping("/retrieval/index/{id}")
     public ResponseEntity<String> indexAnnotation(@PathVariable Long id) {
         log.debug("Create index for annotation {}", id);
@@ -33,6 +48,22 @@ public class RetrievalController {
         return retrievalService.indexAnnotation(annotation);
     }
 
+    /**
+     * Index again all the annotations of the project, asynchronously
+     */
+    @PostMapping("/retrieval/index/project/{id}")
+    public ResponseEntity<String> indexProject(@PathVariable Long id) {
+        log.debug("Create index for annotations of project {}", id);
+
+        Project project = projectService.find(id)
+            .orElseThrow(() -> new ObjectNotFoundException("Project", id));
+        securityACLService.check(project, ADMINISTRATION);
+
+        int count = cbirIndexOutbox.enqueueProject(project.getId());
+
+        return ResponseEntity.ok(JsonObject.of("project", project.getId(), "queued", count).toJsonString());
+    }
+
     @GetMapping("/retrieval/search")
     public ResponseEntity<SearchResponse> retrieveSimilarAnnotations(
         @RequestParam(value = "annotation") Long id,
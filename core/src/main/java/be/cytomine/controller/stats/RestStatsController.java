@@ -16,6 +16,7 @@ import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.security.SecRoleService;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.service.social.ProjectConnectionService;
+import be.cytomine.service.stats.StatsRegistry;
 import be.cytomine.service.stats.StatsService;
 import be.cytomine.utils.JsonObject;
 import lombok.RequiredArgsConstructor;
@@ -45,6 +46,8 @@ public class RestStatsController extends RestCytomineController {
 
     private final ProjectConnectionService projectConnectionService;
 
+    private final StatsRegistry statsRegistry;
+
     @GetMapping("/project/{project}/stats/term.json")
     public ResponseEntity<String> statTerm(
             @PathVariable("project") Long projectId,
@@ -227,6 +230,14 @@ public class RestStatsController extends RestCytomineController {
         return responseSuccess(statsService.statUsedStorage());
     }
 
+    @GetMapping("/stats/runtime.json")
+    public ResponseEntity<String> statRuntime(
+            @RequestParam(required = false) String prefix
+    ) {
+        securityACLService.checkAdmin(currentUserService.getCurrentUser());
+        return responseSuccess(statsRegistry.snapshot(prefix));
+    }
+
     @GetMapping("/project/{project}/stats/connectionsevolution.json")
     public ResponseEntity<String> statConnectionsEvolution(
             @PathVariable(value = "project") Long projectId,
@@ -51,7 +51,7 @@ public class AddCommand extends Command {
      * Process an Add operation for this command
      * @return Message
      */
-    public CommandResponse execute(ModelService service) {
+    public CommandResponse execute(ModelService<?> service) {
         //Create new domain from json data
         json.put("id", null);
         CytomineDomain newDomain = service.createFromJSON(json);
@@ -0,0 +1,71 @@
+package be.cytomine.domain.command;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.User;
+import be.cytomine.service.BulkModelService;
+import be.cytomine.service.ModelService;
+import be.cytomine.utils.CommandResponse;
+import lombok.Getter;
+import lombok.Setter;
+
+import jakarta.persistence.DiscriminatorValue;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Transient;
+
+/**
+ * The BulkCommand class is a command that changes many domains at once (ex: review all annotations of a layer).
+ * Its data holds what the service needs to revert (undo) and apply again (redo) the changes,
+ * so that a single command is recorded instead of one command per domain.
+ * The service of the command must implement BulkModelService.
+ */
+@Getter
+@Setter
+@Entity
+@DiscriminatorValue("be.cytomine.domain.command.BulkCommand")
+public class BulkCommand extends Command {
+
+    /**
+     * Response of the first execution, when the service applied the changes before recording the command
+     * (e.g. by chunks, each in its own transaction). If null, the changes are applied by the command.
+     */
+    @Transient
+    CommandResponse response;
+
+    public BulkCommand(User currentUser, Project project, CommandResponse response) {
+        this.user = currentUser;
+        this.project = project;
+        this.response = response;
+    }
+
+    public BulkCommand() {}
+
+    /**
+     * Process a bulk operation for this command
+     * @return Message
+     */
+    public CommandResponse execute(ModelService<?> service) {
+        if (!(service instanceof BulkModelService bulkService)) {
+            throw new IllegalArgumentException(service.getServiceName() + " does not support bulk commands");
+        }
+        CommandResponse result = response != null ? response : bulkService.applyBulk(json, false);
+        // the service completes the json with the changed domains
+        fillCommandInfoJSON(json.toJsonString(), result.getData().get("message").toString());
+        return result;
+    }
+}
@@ -121,7 +121,7 @@ public abstract class Command extends CytomineDomain {
         actionMessage = message;
     }
 
-    public abstract CommandResponse execute(ModelService service);
+    public abstract CommandResponse execute(ModelService<?> service);
 
     /**
      * Define fields available for JSON response
@@ -143,6 +143,8 @@ public abstract class Command extends CytomineDomain {
             type = "EDIT";
         } else if (domain instanceof DeleteCommand) {
             type = "DELETE";
+        } else if (domain instanceof BulkCommand) {
+            type = "BULK";
         }
         returnArray.put("type", type);
         return returnArray;
@@ -55,7 +55,7 @@ public class DeleteCommand extends Command {
      * Process an Add operation for this command
      * @return Message
      */
-    public CommandResponse execute(ModelService service) {
+    public CommandResponse execute(ModelService<?> service) {
         //Retrieve domain to delete it
         CytomineDomain oldDomain = domain;
         //Init command info
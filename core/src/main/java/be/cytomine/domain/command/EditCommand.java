@@ -66,7 +66,7 @@ public class EditCommand extends Command {
      * Process an Add operation for this command
      * @return Message
      */
-    public CommandResponse execute(ModelService service) {
+    public CommandResponse execute(ModelService<?> service) {
         //Retrieve domain to update it
         CytomineDomain updatedDomain = this.domain;
         String oldDomain = updatedDomain.toJSON();
@@ -0,0 +1,42 @@
+package be.cytomine.dto.annotation;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Page of an annotation listing
+ */
+@Getter
+@AllArgsConstructor
+public class AnnotationPage {
+
+    private final List<AnnotationResult> collection;
+
+    /**
+     * Number of annotations matching the listing (null if not computed)
+     */
+    private final Long total;
+
+    /**
+     * Cursor of the next page (null if this is the last page)
+     */
+    private final String nextCursor;
+}
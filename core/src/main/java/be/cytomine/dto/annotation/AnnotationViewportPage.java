@@ -0,0 +1,33 @@
+package be.cytomine.dto.annotation;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Page of the annotations of a layer intersecting a viewport
+ */
+@Getter
+@AllArgsConstructor
+public class AnnotationViewportPage {
+
+    private final List<Item> collection;
+
+    /**
+     * Cursor of the next page (null if this is the last page)
+     */
+    private final String nextCursor;
+
+    @Getter
+    @AllArgsConstructor
+    public static class Item {
+
+        private final Long id;
+
+        /**
+         * WKT of the annotation, simplified for the zoom level of the viewport
+         */
+        private final String location;
+    }
+}
@@ -31,6 +31,7 @@ import lombok.Getter;
 import lombok.Setter;
 
 import jakarta.persistence.EntityManager;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -108,6 +109,33 @@ public abstract class AnnotationListing {
     Boolean kmeans = false;
     Integer kmeansValue = 3;
 
+    /**
+     * Pagination (see getPageRequest): a page is a number of annotations, not of rows
+     */
+    Long offset = null;
+    Integer max = null;
+
+    /**
+     * Sort of the pages: "id" or "created" (default is id, or slice rank for track requests)
+     */
+    String sort = null;
+    Boolean ascending = null;
+
+    /**
+     * Keyset of the last annotation of the previous page (from the cursor)
+     */
+    Long seekKey = null;
+    Long seekId = null;
+
+    /**
+     * Annotations of the current page
+     */
+    List<Long> pageIds = null;
+
+    public static final List<String> SORTABLE_COLUMNS = List.of("id", "created");
+
+    static final String RANK = "(asl.channel + ai.channels * (asl.z_stack + ai.depth * asl.time))";
+
     abstract String getFrom();
 
     public abstract String getDomainClass();
@@ -165,6 +193,21 @@ public abstract class AnnotationListing {
         return columns;
     }
 
+    /**
+     * True if annotations are only filtered by layer (project, image, slices, users) and bbox
+     */
+    public boolean isLayerRequest() {
+        return term == null && terms == null
+                && track == null && tracks == null && beforeSlice == null && afterSlice == null
+                && annotationGroup == null && annotationGroups == null
+                && usersForTerm == null && reviewUsers == null
+                && tag == null && tags == null
+                && afterThan == null && beforeThan == null
+                && !notReviewedOnly && !noTerm && !noTag && !multipleTerm && !noTrack && !multipleTrack
+                && bboxAnnotation == null && baseAnnotation == null && maxDistanceBaseAnnotation == null
+                && parents == null && excludedAnnotation == null;
+    }
+
     /**
      * Get container for security check
      */
@@ -217,45 +260,7 @@ public abstract class AnnotationListing {
                 postComputedColumns.put(colum.getKey(), colum.getValue());
             }
         }
-        String whereRequest =
-                getProjectConst() +
-                        getUserConst() +
-                        getUsersConst() +
-
-                        getImageConst() +
-                        getImagesConst() +
-
-                        getSliceConst() +
-                        getSlicesConst() +
-
-                        getTagConst() +
-                        getTagsConst() +
-
-                        getTermConst() +
-                        getTermsConst() +
-
-                        getTrackConst() +
-                        getTracksConst() +
-                        getBeforeOrAfterSliceConst() +
-
-                        getGroupConst() +
-                        getGroupsConst() +
-
-                        getUsersForTermConst() +
-
-                        getNotReviewedOnlyConst() +
-                        getParentsConst() +
-                        getAvoidEmptyCentroidConst() +
-                        getReviewUsersConst() +
-
-                        getIntersectConst() +
-                        getIntersectAnnotationConst() +
-                        getMaxDistanceAnnotationConst() +
-                        getExcludedAnnotationConst() +
-
-                        getBeforeThan() +
-                        getAfterThan() +
-                        createOrderBy();
+        String whereRequest = getWhereRequest() + createOrderBy();
 
         if (term!=null || terms!=null || track!=null || tracks!=null) {
             String request = "SELECT DISTINCT a.*, ";
@@ -319,6 +324,129 @@ public abstract class AnnotationListing {
 
     }
 
+    /**
+     * Generate SQL request for the ids of the annotations of the page (offset/max, or keyset after seekKey/seekId).
+     * Annotations are distinct, so that joins with terms, tracks, links... do not split an annotation across pages.
+     * One more annotation than max is returned, to know if there is a next page.
+     * Rows are (id, sort_key), sort_key being the keyset value to use in the cursor.
+     */
+    public String getPageRequest() {
+        buildExtraRequest();
+        buildColumnToPrint();
+
+        String whereRequest = getWhereRequest() + getSeekConst();
+        String direction = isSortAscending() ? "ASC" : "DESC";
+        String request = "SELECT DISTINCT a.id AS id, " + getSortKey() + " AS sort_key \n" + getFrom() + whereRequest +
+                "ORDER BY sort_key " + direction + ", id " + direction + "\n" +
+                "LIMIT " + (max + 1);
+        if (seekId == null && offset != null && offset > 0) {
+            request += " OFFSET " + offset;
+        }
+        return request;
+    }
+
+    /**
+     * Generate SQL request counting all annotations matching the constraints
+     */
+    public String getCountRequest() {
+        buildExtraRequest();
+        buildColumnToPrint();
+
+        String whereRequest = getWhereRequest();
+        return "SELECT COUNT(DISTINCT a.id) \n" + getFrom() + whereRequest;
+    }
+
+    public String getSortName() {
+        if (sort != null) {
+            return sort;
+        }
+        return (track != null || tracks != null) ? "rank" : "id";
+    }
+
+    public boolean isSortAscending() {
+        return ascending != null ? ascending : getSortName().equals("rank");
+    }
+
+    /**
+     * SQL expression of the keyset value (as a bigint) of an annotation
+     */
+    String getSortKey() {
+        return switch (getSortName()) {
+            case "created" -> "(extract(epoch from a.created) * 1000000)::bigint";
+            case "rank" -> RANK;
+            default -> "a.id";
+        };
+    }
+
+    /**
+     * Opaque cursor of the page following the given annotation
+     */
+    public String encodeCursor(long key, long id) {
+        String value = getSortName() + ":" + (isSortAscending() ? "asc" : "desc") + ":" + key + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Start the page after the annotation of the cursor. The cursor must have been generated with the same sort.
+     */
+    public void seekAfterCursor(String cursor) {
+        try {
+            String[] values = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            if (values.length == 4 && values[0].equals(getSortName()) && values[1].equals(isSortAscending() ? "asc" : "desc")) {
+                seekKey = Long.parseLong(values[2]);
+                seekId = Long.parseLong(values[3]);
+                return;
+            }
+        } catch (IllegalArgumentException ignored) {
+            // not a cursor
+        }
+        throw new WrongArgumentException("Cursor " + cursor + " is not valid for this request");
+    }
+
+    /**
+     * Generate SQL string for the WHERE constraints (without ORDER BY)
+     */
+    String getWhereRequest() {
+        return getProjectConst() +
+                getUserConst() +
+                getUsersConst() +
+
+                getImageConst() +
+                getImagesConst() +
+
+                getSliceConst() +
+                getSlicesConst() +
+
+                getTagConst() +
+                getTagsConst() +
+
+                getTermConst() +
+                getTermsConst() +
+
+                getTrackConst() +
+                getTracksConst() +
+                getBeforeOrAfterSliceConst() +
+
+                getGroupConst() +
+                getGroupsConst() +
+
+                getUsersForTermConst() +
+
+                getNotReviewedOnlyConst() +
+                getParentsConst() +
+                getAvoidEmptyCentroidConst() +
+                getReviewUsersConst() +
+
+                getIntersectConst() +
+                getIntersectAnnotationConst() +
+                getMaxDistanceAnnotationConst() +
+                getExcludedAnnotationConst() +
+
+                getBeforeThan() +
+                getAfterThan() +
+                getPageConst();
+    }
+
     /**
      * Generate SQL string for SELECT with only asked properties
      */
@@ -589,6 +717,22 @@ public abstract class AnnotationListing {
         return (excludedAnnotation!=null ? "AND a.id <> " + excludedAnnotation + "\n" : "");
     }
 
+    String getSeekConst() {
+        if (seekId == null) {
+            return "";
+        }
+        String sign = isSortAscending() ? ">" : "<";
+        return switch (getSortName()) {
+            case "created" -> "AND (a.created, a.id) " + sign + " (TIMESTAMP 'epoch' + " + seekKey + " * INTERVAL '1 microsecond', " + seekId + ")\n";
+            case "rank" -> "AND (" + RANK + ", a.id) " + sign + " (" + seekKey + ", " + seekId + ")\n";
+            default -> "AND a.id " + sign + " " + seekId + "\n";
+        };
+    }
+
+    String getPageConst() {
+        return (pageIds != null ? "AND a.id IN (" + joinValues(pageIds) + ")\n" : "");
+    }
+
     abstract String createOrderBy();
 
     String getBeforeThan() {
@@ -13,4 +13,6 @@ public interface TaskRunLayerRepository extends JpaRepository<TaskRunLayer, Long
     List<TaskRunLayer> findAllByImageId(Long imageId);
 
     Optional<TaskRunLayer> findByAnnotationLayerId(Long id);
+
+    Optional<TaskRunLayer> findFirstByTaskRunIdOrderByIdAsc(Long taskRunId);
 }
@@ -55,6 +55,12 @@ public interface AclRepository extends JpaRepository<User, Long> {
     @Query(value = "SELECT id FROM acl_sid WHERE sid = :username", nativeQuery = true)
     Long getAclSidFromUsername(String username);
 
+    @Query(value = "SELECT object_id_identity FROM acl_object_identity WHERE id = :aclObjectIdentity", nativeQuery = true)
+    Long getDomainIdFromAclObjectIdentity(Long aclObjectIdentity);
+
+    @Query(value = "SELECT sid FROM acl_sid WHERE id = :sid", nativeQuery = true)
+    String getUsernameFromAclSid(Long sid);
+
     @Query(value = "SELECT id FROM acl_entry WHERE acl_object_identity = :aclObjectIdentity AND mask = :mask AND sid= :sid", nativeQuery = true)
     Long getAclEntryId(Long aclObjectIdentity, Long sid, Integer mask);
 
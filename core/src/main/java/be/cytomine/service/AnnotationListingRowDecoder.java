@@ -0,0 +1,349 @@
+package be.cytomine.service;
+
+/*
+ * Copyright (c) 2009-2022. Authors: see NOTICE file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import be.cytomine.dto.annotation.AnnotationResult;
+import be.cytomine.dto.image.Point;
+import be.cytomine.repository.AnnotationListing;
+import be.cytomine.repository.UserAnnotationListing;
+import be.cytomine.utils.GisUtils;
+
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Decode the rows of an annotation listing request into AnnotationResult, one row at a time.
+ * Column indexes are resolved once from the result set metadata and the row buffer is reused.
+ *
+ * If an annotation has n terms (or tracks, or links), it will be on n consecutive lines.
+ * These lines are folded into the current annotation, which is only sent to the consumer
+ * once a line for another annotation is read (or when the decoder is finished).
+ */
+public class AnnotationListingRowDecoder {
+
+    private static final List<String> EXCLUDED_COLUMNS = List.of(
+            "annotationTerms", "annotationTracks", "userTerm", "x", "y",
+            "annotationLinks", "linkedAnnotations", "linkedImages", "linkedUpdated"
+    );
+
+    private final AnnotationListing al;
+
+    private final Consumer<AnnotationResult> consumer;
+
+    private final Object[] row;
+
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    private final int idIndex;
+    private final int termIndex;
+    private final int annotationTermsIndex;
+    private final int userTermIndex;
+    private final int trackIndex;
+    private final int annotationTracksIndex;
+    private final int groupIndex;
+    private final int annotationLinksIndex;
+    private final int linkedAnnotationsIndex;
+    private final int linkedImagesIndex;
+    private final int linkedUpdatedIndex;
+    private final int perimeterUnitIndex;
+    private final int areaUnitIndex;
+    private final int xIndex;
+    private final int yIndex;
+    private final int projectIndex;
+    private final int imageIndex;
+
+    private final boolean termRequested;
+    private final boolean trackRequested;
+    private final boolean groupRequested;
+    private final boolean gisRequested;
+    private final boolean metaRequested;
+
+    private List<String> realColumns;
+    private int[] realColumnIndexes;
+
+    private AnnotationResult current;
+    private List<Object> annotationLinksIds = new ArrayList<>();
+
+    // lists of the current annotation, completed by its next rows
+    private List<Object> currentTerms;
+    private List<Map<String, Object>> currentUserByTerm;
+    private List<Object> currentUsersOfLastTerm;
+    private List<Object> currentTracks;
+    private List<Map<String, Object>> currentAnnotationTracks;
+    private List<Map<String, Object>> currentAnnotationLinks;
+
+    private long lastAnnotationId = -1;
+    private long lastTermId = -1;
+    private long lastTrackId = -1;
+    private long lastGroupId = -1;
+
+    private boolean termAsked = false;
+    private boolean trackAsked = false;
+    private boolean groupAsked = false;
+
+    private long count = 0;
+
+    public AnnotationListingRowDecoder(AnnotationListing al, ResultSetMetaData metaData, Consumer<AnnotationResult> consumer) throws SQLException {
+        this.al = al;
+        this.consumer = consumer;
+        this.row = new Object[metaData.getColumnCount()];
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            indexes.put(metaData.getColumnLabel(i).toLowerCase(), i - 1);
+        }
+
+        idIndex = indexOf("id");
+        termIndex = indexOf("term");
+        annotationTermsIndex = indexOf("annotationTerms");
+        userTermIndex = indexOf("userTerm");
+        trackIndex = indexOf("track");
+        annotationTracksIndex = indexOf("annotationTracks");
+        groupIndex = indexOf("group");
+        annotationLinksIndex = indexOf("annotationLinks");
+        linkedAnnotationsIndex = indexOf("linkedAnnotations");
+        linkedImagesIndex = indexOf("linkedImages");
+        linkedUpdatedIndex = indexOf("linkedUpdated");
+        perimeterUnitIndex = indexOf("perimeterUnit");
+        areaUnitIndex = indexOf("areaUnit");
+        xIndex = indexOf("x");
+        yIndex = indexOf("y");
+        projectIndex = indexOf("project");
+        imageIndex = indexOf("image");
+
+        List<String> columnsToPrint = al.getColumnsToPrint();
+        termRequested = columnsToPrint.contains("term");
+        trackRequested = columnsToPrint.contains("track") && (al instanceof UserAnnotationListing);
+        groupRequested = columnsToPrint.contains("group");
+        gisRequested = columnsToPrint.contains("gis");
+        metaRequested = columnsToPrint.contains("meta");
+    }
+
+    /**
+     * Read the current row of the result set
+     */
+    public void decode(ResultSet resultSet) throws SQLException {
+        for (int i = 0; i < row.length; i++) {
+            Object value = resultSet.getObject(i + 1);
+            if (value instanceof BigInteger) {
+                value = ((BigInteger) value).longValue();
+            }
+            row[i] = value;
+        }
+
+        long id = (Long) value(idIndex);
+        if (id != lastAnnotationId) {
+            if (current != null) {
+                emit();
+            }
+            current = buildResult(id);
+        } else {
+            foldIntoCurrent();
+        }
+
+        if (termAsked) {
+            lastTermId = (value(termIndex) != null ? (long) value(termIndex) : -1);
+        }
+
+        if (trackAsked) {
+            lastTrackId = (value(trackIndex) != null ? (long) value(trackIndex) : -1);
+        }
+
+        if (groupAsked) {
+            lastGroupId = (value(groupIndex) != null ? (long) value(groupIndex) : -1);
+        }
+
+        lastAnnotationId = id;
+    }
+
+    /**
+     * Send the last annotation to the consumer. Must be called once all rows have been decoded.
+     */
+    public void finish() {
+        if (current != null) {
+            emit();
+        }
+    }
+
+    /**
+     * Number of annotations sent to the consumer so far
+     */
+    public long getCount() {
+        return count;
+    }
+
+    private void emit() {
+        consumer.accept(current);
+        current = null;
+        count++;
+    }
+
+    private AnnotationResult buildResult(long id) {
+        termAsked = false;
+        trackAsked = false;
+        groupAsked = false;
+        annotationLinksIds = new ArrayList<>();
+
+        if (realColumns == null) {
+            resolveRealColumns();
+        }
+
+        AnnotationResult item = new AnnotationResult();
+        item.put("class", al.getDomainClass());
+
+        for (int i = 0; i < realColumns.size(); i++) {
+            item.put(realColumns.get(i), value(realColumnIndexes[i]));
+        }
+
+        if (termRequested) {
+            termAsked = true;
+            Object term = value(termIndex);
+            currentTerms = term != null ? buildList(term) : new ArrayList<>();
+            currentUserByTerm = term != null ? buildList(buildUserByTerm(term)) : new ArrayList<>();
+            item.put("term", currentTerms);
+            item.put("userByTerm", currentUserByTerm);
+        }
+
+        if (trackRequested) {
+            trackAsked = true;
+            Object track = value(trackIndex);
+            currentTracks = track != null ? buildList(track) : new ArrayList<>();
+            currentAnnotationTracks = track != null ? buildList(buildAnnotationTrack(track)) : new ArrayList<>();
+            item.put("track", currentTracks);
+            item.put("annotationTrack", currentAnnotationTracks);
+        }
+
+        if (groupRequested) {
+            groupAsked = true;
+            item.put("group", value(groupIndex));
+            currentAnnotationLinks = value(groupIndex) != null ? buildList(buildAnnotationLink()) : new ArrayList<>();
+            item.put("annotationLink", currentAnnotationLinks);
+            annotationLinksIds.add(value(annotationLinksIndex));
+        }
+
+        if (gisRequested) {
+            item.put("perimeterUnit", value(perimeterUnitIndex) != null ? GisUtils.retrieveUnit((Integer) value(perimeterUnitIndex)) : null);
+            item.put("areaUnit", value(areaUnitIndex) != null ? GisUtils.retrieveUnit((Integer) value(areaUnitIndex)) : null);
+            item.put("centroid", new Point((Double) value(xIndex), (Double) value(yIndex)));
+        }
+
+        if (metaRequested) {
+            Long project = (Long) value(projectIndex);
+            Long image = (Long) value(imageIndex);
+            if (al.getClass().getName().contains("UserAnnotation")) {
+                item.put("cropURL", UrlApi.getUserAnnotationCropWithAnnotationId(id, "png"));
+                item.put("smallCropURL", UrlApi.getUserAnnotationCropWithAnnotationIdWithMaxSize(id, 256, "png"));
+                item.put("url", UrlApi.getUserAnnotationCropWithAnnotationId(id, "png"));
+                item.put("imageURL", UrlApi.getAnnotationURL(project, image, id));
+            } else if (al.getClass().getName().contains("ReviewedAnnotation")) {
+                item.put("cropURL", UrlApi.getReviewedAnnotationCropWithAnnotationId(id, "png"));
+                item.put("smallCropURL", UrlApi.getReviewedAnnotationCropWithAnnotationIdWithMaxSize(id, 256, "png"));
+                item.put("url", UrlApi.getReviewedAnnotationCropWithAnnotationId(id, "png"));
+                item.put("imageURL", UrlApi.getAnnotationURL(project, image, id));
+            }
+        }
+        return item;
+    }
+
+    private void foldIntoCurrent() {
+        Object term = value(termIndex);
+        if (termAsked && term != null) {
+            if ((Long) term == lastTermId) {
+                if (!currentUsersOfLastTerm.contains(value(userTermIndex))) {
+                    currentUsersOfLastTerm.add(value(userTermIndex));
+                }
+            } else if (!currentTerms.contains(term)) {
+                currentTerms.add(term);
+                currentUserByTerm.add(buildUserByTerm(term));
+            }
+        }
+
+        Object track = value(trackIndex);
+        if (trackAsked && track != null && (long) track != lastTrackId && !currentTracks.contains(track)) {
+            currentTracks.add(track);
+            currentAnnotationTracks.add(buildAnnotationTrack(track));
+        }
+
+        Object group = value(groupIndex);
+        if (groupAsked && group != null
+                && (long) group == lastGroupId
+                && !annotationLinksIds.contains(value(annotationLinksIndex))
+        ) {
+            annotationLinksIds.add(value(annotationLinksIndex));
+            currentAnnotationLinks.add(buildAnnotationLink());
+        }
+    }
+
+    /**
+     * Users of the term, completed by the next rows of the same term
+     */
+    private Map<String, Object> buildUserByTerm(Object term) {
+        currentUsersOfLastTerm = buildList(value(userTermIndex));
+        Map<String, Object> userByTerm = new HashMap<>();
+        userByTerm.put("id", value(annotationTermsIndex));
+        userByTerm.put("term", term);
+        userByTerm.put("user", currentUsersOfLastTerm);
+        return userByTerm;
+    }
+
+    private Map<String, Object> buildAnnotationTrack(Object track) {
+        return new HashMap<>(Map.of("id", value(annotationTracksIndex), "track", track));
+    }
+
+    private Map<String, Object> buildAnnotationLink() {
+        return new HashMap<>(Map.of(
+                "id", value(annotationLinksIndex),
+                "annotation", value(linkedAnnotationsIndex),
+                "image", value(linkedImagesIndex),
+                "updated", value(linkedUpdatedIndex)
+        ));
+    }
+
+    /**
+     * Properties are printed if they are available in the first row.
+     */
+    private void resolveRealColumns() {
+        realColumns = new ArrayList<>();
+        List<Integer> columnIndexes = new ArrayList<>();
+        for (String columnName : al.getAllPropertiesName()) {
+            int index = indexOf(columnName);
+            if (value(index) != null && !EXCLUDED_COLUMNS.contains(columnName)) {
+                realColumns.add(columnName);
+                columnIndexes.add(index);
+            }
+        }
+        realColumnIndexes = columnIndexes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private int indexOf(String columnName) {
+        return indexes.getOrDefault(columnName.toLowerCase(), -1);
+    }
+
+    private Object value(int index) {
+        return index >= 0 ? row[index] : null;
+    }
+
+    private static <T> List<T> buildList(T firstElement) {
+        List<T> list = new ArrayList<>();
+        if (firstElement != null) {
+            list.add(firstElement);
+        }
+        return list;
+    }
+}
@@ -1,7 +1,7 @@
 package be.cytomine.service;
 
+import be.cytomine.dto.annotation.AnnotationPage;
 import be.cytomine.dto.annotation.AnnotationResult;
-import be.cytomine.dto.image.Point;
 
 /*
  * Copyright (c) 2009-2022. Authors: see NOTICE file.
@@ -21,21 +21,22 @@ import be.cytomine.dto.image.Point;
 
 import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.repository.AnnotationListing;
-import be.cytomine.repository.UserAnnotationListing;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.utils.AnnotationClusterGridService;
 import be.cytomine.service.utils.KmeansGeometryService;
-import be.cytomine.utils.GisUtils;
-import be.cytomine.utils.JsonObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import jakarta.persistence.EntityManager;
-import jakarta.persistence.Query;
 import jakarta.persistence.Tuple;
-import jakarta.persistence.TupleElement;
 import jakarta.transaction.Transactional;
-import java.math.BigInteger;
+import org.hibernate.Session;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static org.springframework.security.acls.domain.BasePermission.READ;
 
@@ -43,6 +44,11 @@ import static org.springframework.security.acls.domain.BasePermission.READ;
 @Service
 public class AnnotationListingService {
 
+    /**
+     * Number of rows fetched per round trip when reading listing results
+     */
+    private static final int STREAM_FETCH_SIZE = 1000;
+
     @Autowired
     private SecurityACLService securityACLService;
 
@@ -52,8 +58,70 @@ public class AnnotationListingService {
     @Autowired
     private KmeansGeometryService kmeansGeometryService;
 
+    @Autowired
+    private AnnotationClusterGridService annotationClusterGridService;
+
 
     public List listGeneric(AnnotationListing al) {
+        checkAndResolveKmeans(al);
+        return executeRequest(al);
+    }
+
+    /**
+     * List one page of annotations (al.max annotations after al.offset or after the cursor position).
+     * Only the annotations of the page are read, the total is computed by a separate count request if asked.
+     */
+    public AnnotationPage listPage(AnnotationListing al, boolean withTotal) {
+        checkAndResolveKmeans(al);
+        if (al.getKmeansValue() != KmeansGeometryService.FULL || al.getMax() == null) {
+            throw new WrongArgumentException("Pagination is only available for full listings with a max");
+        }
+
+        Long total = null;
+        if (withTotal) {
+            total = ((Number) entityManager.createNativeQuery(al.getCountRequest()).getSingleResult()).longValue();
+        }
+
+        List<Tuple> rows = entityManager.unwrap(Session.class).createNativeQuery(al.getPageRequest(), Tuple.class).getResultList();
+        boolean hasNext = rows.size() > al.getMax();
+        if (hasNext) {
+            rows = rows.subList(0, al.getMax());
+        }
+        if (rows.isEmpty()) {
+            return new AnnotationPage(new ArrayList<>(), total, null);
+        }
+
+        List<Long> ids = rows.stream().map(row -> ((Number) row.get("id")).longValue()).toList();
+        al.setPageIds(ids);
+        Map<Long, AnnotationResult> annotations = new HashMap<>();
+        streamGenericAnnotation(al, annotation -> annotations.put(((Number) annotation.get("id")).longValue(), annotation));
+
+        List<AnnotationResult> collection = ids.stream().map(annotations::get).filter(Objects::nonNull).collect(Collectors.toList());
+        String nextCursor = null;
+        if (hasNext) {
+            Tuple last = rows.get(rows.size() - 1);
+            nextCursor = al.encodeCursor(((Number) last.get("sort_key")).longValue(), ((Number) last.get("id")).longValue());
+        }
+        return new AnnotationPage(collection, total, nextCursor);
+    }
+
+    /**
+     * Same as listGeneric, but each item is sent to the consumer as soon as it is read,
+     * so that large listings do not need to be fully loaded in memory.
+     */
+    public void streamGeneric(AnnotationListing al, Consumer<Object> consumer) {
+        checkAndResolveKmeans(al);
+        if (al.getKmeansValue() == KmeansGeometryService.FULL) {
+            streamGenericAnnotation(al, consumer::accept);
+        } else {
+            // kmeans results are bounded by the number of clusters
+            for (Object item : executeRequest(al)) {
+                consumer.accept(item);
+            }
+        }
+    }
+
+    private void checkAndResolveKmeans(AnnotationListing al) {
         securityACLService.check(al.container(), READ);
         if ((al.getKmeans() != null && al.getKmeans()) && al.getKmeansValue() == null) {
             if (al.getBbox() == null) {
@@ -70,12 +138,15 @@ public class AnnotationListingService {
             //no kmeans
             al.setKmeansValue(KmeansGeometryService.FULL);
         }
-        return executeRequest(al);
     }
 
     public List executeRequest(AnnotationListing al) {
         if (al.getKmeansValue() == KmeansGeometryService.FULL) {
             return selectGenericAnnotation(al);
+        } else if (annotationClusterGridService.supports(al)) {
+            return al.getKmeansValue() == KmeansGeometryService.KMEANSFULL ?
+                    annotationClusterGridService.doClusterFullRequest(al) :
+                    annotationClusterGridService.doClusterSoftRequest(al);
         } else if (al.getKmeansValue() == KmeansGeometryService.KMEANSFULL) {
             return kmeansGeometryService.doKeamsFullRequest(al.getAnnotationsRequest());
         } else {
@@ -87,179 +158,30 @@ public class AnnotationListingService {
      * Execute request and format result into a list of map
      */
     private List<AnnotationResult> selectGenericAnnotation(AnnotationListing al) {
-
         List<AnnotationResult> data = new ArrayList<>();
-        long lastAnnotationId = -1;
-        long lastTermId = -1;
-        long lastTrackId = -1;
-        long lastGroupId = -1;
-
-        boolean first = true;
+        streamGenericAnnotation(al, data::add);
+        return data;
+    }
 
-        List<String> realColumn = new ArrayList<>();
+    /**
+     * Execute request with a forward-only cursor and send each annotation to the consumer once all its rows are read
+     */
+    private void streamGenericAnnotation(AnnotationListing al, Consumer<AnnotationResult> consumer) {
         String request = al.getAnnotationsRequest();
 
-        boolean termAsked = false;
-        boolean trackAsked = false;
-        boolean groupAsked = false;
-        List<Long> annotationLinksIds = new ArrayList<>();
-
-        List<String> excludedColumns = List.of(
-                "annotationTerms", "annotationTracks", "userTerm", "x", "y",
-                "annotationLinks", "linkedAnnotations", "linkedImages", "linkedUpdated"
-        );
-
-
-        Query nativeQuery = entityManager.createNativeQuery(request, Tuple.class);
-        List<Tuple> resultList = nativeQuery.getResultList();
-
-        for (Tuple rowResult : resultList) {
-            Map<String, Object> tuple = new LinkedHashMap<>();
-            for (TupleElement<?> element : rowResult.getElements()) {
-                Object value = rowResult.get(element.getAlias());
-                if (value instanceof BigInteger) {
-                    value = ((BigInteger) value).longValue();
-                }
-                tuple.put(element.getAlias(), value);
-            }
-
-            /**
-             * If an annotation has n multiple term, it will be on "n" lines.
-             * For the first line for this annotation (it.id!=lastAnnotationId), add the annotation data,
-             * For the other lines, we add term data to the last annotation
-             */
-            if ((Long) tuple.get("id") != lastAnnotationId) {
-                termAsked = false;
-                trackAsked = false;
-                groupAsked = false;
-                annotationLinksIds = new ArrayList<>();
-
-                if (first) {
-                    for (String columnName : al.getAllPropertiesName()) {
-                        if (columnExists(tuple, columnName) && !excludedColumns.contains(columnName)) {
-                            realColumn.add(columnName);
-                        }
-                    }
-                    first = false;
-                }
-
-                AnnotationResult item = new AnnotationResult();
-                item.put("class", al.getDomainClass());
-
-                for (String columnName : realColumn) {
-                    item.put(columnName, tuple.get(columnName) != null ? tuple.get(columnName) : tuple.get(columnName.toLowerCase()));
-                }
-
-
-                if (al.getColumnsToPrint().contains("term")) {
-                    termAsked = true;
-                    item.put("term", tuple.get("term") != null ? buildList(tuple.get("term")) : new ArrayList<>());
-                    item.put("userByTerm",
-                            tuple.get("term") != null ?
-                                    buildList(new HashMap<>(JsonObject.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm"))))) : new ArrayList<>());
-                }
-
-                if (al.getColumnsToPrint().contains("track") && (al instanceof UserAnnotationListing)) {
-                    trackAsked = true;
-                    item.put("track", (tuple.get("track") != null ? buildList(tuple.get("track")) : new ArrayList<>()));
-                    item.put("annotationTrack", (tuple.get("track") != null ? buildList(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track")))) : new ArrayList<>()));
-                }
-
-                if (al.getColumnsToPrint().contains("group")) {
-                    groupAsked = true;
-                    item.put("group", tuple.get("group"));
-                    item.put("annotationLink", (tuple.get("group") != null ? buildList(new HashMap<>(Map.of(
-                            "id", tuple.get("annotationlinks"),
-                            "annotation", tuple.get("linkedannotations"),
-                            "image", tuple.get("linkedimages"),
-                            "updated", tuple.get("linkedupdated")
-                    ))) : new ArrayList<>()));
-                    annotationLinksIds.add((Long) tuple.get("annotationLinks"));
-                }
-
-                if (al.getColumnsToPrint().contains("gis")) {
-                    item.put("perimeterUnit", tuple.get("perimeterunit") != null ? GisUtils.retrieveUnit((Integer) tuple.get("perimeterunit")) : null);
-                    item.put("areaUnit", tuple.get("areaunit") != null ? GisUtils.retrieveUnit((Integer) tuple.get("areaunit")) : null);
-                    item.put("centroid", new Point((Double) tuple.get("x"), (Double) tuple.get("y")));
-                }
-
-                if(al.getColumnsToPrint().contains("meta")) {
-                    if(al.getClass().getName().contains("UserAnnotation")) {
-                        item.put("cropURL",UrlApi.getUserAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
-                        item.put("smallCropURL",UrlApi.getUserAnnotationCropWithAnnotationIdWithMaxSize((Long)tuple.get("id"), 256, "png"));
-                        item.put("url",UrlApi.getUserAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
-                        item.put("imageURL",UrlApi.getAnnotationURL((Long)tuple.get("project"), (Long)tuple.get("image"), (Long)tuple.get("id")));
-                    }  else if(al.getClass().getName().contains("ReviewedAnnotation")) {
-                        item.put("cropURL",UrlApi.getReviewedAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
-                        item.put("smallCropURL",UrlApi.getReviewedAnnotationCropWithAnnotationIdWithMaxSize((Long)tuple.get("id"), 256, "png"));
-                        item.put("url",UrlApi.getReviewedAnnotationCropWithAnnotationId((Long)tuple.get("id"), "png"));
-                        item.put("imageURL",UrlApi.getAnnotationURL((Long)tuple.get("project"), (Long)tuple.get("image"), (Long)tuple.get("id")));
-                    }
-                }
-                data.add(item);
-            } else {
-                AnnotationResult lastResult = data.get(data.size() - 1);
-                if (termAsked && tuple.get("term") != null) {
-                    List lasResultUserByTerm = (List) lastResult.get("userByTerm");
-                    Map userByTerm = (Map) (lasResultUserByTerm).get(lasResultUserByTerm.size() - 1);
-                    List term = ((List) lastResult.get("term"));
-                    if ((Long) tuple.get("term") == lastTermId) {
-                        if (!((List) (userByTerm.get("user"))).contains(tuple.get("userterm"))) {
-                            ((List) (userByTerm.get("user"))).add(tuple.get("userterm"));
-                        }
-                    } else if (!term.contains(tuple.get("term"))) {
-                        ((List) (lastResult.get("term"))).add(tuple.get("term"));
-                        ((List) lastResult.get("userByTerm")).add(new HashMap<>(Map.of("id", tuple.get("annotationterms"), "term", tuple.get("term"), "user", buildList(tuple.get("userterm")))));
+        // native queries flush pending changes, the JDBC statement below must see them too
+        entityManager.flush();
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(STREAM_FETCH_SIZE);
+                try (ResultSet resultSet = statement.executeQuery(request)) {
+                    AnnotationListingRowDecoder decoder = new AnnotationListingRowDecoder(al, resultSet.getMetaData(), consumer);
+                    while (resultSet.next()) {
+                        decoder.decode(resultSet);
                     }
+                    decoder.finish();
                 }
-
-                if (trackAsked && tuple.get("track") != null && (long) tuple.get("track") != lastTrackId && !((List) lastResult.get("track")).contains(tuple.get("track"))) {
-                    ((List) lastResult.get("track")).add(tuple.get("track"));
-                    ((List) lastResult.get("annotationTrack")).add(new HashMap<>(Map.of("id", tuple.get("annotationtracks"), "track", tuple.get("track"))));
-                }
-
-                if (groupAsked && tuple.get("group") != null
-                        && (long) tuple.get("group") == lastGroupId
-                        && !annotationLinksIds.contains(tuple.get("annotationlinks"))
-                ) {
-                    annotationLinksIds.add((Long) tuple.get("annotationlinks"));
-                    ((List) lastResult.get("annotationLink")).add(new HashMap<>(Map.of(
-                            "id", tuple.get("annotationlinks"),
-                            "annotation", tuple.get("linkedannotations"),
-                            "image", tuple.get("linkedimages"),
-                            "updated", tuple.get("linkedupdated")
-                    )));
-                }
-            }
-
-            if (termAsked) {
-                lastTermId = (tuple.get("term") != null ? (long) tuple.get("term") : -1);
-            }
-
-            if (trackAsked) {
-                lastTrackId = (tuple.get("track") != null ? (long) tuple.get("track") : -1);
-            }
-
-            if (groupAsked) {
-                lastGroupId = (tuple.get("group") != null ? (long) tuple.get("group") : -1);
             }
-
-            lastAnnotationId = (long) tuple.get("id");
-        }
-
-        return data;
-    }
-
-    private boolean columnExists(Map<String, Object> tuple, String columnName) {
-        return tuple.get(columnName) != null || tuple.get(columnName.toLowerCase()) != null;
-    }
-
-    List buildList(Object firstElement) {
-        if (firstElement==null) {
-            return new ArrayList();
-        }
-        List list = new ArrayList();
-        list.add(firstElement);
-        return list;
+        });
     }
 }
@@ -0,0 +1,34 @@
+package be.cytomine.service;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.utils.CommandResponse;
+import be.cytomine.utils.JsonObject;
+
+/**
+ * Model service whose domains can be changed by bulk commands (see BulkCommand)
+ */
+public interface BulkModelService {
+
+    /**
+     * Apply the changes of a bulk command again (redo), or revert them (undo)
+     * @param json Data of the bulk command, with the changed domains
+     * @param revert Flag to revert the changes
+     * @return Response structure (status, message,...)
+     */
+    CommandResponse applyBulk(JsonObject json, boolean revert);
+}
@@ -66,6 +66,7 @@ public class CommandService {
     static final int SUCCESS_ADD_CODE = 200;
     static final int SUCCESS_EDIT_CODE = 200;
     static final int SUCCESS_DELETE_CODE = 200;
+    static final int SUCCESS_BULK_CODE = 200;
 
     CommandResponse processCommand(Command c, ModelService service) throws CytomineException {
         if (c instanceof AddCommand) {
@@ -77,6 +78,9 @@ public class CommandService {
         if (c instanceof DeleteCommand) {
             return processCommand(c, service, SUCCESS_DELETE_CODE);
         }
+        if (c instanceof BulkCommand) {
+            return processCommand(c, service, SUCCESS_BULK_CODE);
+        }
         throw new ObjectNotFoundException("Command not supported");
     }
 
@@ -152,6 +156,8 @@ public class CommandService {
             return modelService.edit(JsonObject.toJsonObject(command.getData()).extractProperty("previous" + ((EditCommand) command).domainName()), command.isPrintMessage());
         } else if (command instanceof DeleteCommand) {
             return modelService.create(JsonObject.toJsonObject(command.getData()), command.isPrintMessage());
+        } else if (command instanceof BulkCommand) {
+            return ((BulkModelService) modelService).applyBulk(JsonObject.toJsonObject(command.getData()), true);
         }
         throw new RuntimeException("not yet implemented");
     }
@@ -223,6 +229,8 @@ public class CommandService {
             return modelService.edit(JsonObject.toJsonObject(command.getData()).extractProperty("new" + ((EditCommand) command).domainName()), command.isPrintMessage());
         } else if (command instanceof DeleteCommand) {
             return modelService.destroy(JsonObject.toJsonObject(command.getData()), command.isPrintMessage());
+        } else if (command instanceof BulkCommand) {
+            return ((BulkModelService) modelService).applyBulk(JsonObject.toJsonObject(command.getData()), false);
         }
         throw new RuntimeException("not yet implemented");
     }
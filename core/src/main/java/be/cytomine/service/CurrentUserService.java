@@ -23,6 +23,7 @@ import be.cytomine.repository.security.UserRepository;
 import be.cytomine.security.current.CurrentUser;
 import be.cytomine.security.current.FullCurrentUser;
 import be.cytomine.security.current.PartialCurrentUser;
+import jakarta.persistence.EntityManager;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.Authentication;
@@ -32,6 +33,8 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 import java.util.Optional;
 
@@ -40,9 +43,14 @@ import java.util.Optional;
 @Service
 public class CurrentUserService {
 
+    private static final String REQUEST_USER_ATTRIBUTE = CurrentUserService.class.getName() + ".user.";
+
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private EntityManager entityManager;
+
     public String getCurrentUsername() {
         CurrentUser currentUser = getSecurityCurrentUser().orElseThrow(() -> new ServerException("Cannot read current user"));
         if (currentUser.isFullObjectProvided() || currentUser.isUsernameProvided()) {
@@ -58,13 +66,30 @@ public class CurrentUserService {
         if (currentUser.isFullObjectProvided()) {
             user = currentUser.getUser();
         } else if(currentUser.isUsernameProvided()) {
-            user = userRepository.findByUsernameLikeIgnoreCase(currentUser.getUser().getUsername()).orElseThrow(() -> new ServerException("Cannot find current user with username " + currentUser.getUser().getUsername()));
+            user = findRequestUser(currentUser.getUser().getUsername());
         } else {
             throw new ObjectNotFoundException("User", "Cannot read current user. Object " + currentUser + " is not supported");
         }
         return user;
     }
 
+    /**
+     * Find the user, once per HTTP request (as long as the user is managed by the persistence context of the request)
+     */
+    private User findRequestUser(String username) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        String attribute = REQUEST_USER_ATTRIBUTE + username;
+        if (attributes != null && attributes.getAttribute(attribute, RequestAttributes.SCOPE_REQUEST) instanceof User user
+                && entityManager.contains(user)) {
+            return user;
+        }
+        User user = userRepository.findByUsernameLikeIgnoreCase(username).orElseThrow(() -> new ServerException("Cannot find current user with username " + username));
+        if (attributes != null) {
+            attributes.setAttribute(attribute, user, RequestAttributes.SCOPE_REQUEST);
+        }
+        return user;
+    }
+
     public User getCurrentUser(String username) {
         return userRepository.findByUsernameLikeIgnoreCase(username).orElseThrow(() -> new ServerException("Cannot find current user with username " + username));
     }
@@ -1,7 +1,6 @@
 package be.cytomine.service;
 
 import be.cytomine.exceptions.ServerException;
-import be.cytomine.utils.Lock;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
@@ -10,34 +9,31 @@ import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 public abstract class CytomineWebSocketHandler extends TextWebSocketHandler {
 
-    public Map<String, ConcurrentWebSocketSessionDecorator[]> afterConnectionEstablished(WebSocketSession session, Map<String, ConcurrentWebSocketSessionDecorator[]> sessions) {
+    /**
+     * Register the session of the user
+     * @param sessions userId -> sessionId -> session
+     * @return Registered session
+     */
+    public ConcurrentWebSocketSessionDecorator afterConnectionEstablished(WebSocketSession session, Map<String, Map<String, ConcurrentWebSocketSessionDecorator>> sessions) {
         ConcurrentWebSocketSessionDecorator sessionDecorator = new ConcurrentWebSocketSessionDecorator(session, 1000, 8192);
         String userId = session.getAttributes().get("userId").toString();
 
-        if(Lock.getInstance().lockUsedWsSession(userId)){
-            try{
-                addSessionToSessionsList(userId, sessionDecorator, sessions);
-            } finally {
-                Lock.getInstance().unlockUserWsSession(userId);
-            }
-        } else {
-            throw new ServerException("Cannot acquire lock for websocket sessions of user " + userId  + " , tryLock return false");
-        }
+        sessions.computeIfAbsent(userId, id -> new ConcurrentHashMap<>()).put(sessionDecorator.getId(), sessionDecorator);
 
-        return sessions;
+        return sessionDecorator;
     }
 
-    protected ConcurrentWebSocketSessionDecorator[] addSession(ConcurrentWebSocketSessionDecorator[] oldSessions, ConcurrentWebSocketSessionDecorator newSession){
-        ConcurrentWebSocketSessionDecorator[] newSessions = new ConcurrentWebSocketSessionDecorator[oldSessions.length + 1];
-        for(int i=0; i < oldSessions.length; i++){
-            newSessions[i] = oldSessions[i];
+    protected void removeSession(WebSocketSession session, Map<String, Map<String, ConcurrentWebSocketSessionDecorator>> sessions) {
+        String userId = session.getAttributes().get("userId").toString();
+        Map<String, ConcurrentWebSocketSessionDecorator> userSessions = sessions.get(userId);
+        if (userSessions != null) {
+            userSessions.remove(session.getId());
         }
-        newSessions[newSessions.length - 1] = newSession;
-        return newSessions;
     }
 
     protected void sendWebSocketMessage(WebSocketSession s, TextMessage message) throws ServerException {
@@ -50,17 +46,4 @@ public abstract class CytomineWebSocketHandler extends TextWebSocketHandler {
             }
         }
     }
-
-    private void addSessionToSessionsList(String userId, ConcurrentWebSocketSessionDecorator sessionDecorator, Map<String, ConcurrentWebSocketSessionDecorator[]> sessions){
-        if(sessions.containsKey(userId)){
-            ConcurrentWebSocketSessionDecorator[] oldSessions = sessions.get(userId);
-            ConcurrentWebSocketSessionDecorator[] newSessions = addSession(oldSessions, sessionDecorator);
-            sessions.replace(userId, oldSessions, newSessions);
-        }
-        else{
-            ConcurrentWebSocketSessionDecorator[] newSessions = {sessionDecorator};
-            sessions.put(userId, newSessions);
-        }
-    }
-
 }
@@ -0,0 +1,162 @@
+package be.cytomine.service.annotation;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Tuple;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.Session;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.io.ParseException;
+import org.springframework.stereotype.Service;
+
+import be.cytomine.domain.annotation.AnnotationLayer;
+import be.cytomine.dto.annotation.AnnotationViewportPage;
+import be.cytomine.exceptions.WrongArgumentException;
+import be.cytomine.service.utils.AnnotationClusterGridService;
+import be.cytomine.utils.GeometryUtils;
+
+/**
+ * Read the annotations of a layer that are visible in a viewport, using the spatial index of their layer and geometry
+ * (derived from their location by a database trigger or given by the batch inserts, see liquibase changelog).
+ * Levels follow the cluster grid: at level L, a screen pixel covers 2^L image pixels
+ * and a tile is AnnotationClusterGridService.BASE_CELL_SIZE * 2^L image pixels wide.
+ */
+@Service
+@RequiredArgsConstructor
+public class AnnotationViewportService {
+
+    public static final int DEFAULT_LIMIT = 1000;
+
+    public static final int MAX_LIMIT = 10000;
+
+    /**
+     * Maximal distance (in screen pixels) between a simplified geometry and the original one
+     */
+    public static final double SIMPLIFICATION_TOLERANCE = 0.5;
+
+    /**
+     * Resolution of the vector tiles, and margin around them so that the features crossing tiles are drawn seamlessly
+     */
+    public static final int TILE_EXTENT = 4096;
+
+    public static final int TILE_BUFFER = 64;
+
+    public static final String TILE_LAYER_NAME = "annotations";
+
+    private final EntityManager entityManager;
+
+    /**
+     * List the annotations of the layer intersecting the bbox, by increasing id.
+     * @param bbox Bbox of the viewport (minX,minY,maxX,maxY or WKT polygon)
+     * @param level Zoom level of the viewport, the geometries are simplified below the screen resolution
+     * @param limit Maximal number of annotations in the page
+     * @param cursor Cursor of the page, as returned by the previous page (null for the first page)
+     */
+    public AnnotationViewportPage findInViewport(AnnotationLayer layer, String bbox, int level, Integer limit, String cursor) {
+        Envelope envelope = parseBbox(bbox);
+        checkLevel(level);
+        int max = limit != null ? limit : DEFAULT_LIMIT;
+        if (max <= 0 || max > MAX_LIMIT) {
+            throw new WrongArgumentException("Limit must be between 1 and " + MAX_LIMIT);
+        }
+        double tolerance = level == 0 ? 0 : SIMPLIFICATION_TOLERANCE * Math.pow(2, level);
+
+        List<Tuple> rows = entityManager.unwrap(Session.class).createNativeQuery(
+                "SELECT a.id AS id, " +
+                "ST_AsText(CASE WHEN :tolerance > 0 THEN ST_SimplifyPreserveTopology(a.geom, :tolerance) ELSE a.geom END) AS location " +
+                "FROM annotation a " +
+                "WHERE a.layer_id = :layer AND a.id > :after " +
+                "AND a.geom && ST_MakeEnvelope(:minX, :minY, :maxX, :maxY, 0) " +
+                "ORDER BY a.id " +
+                "LIMIT :limit", Tuple.class)
+            .setParameter("tolerance", tolerance)
+            .setParameter("layer", layer.getId())
+            .setParameter("after", decodeCursor(cursor))
+            .setParameter("minX", envelope.getMinX())
+            .setParameter("minY", envelope.getMinY())
+            .setParameter("maxX", envelope.getMaxX())
+            .setParameter("maxY", envelope.getMaxY())
+            .setParameter("limit", max + 1)
+            .getResultList();
+
+        boolean hasNext = rows.size() > max;
+        if (hasNext) {
+            rows = rows.subList(0, max);
+        }
+        List<AnnotationViewportPage.Item> collection = new ArrayList<>(rows.size());
+        for (Tuple row : rows) {
+            collection.add(new AnnotationViewportPage.Item(((Number) row.get("id")).longValue(), (String) row.get("location")));
+        }
+        String nextCursor = hasNext ? encodeCursor(collection.get(collection.size() - 1).getId()) : null;
+        return new AnnotationViewportPage(collection, nextCursor);
+    }
+
+    /**
+     * Encode the annotations of the layer in the tile as a Mapbox Vector Tile, with a single layer of features
+     * identified by the annotation ids. Tile (x, y) at level L covers [x * s, (x + 1) * s] x [y * s, (y + 1) * s]
+     * in image coordinates, with s = AnnotationClusterGridService.BASE_CELL_SIZE * 2^L: rows are counted from the
+     * bottom of the image, and the tile coordinates have their origin at the top left, as required by the format.
+     * The geometries are snapped to the tile resolution, those smaller than a tile unit are dropped.
+     */
+    public byte[] findTile(AnnotationLayer layer, int level, int x, int y) {
+        checkLevel(level);
+        if (x < 0 || y < 0) {
+            throw new WrongArgumentException("Tile coordinates must be positive");
+        }
+        double size = AnnotationClusterGridService.BASE_CELL_SIZE * Math.pow(2, level);
+        double buffer = size * TILE_BUFFER / TILE_EXTENT;
+
+        Object tile = entityManager.createNativeQuery(
+                "WITH features AS (" +
+                "SELECT a.id, ST_AsMVTGeom(a.geom, ST_MakeEnvelope(:minX, :minY, :maxX, :maxY, 0)::box2d, :extent, :buffer, true) AS geom " +
+                "FROM annotation a " +
+                "WHERE a.layer_id = :layer " +
+                "AND a.geom && ST_MakeEnvelope(:minX - :margin, :minY - :margin, :maxX + :margin, :maxY + :margin, 0)" +
+                ") " +
+                "SELECT ST_AsMVT(features.*, :name, :extent, 'geom', 'id') FROM features WHERE features.geom IS NOT NULL")
+            .setParameter("layer", layer.getId())
+            .setParameter("minX", x * size)
+            .setParameter("minY", y * size)
+            .setParameter("maxX", (x + 1) * size)
+            .setParameter("maxY", (y + 1) * size)
+            .setParameter("margin", buffer)
+            .setParameter("extent", TILE_EXTENT)
+            .setParameter("buffer", TILE_BUFFER)
+            .setParameter("name", TILE_LAYER_NAME)
+            .getSingleResult();
+        return tile != null ? (byte[]) tile : new byte[0];
+    }
+
+    private static void checkLevel(int level) {
+        if (level < 0 || level >= AnnotationClusterGridService.LEVELS) {
+            throw new WrongArgumentException("Level must be between 0 and " + (AnnotationClusterGridService.LEVELS - 1));
+        }
+    }
+
+    private static Envelope parseBbox(String bbox) {
+        try {
+            return GeometryUtils.createBoundingBox(bbox).getEnvelopeInternal();
+        } catch (ParseException | RuntimeException e) {
+            throw new WrongArgumentException("Invalid bbox " + bbox);
+        }
+    }
+
+    private static String encodeCursor(long id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(String.valueOf(id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new WrongArgumentException("Invalid cursor " + cursor);
+        }
+    }
+}
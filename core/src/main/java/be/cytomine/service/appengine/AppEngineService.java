@@ -10,6 +10,8 @@ import java.util.Map;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.NotImplementedException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
@@ -31,13 +33,17 @@ public class AppEngineService {
     @Value("${application.appEngine.apiBasePath}")
     private String apiBasePath;
 
+    @Autowired
+    @Qualifier("appEngineRestTemplate")
+    private RestTemplate restTemplate;
+
     private String buildFullUrl(String uri) {
         return internalProxyUrl + apiBasePath + uri;
     }
 
     public ResponseEntity<String> get(String uri) {
         try {
-            return new RestTemplate().getForEntity(buildFullUrl(uri), String.class);
+            return restTemplate.getForEntity(buildFullUrl(uri), String.class);
         } catch (HttpClientErrorException | HttpServerErrorException.InternalServerError e) {
             return JsonResponseEntity.status(e.getStatusCode()).body(e.getResponseBodyAsString());
         }
@@ -45,7 +51,7 @@ public class AppEngineService {
 
     public ResponseEntity<byte[]> getByte(String uri) {
         try {
-            return new RestTemplate().getForEntity(buildFullUrl(uri), byte[].class);
+            return restTemplate.getForEntity(buildFullUrl(uri), byte[].class);
         } catch (HttpClientErrorException | HttpServerErrorException.InternalServerError e) {
             return JsonResponseEntity.status(e.getStatusCode()).body(e.getResponseBodyAsByteArray());
         }
@@ -55,7 +61,7 @@ public class AppEngineService {
         Path filePath = Paths.get("downloaded_" + System.currentTimeMillis() + ".tmp");
         File targetFile = filePath.toFile();
 
-        new RestTemplate().execute(
+        restTemplate.execute(
             buildFullUrl(uri),
             HttpMethod.GET,
             null,
@@ -78,9 +84,9 @@ public class AppEngineService {
 
         try {
             if (method.matches("POST")) {
-                return new RestTemplate().postForEntity(buildFullUrl(uri), request, String.class);
+                return restTemplate.postForEntity(buildFullUrl(uri), request, String.class);
             } else if (method.matches("PUT")) {
-                return new RestTemplate().exchange(buildFullUrl(uri), HttpMethod.PUT, request, String.class);
+                return restTemplate.exchange(buildFullUrl(uri), HttpMethod.PUT, request, String.class);
             } else {
                 throw new NotImplementedException("sendWithBody not implemented with method than {POST, PUT}");
             }
@@ -98,7 +104,7 @@ public class AppEngineService {
     }
 
     public <B> ResponseEntity<String> putWithParams(String uri, B body, MediaType contentType, Map<String, String> queryParams) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(uri);
+        UriComponentsBuilder builder = UriComponentsBuilder.fromUriString(buildFullUrl(uri));
         if (queryParams != null) {
             queryParams.forEach(builder::queryParam);
         }
@@ -108,6 +114,10 @@ public class AppEngineService {
 
         HttpEntity<B> requestEntity = new HttpEntity<>(body, headers);
 
-        return new RestTemplate().exchange(buildFullUrl(finalUrl), HttpMethod.PUT, requestEntity, String.class);
+        try {
+            return restTemplate.exchange(finalUrl, HttpMethod.PUT, requestEntity, String.class);
+        } catch (HttpClientErrorException | HttpServerErrorException.InternalServerError e) {
+            return JsonResponseEntity.status(e.getStatusCode()).body(e.getResponseBodyAsString());
+        }
     }
 }
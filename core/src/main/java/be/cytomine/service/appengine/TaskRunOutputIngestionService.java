@@ -0,0 +1,249 @@
+package be.cytomine.service.appengine;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKBWriter;
+import org.locationtech.jts.io.WKTWriter;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import be.cytomine.config.properties.AnnotationImportProperties;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.annotation.AnnotationLayer;
+import be.cytomine.domain.appengine.TaskRun;
+import be.cytomine.domain.appengine.TaskRunLayer;
+import be.cytomine.exceptions.ObjectNotFoundException;
+import be.cytomine.exceptions.WrongArgumentException;
+import be.cytomine.repository.appengine.TaskRunLayerRepository;
+import be.cytomine.service.annotation.AnnotationLayerService;
+import be.cytomine.service.database.SequenceService;
+import be.cytomine.service.utils.GeometryService;
+
+/**
+ * Ingestion of the geometries of the outputs of a task run into an annotation layer.
+ * The layer of the task run is the ingestion marker: it is created in the same transaction as its annotations,
+ * and the ingestion is skipped when it exists, so that fetching the outputs again does not create another layer.
+ * - the outputs are read with a streaming parser, only the geometry candidates are kept,
+ * - the geometries are parsed and converted to WKT (location) and WKB (spatial column) in parallel,
+ * - the annotations are inserted with JDBC batches and pre-allocated ids, with their geometry: the database does
+ *   not parse their location again.
+ */
+@Slf4j
+@Service
+public class TaskRunOutputIngestionService {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final AnnotationLayerService annotationLayerService;
+
+    private final GeometryService geometryService;
+
+    private final SequenceService sequenceService;
+
+    private final TaskRunLayerRepository taskRunLayerRepository;
+
+    private final AnnotationImportProperties properties;
+
+    private final ForkJoinPool pool;
+
+    public TaskRunOutputIngestionService(
+            EntityManager entityManager,
+            PlatformTransactionManager transactionManager,
+            AnnotationLayerService annotationLayerService,
+            GeometryService geometryService,
+            SequenceService sequenceService,
+            TaskRunLayerRepository taskRunLayerRepository,
+            ApplicationProperties applicationProperties) {
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.annotationLayerService = annotationLayerService;
+        this.geometryService = geometryService;
+        this.sequenceService = sequenceService;
+        this.taskRunLayerRepository = taskRunLayerRepository;
+        this.properties = applicationProperties.getAnnotationImport();
+        this.pool = new ForkJoinPool(Math.max(1, properties.getParallelism()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Layer of the geometries of the outputs of the task run, created at the first call.
+     * @param outputs Outputs of the task run, as returned by the app engine
+     * @return The layer, or empty if the outputs have no geometry
+     */
+    public Optional<TaskRunLayer> ingest(TaskRun taskRun, String outputs) {
+        Optional<TaskRunLayer> existing = taskRunLayerRepository.findFirstByTaskRunIdOrderByIdAsc(taskRun.getId());
+        if (existing.isPresent()) {
+            return existing;
+        }
+
+        List<String> candidates = readGeometryCandidates(taskRun, outputs);
+        if (candidates.isEmpty()) {
+            return Optional.empty();
+        }
+
+        List<Location> locations;
+        try {
+            locations = pool.submit(() -> candidates.parallelStream()
+                    .map(this::toLocation)
+                    .filter(Objects::nonNull)
+                    .toList()
+            ).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WrongArgumentException("Ingestion of the outputs of task run " + taskRun.getTaskRunId() + " interrupted");
+        } catch (ExecutionException e) {
+            throw new WrongArgumentException("Cannot process the outputs of task run " + taskRun.getTaskRunId() + ": " + e.getCause());
+        }
+        if (locations.isEmpty()) {
+            return Optional.empty();
+        }
+
+        return transactionTemplate.execute(status -> {
+            // concurrent ingestions of the same task run wait for the first one, then find its layer
+            entityManager.createNativeQuery("SELECT id FROM task_run WHERE id = :id FOR UPDATE")
+                    .setParameter("id", taskRun.getId())
+                    .getResultList();
+            Optional<TaskRunLayer> ingested = taskRunLayerRepository.findFirstByTaskRunIdOrderByIdAsc(taskRun.getId());
+            if (ingested.isPresent()) {
+                return ingested;
+            }
+            return Optional.of(insertLayer(taskRun, locations));
+        });
+    }
+
+    /**
+     * String values of the outputs, and string values of the items of the collection outputs
+     */
+    private static List<String> readGeometryCandidates(TaskRun taskRun, String outputs) {
+        List<String> candidates = new ArrayList<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(outputs)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new ObjectNotFoundException("Outputs from", taskRun.getTaskRunId());
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if (!field.equals("value")) {
+                        parser.skipChildren();
+                    } else if (value == JsonToken.VALUE_STRING) {
+                        candidates.add(parser.getText());
+                    } else if (value == JsonToken.START_ARRAY) {
+                        readItems(parser, candidates);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new ObjectNotFoundException("Outputs from", taskRun.getTaskRunId());
+        }
+        return candidates;
+    }
+
+    private static void readItems(JsonParser parser, List<String> candidates) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.VALUE_STRING && field.equals("value")) {
+                    candidates.add(parser.getText());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    /**
+     * WKT and WKB of the candidate, or null if it is not a geometry
+     */
+    private Location toLocation(String candidate) {
+        Geometry geometry = geometryService.parseGeometry(candidate);
+        if (geometry == null) {
+            return null;
+        }
+        return new Location(new WKTWriter().write(geometry).getBytes(StandardCharsets.UTF_8), new WKBWriter().write(geometry));
+    }
+
+    private TaskRunLayer insertLayer(TaskRun taskRun, List<Location> locations) {
+        AnnotationLayer annotationLayer = annotationLayerService.createAnnotationLayer("task-run-" + taskRun.getTaskRunId());
+
+        List<Long> ids = sequenceService.generateIDs(locations.size());
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        entityManager.unwrap(Session.class).doWork(connection ->
+                insertAnnotations(connection, annotationLayer.getId(), ids, locations, now));
+
+        TaskRunLayer taskRunLayer = new TaskRunLayer();
+        taskRunLayer.setAnnotationLayer(annotationLayer);
+        taskRunLayer.setTaskRun(taskRun);
+        taskRunLayer.setImage(taskRun.getImage());
+        taskRunLayer = taskRunLayerRepository.saveAndFlush(taskRunLayer);
+
+        log.info("Ingested {} annotations from the outputs of task run {}", locations.size(), taskRun.getTaskRunId());
+        return taskRunLayer;
+    }
+
+    private void insertAnnotations(Connection connection, Long layerId, List<Long> ids, List<Location> locations, Timestamp now) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO annotation(id, version, created, updated, layer_id, location, geom) " +
+                "VALUES (?, 0, ?, ?, ?, ?, ST_GeomFromWKB(?, 0))")) {
+            for (int i = 0; i < locations.size(); i++) {
+                statement.setLong(1, ids.get(i));
+                statement.setTimestamp(2, now);
+                statement.setTimestamp(3, now);
+                statement.setLong(4, layerId);
+                statement.setBytes(5, locations.get(i).getWkt());
+                statement.setBytes(6, locations.get(i).getWkb());
+                statement.addBatch();
+                if ((i + 1) % properties.getBatchSize() == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Location {
+
+        private final byte[] wkt;
+
+        private final byte[] wkb;
+    }
+}
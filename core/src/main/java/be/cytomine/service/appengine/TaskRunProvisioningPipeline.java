@@ -0,0 +1,350 @@
+package be.cytomine.service.appengine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestClientException;
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.TaskRunProvisioningProperties;
+import be.cytomine.controller.JsonResponseEntity;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.PreparedRequest;
+
+/**
+ * Provisioning of the binary inputs of task runs (annotation crops, whole slide images).
+ * Items are streamed from the image server to the app engine, without being stored in memory or on disk.
+ * The items of a collection are transferred concurrently: the pool is shared by all runs and each provisioning
+ * has a bounded number of items in flight, so that a large collection does not hold all the workers.
+ * The progress of the provisionings of a run is kept in memory, and they can be cancelled.
+ */
+@Slf4j
+@Component
+public class TaskRunProvisioningPipeline {
+
+    public enum State {
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final AppEngineService appEngineService;
+
+    private final TaskRunProvisioningProperties properties;
+
+    private final ExecutorService workers;
+
+    // task run id -> parameter name -> progress of its last provisioning
+    private final Map<UUID, Map<String, Progress>> progresses = new ConcurrentHashMap<>();
+
+    public TaskRunProvisioningPipeline(AppEngineService appEngineService, ApplicationProperties applicationProperties) {
+        this.appEngineService = appEngineService;
+        this.properties = applicationProperties.getTaskRunProvisioning();
+        this.workers = Executors.newFixedThreadPool(
+                properties.getWorkers(),
+                new CustomizableThreadFactory("task-run-provisioning-")
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Binary item to provision: request to the image server returning its content, and name of the sent file
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Item {
+
+        private final PreparedRequest source;
+
+        private final String filename;
+    }
+
+    /**
+     * Stream a single binary input to the app engine
+     */
+    public ResponseEntity<String> provision(String uri, Item item) {
+        try {
+            return send(uri, null, item, null);
+        } catch (IOException | RestClientException e) {
+            log.error("Cannot provision " + uri + ": " + e.getMessage());
+            return error(HttpStatus.BAD_GATEWAY, "Cannot transfer " + item.getFilename() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stream the items of a collection input to the app engine, several at a time, and wait for the end.
+     * The first item is sent alone, as it creates the collection in the app engine.
+     * The provisioning stops at the first failed item, whose response is returned.
+     * Otherwise, the responses of the items are returned in a JSON array.
+     */
+    public ResponseEntity<String> provision(UUID taskRunId, String parameterName, List<Item> items) {
+        String uri = "task-runs/" + taskRunId + "/input-provisions/" + parameterName + "/indexes";
+
+        removeExpiredProgresses();
+        Progress progress = new Progress(parameterName, items.size());
+        Progress previous = progresses
+                .computeIfAbsent(taskRunId, id -> new ConcurrentHashMap<>())
+                .put(parameterName, progress);
+        if (previous != null) {
+            // the parameter is provisioned again, the previous values are replaced
+            previous.cancel();
+        }
+
+        String[] responses = new String[items.size()];
+        int parallelism = Math.max(1, properties.getParallelism());
+        Semaphore inFlight = new Semaphore(parallelism);
+        List<Future<?>> futures = new ArrayList<>(items.size());
+        try {
+            for (int i = 0; i < items.size() && progress.isRunning(); i++) {
+                inFlight.acquire();
+                int index = i;
+                Future<?> future = workers.submit(() -> {
+                    try {
+                        transfer(uri, index, items.get(index), progress, responses);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+                futures.add(future);
+                if (index == 0) {
+                    future.get();
+                }
+            }
+            // wait for the items in flight, and make sure none of them ended unexpectedly
+            inFlight.acquire(parallelism);
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            progress.cancel();
+        } catch (ExecutionException e) {
+            progress.fail(error(HttpStatus.INTERNAL_SERVER_ERROR, e.getCause().getMessage()));
+        }
+        progress.complete();
+
+        return switch (progress.getState()) {
+            case FAILED -> progress.failure;
+            case CANCELLED -> error(HttpStatus.CONFLICT, "Provisioning of " + parameterName + " was cancelled");
+            default -> JsonResponseEntity.status(HttpStatus.OK).body("[" + String.join(",", responses) + "]");
+        };
+    }
+
+    private void transfer(String uri, int index, Item item, Progress progress, String[] responses) {
+        if (!progress.isRunning()) {
+            return;
+        }
+
+        try {
+            ResponseEntity<String> response = send(uri, Map.of("value", String.valueOf(index)), item, progress);
+            if (response.getStatusCode().is2xxSuccessful()) {
+                responses[index] = response.getBody();
+                progress.provisioned.incrementAndGet();
+            } else {
+                progress.fail(response);
+            }
+        } catch (IOException | RestClientException e) {
+            if (progress.isRunning()) {
+                log.error("Cannot provision item " + index + " of " + uri + ": " + e.getMessage());
+                progress.fail(error(HttpStatus.BAD_GATEWAY, "Cannot transfer " + item.getFilename() + ": " + e.getMessage()));
+            }
+        } catch (RuntimeException e) {
+            // an item without response must not complete the provisioning
+            log.error("Cannot provision item " + index + " of " + uri, e);
+            progress.fail(error(HttpStatus.INTERNAL_SERVER_ERROR, "Cannot transfer " + item.getFilename() + ": " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Send the item to the app engine while it is read from the image server
+     */
+    private ResponseEntity<String> send(String uri, Map<String, String> params, Item item, Progress progress) throws IOException {
+        try (ClientHttpResponse upstream = item.getSource().execute()) {
+            if (upstream.getStatusCode() != HttpStatus.OK) {
+                return error(upstream.getStatusCode().isError() ? upstream.getStatusCode() : HttpStatus.BAD_GATEWAY,
+                        "Cannot get " + item.getFilename() + " from the image server");
+            }
+
+            if (progress != null) {
+                progress.open.add(upstream);
+            }
+            try {
+                MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+                body.add("file", new StreamedResource(
+                        upstream.getBody(),
+                        item.getFilename(),
+                        upstream.getHeaders().getContentLength()
+                ));
+                return appEngineService.putWithParams(uri, body, MediaType.MULTIPART_FORM_DATA, params);
+            } finally {
+                if (progress != null) {
+                    progress.open.remove(upstream);
+                }
+            }
+        }
+    }
+
+    private static ResponseEntity<String> error(HttpStatusCode status, String message) {
+        JsonObject body = new JsonObject();
+        body.put("message", message);
+        return JsonResponseEntity.status(status).body(body.toJsonString());
+    }
+
+    /**
+     * Progress of the provisionings of the run, by parameter
+     */
+    public List<JsonObject> getProgress(UUID taskRunId) {
+        removeExpiredProgresses();
+        List<JsonObject> result = new ArrayList<>();
+        progresses.getOrDefault(taskRunId, Map.of()).values().forEach(progress -> result.add(progress.toJsonObject()));
+        return result;
+    }
+
+    /**
+     * Cancel the running provisionings of the run: items not started yet are skipped, transfers are aborted.
+     * Items already provisioned are kept by the app engine.
+     */
+    public void cancel(UUID taskRunId) {
+        progresses.getOrDefault(taskRunId, Map.of()).values().forEach(Progress::cancel);
+    }
+
+    private void removeExpiredProgresses() {
+        long limit = System.currentTimeMillis() - properties.getProgressRetention().toMillis();
+        progresses.values().forEach(run -> run.values().removeIf(progress -> progress.isExpired(limit)));
+        progresses.values().removeIf(Map::isEmpty);
+    }
+
+    @Getter
+    public static class Progress {
+
+        private final String parameterName;
+
+        private final int total;
+
+        private final AtomicInteger provisioned = new AtomicInteger();
+
+        private final AtomicReference<State> state = new AtomicReference<>(State.RUNNING);
+
+        private final Date started = new Date();
+
+        private volatile Date finished;
+
+        private volatile ResponseEntity<String> failure;
+
+        // image server responses being transferred, closed to abort the transfers
+        private final Set<ClientHttpResponse> open = ConcurrentHashMap.newKeySet();
+
+        Progress(String parameterName, int total) {
+            this.parameterName = parameterName;
+            this.total = total;
+        }
+
+        public State getState() {
+            return state.get();
+        }
+
+        boolean isRunning() {
+            return state.get() == State.RUNNING;
+        }
+
+        boolean isExpired(long limit) {
+            return finished != null && finished.getTime() < limit;
+        }
+
+        void complete() {
+            state.compareAndSet(State.RUNNING, State.COMPLETED);
+            finished = new Date();
+        }
+
+        void fail(ResponseEntity<String> response) {
+            if (state.compareAndSet(State.RUNNING, State.FAILED)) {
+                failure = response;
+                abort();
+            }
+        }
+
+        void cancel() {
+            if (state.compareAndSet(State.RUNNING, State.CANCELLED)) {
+                abort();
+            }
+        }
+
+        private void abort() {
+            for (ClientHttpResponse response : open) {
+                response.close();
+            }
+        }
+
+        JsonObject toJsonObject() {
+            JsonObject json = new JsonObject();
+            json.put("parameterName", parameterName);
+            json.put("state", getState().name());
+            json.put("total", total);
+            json.put("provisioned", provisioned.get());
+            json.put("started", started.getTime());
+            json.put("finished", finished != null ? finished.getTime() : null);
+            json.put("error", failure != null ? failure.getBody() : null);
+            return json;
+        }
+    }
+
+    /**
+     * Body of an upstream response sent as a file part: it is read once, while the request is written
+     */
+    private static class StreamedResource extends InputStreamResource {
+
+        private final String filename;
+
+        private final long contentLength;
+
+        StreamedResource(InputStream inputStream, String filename, long contentLength) {
+            super(inputStream);
+            this.filename = filename;
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        public String getFilename() {
+            return filename;
+        }
+
+        @Override
+        public long contentLength() {
+            // a negative length is not sent, the part is then streamed without it
+            return contentLength;
+        }
+    }
+}
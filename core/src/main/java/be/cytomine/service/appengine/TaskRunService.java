@@ -1,68 +1,49 @@
 package be.cytomine.service.appengine;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.URI;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.http.HttpMethod;
+import org.locationtech.jts.io.ParseException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
-import org.springframework.util.StreamUtils;
-import org.springframework.web.client.ResponseExtractor;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
-import org.springframework.web.util.UriComponentsBuilder;
 
-import be.cytomine.domain.annotation.AnnotationLayer;
+import be.cytomine.controller.JsonResponseEntity;
 import be.cytomine.domain.appengine.TaskRun;
-import be.cytomine.domain.appengine.TaskRunLayer;
 import be.cytomine.domain.image.ImageInstance;
-import be.cytomine.domain.ontology.AnnotationDomain;
 import be.cytomine.domain.ontology.UserAnnotation;
 import be.cytomine.domain.project.Project;
 import be.cytomine.domain.security.User;
 import be.cytomine.dto.appengine.task.TaskRunDetail;
-import be.cytomine.dto.appengine.task.TaskRunValue;
 import be.cytomine.dto.image.CropParameter;
 import be.cytomine.exceptions.ObjectNotFoundException;
-import be.cytomine.repository.appengine.TaskRunLayerRepository;
+import be.cytomine.exceptions.ServerException;
+import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.repository.appengine.TaskRunRepository;
 import be.cytomine.service.CurrentUserService;
-import be.cytomine.service.annotation.AnnotationLayerService;
-import be.cytomine.service.annotation.AnnotationService;
 import be.cytomine.service.image.ImageInstanceService;
 import be.cytomine.service.middleware.ImageServerService;
 import be.cytomine.service.ontology.UserAnnotationService;
 import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.service.utils.GeometryService;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.PreparedRequest;
 
 import static org.springframework.security.acls.domain.BasePermission.READ;
 
@@ -71,10 +52,6 @@ import static org.springframework.security.acls.domain.BasePermission.READ;
 @Service
 public class TaskRunService {
 
-    private final AnnotationService annotationService;
-
-    private final AnnotationLayerService annotationLayerService;
-
     private final AppEngineService appEngineService;
 
     private final CurrentUserService currentUserService;
@@ -93,7 +70,9 @@ public class TaskRunService {
 
     private final TaskRunRepository taskRunRepository;
 
-    private final TaskRunLayerRepository taskRunLayerRepository;
+    private final TaskRunProvisioningPipeline taskRunProvisioningPipeline;
+
+    private final TaskRunOutputIngestionService taskRunOutputIngestionService;
 
     public ResponseEntity<String> addTaskRun(Long projectId, String uri, JsonNode body) {
         Project project = projectService.get(projectId);
@@ -215,26 +194,10 @@ public class TaskRunService {
         return appEngineService.put("task-runs/" + taskRunId + "/input-provisions", body, MediaType.APPLICATION_JSON);
     }
 
-    private byte[] getImageAnnotation(AnnotationDomain annotation) {
-        CropParameter parameters = new CropParameter();
-        parameters.setComplete(true);
-        parameters.setDraw(true);
-        parameters.setFormat("png");
-        parameters.setLocation(annotation.getWktLocation());
-
-        try {
-            ResponseEntity<byte[]> response = imageServerService.crop(annotation, parameters, null, null);
-            return response.getBody();
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
     public ResponseEntity<String> provisionTaskRun(JsonNode json, Long projectId, UUID taskRunId, String parameterName) {
         checkTaskRun(projectId, taskRunId);
 
         String uri = "task-runs/" + taskRunId.toString() + "/input-provisions/" + parameterName;
-        String arrayTypeUri = "task-runs/" + taskRunId.toString() + "/input-provisions/" + parameterName + "/indexes";
         ObjectMapper mapper = new ObjectMapper();
 
         if (json.get("type").isObject() && json.get("type").get("id").asText().equals("array")) {
@@ -242,36 +205,25 @@ public class TaskRunService {
 
             Long[] itemsArray = mapper.convertValue(json.get("value"), Long[].class);
 
+            // items are resolved (and access checked) before being transferred concurrently
             if (subtype.equals("image")) {
-                for (int i = 0; i < itemsArray.length; i++) {
-                    Long annotationId = itemsArray[i];
-                    MultiValueMap<String, Object> body = prepareImage(annotationId);
-
-                    ResponseEntity<String> response = provisionCollectionItem(arrayTypeUri, i, body);
-                    if (response != null) return response;
+                List<TaskRunProvisioningPipeline.Item> items = new ArrayList<>();
+                for (Long annotationId : itemsArray) {
+                    items.add(annotationCrop(annotationId));
                 }
+                return taskRunProvisioningPipeline.provision(taskRunId, parameterName, items);
             }
             if (subtype.equals("wsi")) {
-                for (int i = 0; i < itemsArray.length; i++) {
-                    Long imageId = itemsArray[i];
-                    File wsi = downloadWsi(imageId);
-
-                    MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-                    body.add("file", new FileSystemResource(wsi));
-
-                    ResponseEntity<String> response = provisionCollectionItem(arrayTypeUri, i, body);
-
-                    wsi.delete();
-
-                    if (response != null) {
-                        return response;
-                    }
+                List<TaskRunProvisioningPipeline.Item> items = new ArrayList<>();
+                for (Long imageId : itemsArray) {
+                    items.add(wholeSlideImage(imageId));
                 }
+                return taskRunProvisioningPipeline.provision(taskRunId, parameterName, items);
             }
             if (subtype.equals("geometry")) {
                 ObjectNode provision = json.deepCopy();
                 provision.remove("type");
-                provision.remove("value");
+                provision.put("param_name", parameterName);
 
                 ArrayNode valueListNode = mapper.createArrayNode();
                 for (int i = 0; i < itemsArray.length; i++) {
@@ -284,6 +236,11 @@ public class TaskRunService {
 
                     valueListNode.add(itemJsonObject);
                 }
+                provision.set("value", valueListNode);
+
+                // all the items are sent in a single request
+                String batchUri = "task-runs/" + taskRunId + "/input-provisions";
+                return appEngineService.put(batchUri, List.of(provision), MediaType.APPLICATION_JSON);
             }
         }
 
@@ -291,41 +248,22 @@ public class TaskRunService {
             JsonNode value = json.get("value");
             String type = value.get("type").asText();
             Long id = value.get("id").asLong();
-            File wsi = null;
 
-            MultiValueMap<String, Object> body = null;
+            TaskRunProvisioningPipeline.Item item;
             if (type.equals("annotation")) {
-                body = prepareImage(id);
+                item = annotationCrop(id);
             } else if (type.equals("image")) {
-                wsi = downloadWsi(id);
-
-                body = new LinkedMultiValueMap<>();
-                body.add("file", new FileSystemResource(wsi));
+                item = wholeSlideImage(id);
             } else {
                 throw new IllegalArgumentException("Unsupported type: " + type);
             }
 
-            ResponseEntity<String> response = appEngineService.put(uri, body, MediaType.MULTIPART_FORM_DATA);
-
-            if (wsi != null) {
-                wsi.delete();
-            }
-
-            return response;
+            return taskRunProvisioningPipeline.provision(uri, item);
         }
 
         if (json.get("type").get("id").asText().equals("wsi")) {
             Long imageId = json.get("value").asLong();
-            File wsi = downloadWsi(imageId);
-
-            MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-            body.add("file", new FileSystemResource(wsi));
-
-            ResponseEntity<String> response = appEngineService.put(uri, body, MediaType.MULTIPART_FORM_DATA);
-
-            wsi.delete();
-
-            return response;
+            return taskRunProvisioningPipeline.provision(uri, wholeSlideImage(imageId));
         }
 
         ObjectNode provision = json.deepCopy();
@@ -340,65 +278,50 @@ public class TaskRunService {
         return appEngineService.put(uri, provision, MediaType.APPLICATION_JSON);
     }
 
-    private ResponseEntity<String> provisionCollectionItem(String arrayTypeUri, int i,
-                                                           MultiValueMap<String, Object> body)
-    {
-        Map<String, String> params = new HashMap<>();
-        params.put("value", String.valueOf(i));
-
-        ResponseEntity<String> response = appEngineService.putWithParams(arrayTypeUri, body, MediaType.MULTIPART_FORM_DATA, params);
-        if (response.getStatusCode() != HttpStatus.OK) {
-            return response;
-        }
-        return null;
+    public ResponseEntity<String> getProvisioningProgress(Long projectId, UUID taskRunId) {
+        checkTaskRun(projectId, taskRunId);
+        return JsonResponseEntity.status(HttpStatus.OK)
+            .body(JsonObject.toJsonString(taskRunProvisioningPipeline.getProgress(taskRunId)));
     }
 
-    private MultiValueMap<String, Object> prepareImage(Long annotationId) {
-        UserAnnotation annotation = userAnnotationService.get(annotationId);
-
-        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-        body.add("file", new ByteArrayResource(
-            Objects.requireNonNull(getImageAnnotation(annotation))) {
-            @Override
-            public String getFilename() {
-                return annotationId + ".png";
-            }
-        });
-        return body;
+    public ResponseEntity<String> cancelProvisioning(Long projectId, UUID taskRunId) {
+        checkTaskRun(projectId, taskRunId);
+        taskRunProvisioningPipeline.cancel(taskRunId);
+        return getProvisioningProgress(projectId, taskRunId);
     }
 
-    public File downloadFile(URI uri, File destinationFile) {
-        ResponseExtractor<Void> responseExtractor = response -> {
-            try (InputStream in = response.getBody();
-                 OutputStream out = new FileOutputStream(destinationFile)) {
-                StreamUtils.copy(in, out);
-                return null;
-            }
-        };
+    /**
+     * Drawn crop of the annotation, as a PNG image
+     */
+    private TaskRunProvisioningPipeline.Item annotationCrop(Long annotationId) {
+        UserAnnotation annotation = userAnnotationService.get(annotationId);
 
-        new RestTemplate().execute(uri, HttpMethod.GET, null, responseExtractor);
+        CropParameter parameters = new CropParameter();
+        parameters.setComplete(true);
+        parameters.setDraw(true);
+        parameters.setFormat("png");
 
-        return destinationFile;
+        try {
+            PreparedRequest request = imageServerService.cropRequest(annotation, parameters);
+            return new TaskRunProvisioningPipeline.Item(request, annotationId + ".png");
+        } catch (UnsupportedEncodingException | ParseException e) {
+            throw new WrongArgumentException("Cannot crop annotation " + annotationId + ": " + e.getMessage());
+        }
     }
 
-    private File downloadWsi(Long imageId) {
+    /**
+     * Original file of the image
+     */
+    private TaskRunProvisioningPipeline.Item wholeSlideImage(Long imageId) {
         ImageInstance ii = imageInstanceService.find(imageId)
             .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", imageId));
 
-        String imagePath = URLEncoder
-            .encode(ii.getBaseImage().getPath(), StandardCharsets.UTF_8)
-            .replace("%2F", "/");
-
-        URI uri = UriComponentsBuilder
-            .fromHttpUrl(imageServerService.internalImageServerURL())
-            .pathSegment("image", imagePath, "export")
-            .queryParam("filename", ii.getBaseImage().getOriginalFilename())
-            .build()
-            .toUri();
-
-        Path filePath = Paths.get(ii.getBaseImage().getOriginalFilename());
-
-        return downloadFile(uri, filePath.toFile());
+        try {
+            PreparedRequest request = imageServerService.downloadRequest(ii.getBaseImage());
+            return new TaskRunProvisioningPipeline.Item(request, ii.getBaseImage().getOriginalFilename());
+        } catch (IOException e) {
+            throw new ServerException("Cannot export image " + imageId + ": " + e.getMessage(), e);
+        }
     }
 
     public ResponseEntity<String> provisionBinaryData(MultipartFile file, Long projectId, UUID taskRunId, String parameterName) {
@@ -426,74 +349,14 @@ public class TaskRunService {
         checkTaskRun(projectId, taskRunId);
 
         ResponseEntity<String> response = appEngineService.get("task-runs/" + taskRunId + "/outputs");
-        Optional<TaskRun> taskRun = taskRunRepository.findByProjectIdAndTaskRunId(projectId, taskRunId);
-        if (taskRun.isEmpty()) {
-            throw new ObjectNotFoundException("TaskRun", taskRunId);
-        }
-
-        List<TaskRunValue> outputs = new ArrayList<>();
-        try {
-            outputs = new ObjectMapper().readValue(response.getBody(), new TypeReference<List<TaskRunValue>>() {});
-        } catch (JsonProcessingException e) {
-            throw new ObjectNotFoundException("Outputs from", taskRunId);
-        }
-
-        List<String> geometries = outputs
-            .stream()
-            .map(output -> output.getValue())
-            .filter(value -> value instanceof String geometry && geometryService.isGeometry(geometry))
-            .map(value -> (String) value)
-            .toList();
-
-        String layerName = "task-run-" + taskRunId;
-        AnnotationLayer annotationLayer = null;
-        TaskRunLayer taskRunLayer = new TaskRunLayer();
-        boolean updated = false;
-
-        if (!geometries.isEmpty()) {
-            annotationLayer = annotationLayerService.createAnnotationLayer(layerName);
-            for (String geometry : geometries) {
-                annotationService.createAnnotation(annotationLayer, geometryService.GeoJSONToWKT(geometry));
-            }
-
-
-            taskRunLayer.setAnnotationLayer(annotationLayer);
-            taskRunLayer.setTaskRun(taskRun.get());
-            taskRunLayer.setImage(taskRun.get().getImage());
-            updated = true;
-        }
-
-        List<TaskRunValue> geoArrayValues = outputs
-                .stream()
-                .filter(output -> output.getType().equals("ARRAY"))
-                .toList();
-
-        if (!geoArrayValues.isEmpty()) {
-
-            if (annotationLayer == null) {
-                annotationLayer = annotationLayerService.createAnnotationLayer(layerName);
-            }
-
-            for (TaskRunValue arrayValue : geoArrayValues) {
-                    JsonNode items = new ObjectMapper().convertValue(arrayValue.getValue(), JsonNode.class);
-                    for (JsonNode item : items) {
-                        if (geometryService.isGeometry(item.get("value").asText())) {
-                            updated = true;
-                            annotationService.createAnnotation(annotationLayer, geometryService.GeoJSONToWKT(item.get("value").asText()));
-                        }
-                    }
-            }
-
-            taskRunLayer.setAnnotationLayer(annotationLayer);
-            taskRunLayer.setTaskRun(taskRun.get());
-            taskRunLayer.setImage(taskRun.get().getImage());
-
-        }
-
-        if (updated) {
-            taskRunLayerRepository.saveAndFlush(taskRunLayer);
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            return response;
         }
+        TaskRun taskRun = taskRunRepository.findByProjectIdAndTaskRunId(projectId, taskRunId)
+            .orElseThrow(() -> new ObjectNotFoundException("TaskRun", taskRunId));
 
+        // the geometries are ingested at the first fetch only
+        taskRunOutputIngestionService.ingest(taskRun, response.getBody());
 
         return response;
     }
@@ -1,29 +1,95 @@
 package be.cytomine.service.database;
 
+import be.cytomine.config.properties.ApplicationProperties;
 import jakarta.persistence.EntityManager;
-import jakarta.persistence.Query;
 import jakarta.transaction.Transactional;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Generate ids with the database sequence.
+ * Ids are reserved by blocks (one query per block) and handed out from memory. As the block values come from the sequence,
+ * ids are unique across instances. Reserved ids that are not used (e.g. on shutdown) are lost.
+ */
 @Transactional
 @Service
 public class SequenceService {
 
     public final static String SEQ_NAME = "hibernate_sequence";
 
-    @Autowired
-    private EntityManager entityManager;
+    private final EntityManager entityManager;
+
+    private final int blockSize;
+
+    private final AtomicReference<Block> block = new AtomicReference<>(new Block(new long[0]));
+
+    public SequenceService(EntityManager entityManager, ApplicationProperties applicationProperties) {
+        this.entityManager = entityManager;
+        this.blockSize = Math.max(1, applicationProperties.getSequence().getBlockSize());
+    }
 
     /**
      * Get a new id number
      */
     public Long generateID()  {
+        while (true) {
+            Block current = block.get();
+            int index = current.next.getAndIncrement();
+            if (index < current.ids.length) {
+                return current.ids[index];
+            }
+            refill(current);
+        }
+    }
+
+    /**
+     * Get count new id numbers, in ascending order
+     */
+    public List<Long> generateIDs(int count) {
+        if (count > blockSize) {
+            List<Long> ids = new ArrayList<>(count);
+            for (long id : reserve(count)) {
+                ids.add(id);
+            }
+            return ids;
+        }
+        List<Long> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(generateID());
+        }
+        return ids;
+    }
+
+    private synchronized void refill(Block exhausted) {
+        // another thread may have refilled the block while this one was waiting
+        if (block.get() == exhausted) {
+            block.set(new Block(reserve(blockSize)));
+        }
+    }
+
+    private long[] reserve(int count) {
         try {
-            Query query = entityManager.createNativeQuery("select nextval('" + SEQ_NAME + "');");
-            return (Long) query.getSingleResult();
+            List<?> values = entityManager.createNativeQuery("SELECT nextval('" + SEQ_NAME + "') FROM generate_series(1, :count)")
+                    .setParameter("count", count)
+                    .getResultList();
+            return values.stream().mapToLong(value -> ((Number) value).longValue()).sorted().toArray();
         } catch (Exception e) {
             throw new RuntimeException("Cannot generate ID with sequence: " + e, e);
         }
     }
+
+    private static class Block {
+
+        private final long[] ids;
+
+        private final AtomicInteger next = new AtomicInteger();
+
+        Block(long[] ids) {
+            this.ids = ids;
+        }
+    }
 }
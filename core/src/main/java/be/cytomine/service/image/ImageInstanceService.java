@@ -38,10 +38,14 @@ import be.cytomine.repositorynosql.social.PersistentUserPositionRepository;
 import be.cytomine.service.CurrentRoleService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
+import be.cytomine.service.lock.HeldLock;
+import be.cytomine.service.lock.LockService;
 import be.cytomine.service.meta.PropertyService;
 import be.cytomine.service.ontology.*;
 import be.cytomine.service.search.ImageSearchExtension;
 import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.social.ImageConsultationActivityService;
+import be.cytomine.service.social.UserPositionBuffer;
 import be.cytomine.utils.*;
 import be.cytomine.utils.filters.SQLSearchParameter;
 import be.cytomine.utils.filters.SearchOperation;
@@ -134,12 +138,21 @@ public class ImageInstanceService extends ModelService {
     @Autowired
     private LastUserPositionRepository lastUserPositionRepository;
 
+    @Autowired
+    private UserPositionBuffer userPositionBuffer;
+
+    @Autowired
+    private ImageConsultationActivityService imageConsultationActivityService;
+
     @Autowired
     private PersistentImageConsultationRepository persistentImageConsultationRepository;
 
     @Autowired
     PropertyService propertyService;
 
+    @Autowired
+    LockService lockService;
+
     @Autowired
     PropertyRepository propertyRepository;
 
@@ -881,17 +894,17 @@ public class ImageInstanceService extends ModelService {
         securityACLService.checkFullOrRestrictedForOwner(domain.container(), ((ImageInstance) domain).getUser());
 
         Project project = ((ImageInstance) domain).getProject();
-        if (Lock.getInstance().lockProject(project)) {
-            try {
-                log.debug("Delete image " + domain.getId());
-                Command c = new DeleteCommand(currentUser, transaction);
-                return executeCommand(c, domain, null);
-            } finally {
-                Lock.getInstance().unlockProject(project);
-            }
-        } else {
-            throw new ServerException("Cannot acquire lock for project " + project.getId() + " , tryLock return false");
-        }
+        // released after the commit: the next holder sees the image deleted
+        HeldLock lock = lockService.tryLockUntilCompletion("project/" + project.getId())
+                .orElseThrow(() -> new ServerException("Cannot acquire lock for project " + project.getId()));
+        log.debug("Delete image " + domain.getId());
+        Command c = new DeleteCommand(currentUser, transaction);
+        CommandResponse response = executeCommand(c, domain, null);
+        if (!lock.isValid()) {
+            // the lock was lost during the deletion: it may be held by another request, roll back
+            throw new ServerException("Lock for project " + project.getId() + " lost during the deletion of image " + domain.getId());
+        }
+        return response;
     }
 
     @Override
@@ -933,6 +946,7 @@ public class ImageInstanceService extends ModelService {
     }
 
     private void deleteDependentLastUserPosition(ImageInstance image, Transaction transaction, Task task) {
+        userPositionBuffer.evictImage(image.getId());
         lastUserPositionRepository.deleteAllByImage(image.getId());
     }
 
@@ -942,6 +956,7 @@ public class ImageInstanceService extends ModelService {
 
     private void deleteDependentPersistentImageConsultation(ImageInstance image, Transaction transaction, Task task) {
         persistentImageConsultationRepository.deleteAllByImage(image.getId());
+        imageConsultationActivityService.deleteByImage(image.getId());
     }
 
 
@@ -0,0 +1,60 @@
+package be.cytomine.service.lock;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A lock acquired with LockService, released when closed.
+ */
+@Getter
+public class HeldLock implements AutoCloseable {
+
+    private final String name;
+
+    private final Object handle;
+
+    private final LockService lockService;
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    HeldLock(LockService lockService, String name, Object handle) {
+        this.lockService = lockService;
+        this.name = name;
+        this.handle = handle;
+    }
+
+    /**
+     * False if the lock has been released, or lost (it may be held by someone else): the changes done under the lock
+     * must then be rolled back
+     */
+    public boolean isValid() {
+        return !released.get() && lockService.isHeld(this);
+    }
+
+    boolean markReleased() {
+        return released.compareAndSet(false, true);
+    }
+
+    @Override
+    public void close() {
+        lockService.release(this);
+    }
+}
@@ -0,0 +1,80 @@
+package be.cytomine.service.lock;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Locks of this instance.
+ * A lock is only kept while it is held or awaited, so that the table does not grow with the number of locked names.
+ */
+class InMemoryLockBackend implements LockBackend {
+
+    // entries are only modified in a compute of this map
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    @Override
+    public Object acquire(String name, long timeoutMillis) throws InterruptedException {
+        Entry entry = entries.compute(name, (key, existing) -> {
+            Entry result = existing != null ? existing : new Entry();
+            result.users++;
+            return result;
+        });
+        boolean acquired = false;
+        try {
+            acquired = entry.permit.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            if (!acquired) {
+                leave(name);
+            }
+        }
+        return acquired ? entry : null;
+    }
+
+    @Override
+    public void release(String name, Object handle) {
+        // a semaphore (not a ReentrantLock) so that the locks still held at shutdown are released by another thread
+        ((Entry) handle).permit.release();
+        leave(name);
+    }
+
+    private void leave(String name) {
+        entries.computeIfPresent(name, (key, entry) -> --entry.users == 0 ? null : entry);
+    }
+
+    @Override
+    public boolean isHeld(Object handle) {
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+
+        private final Semaphore permit = new Semaphore(1, true);
+
+        // threads holding or waiting for the lock
+        private int users;
+    }
+}
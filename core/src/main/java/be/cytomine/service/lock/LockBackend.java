@@ -0,0 +1,45 @@
+package be.cytomine.service.lock;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+/**
+ * Storage of the locks of LockService
+ */
+interface LockBackend {
+
+    /**
+     * Acquire the lock, waiting at most the given time
+     * @return the handle of the acquired lock, or null if it is not acquired in time
+     */
+    Object acquire(String name, long timeoutMillis) throws InterruptedException;
+
+    /**
+     * Release a lock acquired by this backend
+     */
+    void release(String name, Object handle);
+
+    /**
+     * False if the lock has been lost while held (it may be held by someone else)
+     */
+    boolean isHeld(Object handle);
+
+    /**
+     * Number of locks known by the backend (held or awaited), -1 if unknown
+     */
+    int size();
+}
@@ -0,0 +1,225 @@
+package be.cytomine.service.lock;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.LockProperties;
+import be.cytomine.exceptions.ServerException;
+import be.cytomine.service.stats.StatsRegistry;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Named locks shared by the requests.
+ * With the POSTGRES backend, a lock is held by one instance of the cluster at a time, using a connection of a pool
+ * of maxLocks connections dedicated to the locks.
+ * A lock is awaited at most waitTimeout, and held until it is closed (or until its database session ends).
+ * Usage:
+ * <pre>
+ * try (HeldLock lock = lockService.tryLock(name).orElseThrow(...)) {
+ *     ...
+ *     if (!lock.isValid()) { throw ... } // roll back the changes if the lock has been lost meanwhile
+ * }
+ * </pre>
+ * A lock protecting changes of a transaction is acquired with tryLockUntilCompletion: it is released after the commit
+ * (or rollback), so that the next holder sees the committed changes.
+ * A lock is held by a database session, which cannot lose it while alive: holders do not need a lease or fencing tokens,
+ * they only check (isValid) that the session has not ended before committing.
+ */
+@Slf4j
+@Service
+public class LockService {
+
+    private final LockProperties properties;
+
+    private final LockBackend backend;
+
+    // connections of the POSTGRES backend
+    private final HikariDataSource dataSource;
+
+    // bounds the locks held or awaited by this instance (and the connections used by the POSTGRES backend)
+    private final Semaphore slots;
+
+    private final Set<HeldLock> held = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final StatsRegistry.Counter timeouts;
+
+    private final StatsRegistry.Counter lost;
+
+    // wait of the acquired locks, counts the acquisitions
+    private final StatsRegistry.Timer waitTime;
+
+    public LockService(ApplicationProperties applicationProperties, DataSourceProperties dataSourceProperties, StatsRegistry stats) {
+        this.properties = applicationProperties.getLock();
+        this.slots = new Semaphore(properties.getMaxLocks(), true);
+        if (properties.getBackend() == LockProperties.Backend.POSTGRES) {
+            this.dataSource = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+            this.dataSource.setPoolName("lock");
+            this.dataSource.setMaximumPoolSize(properties.getMaxLocks());
+            this.dataSource.setMinimumIdle(0);
+            this.dataSource.setConnectionTimeout(Math.max(250, properties.getWaitTimeout().toMillis()));
+            this.backend = new PostgresLockBackend(dataSource);
+        } else {
+            this.dataSource = null;
+            this.backend = new InMemoryLockBackend();
+        }
+
+        this.timeouts = stats.counter("locks.timeouts");
+        this.lost = stats.counter("locks.lost");
+        this.waitTime = stats.timer("locks.wait");
+        stats.gauge("locks.backend", () -> properties.getBackend().name());
+        stats.gauge("locks.held", held::size);
+        stats.gauge("locks.waiting", waiting::get);
+        if (backend.size() >= 0) {
+            stats.gauge("locks.entries", backend::size);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        log.info("Locks use the " + properties.getBackend() + " backend");
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (HeldLock lock : new ArrayList<>(held)) {
+            release(lock);
+        }
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    /**
+     * Acquire the lock with the given name, waiting at most waitTimeout
+     * @return The held lock (to close), or empty if it cannot be acquired in time
+     */
+    public Optional<HeldLock> tryLock(String name) {
+        long start = System.nanoTime();
+        long timeout = properties.getWaitTimeout().toMillis();
+        waiting.incrementAndGet();
+        try {
+            if (!slots.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                return Optional.empty();
+            }
+            Object handle = null;
+            try {
+                handle = backend.acquire(name, Math.max(0, timeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            } finally {
+                if (handle == null) {
+                    slots.release();
+                }
+            }
+            if (handle == null) {
+                timeouts.increment();
+                return Optional.empty();
+            }
+
+            waitTime.record(System.nanoTime() - start);
+            HeldLock lock = new HeldLock(this, name, handle);
+            held.add(lock);
+            return Optional.of(lock);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException("Interrupted while waiting for lock " + name, e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Acquire the lock with the given name for the current transaction, waiting at most waitTimeout.
+     * The lock is released when the transaction completes. It is acquired once per transaction: the next calls with
+     * the same name in the transaction return the held lock.
+     * @return The held lock (not to close), or empty if it cannot be acquired in time
+     */
+    public Optional<HeldLock> tryLockUntilCompletion(String name) {
+        Map<String, HeldLock> locks = transactionLocks(name);
+        HeldLock lock = locks.get(name);
+        if (lock != null) {
+            return Optional.of(lock);
+        }
+        Optional<HeldLock> acquired = tryLock(name);
+        acquired.ifPresent(heldLock -> locks.put(name, heldLock));
+        return acquired;
+    }
+
+    /**
+     * Locks held by the current transaction, released when it completes
+     */
+    private Map<String, HeldLock> transactionLocks(String name) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("Lock " + name + " must be acquired in a transaction");
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, HeldLock> locks = (Map<String, HeldLock>) TransactionSynchronizationManager.getResource(this);
+        if (locks != null) {
+            return locks;
+        }
+        Map<String, HeldLock> transactionLocks = new HashMap<>();
+        TransactionSynchronizationManager.bindResource(this, transactionLocks);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(LockService.this);
+                transactionLocks.values().forEach(LockService.this::release);
+            }
+        });
+        return transactionLocks;
+    }
+
+    void release(HeldLock lock) {
+        if (!lock.markReleased()) {
+            return;
+        }
+        held.remove(lock);
+        try {
+            backend.release(lock.getName(), lock.getHandle());
+        } finally {
+            slots.release();
+        }
+    }
+
+    boolean isHeld(HeldLock lock) {
+        if (backend.isHeld(lock.getHandle())) {
+            return true;
+        }
+        lost.increment();
+        log.warn("Lock " + lock.getName() + " has been lost while held");
+        return false;
+    }
+}
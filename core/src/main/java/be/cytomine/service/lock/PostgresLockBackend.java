@@ -0,0 +1,143 @@
+package be.cytomine.service.lock;
+
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.exceptions.ServerException;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Postgres session advisory locks, shared by all the instances using the database.
+ * A held lock keeps a connection of a dedicated pool (not the one of the requests, which would be exhausted
+ * by the locks held or awaited): if the instance dies, the session ends and the lock is released by Postgres.
+ */
+@Slf4j
+class PostgresLockBackend implements LockBackend {
+
+    // lock_timeout exceeded
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+
+    // maximum time to check that the session of a lock is still alive, in seconds
+    private static final int VALIDATION_TIMEOUT = 5;
+
+    private final DataSource dataSource;
+
+    PostgresLockBackend(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public Object acquire(String name, long timeoutMillis) {
+        Connection connection;
+        try {
+            connection = dataSource.getConnection();
+        } catch (SQLException e) {
+            throw new ServerException("Cannot get a connection for lock " + name, e);
+        }
+
+        try {
+            connection.setAutoCommit(true);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET lock_timeout = " + Math.max(1, timeoutMillis));
+            }
+            try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_lock(hashtextextended(?, 0))")) {
+                statement.setString(1, name);
+                statement.execute();
+            } catch (SQLException e) {
+                if (LOCK_NOT_AVAILABLE.equals(e.getSQLState())) {
+                    resetAndClose(connection);
+                    return null;
+                }
+                throw e;
+            }
+
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("RESET lock_timeout");
+            }
+            return connection;
+        } catch (SQLException e) {
+            abort(connection);
+            throw new ServerException("Cannot acquire lock " + name, e);
+        }
+    }
+
+    @Override
+    public void release(String name, Object handle) {
+        Connection connection = (Connection) handle;
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_unlock(hashtextextended(?, 0))")) {
+            statement.setString(1, name);
+            statement.execute();
+        } catch (SQLException e) {
+            log.warn("Cannot unlock " + name + ", its connection is closed: " + e.getMessage());
+            abort(connection);
+            return;
+        }
+        close(connection);
+    }
+
+    /**
+     * The lock is lost if the session holding it has ended (connection closed by the database or the network)
+     */
+    @Override
+    public boolean isHeld(Object handle) {
+        try {
+            return ((Connection) handle).isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public int size() {
+        return -1;
+    }
+
+    private void resetAndClose(Connection connection) {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("RESET lock_timeout");
+        } catch (SQLException e) {
+            abort(connection);
+            return;
+        }
+        close(connection);
+    }
+
+    private void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.warn("Cannot close lock connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Close the session of the connection (releasing its advisory locks), instead of returning it to the pool
+     */
+    private void abort(Connection connection) {
+        try {
+            connection.abort(Runnable::run);
+        } catch (SQLException e) {
+            close(connection);
+        }
+    }
+}
@@ -0,0 +1,652 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.ImageCacheProperties;
+import be.cytomine.service.stats.StatsRegistry;
+import be.cytomine.utils.PreparedRequest;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Cache of image server responses, keyed by a digest of the request (image path, operation, parameters).
+ * These responses are immutable for a given request, so entries are never invalidated, only evicted.
+ *
+ * The memory tier follows W-TinyLFU: new responses enter a small LRU window, and the responses leaving the window
+ * only replace the least recently used ones of the main LRU if they have been requested at least as often recently.
+ * This way, a burst of one-shot tiles cannot flush the thumbs and crops that are requested again and again,
+ * while a new popular response is still admitted.
+ * Responses evicted from (or not admitted in) memory go to the optional disk tier.
+ *
+ * Lookups do not take any lock: entries are found in concurrent maps, and the requested keys are recorded in striped
+ * read buffers. The frequency sketch and the LRU orders are only updated when these buffers are drained, under the
+ * eviction lock, either by a write or by a read that finds its buffer half full and the lock free (tryLock).
+ * A request may be dropped from a full buffer, which only makes frequencies and recency slightly less accurate.
+ * The eviction lock is never held during disk I/O: files are written and read under a lock striped by key.
+ */
+@Slf4j
+@Component
+public class ImageResponseCache {
+
+    /**
+     * Subdirectory of the configured disk path that holds the cache files, the only one cleared on startup
+     */
+    public static final String DISK_DIRECTORY = "image-response-cache";
+
+    /**
+     * Share of the memory tier used by the admission window
+     */
+    static final int WINDOW_PERCENT = 1;
+
+    private static final int STRIPES = 64;
+
+    private static final int READ_BUFFERS = 16;
+
+    private final boolean enabled;
+
+    private final long maxMemorySize;
+
+    private final long maxWindowSize;
+
+    private final long maxEntrySize;
+
+    private final long maxDiskSize;
+
+    private final Path diskPath;
+
+    // entries of the window and of the main LRU, for lookups
+    private final Map<String, Entry> memory = new ConcurrentHashMap<>();
+
+    // entries of the disk tier, for lookups
+    private final Map<String, DiskEntry> diskIndex = new ConcurrentHashMap<>();
+
+    private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFERS];
+
+    // the LRU orders, the sketch and the sizes are guarded by the eviction lock
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final LinkedHashMap<String, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<String, Entry> main = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final LinkedHashMap<String, DiskEntry> disk = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final FrequencySketch sketch = new FrequencySketch(1 << 16);
+
+    private final ReadWriteLock[] fileLocks = new ReadWriteLock[STRIPES];
+
+    private long windowSize = 0;
+
+    private long mainSize = 0;
+
+    private long diskSize = 0;
+
+    private final StatsRegistry.Counter hits;
+
+    private final StatsRegistry.Counter diskHits;
+
+    private final StatsRegistry.Counter misses;
+
+    private final StatsRegistry.Counter evictions;
+
+    private final StatsRegistry.Counter rejections;
+
+    public ImageResponseCache(ApplicationProperties applicationProperties, StatsRegistry stats) {
+        ImageCacheProperties properties = applicationProperties.getImageCache();
+        this.enabled = properties.isEnabled();
+        this.maxMemorySize = properties.getMemorySize().toBytes();
+        this.maxWindowSize = maxMemorySize * WINDOW_PERCENT / 100;
+        this.maxEntrySize = properties.getMaxEntrySize().toBytes();
+        this.maxDiskSize = properties.getDiskSize().toBytes();
+        this.diskPath = (properties.getDiskPath() == null || properties.getDiskPath().isBlank()) ? null : Paths.get(properties.getDiskPath()).resolve(DISK_DIRECTORY);
+        for (int i = 0; i < STRIPES; i++) {
+            fileLocks[i] = new ReentrantReadWriteLock();
+        }
+        for (int i = 0; i < READ_BUFFERS; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+
+        this.hits = stats.counter("imageserver.cache.hits");
+        this.diskHits = stats.counter("imageserver.cache.diskHits");
+        this.misses = stats.counter("imageserver.cache.misses");
+        this.evictions = stats.counter("imageserver.cache.evictions");
+        this.rejections = stats.counter("imageserver.cache.rejections");
+        stats.gauge("imageserver.cache.enabled", () -> enabled);
+        stats.gauge("imageserver.cache.hitRatio", () -> {
+            long served = hits.count() + diskHits.count();
+            long requests = served + misses.count();
+            return requests > 0 ? (double) served / requests : 0d;
+        });
+        stats.gauge("imageserver.cache.memoryEntries", memory::size);
+        stats.gauge("imageserver.cache.memorySize", this::getMemorySize);
+        stats.gauge("imageserver.cache.maxMemorySize", () -> maxMemorySize);
+        stats.gauge("imageserver.cache.diskEntries", diskIndex::size);
+        stats.gauge("imageserver.cache.diskSize", this::getDiskSize);
+        stats.gauge("imageserver.cache.maxDiskSize", () -> diskPath != null ? maxDiskSize : 0);
+
+        if (enabled && diskPath != null) {
+            try {
+                // files of a previous run are not indexed
+                FileSystemUtils.deleteRecursively(diskPath);
+                Files.createDirectories(diskPath);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot initialize image cache directory " + diskPath, e);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * Key of the response of a request: digest of the method, URI (image path, operation and query), Accept header and body
+     */
+    public String key(PreparedRequest request) {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        digest.update(request.getMethod().name().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(request.getURI().toString().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(request.getHeaders().get(HttpHeaders.ACCEPT)).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        if (request.getBody() != null) {
+            digest.update(request.getBody().toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    public Entry get(String key) {
+        if (!enabled) {
+            return null;
+        }
+
+        Entry entry = memory.get(key);
+        DiskEntry diskEntry = entry == null ? diskIndex.get(key) : null;
+        recordRead(key);
+        if (entry != null) {
+            hits.increment();
+            return entry;
+        }
+
+        if (diskEntry != null) {
+            Entry read = readFromDisk(key, diskEntry);
+            if (read != null) {
+                diskHits.increment();
+                return read;
+            }
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Cache a response. The entry is returned even if it is not kept (too large, or not admitted).
+     */
+    public Entry put(String key, byte[] body, String contentType, String etag) {
+        if (etag == null) {
+            etag = "\"" + DigestUtils.sha256Hex(body) + "\"";
+        }
+        Entry entry = new Entry(ByteBuffer.wrap(body), contentType, etag);
+        if (enabled && body.length <= maxEntrySize) {
+            List<Map.Entry<String, Entry>> spilled = putInMemory(key, entry);
+            for (Map.Entry<String, Entry> spill : spilled) {
+                putOnDisk(spill.getKey(), spill.getValue());
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Record a request of the key, and drain the read buffers if the one of this thread is getting full
+     */
+    private void recordRead(String key) {
+        ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId() & (READ_BUFFERS - 1)];
+        int buffered = buffer.offer(key);
+        if ((buffered < 0 || buffered >= ReadBuffer.SIZE / 2) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Apply the buffered requests to the sketch and the LRU orders, under the eviction lock
+     */
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            buffer.drain(key -> {
+                sketch.increment(key);
+                if (window.get(key) == null && main.get(key) == null) {
+                    disk.get(key);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return Entries evicted from (or not admitted in) memory, to write on disk
+     */
+    private List<Map.Entry<String, Entry>> putInMemory(String key, Entry entry) {
+        List<Map.Entry<String, Entry>> spilled = new ArrayList<>();
+        evictionLock.lock();
+        try {
+            // admission compares the frequencies of all the requests made so far
+            drainReadBuffers();
+            if (memory.containsKey(key)) {
+                return spilled;
+            }
+
+            if (entry.getSize() > maxWindowSize) {
+                // does not fit in the window, contends directly for the main LRU
+                admit(key, entry, spilled);
+                return spilled;
+            }
+
+            window.put(key, entry);
+            memory.put(key, entry);
+            windowSize += entry.getSize();
+            Iterator<Map.Entry<String, Entry>> lru = window.entrySet().iterator();
+            while (windowSize > maxWindowSize && lru.hasNext()) {
+                Map.Entry<String, Entry> candidate = lru.next();
+                lru.remove();
+                windowSize -= candidate.getValue().getSize();
+                admit(candidate.getKey(), candidate.getValue(), spilled);
+            }
+            return spilled;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void admit(String key, Entry entry, List<Map.Entry<String, Entry>> spilled) {
+        long maxMainSize = maxMemorySize - maxWindowSize;
+        if (entry.getSize() > maxMainSize) {
+            memory.remove(key);
+            spilled.add(Map.entry(key, entry));
+            return;
+        }
+
+        int frequency = sketch.frequency(key);
+        Iterator<Map.Entry<String, Entry>> lru = main.entrySet().iterator();
+        while (mainSize + entry.getSize() > maxMainSize && lru.hasNext()) {
+            Map.Entry<String, Entry> victim = lru.next();
+            if (frequency < sketch.frequency(victim.getKey())) {
+                rejections.increment();
+                memory.remove(key);
+                spilled.add(Map.entry(key, entry));
+                return;
+            }
+            lru.remove();
+            memory.remove(victim.getKey());
+            mainSize -= victim.getValue().getSize();
+            evictions.increment();
+            spilled.add(Map.entry(victim.getKey(), victim.getValue()));
+        }
+
+        main.put(key, entry);
+        memory.put(key, entry);
+        mainSize += entry.getSize();
+    }
+
+    private void putOnDisk(String key, Entry entry) {
+        if (diskPath == null || entry.getSize() > maxDiskSize || diskIndex.containsKey(key)) {
+            return;
+        }
+
+        Path file = diskPath.resolve(key);
+        Path tmp = diskPath.resolve(key + ".tmp");
+        ReadWriteLock lock = fileLock(key);
+        lock.writeLock().lock();
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer body = entry.getBody();
+                while (body.hasRemaining()) {
+                    channel.write(body);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Cannot write image cache file " + key, e);
+            return;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        List<String> victims = new ArrayList<>();
+        evictionLock.lock();
+        try {
+            Iterator<Map.Entry<String, DiskEntry>> lru = disk.entrySet().iterator();
+            while (diskSize + entry.getSize() > maxDiskSize && lru.hasNext()) {
+                Map.Entry<String, DiskEntry> victim = lru.next();
+                lru.remove();
+                diskIndex.remove(victim.getKey());
+                diskSize -= victim.getValue().getSize();
+                victims.add(victim.getKey());
+            }
+            DiskEntry diskEntry = new DiskEntry(entry.getSize(), entry.getContentType(), entry.getEtag());
+            DiskEntry previous = disk.put(key, diskEntry);
+            diskIndex.put(key, diskEntry);
+            diskSize += entry.getSize() - (previous != null ? previous.getSize() : 0);
+        } finally {
+            evictionLock.unlock();
+        }
+
+        for (String victim : victims) {
+            deleteFromDisk(victim);
+        }
+    }
+
+    private Entry readFromDisk(String key, DiskEntry diskEntry) {
+        ReadWriteLock lock = fileLock(key);
+        lock.readLock().lock();
+        try (FileChannel channel = FileChannel.open(diskPath.resolve(key), StandardOpenOption.READ)) {
+            ByteBuffer body = ByteBuffer.allocate(diskEntry.getSize());
+            while (body.hasRemaining() && channel.read(body) >= 0) {
+                // read until the end of the file
+            }
+            if (body.hasRemaining()) {
+                throw new IOException("Truncated image cache file " + key);
+            }
+            body.flip();
+            return new Entry(body, diskEntry.getContentType(), diskEntry.getEtag());
+        } catch (NoSuchFileException e) {
+            // evicted (and deleted) concurrently
+        } catch (IOException e) {
+            log.warn("Cannot read image cache file " + key, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        evictionLock.lock();
+        try {
+            if (disk.remove(key, diskEntry)) {
+                diskIndex.remove(key, diskEntry);
+                diskSize -= diskEntry.getSize();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        return null;
+    }
+
+    private void deleteFromDisk(String key) {
+        ReadWriteLock lock = fileLock(key);
+        lock.writeLock().lock();
+        try {
+            if (diskIndex.containsKey(key)) {
+                // written again since its eviction
+                return;
+            }
+            Files.deleteIfExists(diskPath.resolve(key));
+        } catch (IOException e) {
+            log.warn("Cannot delete image cache file " + key, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private ReadWriteLock fileLock(String key) {
+        return fileLocks[Math.floorMod(key.hashCode(), STRIPES)];
+    }
+
+    private long getMemorySize() {
+        evictionLock.lock();
+        try {
+            return windowSize + mainSize;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private long getDiskSize() {
+        evictionLock.lock();
+        try {
+            return diskSize;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Metadata of a response stored on disk, its body is read from the file on each hit
+     */
+    @Getter
+    private static class DiskEntry {
+
+        private final int size;
+
+        private final String contentType;
+
+        private final String etag;
+
+        DiskEntry(int size, String contentType, String etag) {
+            this.size = size;
+            this.contentType = contentType;
+            this.etag = etag;
+        }
+    }
+
+    @Getter
+    public static class Entry {
+
+        private final ByteBuffer body;
+
+        private final String contentType;
+
+        private final String etag;
+
+        Entry(ByteBuffer body, String contentType, String etag) {
+            this.body = body;
+            this.contentType = contentType;
+            this.etag = etag;
+        }
+
+        /**
+         * A new view on the body, so that concurrent readers do not share a position
+         */
+        public ByteBuffer getBody() {
+            return body.duplicate();
+        }
+
+        public int getSize() {
+            return body.limit();
+        }
+
+        public byte[] getBytes() {
+            byte[] bytes = new byte[getSize()];
+            getBody().get(bytes);
+            return bytes;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            Channels.newChannel(out).write(getBody());
+        }
+
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                String value = candidate.trim();
+                if (value.equals("*") || value.equals(etag) || value.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Keys requested by the threads of a stripe, not applied to the sketch and the LRU orders yet.
+     * Lossy ring buffer: a key is dropped when the buffer is full or when another thread of the stripe offers at once.
+     */
+    static class ReadBuffer {
+
+        static final int SIZE = 32;
+
+        private final AtomicReferenceArray<String> slots = new AtomicReferenceArray<>(SIZE);
+
+        private final AtomicLong writes = new AtomicLong();
+
+        // only advanced by the drain, under the eviction lock
+        private volatile long reads = 0;
+
+        /**
+         * @return Number of buffered keys, or -1 if the key has been dropped
+         */
+        int offer(String key) {
+            long head = reads;
+            long tail = writes.get();
+            if (tail - head >= SIZE || !writes.compareAndSet(tail, tail + 1)) {
+                return -1;
+            }
+            slots.set((int) (tail & (SIZE - 1)), key);
+            return (int) (tail + 1 - head);
+        }
+
+        void drain(Consumer<String> consumer) {
+            long head = reads;
+            long tail = writes.get();
+            while (head < tail) {
+                int index = (int) (head & (SIZE - 1));
+                String key = slots.get(index);
+                if (key == null) {
+                    // reserved by a thread that has not written it yet, drained next time
+                    break;
+                }
+                slots.set(index, null);
+                consumer.accept(key);
+                head++;
+            }
+            reads = head;
+        }
+    }
+
+    /**
+     * Count-min sketch of the request frequency of keys, with 4 bits counters.
+     * All counters are halved periodically, so that the frequency reflects recent requests.
+     */
+    static class FrequencySketch {
+
+        private static final int DEPTH = 4;
+
+        private final long[] table;
+
+        private final int mask;
+
+        private final int sampleSize;
+
+        private int additions = 0;
+
+        FrequencySketch(int width) {
+            // 16 counters of 4 bits in a long
+            this.table = new long[width / 16 * DEPTH];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < DEPTH; i++) {
+                added |= incrementAt(indexOf(hash, i));
+            }
+            if (added && ++additions == sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index >>> 4] >>> ((index & 15) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = spread(hash + row * 0x9E3779B9);
+            return row * (mask + 1) + (h & mask);
+        }
+
+        private boolean incrementAt(int index) {
+            int slot = index >>> 4;
+            int offset = (index & 15) << 2;
+            if (((table[slot] >>> offset) & 0xfL) == 0xfL) {
+                return false;
+            }
+            table[slot] += (1L << offset);
+            return true;
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+            }
+            additions = additions / 2;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
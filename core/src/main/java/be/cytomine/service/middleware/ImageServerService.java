@@ -35,16 +35,23 @@ import org.locationtech.jts.io.ParseException;
 import org.locationtech.jts.io.WKTReader;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.gateway.mvc.ProxyExchange;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.transaction.Transactional;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 @Slf4j
@@ -57,6 +64,13 @@ public class ImageServerService {
     @Value("${application.internalProxyURL}")
     String internalProxyURL;
 
+    @Autowired
+    @Qualifier("imageServerRestTemplate")
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private ImageResponseCache imageResponseCache;
+
     @Autowired
     private ImageInstanceService imageInstanceService;
 
@@ -72,8 +86,15 @@ public class ImageServerService {
         return this.internalProxyURL + IMS_API_BASE_PATH;
     }
 
+    /**
+     * Pooled client used for all requests to the image server
+     */
+    public RestTemplate getRestTemplate() {
+        return restTemplate;
+    }
+
     public StorageStats storageSpace() throws IOException {
-        PreparedRequest request = new PreparedRequest();
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("storage/size.json");
@@ -82,7 +103,7 @@ public class ImageServerService {
     }
 
     public List<Map<String, Object>> formats() {
-        PreparedRequest request = new PreparedRequest();
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("formats");
@@ -92,7 +113,15 @@ public class ImageServerService {
     }
 
     public ResponseEntity<byte[]> download(UploadedFile uploadedFile, ProxyExchange<byte[]> proxy) throws IOException {
-        PreparedRequest request = new PreparedRequest();
+        return downloadRequest(uploadedFile).toResponseEntity(proxy, byte[].class);
+    }
+
+    public void download(UploadedFile uploadedFile, HttpServletRequest clientRequest, HttpServletResponse response) throws IOException {
+        downloadRequest(uploadedFile).stream(clientRequest, response);
+    }
+
+    private PreparedRequest downloadRequest(UploadedFile uploadedFile) throws IOException {
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("file");
@@ -101,11 +130,22 @@ public class ImageServerService {
         request.addQueryParameter("filename", uploadedFile.getOriginalFilename());
         request.getHeaders().add(org.springframework.http.HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return request;
     }
 
     public ResponseEntity<byte[]> download(AbstractImage abstractImage, ProxyExchange<byte[]> proxy) throws IOException {
-        PreparedRequest request = new PreparedRequest();
+        return downloadRequest(abstractImage).toResponseEntity(proxy, byte[].class);
+    }
+
+    public void download(AbstractImage abstractImage, HttpServletRequest clientRequest, HttpServletResponse response) throws IOException {
+        downloadRequest(abstractImage).stream(clientRequest, response);
+    }
+
+    /**
+     * Request exporting the original file of the image, to be executed by the caller (e.g. to stream it elsewhere)
+     */
+    public PreparedRequest downloadRequest(AbstractImage abstractImage) throws IOException {
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
@@ -114,15 +154,19 @@ public class ImageServerService {
         request.addQueryParameter("filename", abstractImage.getOriginalFilename());
         request.getHeaders().add(org.springframework.http.HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return request;
     }
 
     public ResponseEntity<byte[]> download(CompanionFile companionFile, ProxyExchange<byte[]> proxy) throws IOException {
         return download(companionFile.getUploadedFile(), proxy);
     }
 
+    public void download(CompanionFile companionFile, HttpServletRequest clientRequest, HttpServletResponse response) throws IOException {
+        download(companionFile.getUploadedFile(), clientRequest, response);
+    }
+
     public Map<String, Object> properties(AbstractImage image) throws IOException {
-        PreparedRequest request = new PreparedRequest();
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
@@ -133,7 +177,7 @@ public class ImageServerService {
     }
 
     public List<Map<String, Object>> rawProperties(AbstractImage image) throws IOException {
-        PreparedRequest request = new PreparedRequest();
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
@@ -149,7 +193,7 @@ public class ImageServerService {
     }
 
     public Map<String, Object> imageHistogram(AbstractImage image, int nBins) {
-        PreparedRequest request = new PreparedRequest();
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
@@ -167,7 +211,7 @@ public class ImageServerService {
     }
 
     public Map<String, Object> imageHistogramBounds(AbstractImage image, int nBins) {
-        PreparedRequest request = new PreparedRequest();
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
@@ -182,7 +226,7 @@ public class ImageServerService {
     }
 
     public List<Map<String, Object>> channelHistograms(AbstractImage image, int nBins) {
-        PreparedRequest request = new PreparedRequest();
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
@@ -198,7 +242,7 @@ public class ImageServerService {
 
 
     public List<Map<String, Object>> channelHistogramBounds(AbstractImage image) {
-        PreparedRequest request = new PreparedRequest();
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
@@ -214,7 +258,7 @@ public class ImageServerService {
 
 
     public List<Map<String, Object>> planeHistograms(AbstractSlice slice, int nBins, boolean allChannels) {
-        PreparedRequest request = new PreparedRequest();
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
@@ -237,7 +281,7 @@ public class ImageServerService {
 
 
     public List<Map<String, Object>> planeHistogramBounds(AbstractSlice slice, boolean allChannels) {
-        PreparedRequest request = new PreparedRequest();
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
@@ -259,7 +303,7 @@ public class ImageServerService {
     }
 
     public List<String> associated(AbstractImage image) throws IOException {
-        PreparedRequest request = new PreparedRequest();
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
@@ -267,7 +311,8 @@ public class ImageServerService {
         request.addPathFragment("info");
         request.addPathFragment("associated");
 
-        return JsonObject.toJsonObject(request.toObject(String.class))
+        String json = new String(cachedResponseEntity(request, null, null).getBody(), StandardCharsets.UTF_8);
+        return JsonObject.toJsonObject(json)
                 .getJSONAttrListMap("items").stream().map(x -> (String)x.get("name")).toList();
     }
 
@@ -279,8 +324,20 @@ public class ImageServerService {
         return label(image.getBaseImage(), params, etag, proxy);
     }
 
+    public void label(ImageInstance image, LabelParameter params, String etag, HttpServletRequest clientRequest, HttpServletResponse response) throws IOException {
+        label(image.getBaseImage(), params, etag, clientRequest, response);
+    }
+
     public ResponseEntity<byte[]> label(AbstractImage image, LabelParameter params, String etag, ProxyExchange<byte[]> proxy) {
-        PreparedRequest request = new PreparedRequest();
+        return cachedResponseEntity(labelRequest(image, params, etag), etag, proxy);
+    }
+
+    public void label(AbstractImage image, LabelParameter params, String etag, HttpServletRequest clientRequest, HttpServletResponse response) throws IOException {
+        cachedStream(labelRequest(image, params, etag), etag, clientRequest, response);
+    }
+
+    private PreparedRequest labelRequest(AbstractImage image, LabelParameter params, String etag) {
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
@@ -295,19 +352,35 @@ public class ImageServerService {
             request.getHeaders().add(org.springframework.http.HttpHeaders.IF_NONE_MATCH, etag);
         }
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return request;
     }
 
     public ResponseEntity<byte[]> thumb(ImageInstance image, ImageParameter params, String etag, ProxyExchange<byte[]> proxy)  {
         return thumb(imageInstanceService.getReferenceSlice(image), params, etag, proxy);
     }
 
+    public void thumb(ImageInstance image, ImageParameter params, String etag, HttpServletRequest clientRequest, HttpServletResponse response) throws IOException {
+        thumb(imageInstanceService.getReferenceSlice(image), params, etag, clientRequest, response);
+    }
+
     public ResponseEntity<byte[]> thumb(SliceInstance slice, ImageParameter params, String etag, ProxyExchange<byte[]> proxy)  {
         return thumb(slice.getBaseSlice(), params, etag, proxy);
     }
 
+    public void thumb(SliceInstance slice, ImageParameter params, String etag, HttpServletRequest clientRequest, HttpServletResponse response) throws IOException {
+        thumb(slice.getBaseSlice(), params, etag, clientRequest, response);
+    }
+
     public ResponseEntity<byte[]> thumb(AbstractSlice slice, ImageParameter params, String etag, ProxyExchange<byte[]> proxy) {
-        PreparedRequest request = new PreparedRequest();
+        return cachedResponseEntity(thumbRequest(slice, params, etag), etag, proxy);
+    }
+
+    public void thumb(AbstractSlice slice, ImageParameter params, String etag, HttpServletRequest clientRequest, HttpServletResponse response) throws IOException {
+        cachedStream(thumbRequest(slice, params, etag), etag, clientRequest, response);
+    }
+
+    private PreparedRequest thumbRequest(AbstractSlice slice, ImageParameter params, String etag) {
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
@@ -346,15 +419,27 @@ public class ImageServerService {
         if (etag != null) {
             request.getHeaders().add(org.springframework.http.HttpHeaders.IF_NONE_MATCH, etag);
         }
-        return request.toResponseEntity(proxy, byte[].class);
+        return request;
     }
 
     public ResponseEntity<byte[]> normalizedTile(SliceInstance slice, TileParameters params, String etag, ProxyExchange<byte[]> proxy)  {
         return normalizedTile(slice.getBaseSlice(), params, etag, proxy);
     }
 
+    public void normalizedTile(SliceInstance slice, TileParameters params, String etag, HttpServletRequest clientRequest, HttpServletResponse response) throws IOException {
+        normalizedTile(slice.getBaseSlice(), params, etag, clientRequest, response);
+    }
+
     public ResponseEntity<byte[]> normalizedTile(AbstractSlice slice, TileParameters params, String etag, ProxyExchange<byte[]> proxy) {
-        PreparedRequest request = new PreparedRequest();
+        return cachedResponseEntity(normalizedTileRequest(slice, params, etag), etag, proxy);
+    }
+
+    public void normalizedTile(AbstractSlice slice, TileParameters params, String etag, HttpServletRequest clientRequest, HttpServletResponse response) throws IOException {
+        cachedStream(normalizedTileRequest(slice, params, etag), etag, clientRequest, response);
+    }
+
+    private PreparedRequest normalizedTileRequest(AbstractSlice slice, TileParameters params, String etag) {
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.GET);
         request.setUrl(this.internalImageServerURL());
 
@@ -391,7 +476,7 @@ public class ImageServerService {
             request.getHeaders().add(org.springframework.http.HttpHeaders.IF_NONE_MATCH, etag);
         }
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return request;
     }
 
 
@@ -400,12 +485,37 @@ public class ImageServerService {
         return crop(annotation.getSlice().getBaseSlice(), params, etag, proxy);
     }
 
+    public void crop(AnnotationDomain annotation, CropParameter params, String etag, HttpServletRequest clientRequest, HttpServletResponse response) throws IOException, ParseException {
+        params.setLocation(annotation.getWktLocation());
+        crop(annotation.getSlice().getBaseSlice(), params, etag, clientRequest, response);
+    }
+
+    /**
+     * Request cropping the annotation, to be executed by the caller (e.g. to stream it elsewhere)
+     */
+    public PreparedRequest cropRequest(AnnotationDomain annotation, CropParameter params) throws UnsupportedEncodingException, ParseException {
+        params.setLocation(annotation.getWktLocation());
+        return cropRequest(annotation.getSlice().getBaseSlice(), params, null);
+    }
+
     public ResponseEntity<byte[]> crop(SliceInstance slice, CropParameter params, String etag, ProxyExchange<byte[]> proxy) throws UnsupportedEncodingException, ParseException {
         return crop(slice.getBaseSlice(), params, etag, proxy);
     }
 
+    public void crop(SliceInstance slice, CropParameter params, String etag, HttpServletRequest clientRequest, HttpServletResponse response) throws IOException, ParseException {
+        crop(slice.getBaseSlice(), params, etag, clientRequest, response);
+    }
+
     public ResponseEntity<byte[]> crop(AbstractSlice slice, CropParameter params, String etag, ProxyExchange<byte[]> proxy) throws UnsupportedEncodingException, ParseException {
-        PreparedRequest request = new PreparedRequest();
+        return cachedResponseEntity(cropRequest(slice, params, etag), etag, proxy);
+    }
+
+    public void crop(AbstractSlice slice, CropParameter params, String etag, HttpServletRequest clientRequest, HttpServletResponse response) throws IOException, ParseException {
+        cachedStream(cropRequest(slice, params, etag), etag, clientRequest, response);
+    }
+
+    private PreparedRequest cropRequest(AbstractSlice slice, CropParameter params, String etag) throws UnsupportedEncodingException, ParseException {
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.POST);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
@@ -503,7 +613,7 @@ public class ImageServerService {
             request.getHeaders().add("X-Image-Size-Safety", "SAFE_RESIZE");
         }
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return request;
     }
 
     private static String retrieveCropFormat(CropParameter cropParameter) {
@@ -534,7 +644,15 @@ public class ImageServerService {
 
 
     public ResponseEntity<byte[]> window(AbstractSlice slice, WindowParameter params, String etag, ProxyExchange<byte[]> proxy) throws UnsupportedEncodingException, ParseException {
-        PreparedRequest request = new PreparedRequest();
+        return windowRequest(slice, params, etag).toResponseEntity(proxy, byte[].class);
+    }
+
+    public void window(AbstractSlice slice, WindowParameter params, String etag, HttpServletRequest clientRequest, HttpServletResponse response) throws IOException, ParseException {
+        windowRequest(slice, params, etag).stream(clientRequest, response);
+    }
+
+    private PreparedRequest windowRequest(AbstractSlice slice, WindowParameter params, String etag) throws UnsupportedEncodingException, ParseException {
+        PreparedRequest request = new PreparedRequest(restTemplate);
         request.setMethod(HttpMethod.POST);
         request.setUrl(this.internalImageServerURL());
         request.addPathFragment("image");
@@ -641,7 +759,7 @@ public class ImageServerService {
             request.getHeaders().add("X-Image-Size-Safety", "SAFE_RESIZE");
         }
 
-        return request.toResponseEntity(proxy, byte[].class);
+        return request;
     }
 
     private static String retrieveWindowFormat(WindowParameter params) {
@@ -706,4 +824,70 @@ public class ImageServerService {
         }
         return '!' + colormap;
     }
-}
\ No newline at end of file
+
+    /**
+     * Responses to these requests only depend on the request: serve them from the cache when possible.
+     * The client ETag is checked against the cached response, the image server is not asked for revalidation.
+     */
+    private ResponseEntity<byte[]> cachedResponseEntity(PreparedRequest request, String etag, ProxyExchange<byte[]> proxy) {
+        if (!imageResponseCache.isEnabled() || proxy != null) {
+            return request.toResponseEntity(proxy, byte[].class);
+        }
+
+        String key = imageResponseCache.key(request);
+        ImageResponseCache.Entry entry = imageResponseCache.get(key);
+        if (entry == null) {
+            request.getHeaders().remove(org.springframework.http.HttpHeaders.IF_NONE_MATCH);
+            ResponseEntity<byte[]> response = request.toResponseEntity(null, byte[].class);
+            if (response.getStatusCode() != HttpStatus.OK || response.getBody() == null) {
+                return response;
+            }
+            MediaType contentType = response.getHeaders().getContentType();
+            entry = imageResponseCache.put(key, response.getBody(), contentType != null ? contentType.toString() : null, response.getHeaders().getETag());
+        }
+
+        if (entry.matches(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(entry.getEtag()).build();
+        }
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok().eTag(entry.getEtag());
+        if (entry.getContentType() != null) {
+            builder.contentType(MediaType.parseMediaType(entry.getContentType()));
+        }
+        return builder.body(entry.getBytes());
+    }
+
+    private void cachedStream(PreparedRequest request, String etag, HttpServletRequest clientRequest, HttpServletResponse response) throws IOException {
+        if (!imageResponseCache.isEnabled()) {
+            request.stream(clientRequest, response);
+            return;
+        }
+
+        String key = imageResponseCache.key(request);
+        ImageResponseCache.Entry entry = imageResponseCache.get(key);
+        if (entry == null) {
+            request.getHeaders().remove(org.springframework.http.HttpHeaders.IF_NONE_MATCH);
+            try (ClientHttpResponse upstream = request.execute()) {
+                long contentLength = upstream.getHeaders().getContentLength();
+                if (upstream.getStatusCode() != HttpStatus.OK || contentLength < 0 || contentLength > imageResponseCache.getMaxEntrySize()) {
+                    // not cacheable, the client ETag was not forwarded so the response is complete
+                    PreparedRequest.copy(upstream, response);
+                    return;
+                }
+                MediaType contentType = upstream.getHeaders().getContentType();
+                entry = imageResponseCache.put(key, upstream.getBody().readAllBytes(), contentType != null ? contentType.toString() : null, upstream.getHeaders().getETag());
+            }
+        }
+
+        response.setHeader(org.springframework.http.HttpHeaders.ETAG, entry.getEtag());
+        if (entry.matches(etag)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+        response.setStatus(HttpStatus.OK.value());
+        if (entry.getContentType() != null) {
+            response.setContentType(entry.getContentType());
+        }
+        response.setContentLength(entry.getSize());
+        entry.writeTo(response.getOutputStream());
+    }
+}
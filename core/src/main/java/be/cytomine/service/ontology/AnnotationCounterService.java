@@ -0,0 +1,99 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+import be.cytomine.utils.JsonObject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Tuple;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+
+/**
+ * Annotation counters (project, image instance and annotation index) maintained through the deltas of table
+ * annotation_counter_delta: writers append a delta instead of locking and updating the counter rows,
+ * and deltas are folded into the counters by compact (see AnnotationCounterCompactor).
+ * Stored counters are therefore stale by at most the compaction interval. Exact values are the stored counters
+ * plus the pending deltas.
+ */
+@Service
+@Transactional
+@RequiredArgsConstructor
+public class AnnotationCounterService {
+
+    private final EntityManager entityManager;
+
+    /**
+     * Record the counter deltas of the given (newly inserted) user annotations, one delta per project, image, slice and user
+     */
+    public void recordUserAnnotations(Collection<Long> annotationIds) {
+        if (annotationIds.isEmpty()) {
+            return;
+        }
+        entityManager.createNativeQuery(
+                "SELECT SUM(recordAnnotationCounterDelta(false, c.project_id, c.image_id, c.slice_id, c.user_id, c.n)) " +
+                "FROM (SELECT project_id, image_id, slice_id, user_id, count(*)::integer AS n " +
+                "      FROM user_annotation WHERE id IN (:ids) " +
+                "      GROUP BY project_id, image_id, slice_id, user_id " +
+                "      ORDER BY image_id, project_id) c")
+                .setParameter("ids", annotationIds)
+                .getSingleResult();
+    }
+
+    /**
+     * Fold the oldest pending deltas into the counters
+     * @return Number of folded deltas (0 if another compaction is running)
+     */
+    public int compact(int maxDeltas) {
+        return ((Number) entityManager.createNativeQuery("SELECT compactAnnotationCounters(:max)")
+                .setParameter("max", maxDeltas)
+                .getSingleResult()).intValue();
+    }
+
+    /**
+     * Sum of the deltas of the user annotations of these slices not folded into annotation_index yet
+     */
+    @Transactional(readOnly = true)
+    public long getPendingCount(Collection<Long> sliceIds, Long userId) {
+        if (sliceIds.isEmpty()) {
+            return 0;
+        }
+        return ((Number) entityManager.createNativeQuery(
+                "SELECT COALESCE(SUM(delta), 0) FROM annotation_counter_delta WHERE slice_id IN (:slices) AND user_id = :user")
+                .setParameter("slices", sliceIds)
+                .setParameter("user", userId)
+                .getSingleResult()).longValue();
+    }
+
+    /**
+     * @return Number of deltas not folded into the counters, and age (in seconds) of the oldest one
+     */
+    @Transactional(readOnly = true)
+    public JsonObject getBacklog() {
+        Tuple row = (Tuple) entityManager.createNativeQuery(
+                "SELECT COUNT(*) AS pending, " +
+                "       COALESCE(EXTRACT(EPOCH FROM NOW() - MIN(created)), 0) AS lag " +
+                "FROM annotation_counter_delta", Tuple.class)
+                .getSingleResult();
+
+        JsonObject backlog = new JsonObject();
+        backlog.put("pending", ((Number) row.get("pending")).longValue());
+        backlog.put("lag", ((Number) row.get("lag")).doubleValue());
+        return backlog;
+    }
+}
@@ -39,18 +39,22 @@ public class AnnotationIndexService {
     @Autowired
     private EntityManager entityManager;
 
+    @Autowired
+    private AnnotationCounterService annotationCounterService;
+
     public List<AnnotationIndexLightDTO> list(SliceInstance sliceInstance) {
         return annotationIndexRepository.findAllLightBySliceInstance(sliceInstance.getId());
     }
 
     /**
-     * Return the number of annotation created by this user for this slice
+     * Return the number of annotation created by this user for this slice (including the counter deltas not compacted yet)
      * If user is null, return the number of reviewed annotation for this slice
      */
     public Long count(SliceInstance slice, User user) {
         if (user!=null) {
             return annotationIndexRepository.findOneBySliceAndUser(slice, user)
-                    .map(AnnotationIndexLightDTO::getCountAnnotation).orElse(0L);
+                    .map(AnnotationIndexLightDTO::getCountAnnotation).orElse(0L)
+                    + annotationCounterService.getPendingCount(List.of(slice.getId()), user.getId());
         } else {
             return annotationIndexRepository.findAllBySlice(slice)
                     .stream().mapToLong(AnnotationIndexLightDTO::getCountReviewedAnnotation).sum();
@@ -60,7 +64,8 @@ public class AnnotationIndexService {
     public Long count(List<SliceInstance> slices, User user) {
         if (user!=null) {
             return annotationIndexRepository.findOneBySliceInAndUser(slices, user)
-                    .map(AnnotationIndexLightDTO::getCountAnnotation).orElse(0L);
+                    .map(AnnotationIndexLightDTO::getCountAnnotation).orElse(0L)
+                    + annotationCounterService.getPendingCount(slices.stream().map(SliceInstance::getId).toList(), user.getId());
         } else {
             return annotationIndexRepository.findAllBySliceIn(slices)
                     .stream().mapToLong(AnnotationIndexLightDTO::getCountReviewedAnnotation).sum();
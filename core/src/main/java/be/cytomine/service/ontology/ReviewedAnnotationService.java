@@ -34,6 +34,7 @@ import be.cytomine.repository.ontology.TermRepository;
 import be.cytomine.repository.ontology.UserAnnotationRepository;
 import be.cytomine.repository.security.UserRepository;
 import be.cytomine.service.AnnotationListingService;
+import be.cytomine.service.BulkModelService;
 import be.cytomine.service.CurrentUserService;
 import be.cytomine.service.ModelService;
 import be.cytomine.service.command.TransactionService;
@@ -47,10 +48,14 @@ import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.io.ParseException;
 import org.locationtech.jts.io.WKTReader;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.Tuple;
 import jakarta.transaction.Transactional;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -60,7 +65,29 @@ import static org.springframework.security.acls.domain.BasePermission.READ;
 @Slf4j
 @Service
 @Transactional
-public class ReviewedAnnotationService extends ModelService {
+public class ReviewedAnnotationService extends ModelService implements BulkModelService {
+
+    static final String REVIEW_LAYER = "reviewLayer";
+
+    static final String UNREVIEW_LAYER = "unreviewLayer";
+
+    // Number of annotations reviewed (or unreviewed) by statement, and by transaction for a layer review
+    private static final int BULK_CHUNK_SIZE = 1000;
+
+    // Review the "source" parents (parent, review_user) that are not reviewed yet
+    private static final String INSERT_REVIEWS =
+            "inserted AS (" +
+            "   INSERT INTO reviewed_annotation(id, version, created, updated, user_id, review_user_id, image_id, slice_id, project_id, " +
+            "       parent_ident, parent_class_name, status, location, wkt_location, geometry_compression, " +
+            "       area, area_unit, perimeter, perimeter_unit, count_comments) " +
+            "   SELECT nextval('hibernate_sequence'), 0, NOW(), NOW(), ua.user_id, source.review_user, ua.image_id, ua.slice_id, ua.project_id, " +
+            "       ua.id, '" + UserAnnotation.class.getName() + "', 1, ua.location, ua.wkt_location, ua.geometry_compression, " +
+            "       ua.area, ua.area_unit, ua.perimeter, ua.perimeter_unit, 0 " +
+            "   FROM source JOIN user_annotation ua ON ua.id = source.parent " +
+            "   WHERE ua.deleted IS NULL AND NOT EXISTS (SELECT 1 FROM reviewed_annotation ra WHERE ra.parent_ident = ua.id) " +
+            "   ORDER BY ua.id " +
+            "   RETURNING id, parent_ident" +
+            ")";
 
     @Autowired
     private ReviewedAnnotationRepository reviewedAnnotationRepository;
@@ -101,6 +128,9 @@ public class ReviewedAnnotationService extends ModelService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
     @Override
     public Class currentDomain() {
         return ReviewedAnnotation.class;
@@ -304,6 +334,11 @@ public class ReviewedAnnotationService extends ModelService {
 
 
 
+    /**
+     * Review all the annotations of the layers. Reviews are created by chunks, each committed in its own transaction
+     * (with the task progress), then a bulk command is recorded for undo/redo.
+     */
+    @Transactional(Transactional.TxType.SUPPORTS)
     public List<Long> reviewLayer(Long imageInstanceId, List<Long> usersIds, Task task) {
 
         taskService.updateTask(task, 2, "Extract parameters...");
@@ -314,6 +349,7 @@ public class ReviewedAnnotationService extends ModelService {
                 .map(x -> userRepository.findById(x).orElseThrow(() -> new ObjectNotFoundException("User", x))).collect(Collectors.toList());
         ImageInstance imageInstance = imageInstanceRepository.findById(imageInstanceId)
                 .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", imageInstanceId));
+        checkCanReviewLayer(imageInstance);
 
         if (!imageInstance.isInReviewMode()) {
             throw new WrongArgumentException("Cannot review annotation, enable image review mode!");
@@ -323,41 +359,23 @@ public class ReviewedAnnotationService extends ModelService {
             throw new WrongArgumentException("There is no layer:" + usersIds);
         }
 
-        taskService.updateTask(task, 2, "Extract parameters...");
-
-        List<AnnotationDomain> annotations = new ArrayList<>();
+        JsonObject json = JsonObject.of(
+                "action", REVIEW_LAYER,
+                "image", imageInstance.getId(),
+                "users", users.stream().map(CytomineDomain::getId).collect(Collectors.toList()),
+                "reviewUser", currentUserService.getCurrentUser().getId());
+        List<Long> annotations = review(json, task);
+        executeCommand(new BulkCommand(currentUserService.getCurrentUser(), imageInstance.getProject(), reviewResponse(annotations)), null, json);
 
-        //get all annotations for each user
-        taskService.updateTask(task,5,"Look for all annotations...");
-
-        for (User user : users) {
-            annotations.addAll(userAnnotationRepository.findAllByUserAndImage((User)user, imageInstance));
-        }
-
-        //review each annotation
-        taskService.updateTask(task,10,annotations.size() + " annotations found...");
-
-        int realReviewed = 0;
-        int taskRefresh =  annotations.size()>1000? 100 : 10;
-        List<Long> reviewedIds = new ArrayList<>();
-        for(int i = 0; i < annotations.size(); i++) {
-            if (i%taskRefresh==0) {
-                taskService.updateTask(task,10+(int)(((double)i/(double)annotations.size())*0.9d*100),realReviewed + " new reviewed annotations...");
-            }
-            entityManager.refresh(annotations.get(i));
-            if (reviewedAnnotationRepository.findByParentIdent(annotations.get(i).getId()).isEmpty()) {
-                //if not yet reviewed, review it
-                realReviewed++;
-                CommandResponse review = reviewAnnotation(annotations.get(i).getId(), null);
-                reviewedIds.add(review.getObject().getId());
-            }
-
-
-        }
         taskService.finishTask(task);
-        return reviewedIds;
+        return annotations;
     }
 
+    /**
+     * Remove the reviews of all the annotations of the layers. Reviews are removed by chunks, each committed in its own
+     * transaction (with the task progress), then a bulk command is recorded for undo/redo.
+     */
+    @Transactional(Transactional.TxType.SUPPORTS)
     public List<Long> unreviewLayer(Long imageInstanceId, List<Long> usersIds, Task task) {
 
         taskService.updateTask(task,2,"Extract parameters...");
@@ -365,6 +383,7 @@ public class ReviewedAnnotationService extends ModelService {
                 .map(x -> userRepository.findById(x).orElseThrow(() -> new ObjectNotFoundException("User", x))).collect(Collectors.toList());
         ImageInstance imageInstance = imageInstanceRepository.findById(imageInstanceId)
                 .orElseThrow(() -> new ObjectNotFoundException("ImageInstance", imageInstanceId));
+        checkCanReviewLayer(imageInstance);
 
         //check constraint
         taskService.updateTask(task,3,"Review "+users.size()+" layers...");
@@ -376,40 +395,218 @@ public class ReviewedAnnotationService extends ModelService {
             throw new WrongArgumentException("There is no layer:"+usersIds);
         }
 
-        List<AnnotationDomain> annotations = new ArrayList<>();
-        taskService.updateTask(task,5,"Look for all annotations...");
-        for (User user : users) {
-            annotations.addAll(userAnnotationRepository.findAllByUserAndImage((User)user, imageInstance));
+        JsonObject json = JsonObject.of(
+                "action", UNREVIEW_LAYER,
+                "image", imageInstance.getId(),
+                "users", users.stream().map(CytomineDomain::getId).collect(Collectors.toList()));
+        List<Long> annotations = unreview(json, task, true);
+        executeCommand(new BulkCommand(currentUserService.getCurrentUser(), imageInstance.getProject(), unreviewResponse(annotations)), null, json);
+
+        taskService.finishTask(task);
+        return annotations;
+    }
+
+    /**
+     * Same checks as an annotation review (add), done once for the whole layer
+     */
+    private void checkCanReviewLayer(ImageInstance imageInstance) {
+        securityACLService.check(imageInstance.getProject(), READ);
+        securityACLService.checkIsNotReadOnly(imageInstance.getProject());
+        securityACLService.checkUser(currentUserService.getCurrentUser());
+    }
+
+    /**
+     * Review (or unreview) again all the annotations changed by a layer review (redo), or revert them (undo),
+     * in the transaction of the undo/redo.
+     * The json was completed with the annotations changed by the first execution ("parents", and the removed reviews
+     * for an unreview), so that an undo reverts exactly these changes and a redo applies them again.
+     */
+    @Override
+    public CommandResponse applyBulk(JsonObject json, boolean revert) {
+        // annotations of the persistence context must be visible to the statements
+        entityManager.flush();
+        String action = json.getJSONAttrStr("action");
+        if (REVIEW_LAYER.equals(action) && !revert || UNREVIEW_LAYER.equals(action) && revert) {
+            return reviewResponse(review(json, null));
+        } else if (REVIEW_LAYER.equals(action) || UNREVIEW_LAYER.equals(action)) {
+            return unreviewResponse(unreview(json, null, UNREVIEW_LAYER.equals(action)));
+        } else {
+            throw new WrongArgumentException("Unknown bulk action " + action);
         }
+    }
 
-        //unreview each one
-        taskService.updateTask(task,10,annotations.size() + " annotations found...");
-        int realUnReviewed = 0;
-        int taskRefresh =  annotations.size()>1000? 100 : 10;
+    private static CommandResponse reviewResponse(List<Long> annotations) {
+        return bulkResponse(annotations.size() + " annotations reviewed", annotations);
+    }
 
-        List<ReviewedAnnotation> reviewed = new ArrayList<>();
-        for(int i = 0; i < annotations.size(); i++) {
-            if (i%taskRefresh==0) {
-                taskService.updateTask(task,10+(int)(((double)i/(double)annotations.size())*0.9d*100),realUnReviewed + " new reviewed annotations...");
-            }
-            Optional<ReviewedAnnotation> optionalReviewedAnnotation = reviewedAnnotationRepository.findByParentIdent(annotations.get(i).getId());
+    private static CommandResponse unreviewResponse(List<Long> annotations) {
+        return bulkResponse(annotations.size() + " annotations unreviewed", annotations);
+    }
 
-            if (optionalReviewedAnnotation.isPresent()) {
-                realUnReviewed++;
-                reviewed.add(optionalReviewedAnnotation.get());
-            }
+    private static CommandResponse bulkResponse(String message, List<Long> annotations) {
+        CommandResponse response = new CommandResponse();
+        response.setStatus(200);
+        response.setData(JsonObject.of("success", true, "message", message, "callback", null, "printMessage", true, "annotations", annotations));
+        return response;
+    }
 
+    /**
+     * Create the reviewed annotations of the parents not reviewed yet.
+     * Without parents in the json, all the annotations of the layers are reviewed, with their own terms.
+     * With reviewUsers and terms in the json (undo of an unreview), the removed reviews are created again.
+     * Each chunk is done in a transaction (the one of the caller, if any).
+     * @return Created reviewed annotations id
+     */
+    private List<Long> review(JsonObject json, Task task) {
+        List<Long> parents;
+        if (json.containsKey("parents")) {
+            parents = json.getJSONAttrListLong("parents");
+        } else {
+            taskService.updateTask(task, 5, "Look for all annotations...");
+            parents = transactionTemplate.execute(status -> {
+                // annotations of the persistence context must be visible to the statements
+                entityManager.flush();
+                return findUnreviewedParents(json.getJSONAttrLong("image"), json.getJSONAttrListLong("users"));
+            });
+        }
+        taskService.updateTask(task, 10, parents.size() + " annotations found...");
+
+        boolean restore = json.containsKey("reviewUsers");
+        List<Long> reviewUsers = restore ? json.getJSONAttrListLong("reviewUsers") : null;
+        List<String> terms = restore ? json.getJSONAttrListString("terms") : null;
+        Long reviewUser = restore ? null : json.getJSONAttrLong("reviewUser");
+        List<Long> reviewed = new ArrayList<>();
+        List<Long> reviewedParents = new ArrayList<>();
+        for (int start = 0; start < parents.size(); start += BULK_CHUNK_SIZE) {
+            int from = start;
+            int end = Math.min(start + BULK_CHUNK_SIZE, parents.size());
+            List<Tuple> rows = transactionTemplate.execute(status -> restore
+                    ? restoreReviews(parents.subList(from, end), reviewUsers.subList(from, end), terms.subList(from, end))
+                    : createReviews(parents.subList(from, end), reviewUser));
+            for (Tuple row : rows) {
+                reviewed.add(((Number) row.get("id")).longValue());
+                reviewedParents.add(((Number) row.get("parent_ident")).longValue());
+            }
+            taskService.updateTask(task, 10 + (int) (90d * end / parents.size()), reviewed.size() + " new reviewed annotations...");
+        }
+        if (!restore) {
+            json.put("parents", reviewedParents);
+        }
+        return reviewed;
+    }
 
+    /**
+     * Remove the reviewed annotations of the parents (or of the layers, if there is no parent in the json).
+     * If requested, the removed reviews (parent, review user, terms) are kept in the json.
+     * Each chunk is done in a transaction (the one of the caller, if any).
+     * @return Removed reviewed annotations id
+     */
+    private List<Long> unreview(JsonObject json, Task task, boolean keepRemoved) {
+        List<Tuple> reviews;
+        if (json.containsKey("parents")) {
+            List<Long> parents = json.getJSONAttrListLong("parents");
+            reviews = new ArrayList<>();
+            for (int start = 0; start < parents.size(); start += BULK_CHUNK_SIZE) {
+                List<Long> chunk = parents.subList(start, Math.min(start + BULK_CHUNK_SIZE, parents.size()));
+                reviews.addAll(transactionTemplate.execute(status -> findReviews("ra.parent_ident IN (:parents)", Map.of("parents", chunk))));
+            }
+        } else {
+            taskService.updateTask(task, 5, "Look for all annotations...");
+            reviews = transactionTemplate.execute(status -> {
+                // annotations of the persistence context must be visible to the statements
+                entityManager.flush();
+                return findReviews("ua.image_id = :image AND ua.user_id IN (:users)",
+                        Map.of("image", json.getJSONAttrLong("image"), "users", json.getJSONAttrListLong("users")));
+            });
+        }
+        taskService.updateTask(task, 10, reviews.size() + " annotations found...");
+
+        List<Long> ids = reviews.stream().map(row -> ((Number) row.get("id")).longValue()).collect(Collectors.toList());
+        for (int start = 0; start < ids.size(); start += BULK_CHUNK_SIZE) {
+            int end = Math.min(start + BULK_CHUNK_SIZE, ids.size());
+            List<Long> chunk = ids.subList(start, end);
+            transactionTemplate.executeWithoutResult(status -> {
+                entityManager.createNativeQuery("DELETE FROM reviewed_annotation_term WHERE reviewed_annotation_terms_id IN (:ids)")
+                        .setParameter("ids", chunk)
+                        .executeUpdate();
+                entityManager.createNativeQuery("DELETE FROM reviewed_annotation WHERE id IN (:ids)")
+                        .setParameter("ids", chunk)
+                        .executeUpdate();
+            });
+            taskService.updateTask(task, 10 + (int) (90d * end / ids.size()), end + " annotations unreviewed...");
         }
 
-        if (!reviewed.isEmpty()) {
-            reviewedAnnotationRepository.deleteAll(reviewed);
+        if (keepRemoved) {
+            json.put("parents", reviews.stream().map(row -> ((Number) row.get("parent_ident")).longValue()).collect(Collectors.toList()));
+            json.put("reviewUsers", reviews.stream().map(row -> ((Number) row.get("review_user_id")).longValue()).collect(Collectors.toList()));
+            json.put("terms", reviews.stream().map(row -> (String) row.get("terms")).collect(Collectors.toList()));
         }
+        return ids;
+    }
+
+    private List<Long> findUnreviewedParents(Long image, List<Long> users) {
+        List<?> ids = entityManager.createNativeQuery(
+                "SELECT ua.id FROM user_annotation ua " +
+                "WHERE ua.image_id = :image AND ua.user_id IN (:users) AND ua.deleted IS NULL " +
+                "AND NOT EXISTS (SELECT 1 FROM reviewed_annotation ra WHERE ra.parent_ident = ua.id) " +
+                "ORDER BY ua.id")
+                .setParameter("image", image)
+                .setParameter("users", users)
+                .getResultList();
+        return ids.stream().map(id -> ((Number) id).longValue()).collect(Collectors.toList());
+    }
 
+    private List<Tuple> findReviews(String where, Map<String, Object> parameters) {
+        NativeQuery<Tuple> query = entityManager.unwrap(Session.class).createNativeQuery(
+                "SELECT ra.id, ra.parent_ident, ra.review_user_id, " +
+                "       COALESCE((SELECT string_agg(CAST(rat.term_id AS varchar), ',') FROM reviewed_annotation_term rat " +
+                "                 WHERE rat.reviewed_annotation_terms_id = ra.id), '') AS terms " +
+                "FROM reviewed_annotation ra JOIN user_annotation ua ON ua.id = ra.parent_ident " +
+                "WHERE " + where + " ORDER BY ra.id", Tuple.class);
+        parameters.forEach(query::setParameter);
+        return query.getResultList();
+    }
 
+    /**
+     * Review the parents with their own terms
+     */
+    private List<Tuple> createReviews(List<Long> parents, Long reviewUser) {
+        return entityManager.unwrap(Session.class).createNativeQuery(
+                "WITH source AS (SELECT id AS parent, CAST(:reviewUser AS bigint) AS review_user FROM user_annotation WHERE id IN (:parents)), " +
+                INSERT_REVIEWS + ", " +
+                "terms AS (" +
+                "   INSERT INTO reviewed_annotation_term(reviewed_annotation_terms_id, term_id) " +
+                "   SELECT DISTINCT inserted.id, at.term_id FROM inserted " +
+                "   JOIN annotation_term at ON at.user_annotation_id = inserted.parent_ident AND at.deleted IS NULL " +
+                "   RETURNING 1" +
+                ") SELECT id, parent_ident FROM inserted ORDER BY id", Tuple.class)
+                .setParameter("parents", parents)
+                .setParameter("reviewUser", reviewUser)
+                .getResultList();
+    }
 
-        taskService.finishTask(task);
-        return reviewed.stream().map(CytomineDomain::getId).collect(Collectors.toList());
+    /**
+     * Review the parents again, with the review user and the terms (comma separated ids) of their removed reviews
+     */
+    private List<Tuple> restoreReviews(List<Long> parents, List<Long> reviewUsers, List<String> terms) {
+        return entityManager.unwrap(Session.class).createNativeQuery(
+                "WITH source AS (" +
+                "   SELECT * FROM unnest(CAST(string_to_array(:parents, ',') AS bigint[]), " +
+                "                        CAST(string_to_array(:reviewUsers, ',') AS bigint[]), " +
+                "                        string_to_array(:terms, ';')) AS s(parent, review_user, terms)" +
+                "), " +
+                INSERT_REVIEWS + ", " +
+                "terms AS (" +
+                "   INSERT INTO reviewed_annotation_term(reviewed_annotation_terms_id, term_id) " +
+                "   SELECT inserted.id, CAST(term AS bigint) FROM inserted " +
+                "   JOIN source ON source.parent = inserted.parent_ident " +
+                "   CROSS JOIN unnest(string_to_array(source.terms, ',')) AS term " +
+                "   RETURNING 1" +
+                ") SELECT id, parent_ident FROM inserted ORDER BY id", Tuple.class)
+                .setParameter("parents", parents.stream().map(String::valueOf).collect(Collectors.joining(",")))
+                .setParameter("reviewUsers", reviewUsers.stream().map(String::valueOf).collect(Collectors.joining(",")))
+                .setParameter("terms", String.join(";", terms))
+                .getResultList();
     }
 
     protected void beforeAdd(CytomineDomain domain) {
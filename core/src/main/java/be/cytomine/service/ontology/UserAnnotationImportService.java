@@ -0,0 +1,583 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.AnnotationImportProperties;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.domain.command.AddCommand;
+import be.cytomine.domain.command.CommandHistory;
+import be.cytomine.domain.image.ImageInstance;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.Term;
+import be.cytomine.domain.ontology.Track;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.project.Project;
+import be.cytomine.domain.security.User;
+import be.cytomine.exceptions.CytomineException;
+import be.cytomine.exceptions.ObjectNotFoundException;
+import be.cytomine.exceptions.WrongArgumentException;
+import be.cytomine.repository.image.ImageInstanceRepository;
+import be.cytomine.repository.image.SliceInstanceRepository;
+import be.cytomine.repository.ontology.TermRepository;
+import be.cytomine.repository.ontology.TrackRepository;
+import be.cytomine.repository.security.UserRepository;
+import be.cytomine.service.CurrentUserService;
+import be.cytomine.service.database.SequenceService;
+import be.cytomine.service.image.SliceCoordinatesService;
+import be.cytomine.service.search.CbirIndexOutbox;
+import be.cytomine.service.security.SecurityACLService;
+import be.cytomine.service.utils.AnnotationClusterGridService;
+import be.cytomine.service.utils.TaskService;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.Task;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Tuple;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.locationtech.jts.geom.Geometry;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.springframework.security.acls.domain.BasePermission.READ;
+
+/**
+ * Bulk import of user annotations.
+ * ModelService.addMultiple runs the whole add path for each annotation (command, history and undo items, flush, one command
+ * per term, track and property). The import instead:
+ * - checks the permissions once per project and loads the slices, users, terms and tracks with a few queries,
+ * - processes the locations (parsing, cropping, simplification, validation) in parallel,
+ * - inserts annotations, terms, tracks and properties with JDBC batches and pre-allocated ids,
+ * - disables the user_annotation insert triggers and updates the counters and the cluster pyramid once per batch,
+ * - records one command per batch and project. Imported annotations are not on the undo stack.
+ * Each batch is committed in its own transaction, so that the progress reported in the task is visible.
+ */
+@Slf4j
+@Service
+public class UserAnnotationImportService {
+
+    private static final String CLASS_NAME = UserAnnotation.class.getName();
+
+    private final EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final CurrentUserService currentUserService;
+
+    private final SecurityACLService securityACLService;
+
+    private final SliceInstanceRepository sliceInstanceRepository;
+
+    private final ImageInstanceRepository imageInstanceRepository;
+
+    private final SliceCoordinatesService sliceCoordinatesService;
+
+    private final UserRepository userRepository;
+
+    private final TermRepository termRepository;
+
+    private final TrackRepository trackRepository;
+
+    private final UserAnnotationService userAnnotationService;
+
+    private final SequenceService sequenceService;
+
+    private final TaskService taskService;
+
+    private final CbirIndexOutbox cbirIndexOutbox;
+
+    private final AnnotationClusterGridService annotationClusterGridService;
+
+    private final AnnotationCounterService annotationCounterService;
+
+    private final AnnotationImportProperties properties;
+
+    private final ForkJoinPool pool;
+
+    public UserAnnotationImportService(
+            EntityManager entityManager,
+            PlatformTransactionManager transactionManager,
+            CurrentUserService currentUserService,
+            SecurityACLService securityACLService,
+            SliceInstanceRepository sliceInstanceRepository,
+            ImageInstanceRepository imageInstanceRepository,
+            SliceCoordinatesService sliceCoordinatesService,
+            UserRepository userRepository,
+            TermRepository termRepository,
+            TrackRepository trackRepository,
+            UserAnnotationService userAnnotationService,
+            SequenceService sequenceService,
+            TaskService taskService,
+            CbirIndexOutbox cbirIndexOutbox,
+            AnnotationClusterGridService annotationClusterGridService,
+            AnnotationCounterService annotationCounterService,
+            ApplicationProperties applicationProperties) {
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.currentUserService = currentUserService;
+        this.securityACLService = securityACLService;
+        this.sliceInstanceRepository = sliceInstanceRepository;
+        this.imageInstanceRepository = imageInstanceRepository;
+        this.sliceCoordinatesService = sliceCoordinatesService;
+        this.userRepository = userRepository;
+        this.termRepository = termRepository;
+        this.trackRepository = trackRepository;
+        this.userAnnotationService = userAnnotationService;
+        this.sequenceService = sequenceService;
+        this.taskService = taskService;
+        this.cbirIndexOutbox = cbirIndexOutbox;
+        this.annotationClusterGridService = annotationClusterGridService;
+        this.annotationCounterService = annotationCounterService;
+        this.properties = applicationProperties.getAnnotationImport();
+        this.pool = new ForkJoinPool(Math.max(1, properties.getParallelism()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Import user annotations. Each item has the same format as a single annotation add (slice or image, location,
+     * user, term(s), track(s), property/properties, minPoint, maxPoint).
+     * Items that cannot be imported are reported in the response, the other ones are imported.
+     * @param task Task updated with the progress (may be null)
+     * @return Response with the same structure as ModelService.addMultiple
+     */
+    public JsonObject importAnnotations(List<JsonObject> json, Task task) {
+        User currentUser = currentUserService.getCurrentUser();
+        securityACLService.checkGuest(currentUser);
+
+        List<Item> items = new ArrayList<>(json.size());
+        for (JsonObject datum : json) {
+            items.add(new Item(datum));
+        }
+
+        transactionTemplate.executeWithoutResult(status -> resolve(items, currentUser));
+        taskService.updateTask(task, 5, "Process " + items.size() + " annotations");
+
+        List<Item> valid = items.stream().filter(Item::isValid).toList();
+        try {
+            pool.submit(() -> valid.parallelStream().forEach(this::processLocation)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WrongArgumentException("Annotation import interrupted");
+        } catch (ExecutionException e) {
+            throw new WrongArgumentException("Cannot process annotation locations: " + e.getCause());
+        }
+
+        List<Item> processed = valid.stream().filter(Item::isValid).toList();
+        int imported = 0;
+        for (int from = 0; from < processed.size(); from += properties.getBatchSize()) {
+            List<Item> batch = processed.subList(from, Math.min(processed.size(), from + properties.getBatchSize()));
+            try {
+                transactionTemplate.executeWithoutResult(status -> insertBatch(batch, currentUser));
+                imported += batch.size();
+            } catch (Exception e) {
+                log.error("Cannot import annotation batch", e);
+                for (Item item : batch) {
+                    item.annotation.setId(null);
+                    item.fail(500, e.toString());
+                }
+            }
+            taskService.updateTask(task, 10 + (int) (90L * (from + batch.size()) / processed.size()),
+                    imported + "/" + items.size() + " annotations imported");
+        }
+        taskService.finishTask(task);
+
+        return buildResponse(items);
+    }
+
+    /**
+     * Load the slices, images, users, terms and tracks of the items and check the permissions
+     */
+    private void resolve(List<Item> items, User currentUser) {
+        Map<Long, SliceInstance> slices = findAllById(sliceInstanceRepository::findAllById, items, x -> x.json.getJSONAttrLong("slice", null), SliceInstance::getId);
+        Map<Long, ImageInstance> images = findAllById(imageInstanceRepository::findAllById, items, x -> x.json.isMissing("slice") ? x.json.getJSONAttrLong("image", null) : null, ImageInstance::getId);
+        Map<Long, User> users = findAllById(userRepository::findAllById, items, x -> x.json.getJSONAttrLong("user", null), User::getId);
+        Map<Long, Term> terms = findAllByIds(termRepository::findAllById, items, Item::getTermIds, Term::getId);
+        Map<Long, Track> tracks = findAllByIds(trackRepository::findAllById, items, Item::getTrackIds, Track::getId);
+
+        Map<Long, SliceInstance> referenceSlices = new HashMap<>();
+        Map<Long, CytomineException> projectErrors = new HashMap<>();
+        Map<Long, CytomineException> ownerErrors = new HashMap<>();
+        Set<String> trackSlices = findTrackSlices(tracks.keySet());
+
+        for (Item item : items) {
+            try {
+                if (!item.json.isMissing("slice")) {
+                    Long sliceId = item.json.getJSONAttrLong("slice");
+                    item.slice = Optional.ofNullable(slices.get(sliceId))
+                            .orElseThrow(() -> new ObjectNotFoundException("SliceInstance with id " + sliceId));
+                } else if (!item.json.isMissing("image")) {
+                    Long imageId = item.json.getJSONAttrLong("image");
+                    ImageInstance image = Optional.ofNullable(images.get(imageId))
+                            .orElseThrow(() -> new ObjectNotFoundException("ImageInstance with id " + imageId));
+                    item.slice = referenceSlices.computeIfAbsent(imageId, id -> sliceCoordinatesService.getReferenceSlice(image));
+                } else {
+                    throw new WrongArgumentException("Cannot retrieve slice or image");
+                }
+                item.image = item.slice.getImage();
+                item.project = item.slice.getProject();
+
+                if (item.json.isMissing("location")) {
+                    throw new WrongArgumentException("Annotation must have a valid geometry:" + item.json.get("location"));
+                }
+                if (!item.json.isMissing("group")) {
+                    throw new WrongArgumentException("Annotation groups are not supported by the import");
+                }
+
+                CytomineException projectError = projectErrors.computeIfAbsent(item.project.getId(), id -> check(() -> {
+                    securityACLService.check(item.project, READ, currentUser);
+                    securityACLService.checkIsNotReadOnly(item.project);
+                }));
+                if (projectError != null) {
+                    throw projectError;
+                }
+
+                Long userId = item.json.getJSONAttrLong("user", null);
+                if (userId == null || Objects.equals(userId, currentUser.getId())) {
+                    item.user = currentUser;
+                } else {
+                    item.user = Optional.ofNullable(users.get(userId))
+                            .orElseThrow(() -> new ObjectNotFoundException("User", userId));
+                    CytomineException ownerError = ownerErrors.computeIfAbsent(item.project.getId(), id -> check(() ->
+                            securityACLService.checkFullOrRestrictedForOwner(item.project, null)));
+                    if (ownerError != null) {
+                        throw ownerError;
+                    }
+                }
+
+                for (Long termId : item.getTermIds()) {
+                    Term term = Optional.ofNullable(terms.get(termId))
+                            .orElseThrow(() -> new ObjectNotFoundException("Term", termId));
+                    if (item.project.getOntology() == null || !Objects.equals(term.getOntology().getId(), item.project.getOntology().getId())) {
+                        throw new WrongArgumentException("Term " + term.getName() + " from ontology " + term.getOntology().getName() + " is not in ontology from the annotation project");
+                    }
+                }
+                for (Long trackId : item.getTrackIds()) {
+                    Track track = Optional.ofNullable(tracks.get(trackId))
+                            .orElseThrow(() -> new ObjectNotFoundException("Track", trackId));
+                    // a track has at most one annotation per slice
+                    if (!trackSlices.add(item.slice.getId() + "/" + trackId)) {
+                        throw new WrongArgumentException("AnnotationTrack already exists for slice " + item.slice.getId() + " and track " + track.getName());
+                    }
+                }
+
+                // locations are processed by other threads, outside the session
+                Hibernate.initialize(item.image.getBaseImage());
+                Hibernate.initialize(item.project);
+            } catch (CytomineException e) {
+                item.fail(e.code, e.msg);
+            }
+        }
+    }
+
+    private CytomineException check(Runnable check) {
+        try {
+            check.run();
+            return null;
+        } catch (CytomineException e) {
+            return e;
+        }
+    }
+
+    private <T> Map<Long, T> findAllById(Function<Iterable<Long>, List<T>> finder, List<Item> items, Function<Item, Long> id, Function<T, Long> getId) {
+        return findAllByIds(finder, items, item -> Optional.ofNullable(id.apply(item)).map(List::of).orElse(List.of()), getId);
+    }
+
+    private <T> Map<Long, T> findAllByIds(Function<Iterable<Long>, List<T>> finder, List<Item> items, Function<Item, List<Long>> ids, Function<T, Long> getId) {
+        Set<Long> allIds = new HashSet<>();
+        for (Item item : items) {
+            try {
+                allIds.addAll(ids.apply(item));
+            } catch (CytomineException ignored) {
+                // invalid value, reported when the item is resolved
+            }
+        }
+        if (allIds.isEmpty()) {
+            return Map.of();
+        }
+        return finder.apply(allIds).stream().collect(Collectors.toMap(getId, Function.identity()));
+    }
+
+    private Set<String> findTrackSlices(Collection<Long> trackIds) {
+        Set<String> trackSlices = new HashSet<>();
+        if (trackIds.isEmpty()) {
+            return trackSlices;
+        }
+        List<Tuple> rows = entityManager.unwrap(Session.class).createNativeQuery("SELECT DISTINCT slice_id, track_id FROM annotation_track WHERE track_id IN (:tracks)", Tuple.class)
+                .setParameter("tracks", trackIds)
+                .getResultList();
+        for (Tuple row : rows) {
+            trackSlices.add(row.get("slice_id") + "/" + row.get("track_id"));
+        }
+        return trackSlices;
+    }
+
+    private void processLocation(Item item) {
+        try {
+            // no database access from the pool threads, which are outside any session
+            userAnnotationService.processLocation(item.json, item.image, false);
+
+            UserAnnotation annotation = new UserAnnotation();
+            annotation.setLocation((Geometry) item.json.get("location"));
+            annotation.setGeometryCompression(item.json.getJSONAttrDouble("geometryCompression", 0d));
+            annotation.setSlice(item.slice);
+            annotation.setImage(item.image);
+            annotation.setProject(item.project);
+            annotation.setUser(item.user);
+            annotation.beforeCreate();
+            item.annotation = annotation;
+        } catch (CytomineException e) {
+            item.fail(e.code, e.msg);
+        } catch (Exception e) {
+            item.fail(400, "Annotation location is not valid: " + e.getMessage());
+        }
+    }
+
+    private void insertBatch(List<Item> batch, User currentUser) {
+        // the insert triggers are disabled for the inserts of the batch
+        entityManager.createNativeQuery("SELECT set_config('cytomine.bulk_annotation_insert', 'on', true)").getSingleResult();
+
+        List<Long> ids = sequenceService.generateIDs(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).annotation.setId(ids.get(i));
+        }
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+
+        entityManager.flush();
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            insertAnnotations(connection, batch, now);
+            insertTerms(connection, batch, currentUser, now);
+            insertTracks(connection, batch, now);
+            insertProperties(connection, batch, now);
+        });
+        entityManager.createNativeQuery("SELECT set_config('cytomine.bulk_annotation_insert', 'off', true)").getSingleResult();
+
+        // one counter delta per image, slice and user instead of one per annotation
+        annotationCounterService.recordUserAnnotations(ids);
+        annotationClusterGridService.addAnnotations(ids);
+        cbirIndexOutbox.enqueueIndex(ids);
+        recordCommands(batch, currentUser);
+    }
+
+    private void insertAnnotations(Connection connection, List<Item> batch, Timestamp now) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO user_annotation(id, version, created, updated, user_id, image_id, slice_id, project_id, " +
+                "location, wkt_location, geometry_compression, area, area_unit, perimeter, perimeter_unit, count_comments, count_reviewed_annotations) " +
+                "VALUES (?, 0, ?, ?, ?, ?, ?, ?, ST_GeomFromText(?, 0), ?, ?, ?, ?, ?, ?, 0, 0)")) {
+            for (Item item : batch) {
+                UserAnnotation annotation = item.annotation;
+                statement.setLong(1, annotation.getId());
+                statement.setTimestamp(2, now);
+                statement.setTimestamp(3, now);
+                statement.setLong(4, item.user.getId());
+                statement.setLong(5, item.image.getId());
+                statement.setLong(6, item.slice.getId());
+                statement.setLong(7, item.project.getId());
+                statement.setString(8, annotation.getWktLocation());
+                statement.setString(9, annotation.getWktLocation());
+                statement.setObject(10, annotation.getGeometryCompression());
+                statement.setObject(11, annotation.getArea());
+                statement.setObject(12, annotation.getAreaUnit());
+                statement.setObject(13, annotation.getPerimeter());
+                statement.setObject(14, annotation.getPerimeterUnit());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private void insertTerms(Connection connection, List<Item> batch, User currentUser, Timestamp now) throws SQLException {
+        List<Long> ids = sequenceService.generateIDs(batch.stream().mapToInt(x -> x.getTermIds().size()).sum());
+        if (ids.isEmpty()) {
+            return;
+        }
+        Iterator<Long> id = ids.iterator();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO annotation_term(id, version, created, updated, user_annotation_id, term_id, user_id) VALUES (?, 0, ?, ?, ?, ?, ?)")) {
+            for (Item item : batch) {
+                for (Long termId : item.getTermIds()) {
+                    statement.setLong(1, id.next());
+                    statement.setTimestamp(2, now);
+                    statement.setTimestamp(3, now);
+                    statement.setLong(4, item.annotation.getId());
+                    statement.setLong(5, termId);
+                    statement.setLong(6, currentUser.getId());
+                    statement.addBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private void insertTracks(Connection connection, List<Item> batch, Timestamp now) throws SQLException {
+        List<Long> ids = sequenceService.generateIDs(batch.stream().mapToInt(x -> x.getTrackIds().size()).sum());
+        if (ids.isEmpty()) {
+            return;
+        }
+        Iterator<Long> id = ids.iterator();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO annotation_track(id, version, created, updated, annotation_class_name, annotation_ident, track_id, slice_id) VALUES (?, 0, ?, ?, ?, ?, ?, ?)")) {
+            for (Item item : batch) {
+                for (Long trackId : item.getTrackIds()) {
+                    statement.setLong(1, id.next());
+                    statement.setTimestamp(2, now);
+                    statement.setTimestamp(3, now);
+                    statement.setString(4, CLASS_NAME);
+                    statement.setLong(5, item.annotation.getId());
+                    statement.setLong(6, trackId);
+                    statement.setLong(7, item.slice.getId());
+                    statement.addBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private void insertProperties(Connection connection, List<Item> batch, Timestamp now) throws SQLException {
+        List<Long> ids = sequenceService.generateIDs(batch.stream().mapToInt(x -> x.getProperties().size()).sum());
+        if (ids.isEmpty()) {
+            return;
+        }
+        Iterator<Long> id = ids.iterator();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO property(id, version, created, updated, domain_class_name, domain_ident, key, value) VALUES (?, 0, ?, ?, ?, ?, ?, ?)")) {
+            for (Item item : batch) {
+                for (Map.Entry<String, String> property : item.getProperties().entrySet()) {
+                    statement.setLong(1, id.next());
+                    statement.setTimestamp(2, now);
+                    statement.setTimestamp(3, now);
+                    statement.setString(4, CLASS_NAME);
+                    statement.setLong(5, item.annotation.getId());
+                    statement.setString(6, property.getKey());
+                    statement.setString(7, property.getValue());
+                    statement.addBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Record one command (and its history entry) per project of the batch
+     */
+    private void recordCommands(List<Item> batch, User currentUser) {
+        Map<Project, List<Long>> annotationsByProject = batch.stream().collect(Collectors.groupingBy(
+                x -> x.project, LinkedHashMap::new, Collectors.mapping(x -> x.annotation.getId(), Collectors.toList())));
+        for (Map.Entry<Project, List<Long>> entry : annotationsByProject.entrySet()) {
+            AddCommand command = new AddCommand(currentUser);
+            command.setProject(entry.getKey());
+            command.setServiceName(userAnnotationService.getServiceName());
+            command.setPrintMessage(false);
+            command.setData(JsonObject.of("annotations", entry.getValue()).toJsonString());
+            command.setActionMessage(entry.getValue().size() + " annotations imported");
+            entityManager.persist(command);
+            entityManager.persist(new CommandHistory(command));
+        }
+    }
+
+    private JsonObject buildResponse(List<Item> items) {
+        List<JsonObject> errors = new ArrayList<>();
+        List<Long> succeeded = new ArrayList<>();
+        for (Item item : items) {
+            if (item.isValid()) {
+                succeeded.add(item.annotation.getId());
+            } else {
+                errors.add(JsonObject.of("data", item.json, "message", item.error, "status", item.status));
+            }
+        }
+
+        JsonObject response = new JsonObject();
+        String ids = succeeded.stream().map(String::valueOf).collect(Collectors.joining(","));
+        if (errors.isEmpty()) {
+            response.put("data", JsonObject.of("message", "userannotations " + ids + " added"));
+            response.put("status", 200);
+        } else if (succeeded.isEmpty()) {
+            response.put("data", JsonObject.of("success", false, "message", "No entry saved", "errors", errors));
+            response.put("status", 400);
+        } else {
+            response.put("data", JsonObject.of("success", false, "message", "Only part of the entries (userannotations " + ids + ")", "errors", errors));
+            response.put("status", 206);
+        }
+        return response;
+    }
+
+    private static class Item {
+
+        private final JsonObject json;
+
+        private SliceInstance slice;
+
+        private ImageInstance image;
+
+        private Project project;
+
+        private User user;
+
+        private UserAnnotation annotation;
+
+        private String error;
+
+        private int status;
+
+        Item(JsonObject json) {
+            this.json = json;
+        }
+
+        boolean isValid() {
+            return error == null;
+        }
+
+        void fail(int status, String error) {
+            this.status = status;
+            this.error = error;
+        }
+
+        List<Long> getTermIds() {
+            // a term given in both "term" and "terms" is added once
+            Set<Long> termIds = new LinkedHashSet<>(json.getJSONAttrListLong("term", new ArrayList<>()));
+            termIds.addAll(json.getJSONAttrListLong("terms", new ArrayList<>()));
+            return new ArrayList<>(termIds);
+        }
+
+        List<Long> getTrackIds() {
+            List<Long> trackIds = new ArrayList<>(json.getJSONAttrListLong("track", new ArrayList<>()));
+            trackIds.addAll(json.getJSONAttrListLong("tracks", new ArrayList<>()));
+            return trackIds;
+        }
+
+        Map<String, String> getProperties() {
+            Map<String, String> properties = new HashMap<>(json.getJSONAttrMapString("property", new HashMap<>()));
+            properties.putAll(json.getJSONAttrMapString("properties", new HashMap<>()));
+            return properties;
+        }
+    }
+}
@@ -41,7 +41,7 @@ import be.cytomine.service.command.TransactionService;
 import be.cytomine.service.image.SliceCoordinatesService;
 import be.cytomine.service.image.SliceInstanceService;
 import be.cytomine.service.meta.PropertyService;
-import be.cytomine.service.search.RetrievalService;
+import be.cytomine.service.search.CbirIndexOutbox;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.service.utils.SimplifyGeometryService;
 import be.cytomine.service.utils.ValidateGeometryService;
@@ -135,7 +135,7 @@ public class UserAnnotationService extends ModelService {
     private SharedAnnotationRepository sharedAnnotationRepository;
 
     @Autowired
-    private RetrievalService retrievalService;
+    private CbirIndexOutbox cbirIndexOutbox;
 
     @Override
     public Class currentDomain() {
@@ -267,62 +267,7 @@ public class UserAnnotationService extends ModelService {
             securityACLService.checkFullOrRestrictedForOwner(project, null);
         }
 
-        Geometry annotationShape;
-        try {
-            annotationShape = new WKTReader().read(jsonObject.getJSONAttrStr("location"));
-        }
-        catch (Exception ignored) {
-            throw new WrongArgumentException("Annotation location is not valid");
-        }
-
-        if (!annotationShape.isValid()) {
-            throw new WrongArgumentException("Annotation location is not valid");
-        }
-
-
-        Envelope envelope = annotationShape.getEnvelopeInternal();
-        boolean isSizeDefined = image.getBaseImage().getWidth()!=null && image.getBaseImage().getHeight()!=null;
-        if (isSizeDefined && (envelope.getMinX() < 0 || envelope.getMinY() < 0 ||
-                envelope.getMaxX() > image.getBaseImage().getWidth() ||
-                envelope.getMaxY() > image.getBaseImage().getHeight())) {
-            double maxX = Math.min(envelope.getMaxX(), image.getBaseImage().getWidth());
-            double maxY = Math.min(envelope.getMaxY(), image.getBaseImage().getHeight());
-            Geometry insideBounds = null;
-            try {
-                insideBounds = new WKTReader().read("POLYGON((0 0,0 " + maxY + "," + maxX + " " + maxY + "," + maxX + " 0,0 0))");
-            } catch (ParseException e) {
-                throw new WrongArgumentException("Annotation cannot be parsed with maxX/maxY:" + e.getMessage());
-            }
-            annotationShape = annotationShape.intersection(insideBounds);
-        }
-
-        if(!(annotationShape.getGeometryType().equals("LineString"))) {
-            BoundariesCropParameter boundaries = GeometryUtils.getGeometryBoundaries(annotationShape);
-            if (boundaries == null || boundaries.getWidth() == 0 || boundaries.getHeight() == 0) {
-                throw new WrongArgumentException("Annotation dimension not valid");
-            }
-        }
-
-        //simplify annotation
-        try {
-            SimplifiedAnnotation simplifiedAnnotation =
-                    simplifyGeometryService.simplifyPolygon(annotationShape, jsonObject.getJSONAttrLong("minPoint", null), jsonObject.getJSONAttrLong("maxPoint", null));
-            jsonObject.put("location", simplifiedAnnotation.getNewAnnotation());
-            jsonObject.put("geometryCompression", simplifiedAnnotation.getRate());
-        } catch (Exception e) {
-            log.error("Cannot simplify annotation location:" + e);
-        }
-
-        if (jsonObject.isMissing("location")) {
-            jsonObject.put("location", annotationShape);
-            jsonObject.put("geometryCompression", 0.0d);
-        }
-
-        if (jsonObject.get("location") instanceof Geometry) {
-            jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid((Geometry)jsonObject.get("location")));
-        } else {
-            jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid(jsonObject.getJSONAttrStr("location")));
-        }
+        processLocation(jsonObject, image);
 
         //Start transaction
         Transaction transaction = transactionService.start();
@@ -395,6 +340,76 @@ public class UserAnnotationService extends ModelService {
         return commandResponse;
     }
 
+    /**
+     * Parse the location of a new annotation, crop it to the image bounds, simplify and validate it.
+     * The processed location and its geometry compression are put in the json.
+     */
+    public void processLocation(JsonObject jsonObject, ImageInstance image) {
+        processLocation(jsonObject, image, true);
+    }
+
+    /**
+     * @param useDatabase False to make the location valid with JTS only, when there is no session (e.g. in another thread)
+     */
+    public void processLocation(JsonObject jsonObject, ImageInstance image, boolean useDatabase) {
+        Geometry annotationShape;
+        try {
+            annotationShape = new WKTReader().read(jsonObject.getJSONAttrStr("location"));
+        }
+        catch (Exception ignored) {
+            throw new WrongArgumentException("Annotation location is not valid");
+        }
+
+        if (!annotationShape.isValid()) {
+            throw new WrongArgumentException("Annotation location is not valid");
+        }
+
+
+        Envelope envelope = annotationShape.getEnvelopeInternal();
+        boolean isSizeDefined = image.getBaseImage().getWidth()!=null && image.getBaseImage().getHeight()!=null;
+        if (isSizeDefined && (envelope.getMinX() < 0 || envelope.getMinY() < 0 ||
+                envelope.getMaxX() > image.getBaseImage().getWidth() ||
+                envelope.getMaxY() > image.getBaseImage().getHeight())) {
+            double maxX = Math.min(envelope.getMaxX(), image.getBaseImage().getWidth());
+            double maxY = Math.min(envelope.getMaxY(), image.getBaseImage().getHeight());
+            Geometry insideBounds = null;
+            try {
+                insideBounds = new WKTReader().read("POLYGON((0 0,0 " + maxY + "," + maxX + " " + maxY + "," + maxX + " 0,0 0))");
+            } catch (ParseException e) {
+                throw new WrongArgumentException("Annotation cannot be parsed with maxX/maxY:" + e.getMessage());
+            }
+            annotationShape = annotationShape.intersection(insideBounds);
+        }
+
+        if(!(annotationShape.getGeometryType().equals("LineString"))) {
+            BoundariesCropParameter boundaries = GeometryUtils.getGeometryBoundaries(annotationShape);
+            if (boundaries == null || boundaries.getWidth() == 0 || boundaries.getHeight() == 0) {
+                throw new WrongArgumentException("Annotation dimension not valid");
+            }
+        }
+
+        //simplify annotation
+        try {
+            SimplifiedAnnotation simplifiedAnnotation =
+                    simplifyGeometryService.simplifyPolygon(annotationShape, jsonObject.getJSONAttrLong("minPoint", null), jsonObject.getJSONAttrLong("maxPoint", null));
+            jsonObject.put("location", simplifiedAnnotation.getNewAnnotation());
+            jsonObject.put("geometryCompression", simplifiedAnnotation.getRate());
+        } catch (Exception e) {
+            log.error("Cannot simplify annotation location:" + e);
+        }
+
+        if (jsonObject.isMissing("location")) {
+            jsonObject.put("location", annotationShape);
+            jsonObject.put("geometryCompression", 0.0d);
+        }
+
+        if (jsonObject.get("location") instanceof Geometry) {
+            jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid((Geometry)jsonObject.get("location"), useDatabase));
+        } else {
+            jsonObject.put("location", validateGeometryService.tryToMakeItValidIfNotValid(jsonObject.getJSONAttrStr("location"), useDatabase));
+        }
+    }
+
     protected void beforeAdd(CytomineDomain domain) {
         // this will be done in the PrePersist method ; but the validation is done before PrePersist
         ((UserAnnotation)domain).setWktLocation(((UserAnnotation)domain).getLocation().toText());
@@ -404,8 +419,7 @@ public class UserAnnotationService extends ModelService {
         response.getData().put("annotation", response.getData().get("userannotation"));
         response.getData().remove("userannotation");
 
-        AnnotationDomain annotation = (AnnotationDomain) domain;
-        retrievalService.indexAnnotation(annotation);
+        cbirIndexOutbox.enqueueIndex((AnnotationDomain) domain);
     }
 
     /**
@@ -504,7 +518,7 @@ public class UserAnnotationService extends ModelService {
         //Check if user is admin, the project mode and if is the owner of the annotation
         securityACLService.checkFullOrRestrictedForOwner(domain, ((UserAnnotation)domain).getUser());
 
-        retrievalService.deleteIndex((AnnotationDomain) domain);
+        cbirIndexOutbox.enqueueDelete((AnnotationDomain) domain);
 
         Command c = new DeleteCommand(currentUser, transaction);
         return executeCommand(c,domain, null);
@@ -0,0 +1,189 @@
+package be.cytomine.service.search;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.ontology.AnnotationDomain;
+import be.cytomine.utils.JsonObject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Tuple;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.hibernate.Session;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Outbox of CBIR indexing events (table cbir_index_event).
+ * Events are recorded in the transaction of the annotation write, so that an annotation is indexed
+ * if and only if its creation is committed, without calling the CBIR service in the request.
+ * Events are processed by CbirIndexWorker.
+ */
+@Service
+@Transactional
+@RequiredArgsConstructor
+public class CbirIndexOutbox {
+
+    public enum Action { INDEX, DELETE }
+
+    private final EntityManager entityManager;
+
+    public void enqueueIndex(AnnotationDomain annotation) {
+        enqueue(annotation, Action.INDEX);
+    }
+
+    public void enqueueDelete(AnnotationDomain annotation) {
+        enqueue(annotation, Action.DELETE);
+    }
+
+    /**
+     * Record an INDEX event for each of the given user annotations
+     */
+    public void enqueueIndex(Collection<Long> annotationIds) {
+        if (annotationIds.isEmpty()) {
+            return;
+        }
+        entityManager.createNativeQuery(
+                "INSERT INTO cbir_index_event(annotation_id, project_id, action) " +
+                "SELECT id, project_id, '" + Action.INDEX.name() + "' FROM user_annotation WHERE id IN (:ids) ORDER BY id")
+                .setParameter("ids", annotationIds)
+                .executeUpdate();
+    }
+
+    private void enqueue(AnnotationDomain annotation, Action action) {
+        entityManager.createNativeQuery("INSERT INTO cbir_index_event(annotation_id, project_id, action) VALUES (:annotation, :project, :action)")
+                .setParameter("annotation", annotation.getId())
+                .setParameter("project", annotation.getProject().getId())
+                .setParameter("action", action.name())
+                .executeUpdate();
+    }
+
+    /**
+     * Record an INDEX event for each user annotation of the project.
+     * Failed INDEX events of the project are dropped, they are replaced by the new ones.
+     * @return Number of events
+     */
+    public int enqueueProject(Long projectId) {
+        entityManager.createNativeQuery("DELETE FROM cbir_index_event WHERE project_id = :project AND failed AND action = '" + Action.INDEX.name() + "'")
+                .setParameter("project", projectId)
+                .executeUpdate();
+        return entityManager.createNativeQuery(
+                "INSERT INTO cbir_index_event(annotation_id, project_id, action) " +
+                "SELECT id, project_id, '" + Action.INDEX.name() + "' FROM user_annotation WHERE project_id = :project ORDER BY id")
+                .setParameter("project", projectId)
+                .executeUpdate();
+    }
+
+    /**
+     * Claim the pending events of the annotations with the oldest pending events: they are hidden from other workers
+     * (of any instance) during the lease. If they are neither acknowledged nor retried before the end of the lease,
+     * they will be claimed again.
+     * The events of an annotation are claimed together, and only when it has no older event claimed or to retry
+     * (by any instance): they are processed in order, an older INDEX cannot be processed after a DELETE.
+     * @param limit Maximum number of annotations, there may be more events
+     */
+    public List<Event> claim(int limit, Duration lease) {
+        List<Tuple> rows = entityManager.unwrap(Session.class).createNativeQuery(
+                "WITH head AS (" +
+                "   SELECT e.id, e.annotation_id FROM cbir_index_event e " +
+                "   WHERE NOT e.failed AND e.next_attempt_at <= NOW() " +
+                "   AND NOT EXISTS (" +
+                "       SELECT 1 FROM cbir_index_event older " +
+                "       WHERE older.annotation_id = e.annotation_id AND older.id < e.id AND NOT older.failed" +
+                "   ) " +
+                "   ORDER BY e.id LIMIT :limit FOR UPDATE SKIP LOCKED" +
+                "), claimed AS (" +
+                "   UPDATE cbir_index_event e SET next_attempt_at = NOW() + make_interval(secs => :lease) " +
+                "   FROM head " +
+                "   WHERE e.annotation_id = head.annotation_id AND e.id >= head.id AND NOT e.failed " +
+                "   RETURNING e.id, e.annotation_id, e.project_id, e.action, e.attempts" +
+                ") SELECT id, annotation_id, project_id, action, attempts FROM claimed ORDER BY id", Tuple.class)
+                .setParameter("lease", (double) lease.toSeconds())
+                .setParameter("limit", limit)
+                .getResultList();
+
+        return rows.stream()
+                .map(row -> new Event(
+                        ((Number) row.get("id")).longValue(),
+                        ((Number) row.get("annotation_id")).longValue(),
+                        ((Number) row.get("project_id")).longValue(),
+                        Action.valueOf((String) row.get("action")),
+                        ((Number) row.get("attempts")).intValue()))
+                .toList();
+    }
+
+    public void acknowledge(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        entityManager.createNativeQuery("DELETE FROM cbir_index_event WHERE id IN (:ids)")
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+
+    /**
+     * Schedule a new attempt of the event after the given delay, or mark it as failed
+     */
+    public void retry(Event event, String error, Duration delay, boolean failed) {
+        entityManager.createNativeQuery(
+                "UPDATE cbir_index_event SET attempts = attempts + 1, last_error = :error, failed = :failed, " +
+                "next_attempt_at = NOW() + make_interval(secs => :delay) WHERE id = :id")
+                .setParameter("error", error)
+                .setParameter("failed", failed)
+                .setParameter("delay", (double) delay.toSeconds())
+                .setParameter("id", event.getId())
+                .executeUpdate();
+    }
+
+    /**
+     * @return Number of pending and failed events, and age (in seconds) of the oldest pending event
+     */
+    @Transactional(readOnly = true)
+    public JsonObject getBacklog() {
+        Tuple row = (Tuple) entityManager.createNativeQuery(
+                "SELECT COUNT(*) FILTER (WHERE NOT failed) AS pending, " +
+                "       COUNT(*) FILTER (WHERE failed) AS failed, " +
+                "       COALESCE(EXTRACT(EPOCH FROM NOW() - MIN(created) FILTER (WHERE NOT failed)), 0) AS lag " +
+                "FROM cbir_index_event", Tuple.class)
+                .getSingleResult();
+
+        JsonObject backlog = new JsonObject();
+        backlog.put("pending", ((Number) row.get("pending")).longValue());
+        backlog.put("failed", ((Number) row.get("failed")).longValue());
+        backlog.put("lag", ((Number) row.get("lag")).doubleValue());
+        return backlog;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Event {
+
+        private final long id;
+
+        private final long annotationId;
+
+        private final long projectId;
+
+        private final Action action;
+
+        private final int attempts;
+    }
+}
@@ -0,0 +1,187 @@
+package be.cytomine.service.search;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.CbirIndexProperties;
+import be.cytomine.service.stats.StatsRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process the events of the CBIR index outbox.
+ * Events are claimed by batches (with all the pending events of their annotations), then crops and CBIR requests
+ * of the batch are done concurrently by a bounded pool.
+ * A failed event is retried with an exponential backoff, up to a maximum number of attempts.
+ */
+@Slf4j
+@Component
+public class CbirIndexWorker {
+
+    private final CbirIndexOutbox outbox;
+
+    private final RetrievalService retrievalService;
+
+    private final CbirIndexProperties properties;
+
+    private final ExecutorService workers;
+
+    private ScheduledExecutorService scheduler;
+
+    private final StatsRegistry.Counter indexed;
+
+    private final StatsRegistry.Counter deleted;
+
+    private final StatsRegistry.Counter skipped;
+
+    private final StatsRegistry.Counter failures;
+
+    public CbirIndexWorker(CbirIndexOutbox outbox, RetrievalService retrievalService, ApplicationProperties applicationProperties, StatsRegistry stats) {
+        this.outbox = outbox;
+        this.retrievalService = retrievalService;
+        this.properties = applicationProperties.getCbirIndex();
+        this.workers = Executors.newFixedThreadPool(properties.getWorkers());
+
+        this.indexed = stats.counter("retrieval.index.indexed");
+        this.deleted = stats.counter("retrieval.index.deleted");
+        this.skipped = stats.counter("retrieval.index.skipped");
+        this.failures = stats.counter("retrieval.index.failures");
+        stats.gauge("retrieval.index.enabled", properties::isEnabled);
+        stats.gauge("retrieval.index.pending", () -> outbox.getBacklog().get("pending"));
+        stats.gauge("retrieval.index.failed", () -> outbox.getBacklog().get("failed"));
+        stats.gauge("retrieval.index.lag", () -> outbox.getBacklog().get("lag"));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            log.info("CBIR indexing worker is disabled");
+            return;
+        }
+        long interval = properties.getPollInterval().toMillis();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(this::drainAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        workers.shutdownNow();
+    }
+
+    private void drainAll() {
+        try {
+            while (drain() >= properties.getBatchSize()) {
+                // full batch, there are probably more pending events
+            }
+        } catch (Exception e) {
+            log.error("Cannot process CBIR index events", e);
+        }
+    }
+
+    /**
+     * Process a batch of pending events
+     * @return Number of claimed events
+     */
+    public int drain() throws InterruptedException {
+        List<CbirIndexOutbox.Event> events = outbox.claim(properties.getBatchSize(), properties.getLease());
+        if (events.isEmpty()) {
+            return 0;
+        }
+
+        // All the claimed events of an annotation are in the batch: only the latest one matters (e.g. INDEX then DELETE)
+        Map<Long, CbirIndexOutbox.Event> latest = new LinkedHashMap<>();
+        for (CbirIndexOutbox.Event event : events) {
+            latest.put(event.getAnnotationId(), event);
+        }
+
+        List<Long> done = new ArrayList<>();
+        for (CbirIndexOutbox.Event event : events) {
+            if (latest.get(event.getAnnotationId()) != event) {
+                done.add(event.getId());
+            }
+        }
+
+        Map<CbirIndexOutbox.Event, Future<?>> results = new LinkedHashMap<>();
+        for (CbirIndexOutbox.Event event : latest.values()) {
+            results.put(event, workers.submit(() -> {
+                process(event);
+                return null;
+            }));
+        }
+
+        for (Map.Entry<CbirIndexOutbox.Event, Future<?>> result : results.entrySet()) {
+            CbirIndexOutbox.Event event = result.getKey();
+            try {
+                result.getValue().get();
+                done.add(event.getId());
+            } catch (ExecutionException e) {
+                failures.increment();
+                boolean failed = event.getAttempts() + 1 >= properties.getMaxAttempts();
+                log.warn("Cannot {} annotation {} in CBIR (attempt {}): {}", event.getAction(), event.getAnnotationId(),
+                        event.getAttempts() + 1, e.getCause().getMessage());
+                outbox.retry(event, String.valueOf(e.getCause()), getBackoff(event.getAttempts()), failed);
+            }
+        }
+
+        outbox.acknowledge(done);
+        return events.size();
+    }
+
+    private void process(CbirIndexOutbox.Event event) throws Exception {
+        if (event.getAction() == CbirIndexOutbox.Action.DELETE) {
+            try {
+                retrievalService.deleteIndex(event.getProjectId(), event.getAnnotationId());
+            } catch (HttpClientErrorException.NotFound e) {
+                // never indexed
+            }
+            deleted.increment();
+            return;
+        }
+
+        byte[] image = retrievalService.cropAnnotation(event.getAnnotationId());
+        if (image == null) {
+            // annotation deleted in the meantime
+            skipped.increment();
+            return;
+        }
+        retrievalService.indexAnnotation(event.getProjectId(), event.getAnnotationId(), image);
+        indexed.increment();
+    }
+
+    Duration getBackoff(int attempts) {
+        Duration backoff = properties.getInitialBackoff().multipliedBy(1L << Math.min(attempts, 20));
+        return backoff.compareTo(properties.getMaxBackoff()) > 0 ? properties.getMaxBackoff() : backoff;
+    }
+}
@@ -1,17 +1,21 @@
 package be.cytomine.service.search;
 
+import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.locationtech.jts.io.ParseException;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RestTemplate;
@@ -19,8 +23,10 @@ import org.springframework.web.util.UriComponentsBuilder;
 
 import be.cytomine.config.properties.ApplicationProperties;
 import be.cytomine.domain.ontology.AnnotationDomain;
+import be.cytomine.domain.ontology.UserAnnotation;
 import be.cytomine.dto.image.CropParameter;
 import be.cytomine.dto.search.SearchResponse;
+import be.cytomine.repository.ontology.UserAnnotationRepository;
 import be.cytomine.service.middleware.ImageServerService;
 
 @Slf4j
@@ -38,6 +44,8 @@ public class RetrievalService {
 
     private final RestTemplate restTemplate;
 
+    private final UserAnnotationRepository userAnnotationRepository;
+
     public String getInternalCbirURL() {
         return applicationProperties.getInternalProxyURL() + CBIR_API_BASE_PATH;
     }
@@ -92,6 +100,17 @@ public class RetrievalService {
     }
 
     private byte[] getImageAnnotation(AnnotationDomain annotation) {
+        try {
+            return cropAnnotation(annotation);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Image of the annotation sent to the CBIR service
+     */
+    public byte[] cropAnnotation(AnnotationDomain annotation) throws IOException, ParseException {
         CropParameter parameters = new CropParameter();
         parameters.setComplete(true);
         parameters.setDraw(true);
@@ -100,23 +119,34 @@ public class RetrievalService {
         parameters.setLocation(annotation.getWktLocation());
         parameters.setMaxSize(256);
 
-        try {
-            ResponseEntity<byte[]> response = imageServerService.crop(annotation, parameters, null, null);
-            return response.getBody();
-        } catch (Exception e) {
+        ResponseEntity<byte[]> response = imageServerService.crop(annotation, parameters, null, null);
+        return response.getBody();
+    }
+
+    /**
+     * Image of the user annotation sent to the CBIR service, null if the annotation does not exist anymore
+     */
+    @Transactional(readOnly = true)
+    public byte[] cropAnnotation(Long annotationId) throws IOException, ParseException {
+        Optional<UserAnnotation> annotation = userAnnotationRepository.findById(annotationId);
+        if (annotation.isEmpty()) {
             return null;
         }
+        return cropAnnotation(annotation.get());
     }
 
     private HttpEntity<MultiValueMap<String, Object>> createEntity(AnnotationDomain annotation) {
+        return createEntity(annotation.getId(), Objects.requireNonNull(getImageAnnotation(annotation)));
+    }
+
+    private HttpEntity<MultiValueMap<String, Object>> createEntity(Long annotationId, byte[] image) {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.MULTIPART_FORM_DATA);
 
-        byte[] image = Objects.requireNonNull(getImageAnnotation(annotation));
         ByteArrayResource resource =  new ByteArrayResource(image) {
             @Override
             public String getFilename() {
-                return annotation.getId().toString();
+                return annotationId.toString();
             }
         };
 
@@ -127,31 +157,39 @@ public class RetrievalService {
     }
 
     public ResponseEntity<String> indexAnnotation(AnnotationDomain annotation) {
-        String storageName = annotation.getProject().getId().toString();
-        URI url = UriComponentsBuilder
+        log.debug("Create index for annotation {}", annotation.getId());
+        return restTemplate.exchange(getIndexURL(annotation.getProject().getId()), HttpMethod.POST, createEntity(annotation), String.class);
+    }
+
+    public ResponseEntity<String> indexAnnotation(Long projectId, Long annotationId, byte[] image) {
+        log.debug("Create index for annotation {}", annotationId);
+        return restTemplate.exchange(getIndexURL(projectId), HttpMethod.POST, createEntity(annotationId, image), String.class);
+    }
+
+    private URI getIndexURL(Long projectId) {
+        return UriComponentsBuilder
             .fromHttpUrl(getInternalCbirURL())
             .path("/images")
-            .queryParam("storage", storageName)
+            .queryParam("storage", projectId.toString())
             .queryParam("index", INDEX_NAME)
             .build()
             .toUri();
-
-        HttpEntity<MultiValueMap<String, Object>> requestEntity = createEntity(annotation);
-        log.debug("Create index for annotation {}", annotation.getId());
-
-        return restTemplate.exchange(url, HttpMethod.POST, requestEntity, String.class);
     }
 
     public ResponseEntity<String> deleteIndex(AnnotationDomain annotation) {
+        return deleteIndex(annotation.getProject().getId(), annotation.getId());
+    }
+
+    public ResponseEntity<String> deleteIndex(Long projectId, Long annotationId) {
         URI url = UriComponentsBuilder
             .fromHttpUrl(getInternalCbirURL())
-            .pathSegment("images", annotation.getId().toString())
-            .queryParam("storage", annotation.getProject().getId())
+            .pathSegment("images", annotationId.toString())
+            .queryParam("storage", projectId)
             .queryParam("index", INDEX_NAME)
             .build()
             .toUri();
 
-        log.debug("Delete index for annotation {}", annotation.getId());
+        log.debug("Delete index for annotation {}", annotationId);
         return restTemplate.exchange(
             url,
             HttpMethod.DELETE,
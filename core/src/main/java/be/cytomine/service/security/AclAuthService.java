@@ -29,7 +29,10 @@ public class AclAuthService {
     @Autowired
     private AclRepository aclRepository;
 
+    @Autowired
+    private AclPermissionCache aclPermissionCache;
+
     public List<Integer> get(Long domainId, User user) {
-        return aclRepository.listMaskForUsers(domainId, user.getUsername());
+        return aclPermissionCache.getMasks(domainId, user.getUsername(), () -> aclRepository.listMaskForUsers(domainId, user.getUsername()));
     }
 }
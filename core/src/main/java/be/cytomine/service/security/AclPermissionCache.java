@@ -0,0 +1,281 @@
+package be.cytomine.service.security;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.AclCacheProperties;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.service.stats.StatsRegistry;
+import be.cytomine.service.utils.PostgresNotificationChannel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the ACL masks of a user on a domain (acl_entry rows), on two levels:
+ * - a memo of the current HTTP request, so that the checks done by a request only read each mask once,
+ * - a bounded cache shared by all requests (least recently used entries are evicted).
+ * Entries are invalidated by PermissionService each time it adds or removes an ACL entry. A changed entry is not cached
+ * again until the end of the transaction of the change, so that uncommitted (or rolled back) masks are never shared.
+ * With the POSTGRES replication, the invalidations are broadcast to the other instances once the transaction
+ * of the change is completed (expireAfterWrite bounds the staleness if a message is lost).
+ */
+@Slf4j
+@Component
+public class AclPermissionCache {
+
+    private static final String REQUEST_ATTRIBUTE = AclPermissionCache.class.getName();
+
+    // invalidate all the entries
+    private static final String ALL = "*";
+
+    private final AclCacheProperties properties;
+
+    private final PostgresNotificationChannel channel;
+
+    // identify the messages of this instance in the channel
+    private final String instanceId = UUID.randomUUID().toString();
+
+    // "domainId/username" -> masks, in access order
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // "domainId/username" -> number of transactions that changed the masks and are not completed yet
+    private final Map<String, AtomicInteger> pendingChanges = new ConcurrentHashMap<>();
+
+    // incremented by each invalidation, masks loaded during an invalidation are not cached
+    private final AtomicLong version = new AtomicLong();
+
+    private final StatsRegistry.Counter requestHits;
+
+    private final StatsRegistry.Counter hits;
+
+    private final StatsRegistry.Counter misses;
+
+    private final StatsRegistry.Counter evictions;
+
+    private final StatsRegistry.Counter invalidations;
+
+    public AclPermissionCache(ApplicationProperties applicationProperties, DataSourceProperties dataSourceProperties, StatsRegistry stats) {
+        this.properties = applicationProperties.getAclCache();
+        this.channel = properties.isEnabled() && properties.getReplication() == AclCacheProperties.Replication.POSTGRES
+                ? new PostgresNotificationChannel(dataSourceProperties, properties.getChannel(), this::receive)
+                : null;
+
+        this.requestHits = stats.counter("acl.cache.requestHits");
+        this.hits = stats.counter("acl.cache.hits");
+        this.misses = stats.counter("acl.cache.misses");
+        this.evictions = stats.counter("acl.cache.evictions");
+        this.invalidations = stats.counter("acl.cache.invalidations");
+        stats.gauge("acl.cache.size", this::getSize);
+        stats.gauge("acl.cache.maxEntries", properties::getMaxEntries);
+        stats.gauge("acl.cache.pendingChanges", pendingChanges::size);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (channel != null) {
+            channel.start();
+        }
+        log.info("ACL cache uses the " + properties.getReplication() + " replication");
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (channel != null) {
+            channel.stop();
+        }
+    }
+
+    /**
+     * Get the masks of the user on the domain, the loader reads them from the database if they are not cached
+     */
+    public List<Integer> getMasks(Long domainId, String username, Supplier<List<Integer>> loader) {
+        String key = key(domainId, username);
+        Map<String, List<Integer>> requestCache = getRequestCache();
+        if (requestCache != null && requestCache.containsKey(key)) {
+            requestHits.increment();
+            return requestCache.get(key);
+        }
+
+        List<Integer> masks = properties.isEnabled() ? getShared(key) : null;
+        if (masks != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            long loadedVersion = version.get();
+            masks = List.copyOf(loader.get());
+            if (properties.isEnabled() && !pendingChanges.containsKey(key)) {
+                putShared(key, masks, loadedVersion);
+            }
+        }
+
+        if (requestCache != null && !pendingChanges.containsKey(key)) {
+            requestCache.put(key, masks);
+        }
+        return masks;
+    }
+
+    /**
+     * Forget the masks of the user on the domain, after an ACL entry has been added or removed
+     */
+    public void invalidate(Long domainId, String username) {
+        String key = key(domainId, username);
+        invalidations.increment();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            pendingChanges.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    removeShared(key);
+                    pendingChanges.computeIfPresent(key, (k, count) -> count.decrementAndGet() == 0 ? null : count);
+                    publish(key);
+                }
+            });
+        } else {
+            publish(key);
+        }
+        removeShared(key);
+
+        Map<String, List<Integer>> requestCache = getRequestCache();
+        if (requestCache != null) {
+            requestCache.remove(key);
+        }
+    }
+
+    /**
+     * Forget all the masks, on all the instances
+     */
+    public void clear() {
+        clearShared();
+        publish(ALL);
+    }
+
+    private int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private List<Integer> getShared(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt - System.nanoTime() <= 0) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.masks;
+        }
+    }
+
+    private void putShared(String key, List<Integer> masks, long loadedVersion) {
+        synchronized (entries) {
+            if (version.get() != loadedVersion) {
+                // the masks may have been changed while they were read
+                return;
+            }
+            entries.put(key, new Entry(masks, System.nanoTime() + properties.getExpireAfterWrite().toNanos()));
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (entries.size() > properties.getMaxEntries() && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private void clearShared() {
+        synchronized (entries) {
+            version.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    private void removeShared(String key) {
+        synchronized (entries) {
+            version.incrementAndGet();
+            entries.remove(key);
+        }
+    }
+
+    private void publish(String key) {
+        if (channel != null) {
+            channel.publish(instanceId + "," + key);
+        }
+    }
+
+    /**
+     * Apply an invalidation broadcast by an instance ("instanceId,domainId/username" or "instanceId,*")
+     */
+    void receive(String message) {
+        String[] fields = message.split(",", 2);
+        if (fields.length != 2) {
+            throw new IllegalArgumentException("Invalid message");
+        }
+        if (fields[0].equals(instanceId)) {
+            return;
+        }
+        if (fields[1].equals(ALL)) {
+            clearShared();
+        } else {
+            removeShared(fields[1]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, List<Integer>> getRequestCache() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        Map<String, List<Integer>> requestCache = (Map<String, List<Integer>>) attributes.getAttribute(REQUEST_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (requestCache == null) {
+            requestCache = new HashMap<>();
+            attributes.setAttribute(REQUEST_ATTRIBUTE, requestCache, RequestAttributes.SCOPE_REQUEST);
+        }
+        return requestCache;
+    }
+
+    private static String key(Long domainId, String username) {
+        return domainId + "/" + username;
+    }
+
+    private static class Entry {
+
+        private final List<Integer> masks;
+
+        private final long expiresAt;
+
+        Entry(List<Integer> masks, long expiresAt) {
+            this.masks = masks;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -25,7 +25,6 @@ import be.cytomine.domain.project.Project;
 import be.cytomine.domain.project.ProjectDefaultLayer;
 import be.cytomine.domain.project.ProjectRepresentativeUser;
 import be.cytomine.domain.security.*;
-import be.cytomine.domain.social.LastConnection;
 import be.cytomine.dto.NamedCytomineDomain;
 import be.cytomine.dto.auth.AuthInformation;
 import be.cytomine.exceptions.*;
@@ -43,7 +42,6 @@ import be.cytomine.repository.project.ProjectRepository;
 import be.cytomine.repository.project.ProjectRepresentativeUserRepository;
 import be.cytomine.repository.security.*;
 import be.cytomine.repositorynosql.social.AnnotationActionRepository;
-import be.cytomine.repositorynosql.social.LastConnectionRepository;
 import be.cytomine.repositorynosql.social.PersistentImageConsultationRepository;
 import be.cytomine.repositorynosql.social.PersistentProjectConnectionRepository;
 import be.cytomine.service.CurrentRoleService;
@@ -58,12 +56,12 @@ import be.cytomine.service.project.ProjectRepresentativeUserService;
 import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.search.UserSearchExtension;
 import be.cytomine.service.social.ImageConsultationService;
+import be.cytomine.service.social.PresenceService;
 import be.cytomine.service.social.ProjectConnectionService;
 import be.cytomine.service.social.UserPositionService;
 import be.cytomine.utils.*;
 import be.cytomine.utils.filters.SearchParameterEntry;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.time.DateUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.*;
 import org.springframework.stereotype.Service;
@@ -119,7 +117,7 @@ public class UserService extends ModelService {
     private ProjectRepository projectRepository;
 
     @Autowired
-    private LastConnectionRepository lastConnectionRepository;
+    private PresenceService presenceService;
 
     @Autowired
     private CommandHistoryRepository commandHistoryRepository;
@@ -697,12 +695,7 @@ public class UserService extends ModelService {
      */
     public List<User> getAllOnlineUsers() {
         securityACLService.checkGuest(currentUserService.getCurrentUser());
-        //get date with -X secondes
-        Date xSecondAgo = DateUtils.addSeconds(new Date(), -300);
-        // TODO: could be improve regarding performance...
-        List<LastConnection> connections = lastConnectionRepository.findAllByCreatedAfter(xSecondAgo);
-        List<Long> userIds = connections.stream().map(LastConnection::getUser).distinct().collect(Collectors.toList());
-        return userRepository.findAllByIdIn(userIds);
+        return userRepository.findAllByIdIn(presenceService.getOnlineUserIds());
     }
 
     /**
@@ -710,12 +703,7 @@ public class UserService extends ModelService {
      */
     public List<Long> getAllOnlineUserIds(Project project) {
         securityACLService.checkGuest(currentUserService.getCurrentUser());
-        //get date with -X secondes
-        Date xSecondAgo = DateUtils.addSeconds(new Date(), -300);
-        // TODO: could be improve regarding performance...
-        List<LastConnection> connections = lastConnectionRepository.findAllByProjectAndCreatedAfter(project.getId(), xSecondAgo);
-        List<Long> userIds = connections.stream().map(LastConnection::getUser).distinct().collect(Collectors.toList());
-        return userIds;
+        return presenceService.getOnlineUserIds(project.getId());
     }
 
     /**
@@ -739,12 +727,15 @@ public class UserService extends ModelService {
      */
     public List<User> getAllFriendsUsersOnline(User user) {
         securityACLService.checkIsSameUser(user, currentUserService.getCurrentUser());
-        List<User> friends = getAllFriendsUsers(user);
-        List<User> friendsOnline = getAllOnlineUsers().stream()
+        securityACLService.checkGuest(currentUserService.getCurrentUser());
+        Set<Long> onlineUserIds = new HashSet<>(presenceService.getOnlineUserIds());
+        if (onlineUserIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return getAllFriendsUsers(user).stream()
+                .filter(friend -> onlineUserIds.contains(friend.getId()))
                 .distinct()
-                .filter(friends::contains)
                 .collect(Collectors.toList());
-        return friendsOnline;
     }
 
     /**
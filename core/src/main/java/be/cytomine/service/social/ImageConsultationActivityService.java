@@ -0,0 +1,225 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.domain.social.PersistentImageConsultation;
+import be.cytomine.domain.social.PersistentUserPosition;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.UpdateOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Sorts.descending;
+import static com.mongodb.client.model.Updates.*;
+
+/**
+ * Incremental activity of the image consultations.
+ * - imageConsultationActivity: one document per open consultation, holding its active time and the date of its last position.
+ *   It is updated when positions are written, so that closing a consultation does not read its positions.
+ * - imageConsultationSummary: one document per (project, user, image), holding the totals of its consultations
+ *   (used by the consultation resume of a user).
+ */
+@Slf4j
+@Service
+public class ImageConsultationActivityService {
+
+    public static final String ACTIVITY_COLLECTION = "imageConsultationActivity";
+
+    public static final String SUMMARY_COLLECTION = "imageConsultationSummary";
+
+    // A gap of this length (or longer) between two positions is a period of inactivity
+    public static final long INACTIVITY_GAP = 15000L;
+
+    // Open consultations of a (user, image) that may receive the positions of a batch
+    private static final int MAX_CANDIDATES = 5;
+
+    private final MongoClient mongoClient;
+
+    public ImageConsultationActivityService(MongoClient mongoClient) {
+        this.mongoClient = mongoClient;
+    }
+
+    private MongoCollection<Document> activities() {
+        return mongoClient.getDatabase(ImageConsultationService.DATABASE_NAME).getCollection(ACTIVITY_COLLECTION);
+    }
+
+    private MongoCollection<Document> summaries() {
+        return mongoClient.getDatabase(ImageConsultationService.DATABASE_NAME).getCollection(SUMMARY_COLLECTION);
+    }
+
+    public static Document summaryId(Long project, Long user, Long image) {
+        return new Document("project", project).append("user", user).append("image", image);
+    }
+
+    /**
+     * Start the activity of a new consultation and count it in the summary of its image
+     */
+    public void open(PersistentImageConsultation consultation) {
+        activities().insertOne(new Document("_id", consultation.getId())
+                .append("user", consultation.getUser())
+                .append("image", consultation.getImage())
+                .append("project", consultation.getProject())
+                .append("created", consultation.getCreated())
+                .append("lastSeen", consultation.getCreated())
+                .append("activeTime", 0L)
+                .append("lastGap", 0L));
+
+        summaries().updateOne(
+                eq("_id", summaryId(consultation.getProject(), consultation.getUser(), consultation.getImage())),
+                combine(
+                        inc("frequency", 1),
+                        inc("time", 0L),
+                        inc("countCreatedAnnotations", 0),
+                        min("first", consultation.getCreated()),
+                        max("last", consultation.getCreated()),
+                        set("imageName", consultation.getImageName()),
+                        set("imageThumb", consultation.getImageThumb())),
+                new UpdateOptions().upsert(true));
+    }
+
+    /**
+     * Add the positions to the active time of the open consultations they belong to
+     * (the latest consultation of the user on the image created before the position).
+     */
+    public void recordPositions(Collection<PersistentUserPosition> positions) {
+        Map<String, List<Date>> datesByUserAndImage = new LinkedHashMap<>();
+        for (PersistentUserPosition position : positions) {
+            datesByUserAndImage.computeIfAbsent(position.getUser() + "/" + position.getImage(), key -> new ArrayList<>())
+                    .add(position.getCreated());
+        }
+
+        for (Map.Entry<String, List<Date>> entry : datesByUserAndImage.entrySet()) {
+            String[] key = entry.getKey().split("/");
+            List<Date> dates = entry.getValue();
+            dates.sort(Comparator.naturalOrder());
+            try {
+                recordPositions(Long.parseLong(key[0]), Long.parseLong(key[1]), dates);
+            } catch (Exception e) {
+                log.error("Cannot record the activity of user " + key[0] + " on image " + key[1] + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void recordPositions(Long user, Long image, List<Date> dates) {
+        List<Document> candidates = activities()
+                .find(and(eq("user", user), eq("image", image), lte("created", dates.get(dates.size() - 1))))
+                .projection(new Document("created", 1))
+                .sort(descending("created"))
+                .limit(MAX_CANDIDATES)
+                .into(new ArrayList<>());
+
+        // candidates are sorted from the newest, each one receives the positions created after it
+        int end = dates.size();
+        for (Document candidate : candidates) {
+            Date created = candidate.getDate("created");
+            int start = end;
+            while (start > 0 && !dates.get(start - 1).before(created)) {
+                start--;
+            }
+            if (start < end) {
+                activities().updateOne(eq("_id", candidate.get("_id")), activityUpdate(dates.subList(start, end)));
+            }
+            end = start;
+        }
+    }
+
+    /**
+     * Pipeline update adding the gaps between the positions (sorted dates) to the active time.
+     * Gaps of INACTIVITY_GAP or more are not counted.
+     */
+    static List<Bson> activityUpdate(List<Date> dates) {
+        long internal = 0L;
+        long lastInternalGap = 0L;
+        for (int i = 1; i < dates.size(); i++) {
+            long gap = dates.get(i).getTime() - dates.get(i - 1).getTime();
+            lastInternalGap = gap < INACTIVITY_GAP ? gap : 0L;
+            internal += lastInternalGap;
+        }
+        Date first = dates.get(0);
+        Date last = dates.get(dates.size() - 1);
+
+        // gap between the previous last position and the first one of the batch, if positions come in order
+        Document firstGap = new Document("$subtract", List.of(first, "$lastSeen"));
+        Document countedFirstGap = new Document("$cond", List.of(
+                new Document("$and", List.of(
+                        new Document("$gte", List.of(firstGap, 0L)),
+                        new Document("$lt", List.of(firstGap, INACTIVITY_GAP)))),
+                firstGap,
+                0L));
+
+        Document values = new Document()
+                .append("activeTime", new Document("$add", List.of("$activeTime", internal, countedFirstGap)))
+                .append("lastGap", new Document("$cond", List.of(
+                        new Document("$gte", List.of(last, "$lastSeen")),
+                        dates.size() > 1 ? lastInternalGap : countedFirstGap,
+                        "$lastGap")))
+                .append("lastSeen", new Document("$max", List.of("$lastSeen", last)));
+        return List.of(new Document("$set", values));
+    }
+
+    /**
+     * Active time of the consultation before the given date, or empty if the consultation has no activity
+     * (consultation opened before the activity was recorded).
+     */
+    public Optional<Long> getActiveTime(Long consultation, Date before) {
+        Document activity = activities().find(eq("_id", consultation)).first();
+        if (activity == null) {
+            return Optional.empty();
+        }
+        long activeTime = ((Number) activity.get("activeTime")).longValue();
+        // the last position was recorded after the end of the consultation: it belongs to the next one
+        if (!activity.getDate("lastSeen").before(before)) {
+            activeTime -= ((Number) activity.get("lastGap")).longValue();
+        }
+        return Optional.of(activeTime);
+    }
+
+    /**
+     * Stop the activity of a closed consultation and add its totals to the summary of its image
+     */
+    public void close(PersistentImageConsultation consultation) {
+        activities().deleteOne(eq("_id", consultation.getId()));
+        summaries().updateOne(
+                eq("_id", summaryId(consultation.getProject(), consultation.getUser(), consultation.getImage())),
+                combine(
+                        inc("time", consultation.getTime()),
+                        inc("countCreatedAnnotations", consultation.getCountCreatedAnnotations())));
+    }
+
+    /**
+     * Summaries of the images consulted by the user in the project
+     */
+    public List<Document> listSummaries(Long project, Long user) {
+        return summaries()
+                .find(and(eq("_id.project", project), eq("_id.user", user)))
+                .into(new ArrayList<>());
+    }
+
+    /**
+     * Forget the activity of the consultations of a deleted image
+     */
+    public void deleteByImage(Long image) {
+        activities().deleteMany(eq("image", image));
+        summaries().deleteMany(eq("_id.image", image));
+    }
+}
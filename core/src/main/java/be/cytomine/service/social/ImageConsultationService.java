@@ -120,6 +120,15 @@ public class ImageConsultationService {
     @Autowired
     ImageInstanceService imageInstanceService;
 
+    @Autowired
+    ImageConsultationActivityService imageConsultationActivityService;
+
+    @Autowired
+    UserPositionBuffer userPositionBuffer;
+
+    @Autowired
+    PresenceService presenceService;
+
     public PersistentImageConsultation add(User user, Long imageId, String session, String mode, Date created) {
         System.out.println(currentUserService.getCurrentUser());
         ImageInstance imageInstance = imageInstanceRepository.findById(imageId)
@@ -150,6 +159,8 @@ public class ImageConsultationService {
 
 
         persistentImageConsultationRepository.insert(consultation);
+        imageConsultationActivityService.open(consultation);
+        presenceService.heartbeat(user.getId(), imageInstance.getProject().getId(), created);
 
         return consultation;
     }
@@ -172,10 +183,36 @@ public class ImageConsultationService {
         fillImageConsultation(consultation.get(), before);
 
         persistentImageConsultationRepository.save(consultation.get());
+        imageConsultationActivityService.close(consultation.get());
     }
 
 
     public void fillImageConsultation(PersistentImageConsultation consultation, Date before) {
+        // buffered positions of the consultation are added to its activity when written
+        userPositionBuffer.flush(consultation.getUser(), consultation.getImage());
+        consultation.setTime(imageConsultationActivityService.getActiveTime(consultation.getId(), before)
+                .orElseGet(() -> computeActiveTime(consultation, before)));
+
+        // count created annotations
+        Number count = (Number) entityManager.createNativeQuery(
+                "SELECT COUNT(*) FROM user_annotation " +
+                "WHERE image_id = :image AND user_id = :user AND project_id = :project " +
+                "AND created > :after AND created < :before AND deleted IS NULL")
+                .setParameter("image", consultation.getImage())
+                .setParameter("user", consultation.getUser())
+                .setParameter("project", consultation.getProject())
+                .setParameter("after", consultation.getCreated())
+                .setParameter("before", before)
+                .getSingleResult();
+        consultation.setCountCreatedAnnotations(count.intValue());
+        persistentImageConsultationRepository.save(consultation);
+
+    }
+
+    /**
+     * Active time of a consultation without activity (opened before the activity was recorded), from its positions
+     */
+    private Long computeActiveTime(PersistentImageConsultation consultation, Date before) {
         Date after = consultation.getCreated();
 
         AggregationResults positions = persistentUserPositionRepository
@@ -200,24 +237,7 @@ public class ImageConsultationService {
             first = time;
         }
 
-        consultation.setTime(continuousConnectionIntervals.stream().filter(x -> x < 15000L).reduce(0L, Long::sum));
-
-        if (consultation.getTime() == null) {
-            consultation.setTime(0L);
-        }
-
-        AnnotationListing al = new UserAnnotationListing(entityManager);
-        al.setProject(consultation.getProject());
-        al.setUser(consultation.getUser());
-        al.setImage(consultation.getImage());
-        al.setBeforeThan(before);
-        al.setAfterThan(after);
-
-        // count created annotations
-
-        consultation.setCountCreatedAnnotations(annotationListingService.listGeneric(al).size());
-        persistentImageConsultationRepository.save(consultation);
-
+        return continuousConnectionIntervals.stream().filter(x -> x < ImageConsultationActivityService.INACTIVITY_GAP).reduce(0L, Long::sum);
     }
 
     public Page<PersistentImageConsultation> listImageConsultationByProjectAndUserNoImageDistinct(Project project, User user, Integer max, Integer offset) {
@@ -424,26 +444,9 @@ public class ImageConsultationService {
         Project project = projectRepository.findById(projectId).orElseThrow(() -> new ObjectNotFoundException("Project", projectId));
         securityACLService.check(project, READ);
 
-        List<Bson> requests = new ArrayList<>();
-        requests.add(match(eq("project", projectId)));
-        requests.add(match(eq("user", userId)));
-        requests.add(sort(ascending("created")));
-        requests.add(group(Document.parse("{project: '$project', user: '$user', image: '$image'}"),
-                Accumulators.sum("time", "$time"),
-                Accumulators.sum("frequency", 1),
-                Accumulators.sum("countCreatedAnnotations", "$countCreatedAnnotations"),
-                Accumulators.first("first", "$created"),
-                Accumulators.last("last", "$created"),
-                Accumulators.last("imageName", "$imageName"),
-                Accumulators.last("imageThumb", "$imageThumb")));
-
-
         List<JsonObject> data = new ArrayList<>();
 
-        MongoCollection<Document> persistentImageConsultation = mongoClient.getDatabase(DATABASE_NAME).getCollection("persistentImageConsultation");
-
-        List<Document> results = persistentImageConsultation.aggregate(requests)
-                .into(new ArrayList<>());
+        List<Document> results = imageConsultationActivityService.listSummaries(projectId, userId);
 
         LinkedHashMap<Long, ImageInstance> imageInstancesMap = new LinkedHashMap<>();
 
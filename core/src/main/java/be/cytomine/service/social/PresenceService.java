@@ -0,0 +1,296 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.PresenceProperties;
+import be.cytomine.service.utils.PostgresNotificationChannel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of the online users, fed by the heartbeats of the users (pings, image consultations, positions).
+ * A user is online (in a project) during the ttl after its last heartbeat (in this project).
+ * The positions are also heartbeats on an image (and slice): the online users of an image are those with a position
+ * on it in a given window (shorter than the ttl).
+ * The last heartbeats are kept in memory, by user, by project and by image, and the expired ones are regularly removed:
+ * online queries only read the online users, without reading the connection history or the positions.
+ * With the POSTGRES replication, heartbeats are broadcast to the other instances (at most once per broadcastInterval
+ * for the same user, project and image), so that all the instances know the users online on any of them.
+ * An instance does not know the users seen before its start until their next broadcast heartbeat.
+ */
+@Slf4j
+@Service
+public class PresenceService {
+
+    private final PresenceProperties properties;
+
+    private final PostgresNotificationChannel channel;
+
+    // identify the messages of this instance in the channel
+    private final String instanceId = UUID.randomUUID().toString();
+
+    // user id -> time of the last heartbeat
+    private final Map<Long, Long> users = new ConcurrentHashMap<>();
+
+    // project id -> user id -> time of the last heartbeat in the project
+    private final Map<Long, Map<Long, Long>> projects = new ConcurrentHashMap<>();
+
+    // image id -> user id -> slice id -> last heartbeats on the slice
+    private final Map<Long, Map<Long, Map<Long, ImageHeartbeat>>> images = new ConcurrentHashMap<>();
+
+    // broadcast heartbeat (without instance) -> time of its last broadcast
+    private final Map<String, Long> lastBroadcasts = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    public PresenceService(ApplicationProperties applicationProperties, DataSourceProperties dataSourceProperties) {
+        this.properties = applicationProperties.getPresence();
+        this.channel = properties.getReplication() == PresenceProperties.Replication.POSTGRES
+                ? new PostgresNotificationChannel(dataSourceProperties, properties.getChannel(), this::receive)
+                : null;
+    }
+
+    @PostConstruct
+    public void start() {
+        long period = Math.max(1000, properties.getTtl().toMillis() / 10);
+        scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("presence-sweeper-"));
+        scheduler.scheduleWithFixedDelay(this::removeExpired, period, period, TimeUnit.MILLISECONDS);
+        if (channel != null) {
+            channel.start();
+        }
+        log.info("Presence uses the " + properties.getReplication() + " replication");
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (channel != null) {
+            channel.stop();
+        }
+    }
+
+    /**
+     * Record that the user is active now (in the project, if not null)
+     */
+    public void heartbeat(Long userId, Long projectId) {
+        heartbeat(userId, projectId, new Date());
+    }
+
+    /**
+     * Record that the user was active at the given date (in the project, if not null).
+     * Heartbeats older than the ttl are ignored.
+     */
+    public void heartbeat(Long userId, Long projectId, Date date) {
+        heartbeat(userId, projectId, null, null, false, date);
+    }
+
+    /**
+     * Record that the user was at the given date on the slice of the image (of the project), broadcasting its position or not.
+     * Heartbeats older than the ttl are ignored.
+     */
+    public void heartbeat(Long userId, Long projectId, Long imageId, Long sliceId, boolean broadcast, Date date) {
+        long now = System.currentTimeMillis();
+        long time = Math.min(date.getTime(), now);
+        if (time < now - properties.getTtl().toMillis()) {
+            return;
+        }
+        record(userId, projectId, imageId, sliceId, broadcast, time);
+        if (channel == null) {
+            return;
+        }
+        String heartbeat = userId + "," + format(projectId) + "," + format(imageId) + "," + format(sliceId) + "," + broadcast;
+        long interval = properties.getBroadcastInterval().toMillis();
+        boolean[] due = new boolean[1];
+        lastBroadcasts.compute(heartbeat, (key, last) -> {
+            due[0] = last == null || time - last >= interval;
+            return due[0] ? time : last;
+        });
+        if (due[0]) {
+            publish(instanceId + "," + heartbeat);
+        }
+    }
+
+    void publish(String message) {
+        channel.publish(message);
+    }
+
+    private void record(Long userId, Long projectId, Long imageId, Long sliceId, boolean broadcast, long time) {
+        users.merge(userId, time, Math::max);
+        if (projectId != null) {
+            // computed atomically with the removal of empty projects
+            projects.compute(projectId, (id, projectUsers) -> {
+                Map<Long, Long> result = projectUsers != null ? projectUsers : new ConcurrentHashMap<>();
+                result.merge(userId, time, Math::max);
+                return result;
+            });
+        }
+        if (imageId != null) {
+            ImageHeartbeat heartbeat = new ImageHeartbeat(time, broadcast ? time : 0);
+            images.compute(imageId, (id, imageUsers) -> {
+                Map<Long, Map<Long, ImageHeartbeat>> result = imageUsers != null ? imageUsers : new ConcurrentHashMap<>();
+                result.computeIfAbsent(userId, user -> new ConcurrentHashMap<>())
+                        .merge(sliceId != null ? sliceId : 0L, heartbeat, ImageHeartbeat::latest);
+                return result;
+            });
+        }
+    }
+
+    /**
+     * Heartbeat broadcast by an instance: "instance,user,project,image,slice,broadcast" (empty values if none).
+     * "instance,user,project" for the heartbeats of the instances without image presence.
+     */
+    void receive(String message) {
+        String[] values = message.split(",", -1);
+        if (values.length != 3 && values.length != 6) {
+            throw new IllegalArgumentException("expected instance,user,project,image,slice,broadcast");
+        }
+        if (values[0].equals(instanceId)) {
+            return;
+        }
+        // the heartbeat has just been sent, the local clock avoids the clock skew between instances
+        record(
+                Long.parseLong(values[1]),
+                parse(values[2]),
+                values.length == 6 ? parse(values[3]) : null,
+                values.length == 6 ? parse(values[4]) : null,
+                values.length == 6 && Boolean.parseBoolean(values[5]),
+                System.currentTimeMillis()
+        );
+    }
+
+    private static String format(Long id) {
+        return id != null ? id.toString() : "";
+    }
+
+    private static Long parse(String id) {
+        return id.isEmpty() ? null : Long.parseLong(id);
+    }
+
+    public List<Long> getOnlineUserIds() {
+        return online(users);
+    }
+
+    public List<Long> getOnlineUserIds(Long projectId) {
+        return online(projects.getOrDefault(projectId, Map.of()));
+    }
+
+    /**
+     * Users with a heartbeat on the image (and slice, if not null) since the given date, broadcasting their position
+     * or not. The date must be in the ttl.
+     */
+    public List<Long> getOnlineUserIds(Long imageId, Long sliceId, boolean broadcast, Date since) {
+        long limit = since.getTime();
+        List<Long> userIds = new ArrayList<>();
+        images.getOrDefault(imageId, Map.of()).forEach((userId, slices) -> {
+            boolean online = slices.entrySet().stream()
+                    .filter(entry -> sliceId == null || sliceId.equals(entry.getKey()))
+                    .anyMatch(entry -> (broadcast ? entry.getValue().getBroadcastTime() : entry.getValue().getTime()) >= limit);
+            if (online) {
+                userIds.add(userId);
+            }
+        });
+        return userIds;
+    }
+
+    public boolean isOnline(Long userId, Long projectId) {
+        Long time = projects.getOrDefault(projectId, Map.of()).get(userId);
+        return time != null && time >= onlineLimit();
+    }
+
+    /**
+     * Forget all the heartbeats received by this instance
+     */
+    public void clear() {
+        users.clear();
+        projects.clear();
+        images.clear();
+        lastBroadcasts.clear();
+    }
+
+    private List<Long> online(Map<Long, Long> heartbeats) {
+        long limit = onlineLimit();
+        List<Long> userIds = new ArrayList<>();
+        heartbeats.forEach((userId, time) -> {
+            if (time >= limit) {
+                userIds.add(userId);
+            }
+        });
+        return userIds;
+    }
+
+    private long onlineLimit() {
+        return System.currentTimeMillis() - properties.getTtl().toMillis();
+    }
+
+    void removeExpired() {
+        try {
+            long limit = onlineLimit();
+            users.values().removeIf(time -> time < limit);
+            for (Long projectId : projects.keySet()) {
+                projects.computeIfPresent(projectId, (id, projectUsers) -> {
+                    projectUsers.values().removeIf(time -> time < limit);
+                    return projectUsers.isEmpty() ? null : projectUsers;
+                });
+            }
+            for (Long imageId : images.keySet()) {
+                images.computeIfPresent(imageId, (id, imageUsers) -> {
+                    imageUsers.values().forEach(slices -> slices.values().removeIf(heartbeat -> heartbeat.getTime() < limit));
+                    imageUsers.values().removeIf(Map::isEmpty);
+                    return imageUsers.isEmpty() ? null : imageUsers;
+                });
+            }
+            // the next heartbeat is broadcast anyway
+            long broadcastLimit = System.currentTimeMillis() - properties.getBroadcastInterval().toMillis();
+            lastBroadcasts.values().removeIf(time -> time < broadcastLimit);
+        } catch (Exception e) {
+            log.error("Cannot remove expired heartbeats: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Times of the last heartbeat and of the last broadcasting heartbeat (0 if none) of a user on a slice
+     */
+    @Value
+    private static class ImageHeartbeat {
+
+        long time;
+
+        long broadcastTime;
+
+        ImageHeartbeat latest(ImageHeartbeat other) {
+            return new ImageHeartbeat(Math.max(time, other.time), Math.max(broadcastTime, other.broadcastTime));
+        }
+    }
+}
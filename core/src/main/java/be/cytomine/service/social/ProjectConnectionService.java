@@ -26,7 +26,6 @@ import be.cytomine.repository.AnnotationListing;
 import be.cytomine.repository.UserAnnotationListing;
 import be.cytomine.repository.project.ProjectRepository;
 import be.cytomine.repository.security.UserRepository;
-import be.cytomine.repositorynosql.social.LastConnectionRepository;
 import be.cytomine.repositorynosql.social.PersistentImageConsultationRepository;
 import be.cytomine.repositorynosql.social.PersistentProjectConnectionRepository;
 import be.cytomine.repositorynosql.social.ProjectConnectionRepository;
@@ -96,7 +95,7 @@ public class ProjectConnectionService {
     AnnotationListingService annotationListingService;
 
     @Autowired
-    LastConnectionRepository lastConnectionRepository;
+    PresenceService presenceService;
 
     @Autowired
     EntityManager entityManager;
@@ -294,7 +293,7 @@ public class ProjectConnectionService {
 
         if(connections.get(0).getTime()==null) {
             connections.set(0, ((PersistentProjectConnection)(connections.get(0)).clone()));
-            boolean online = !lastConnectionRepository.findByProjectAndUser(project.getId(), user.getId()).isEmpty();
+            boolean online = presenceService.isOnline(user.getId(), project.getId());
             fillProjectConnection(connections.get(0), new Date());
             if(online) {
                 connections.get(0).getExtraProperties().put("online", true);
@@ -0,0 +1,406 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.UserPositionProperties;
+import be.cytomine.domain.social.LastUserPosition;
+import be.cytomine.domain.social.PersistentUserPosition;
+import be.cytomine.service.stats.StatsRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Write-behind recording of the user positions.
+ * The latest positions of each (user, image, slice) recorded by this instance are kept in memory. On a single node,
+ * they are complete, so that the last position of a user is read without querying the database
+ * (the online users of an image are read from PresenceService). With several nodes, they are merged with the positions of the database (written by the other nodes),
+ * so that the positions not flushed yet are not missed.
+ * Positions are written (lastUserPosition and persistentUserPosition) by batches, on a timer or as soon as a batch is full,
+ * then added to the activity of the open image consultations. Batches that cannot be written are retried at the next
+ * flush intervals.
+ * With the SYNCHRONOUS durability, positions are written before the response and all reads are done in the database.
+ */
+@Slf4j
+@Component
+public class UserPositionBuffer {
+
+    // lastUserPosition documents expire after 60 seconds (TTL index), the positions kept in memory too
+    static final long POSITION_TTL = 60_000L;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final UserPositionProperties properties;
+
+    private final ImageConsultationActivityService imageConsultationActivityService;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("user-position-flush-"));
+
+    // imageId -> userId -> sliceId -> latest positions. The maps of an image are only modified in a compute of this map.
+    private final Map<Long, Map<Long, Map<Long, Latest>>> latest = new ConcurrentHashMap<>();
+
+    private final AtomicInteger tracked = new AtomicInteger();
+
+    // Memory is complete (all the positions of the TTL are known) after this time
+    private volatile long completeAfter;
+
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final Queue<FailedBatch> failed = new ConcurrentLinkedQueue<>();
+
+    private final StatsRegistry.Counter recorded;
+
+    private final StatsRegistry.Counter written;
+
+    private final StatsRegistry.Counter coalesced;
+
+    private final StatsRegistry.Counter flushes;
+
+    private final StatsRegistry.Counter retried;
+
+    private final StatsRegistry.Counter lost;
+
+    private final StatsRegistry.Counter memoryReads;
+
+    public UserPositionBuffer(MongoTemplate mongoTemplate, ApplicationProperties applicationProperties, ImageConsultationActivityService imageConsultationActivityService, StatsRegistry stats) {
+        this.mongoTemplate = mongoTemplate;
+        this.imageConsultationActivityService = imageConsultationActivityService;
+        this.properties = applicationProperties.getUserPosition();
+
+        this.recorded = stats.counter("userposition.buffer.recorded");
+        this.written = stats.counter("userposition.buffer.written");
+        this.coalesced = stats.counter("userposition.buffer.coalesced");
+        this.flushes = stats.counter("userposition.buffer.flushes");
+        this.retried = stats.counter("userposition.buffer.retried");
+        this.lost = stats.counter("userposition.buffer.lost");
+        this.memoryReads = stats.counter("userposition.buffer.memoryReads");
+        stats.gauge("userposition.buffer.durability", () -> properties.getDurability().name());
+        stats.gauge("userposition.buffer.pending", pendingCount::get);
+        stats.gauge("userposition.buffer.tracked", tracked::get);
+        stats.gauge("userposition.buffer.complete", this::isComplete);
+        stats.gauge("userposition.buffer.failed", failed::size);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!isWriteBehind()) {
+            return;
+        }
+        // positions recorded before the start of this instance are only in the database
+        completeAfter = System.currentTimeMillis() + POSITION_TTL;
+        long interval = properties.getFlushInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::scheduledFlush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        flush();
+        retryFailed();
+    }
+
+    public boolean isWriteBehind() {
+        return properties.getDurability() == UserPositionProperties.Durability.WRITE_BEHIND;
+    }
+
+    public void record(LastUserPosition position, PersistentUserPosition persistedPosition) {
+        recorded.increment();
+        if (!isWriteBehind()) {
+            mongoTemplate.insert(position);
+            mongoTemplate.insert(persistedPosition);
+            written.increment();
+            imageConsultationActivityService.recordPositions(List.of(persistedPosition));
+            return;
+        }
+
+        track(position);
+        pending.add(new Pending(position, persistedPosition));
+        int count = pendingCount.incrementAndGet();
+        if (count >= properties.getMaxPending()) {
+            // the flush does not keep up, the request writes the buffer itself
+            flush();
+        } else if (count >= properties.getBatchSize() && flushRequested.compareAndSet(false, true)) {
+            scheduler.execute(() -> {
+                flushRequested.set(false);
+                flush();
+            });
+        }
+    }
+
+    private void track(LastUserPosition position) {
+        latest.compute(position.getImage(), (image, users) -> {
+            Map<Long, Map<Long, Latest>> imageUsers = users != null ? users : new ConcurrentHashMap<>();
+            Map<Long, Latest> slices = imageUsers.computeIfAbsent(position.getUser(), user -> new ConcurrentHashMap<>());
+            Latest slot = slices.get(position.getSlice());
+            if (slot == null) {
+                if (tracked.get() >= properties.getMaxTracked()) {
+                    completeAfter = System.currentTimeMillis() + POSITION_TTL;
+                    if (slices.isEmpty()) {
+                        imageUsers.remove(position.getUser());
+                    }
+                    return imageUsers.isEmpty() ? null : imageUsers;
+                }
+                slot = new Latest();
+                slices.put(position.getSlice(), slot);
+                tracked.incrementAndGet();
+            }
+            slot.update(position);
+            return imageUsers;
+        });
+    }
+
+    /**
+     * True if the positions kept in memory are all the recent positions: reads do not need the database
+     */
+    public boolean isComplete() {
+        return isWriteBehind() && properties.isSingleNode() && System.currentTimeMillis() > completeAfter;
+    }
+
+    /**
+     * Latest position of the user on the image (and slice, if not null) recorded by this instance.
+     * If the memory is not complete, the position of the database may be more recent.
+     */
+    public Optional<LastUserPosition> getLastPosition(Long image, Long slice, Long user, boolean broadcast) {
+        if (!isWriteBehind()) {
+            return Optional.empty();
+        }
+        long expiration = System.currentTimeMillis() - POSITION_TTL;
+        LastUserPosition last = null;
+        Map<Long, Latest> slices = latest.getOrDefault(image, Map.of()).getOrDefault(user, Map.of());
+        for (Map.Entry<Long, Latest> entry : slices.entrySet()) {
+            if (slice != null && !slice.equals(entry.getKey())) {
+                continue;
+            }
+            LastUserPosition position = entry.getValue().get(broadcast);
+            if (position != null && position.getCreated().getTime() > expiration
+                    && (last == null || position.getCreated().after(last.getCreated()))) {
+                last = position;
+            }
+        }
+        if (last != null) {
+            memoryReads.increment();
+        }
+        return Optional.ofNullable(last);
+    }
+
+    /**
+     * Write the buffered positions of the image and forget its latest positions, before the deletion of its positions
+     */
+    public void evictImage(Long image) {
+        flush();
+        latest.computeIfPresent(image, (key, users) -> {
+            users.values().forEach(slices -> tracked.addAndGet(-slices.size()));
+            return null;
+        });
+    }
+
+    private void scheduledFlush() {
+        try {
+            retryFailed();
+            flush();
+            evictExpired();
+        } catch (Exception e) {
+            log.error("Cannot flush user positions", e);
+        }
+    }
+
+    /**
+     * Write all the buffered positions
+     */
+    public void flush() {
+        List<Pending> batch;
+        while (!(batch = poll()).isEmpty()) {
+            write(batch);
+        }
+    }
+
+    /**
+     * Write the buffered positions of the user on the image, the positions of the other users stay buffered
+     */
+    public void flush(Long user, Long image) {
+        List<Pending> matching = new ArrayList<>();
+        // single pass over the queue, a position is written by the flush that claims it first
+        pending.removeIf(p -> p.position.getUser().equals(user) && p.position.getImage().equals(image) && claim(p) && matching.add(p));
+        for (int from = 0; from < matching.size(); from += properties.getBatchSize()) {
+            write(matching.subList(from, Math.min(from + properties.getBatchSize(), matching.size())));
+        }
+    }
+
+    private List<Pending> poll() {
+        List<Pending> batch = new ArrayList<>();
+        Pending next;
+        while (batch.size() < properties.getBatchSize() && (next = pending.poll()) != null) {
+            if (claim(next)) {
+                batch.add(next);
+            }
+        }
+        return batch;
+    }
+
+    private boolean claim(Pending p) {
+        if (!p.claimed.compareAndSet(false, true)) {
+            return false;
+        }
+        pendingCount.decrementAndGet();
+        return true;
+    }
+
+    private void write(List<Pending> batch) {
+        // only the newest lastUserPosition of a (user, image, slice, broadcast) is useful
+        Map<String, LastUserPosition> positions = new LinkedHashMap<>();
+        List<PersistentUserPosition> persistedPositions = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            LastUserPosition position = p.position;
+            positions.merge(position.getUser() + "/" + position.getImage() + "/" + position.getSlice() + "/" + position.isBroadcast(),
+                    position, (a, b) -> b.getCreated().before(a.getCreated()) ? a : b);
+            persistedPositions.add(p.persistedPosition);
+        }
+
+        flushes.increment();
+        try {
+            mongoTemplate.insert(positions.values(), LastUserPosition.class);
+            mongoTemplate.insert(persistedPositions, PersistentUserPosition.class);
+            written.increment(batch.size());
+            coalesced.increment(batch.size() - positions.size());
+        } catch (Exception e) {
+            log.warn("Cannot write " + batch.size() + " user positions, they will be retried: " + e.getMessage());
+            failed.add(new FailedBatch(new ArrayList<>(positions.values()), persistedPositions, batch.size()));
+            return;
+        }
+        imageConsultationActivityService.recordPositions(persistedPositions);
+    }
+
+    /**
+     * Write again the batches that could not be written. The insert may have been partial, so positions are saved
+     * one by one (by id) to not fail again on the positions already written.
+     */
+    void retryFailed() {
+        for (int i = failed.size(); i > 0; i--) {
+            FailedBatch batch = failed.poll();
+            if (batch == null) {
+                return;
+            }
+            retried.increment();
+            try {
+                batch.positions.forEach(mongoTemplate::save);
+                batch.persistedPositions.forEach(mongoTemplate::save);
+                written.increment(batch.size);
+                coalesced.increment(batch.size - batch.positions.size());
+            } catch (Exception e) {
+                if (++batch.attempts < properties.getMaxRetries()) {
+                    failed.add(batch);
+                } else {
+                    lost.increment(batch.size);
+                    log.error("Cannot write " + batch.size + " user positions after " + batch.attempts + " retries: " + e.getMessage());
+                }
+                continue;
+            }
+            imageConsultationActivityService.recordPositions(batch.persistedPositions);
+        }
+    }
+
+    private void evictExpired() {
+        long expiration = System.currentTimeMillis() - POSITION_TTL;
+        for (Long image : latest.keySet()) {
+            latest.computeIfPresent(image, (key, users) -> {
+                users.values().removeIf(slices -> {
+                    int size = slices.size();
+                    slices.values().removeIf(slot -> slot.isExpired(expiration));
+                    tracked.addAndGet(slices.size() - size);
+                    return slices.isEmpty();
+                });
+                return users.isEmpty() ? null : users;
+            });
+        }
+    }
+
+    private static class Pending {
+
+        private final LastUserPosition position;
+
+        private final PersistentUserPosition persistedPosition;
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Pending(LastUserPosition position, PersistentUserPosition persistedPosition) {
+            this.position = position;
+            this.persistedPosition = persistedPosition;
+        }
+    }
+
+    private static class FailedBatch {
+
+        private final List<LastUserPosition> positions;
+
+        private final List<PersistentUserPosition> persistedPositions;
+
+        // number of recorded positions, before coalescing
+        private final int size;
+
+        private int attempts = 0;
+
+        FailedBatch(List<LastUserPosition> positions, List<PersistentUserPosition> persistedPositions, int size) {
+            this.positions = positions;
+            this.persistedPositions = persistedPositions;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Latest position and latest broadcast position of a user on a slice
+     */
+    private static class Latest {
+
+        private volatile LastUserPosition position;
+
+        private volatile LastUserPosition broadcastPosition;
+
+        void update(LastUserPosition newPosition) {
+            if (position == null || !newPosition.getCreated().before(position.getCreated())) {
+                position = newPosition;
+            }
+            if (newPosition.isBroadcast() && (broadcastPosition == null || !newPosition.getCreated().before(broadcastPosition.getCreated()))) {
+                broadcastPosition = newPosition;
+            }
+        }
+
+        LastUserPosition get(boolean broadcast) {
+            return broadcast ? broadcastPosition : position;
+        }
+
+        boolean isExpired(long expiration) {
+            return position.getCreated().getTime() <= expiration;
+        }
+    }
+}
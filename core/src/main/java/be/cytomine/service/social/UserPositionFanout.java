@@ -0,0 +1,144 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.service.stats.StatsRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Send the positions of broadcasters to their followers.
+ * Each follower session has a slot holding the latest position not sent yet. If a follower is slower than its broadcaster,
+ * the pending position is replaced (dropped) by the new one, so that it only receives the newest position.
+ * Sends are done by a small fixed pool, with at most one task per follower session at a time.
+ */
+@Slf4j
+@Component
+public class UserPositionFanout {
+
+    private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS, new CustomizableThreadFactory("user-position-"));
+
+    // sessionId -> slot
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+
+    private final StatsRegistry.Counter published;
+
+    private final StatsRegistry.Counter dropped;
+
+    private final StatsRegistry.Counter failures;
+
+    // between the reception of the position and its sending to a follower, counts the sent positions
+    private final StatsRegistry.Timer latency;
+
+    public UserPositionFanout(StatsRegistry stats) {
+        this.published = stats.counter("userposition.fanout.published");
+        this.dropped = stats.counter("userposition.fanout.dropped");
+        this.failures = stats.counter("userposition.fanout.failures");
+        this.latency = stats.timer("userposition.fanout.latency");
+        stats.gauge("userposition.fanout.threads", () -> THREADS);
+        stats.gauge("userposition.fanout.sessions", slots::size);
+    }
+
+    public void send(Collection<? extends WebSocketSession> sessions, TextMessage message) {
+        published.increment();
+        Pending pending = new Pending(message, System.nanoTime());
+        for (WebSocketSession session : sessions) {
+            Slot slot = slots.computeIfAbsent(session.getId(), id -> new Slot(session));
+            if (slot.latest.getAndSet(pending) != null) {
+                dropped.increment();
+            }
+            if (slot.scheduled.compareAndSet(false, true)) {
+                executor.execute(() -> flush(slot));
+            }
+        }
+    }
+
+    private void flush(Slot slot) {
+        while (true) {
+            Pending pending = slot.latest.getAndSet(null);
+            if (pending == null) {
+                slot.scheduled.set(false);
+                // a position may have been set after getAndSet, and its sender saw the slot as scheduled
+                if (slot.latest.get() == null || !slot.scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+
+            try {
+                if (slot.session.isOpen()) {
+                    slot.session.sendMessage(pending.message);
+                    latency.record(System.nanoTime() - pending.publishedAt);
+                }
+            } catch (Exception e) {
+                failures.increment();
+                log.warn("Failed to send position to session : " + slot.session.getId() + " " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Forget a closed session
+     */
+    public void remove(String sessionId) {
+        slots.remove(sessionId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static class Pending {
+
+        private final TextMessage message;
+
+        private final long publishedAt;
+
+        Pending(TextMessage message, long publishedAt) {
+            this.message = message;
+            this.publishedAt = publishedAt;
+        }
+    }
+
+    private static class Slot {
+
+        private final WebSocketSession session;
+
+        private final AtomicReference<Pending> latest = new AtomicReference<>();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Slot(WebSocketSession session) {
+            this.session = session;
+        }
+    }
+}
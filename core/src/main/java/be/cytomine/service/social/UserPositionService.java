@@ -36,7 +36,6 @@ import be.cytomine.utils.JsonObject;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.model.Accumulators;
-import com.mongodb.client.model.Projections;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.time.DateUtils;
@@ -120,6 +119,12 @@ public class UserPositionService {
     @Autowired
     SequenceService sequenceService;
 
+    @Autowired
+    UserPositionBuffer userPositionBuffer;
+
+    @Autowired
+    PresenceService presenceService;
+
 //
 //    public LastUserPosition add(User user, SliceInstance sliceInstance) {
 //
@@ -145,16 +150,17 @@ public class UserPositionService {
             Double rotation,
             Boolean broadcast) {
 
-        Optional<LastUserPosition> lastPosition = lastPositionByUser(imageInstance, sliceInstance, user, broadcast);
-
         //TODO: no ACL???
+        // both documents are in different collections, they can share the same id
+        Long id = sequenceService.generateID();
+        List<List<Double>> currentLocation = area.toMongodbLocation().getCoordinates();
+
         LastUserPosition position = new LastUserPosition();
-        position.setId(sequenceService.generateID());
+        position.setId(id);
         position.setUser(user.getId());
         position.setImage(imageInstance.getId());
         position.setSlice(sliceInstance.getId());
         position.setProject(imageInstance.getProject().getId());
-        List<List<Double>> currentLocation = area.toMongodbLocation().getCoordinates();
         position.setLocation(currentLocation);
         position.setZoom(zoom);
         position.setRotation(rotation);
@@ -162,22 +168,22 @@ public class UserPositionService {
         position.setCreated(created);
         position.setUpdated(created);
         position.setImageName(imageInstance.getBlindInstanceFilename());
-        lastUserPositionRepository.insert(position);
 
         PersistentUserPosition persistedPosition = new PersistentUserPosition();
-        persistedPosition.setId(sequenceService.generateID());
+        persistedPosition.setId(id);
         persistedPosition.setUser(user.getId());
         persistedPosition.setImage(imageInstance.getId());
         persistedPosition.setSlice(sliceInstance.getId());
         persistedPosition.setProject(imageInstance.getProject().getId());
-        persistedPosition.setLocation(area.toMongodbLocation().getCoordinates());
+        persistedPosition.setLocation(currentLocation);
         persistedPosition.setZoom(zoom);
         persistedPosition.setRotation(rotation);
         persistedPosition.setBroadcast(broadcast);
         persistedPosition.setCreated(created);
         persistedPosition.setUpdated(created);
         persistedPosition.setImageName(imageInstance.getBlindInstanceFilename());
-        persistentUserPositionRepository.insert(persistedPosition);
+        userPositionBuffer.record(position, persistedPosition);
+        presenceService.heartbeat(user.getId(), imageInstance.getProject().getId(), imageInstance.getId(), sliceInstance.getId(), Boolean.TRUE.equals(broadcast), created);
 
         return persistedPosition;
     }
@@ -218,6 +224,11 @@ public class UserPositionService {
     }
 
     private Optional<LastUserPosition> getLastUserPosition(ImageInstance image, SliceInstance slice, User user, boolean broadcast) {
+        Optional<LastUserPosition> bufferedPosition = userPositionBuffer.getLastPosition(image.getId(), slice != null ? slice.getId() : null, user.getId(), broadcast);
+        if (bufferedPosition.isPresent() && userPositionBuffer.isComplete()) {
+            return bufferedPosition;
+        }
+
         Query query = new Query();
         query.addCriteria(Criteria.where("user").is(user.getId()));
         query.addCriteria(Criteria.where("image").is(image.getId()));
@@ -231,33 +242,24 @@ public class UserPositionService {
         query.limit(1);
 
         List<LastUserPosition> lastUserPositions = mongoTemplate.find(query, LastUserPosition.class);
-        return lastUserPositions.stream().findFirst();
+        Optional<LastUserPosition> storedPosition = lastUserPositions.stream().findFirst();
+        if (bufferedPosition.isEmpty()) {
+            return storedPosition;
+        }
+        if (storedPosition.isEmpty()) {
+            return bufferedPosition;
+        }
+        // positions of this instance may not be flushed yet, those of the other instances are only in the database
+        return storedPosition.get().getCreated().after(bufferedPosition.get().getCreated()) ? storedPosition : bufferedPosition;
     }
 
+    /**
+     * Users with a position on the image (and slice, if not null) in the last 30 seconds, read from the presence registry
+     */
     public List<Long> listOnlineUsersByImage(ImageInstance image, SliceInstance slice, boolean broadcast) {
         securityACLService.check(image,READ);
         Date thirtySecondsAgo = DateUtils.addSeconds(new Date(), -30);
-
-        List<Bson> request = new ArrayList<>();
-        request.add(match(eq("image", image.getId())));
-        request.add(match(gte("created", thirtySecondsAgo)));
-        if (broadcast) {
-            request.add(match(eq("broadcast", true)));
-        }
-        if (slice!=null) {
-            request.add(match(eq("slice", slice.getId())));
-        }
-
-        request.add(project(Projections.fields(Projections.computed("user", "$user"))));
-        request.add(group("$user"));
-
-
-        MongoCollection<Document> persistentProjectConnection = mongoClient.getDatabase(DATABASE_NAME).getCollection("lastUserPosition");
-
-        List<Document> results = persistentProjectConnection.aggregate(request)
-                .into(new ArrayList<>());
-
-        return results.stream().map(x -> x.getLong("_id")).toList();
+        return presenceService.getOnlineUserIds(image.getId(), slice != null ? slice.getId() : null, broadcast, thirtySecondsAgo);
     }
 
     public List<PersistentUserPosition> list(ImageInstance image, User user, SliceInstance slice, Long afterThan, Long beforeThan, Integer max, Integer offset){
@@ -296,12 +298,9 @@ public class UserPositionService {
         String userAndImageId = userId.toString()+"/"+imageId.toString();
         List<String> followersIds = new ArrayList<>();
 
-        ConcurrentWebSocketSessionDecorator broadcastSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        if(broadcastSession!=null){
-            ConcurrentWebSocketSessionDecorator[] followers = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
-            if(followers != null) {
-                followersIds = webSocketUserPositionHandler.getSessionsUserIds(followers).stream().distinct().toList();
-            }
+        Map<String, ConcurrentWebSocketSessionDecorator> followers = WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId);
+        if(followers != null) {
+            followersIds = webSocketUserPositionHandler.getSessionsUserIds(followers.values()).stream().distinct().toList();
         }
 
         List<User> poolingUsers = broadcasters.get(userAndImageId);
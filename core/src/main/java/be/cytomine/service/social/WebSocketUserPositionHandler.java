@@ -10,7 +10,7 @@ import be.cytomine.service.CytomineWebSocketHandler;
 import be.cytomine.service.image.ImageInstanceService;
 import be.cytomine.service.image.SliceInstanceService;
 import be.cytomine.service.security.UserService;
-import be.cytomine.utils.JsonObject;
+import be.cytomine.service.stats.StatsRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -29,17 +29,24 @@ import java.util.concurrent.ConcurrentHashMap;
 @Component
 public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
 
-    public static Map<ConcurrentWebSocketSessionDecorator, ConcurrentWebSocketSessionDecorator[]> sessionsTracked = new ConcurrentHashMap<>();
+    // sessionsTracked key -> "broadcastUserId/imageId", value -> followerSessionId -> follower session
+    public static Map<String, Map<String, ConcurrentWebSocketSessionDecorator>> sessionsTracked = new ConcurrentHashMap<>();
 
-    // sessionsTracked key -> "broadcastSessionId/imageId"
+    // sessionsBroadcast key -> "broadcastUserId/imageId"
     public static Map<String, ConcurrentWebSocketSessionDecorator> sessionsBroadcast = new ConcurrentHashMap<>();
 
-    // sessions key -> "userId"
-    public static Map<String, ConcurrentWebSocketSessionDecorator[]> sessions = new ConcurrentHashMap<>();
+    // sessionsFollowing key -> "followerSessionId", value -> sessionsTracked keys followed by this session
+    public static Map<String, Set<String>> sessionsFollowing = new ConcurrentHashMap<>();
+
+    // sessions key -> "userId", value -> sessionId -> session
+    public static Map<String, Map<String, ConcurrentWebSocketSessionDecorator>> sessions = new ConcurrentHashMap<>();
 
     @Autowired
     UserPositionService userPositionService;
 
+    @Autowired
+    UserPositionFanout userPositionFanout;
+
     @Autowired
     ImageInstanceService imageInstanceService;
 
@@ -55,15 +62,20 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
     @Autowired
     UserRepository userRepository;
 
+    @Autowired
+    public void registerStats(StatsRegistry stats) {
+        stats.gauge("userposition.fanout.broadcasters", sessionsBroadcast::size);
+        stats.gauge("userposition.fanout.followers", sessionsFollowing::size);
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
-        sessions = super.afterConnectionEstablished(session, sessions);
+        ConcurrentWebSocketSessionDecorator sessionDecorator = super.afterConnectionEstablished(session, sessions);
         String userId = session.getAttributes().get("userId").toString();
         String imageId = session.getAttributes().get("imageId").toString();
         boolean broadcast = Boolean.parseBoolean(session.getAttributes().get("broadcast").toString());
 
         if(broadcast){
-            ConcurrentWebSocketSessionDecorator sessionDecorator = new ConcurrentWebSocketSessionDecorator(session, 1000, 8192);
             sessionsBroadcast.put(userId+"/"+imageId, sessionDecorator);
         }
 
@@ -76,13 +88,17 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
         if(Boolean.parseBoolean(session.getAttributes().get("broadcast").toString())){
             String userAndImageId = session.getAttributes().get("userId").toString() + '/' + session.getAttributes().get("imageId").toString();
             ConcurrentWebSocketSessionDecorator broadcastSession = sessionsBroadcast.get(userAndImageId);
-            removeFromBroadcastSession(broadcastSession);
-            removeFromTrackerSessions(broadcastSession);
+            // The broadcaster may have opened a newer session for this image
+            if(broadcastSession != null && broadcastSession.getId().equals(session.getId())){
+                sessionsBroadcast.remove(userAndImageId, broadcastSession);
+                removeFromTrackerSessions(userAndImageId);
+            }
         }
         else{
             removeSessionFromTrackerSessions(session);
         }
-        removeFromSessions(session);
+        removeSession(session, sessions);
+        userPositionFanout.remove(session.getId());
         log.debug("Closing user position WebSocket connection from {}", session.getRemoteAddress());
     }
 
@@ -99,55 +115,38 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
         boolean isNumeric = StringUtils.isNumeric(message.getPayload().toString());
 
         if (!isNumeric) {
-            Map<String, Object> payloadMap = JsonObject.toMap(payload);
             String userId = session.getAttributes().get("userId").toString();
             sendPositionToFollowers(userId, imageId, message.getPayload().toString());
             return;
         }
 
-        ConcurrentWebSocketSessionDecorator broadcastSession = sessionsBroadcast.get(payload + "/" + imageId);
+        String userAndImageId = payload + "/" + imageId;
+        ConcurrentWebSocketSessionDecorator broadcastSession = sessionsBroadcast.get(userAndImageId);
         ConcurrentWebSocketSessionDecorator followerSession = getSession(followerId, session.getId());
 
         if (broadcastSession != null && followerSession != null) {
-            addToTrackedSessions(broadcastSession, followerSession);
+            addToTrackedSessions(userAndImageId, followerSession);
         }
 
         moveFollowerAfterInitialConnection(Long.parseLong(payload), Long.parseLong(imageId), session);
     }
 
     private ConcurrentWebSocketSessionDecorator getSession(String followerId, String sessionId){
-        ConcurrentWebSocketSessionDecorator followerSession = null;
-        ConcurrentWebSocketSessionDecorator[] followerSessions = WebSocketUserPositionHandler.sessions.get(followerId);
-
-        try {
-            followerSession = Arrays.stream(followerSessions).filter(session -> session.getId().equals(sessionId)).toList().get(0);
-        }catch (NullPointerException e){
+        Map<String, ConcurrentWebSocketSessionDecorator> followerSessions = WebSocketUserPositionHandler.sessions.get(followerId);
+        ConcurrentWebSocketSessionDecorator followerSession = followerSessions != null ? followerSessions.get(sessionId) : null;
+        if (followerSession == null) {
             log.error("Follower : " + followerId + " has no session with id : " + sessionId);
         }
         return followerSession;
     }
 
-    private void addToTrackedSessions(ConcurrentWebSocketSessionDecorator broadcastSession, ConcurrentWebSocketSessionDecorator trackingSession){
-        if (WebSocketUserPositionHandler.sessionsTracked.containsKey(broadcastSession)) {
-            ConcurrentWebSocketSessionDecorator[] trackedSessions = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
-
-            boolean alreadyContainsSession = false;
-            for (ConcurrentWebSocketSessionDecorator trackedSession : trackedSessions) {
-                if (trackedSession.getId().equals(trackingSession.getId())) {
-                    alreadyContainsSession = true;
-                    break;
-                }
-            }
-
-            if(!alreadyContainsSession){
-                trackedSessions = addSession(trackedSessions, trackingSession);
-            }
-
-            WebSocketUserPositionHandler.sessionsTracked.replace(broadcastSession, WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession), trackedSessions);
-        } else {
-            ConcurrentWebSocketSessionDecorator[] trackingSessions = new ConcurrentWebSocketSessionDecorator[]{trackingSession};
-            WebSocketUserPositionHandler.sessionsTracked.put(broadcastSession, trackingSessions);
-        }
+    private void addToTrackedSessions(String userAndImageId, ConcurrentWebSocketSessionDecorator trackingSession){
+        WebSocketUserPositionHandler.sessionsTracked
+                .computeIfAbsent(userAndImageId, key -> new ConcurrentHashMap<>())
+                .putIfAbsent(trackingSession.getId(), trackingSession);
+        WebSocketUserPositionHandler.sessionsFollowing
+                .computeIfAbsent(trackingSession.getId(), key -> ConcurrentHashMap.newKeySet())
+                .add(userAndImageId);
     }
 
     private void moveFollowerAfterInitialConnection(Long userId, Long imageId, WebSocketSession session) {
@@ -178,22 +177,9 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
     }
 
     public void sendPositionToFollowers(String userId, String imageId, String position) throws ServerException {
-        String userAndImageId = userId+"/"+imageId;
-        if(WebSocketUserPositionHandler.sessionsBroadcast.containsKey(userAndImageId)){
-            ConcurrentWebSocketSessionDecorator broadcastSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-            ConcurrentWebSocketSessionDecorator[] sessions = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
-            if(sessions != null){
-                sendPosition(sessions, position);
-            }
-        }
-    }
-
-    private void sendPosition(ConcurrentWebSocketSessionDecorator[] sessions, String position){
-        TextMessage message = new TextMessage(position);
-        for(ConcurrentWebSocketSessionDecorator s : sessions){
-            new Thread(() -> {
-                sendPosition(s, message);
-            }).start();
+        Map<String, ConcurrentWebSocketSessionDecorator> followers = WebSocketUserPositionHandler.sessionsTracked.get(userId+"/"+imageId);
+        if(followers != null && !followers.isEmpty()){
+            userPositionFanout.send(followers.values(), new TextMessage(position));
         }
     }
 
@@ -201,95 +187,43 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
         super.sendWebSocketMessage(session, position);
     }
 
-    public List<String> getSessionsUserIds(ConcurrentWebSocketSessionDecorator[] sessions){
+    public List<String> getSessionsUserIds(Collection<ConcurrentWebSocketSessionDecorator> sessions){
         List<String> userIds = new ArrayList<>();
         for(ConcurrentWebSocketSessionDecorator s : sessions){
-            String userId = getSessionUserId(s);
-            if(!userId.isEmpty()){
-                userIds.add(userId);
-            }
+            userIds.add(s.getAttributes().get("userId").toString());
         }
         return userIds;
     }
 
-    private String getSessionUserId(ConcurrentWebSocketSessionDecorator session){
-        String userId = "";
-        loop:
-        for(Map.Entry<String, ConcurrentWebSocketSessionDecorator[]> entry : WebSocketUserPositionHandler.sessions.entrySet()){
-            for(ConcurrentWebSocketSessionDecorator sessionDecorator : entry.getValue()){
-
-                if(sessionDecorator.getId().equals(session.getId())){
-                    System.out.println("Find user !");
-                    userId = entry.getKey();
-                    break loop;
-                }
-
-            }
-        }
-        return userId;
-    }
-
     private void removeSessionFromTrackerSessions(WebSocketSession session) {
         log.debug("Remove this tracking session from tracked sessions");
-        for (Map.Entry<ConcurrentWebSocketSessionDecorator, ConcurrentWebSocketSessionDecorator[]> entry : WebSocketUserPositionHandler.sessionsTracked.entrySet()) {
-
-            for(ConcurrentWebSocketSessionDecorator trackedSession : entry.getValue()){
-                if(trackedSession.getId().equals(session.getId())){
-                    removeSessionFromTrackerSessions(session, entry.getKey());
-                }
-            }
+        Set<String> followed = WebSocketUserPositionHandler.sessionsFollowing.remove(session.getId());
+        if (followed == null) {
+            return;
         }
-    }
-
-    private void removeSessionFromTrackerSessions(WebSocketSession session, ConcurrentWebSocketSessionDecorator trackedSession){
-        ConcurrentWebSocketSessionDecorator[] oldSessions = WebSocketUserPositionHandler.sessionsTracked.get(trackedSession);
-        ConcurrentWebSocketSessionDecorator[] newSessions = removeSession(oldSessions, session);
-        WebSocketUserPositionHandler.sessionsTracked.replace(trackedSession, oldSessions, newSessions);
-    }
-
-    private void removeFromSessions(WebSocketSession session) {
-        for (Map.Entry<String, ConcurrentWebSocketSessionDecorator[]> entry : WebSocketUserPositionHandler.sessions.entrySet()) {
-
-            for(ConcurrentWebSocketSessionDecorator trackedSession : entry.getValue()){
-                if(trackedSession.getId().equals(session.getId())){
-                    String userId = entry.getKey();
-                    ConcurrentWebSocketSessionDecorator[] oldSessions = WebSocketUserPositionHandler.sessions.get(userId);
-                    ConcurrentWebSocketSessionDecorator[] newSessions = removeSession(oldSessions, session);
-                    WebSocketUserPositionHandler.sessions.replace(userId, oldSessions, newSessions);
-                }
+        for (String userAndImageId : followed) {
+            Map<String, ConcurrentWebSocketSessionDecorator> trackingSessions = WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId);
+            if (trackingSessions != null) {
+                trackingSessions.remove(session.getId());
             }
         }
     }
 
-    private void removeFromTrackerSessions(ConcurrentWebSocketSessionDecorator broadcastSession){
+    private void removeFromTrackerSessions(String userAndImageId){
         log.debug("Remove this broadcast session from tracked sessions");
-        ConcurrentWebSocketSessionDecorator[] sessionDecorators = WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession);
+        Map<String, ConcurrentWebSocketSessionDecorator> sessionDecorators = WebSocketUserPositionHandler.sessionsTracked.remove(userAndImageId);
         if(sessionDecorators != null){
-            sendNotificationsAndCloseSessions(List.of(sessionDecorators));
-        }
-        WebSocketUserPositionHandler.sessionsTracked.remove(broadcastSession);
-    }
-
-    private void removeFromBroadcastSession(ConcurrentWebSocketSessionDecorator broadcastSession){
-        log.debug("Remove this broadcast session from broadcast sessions");
-        for(Map.Entry<String, ConcurrentWebSocketSessionDecorator> entry : WebSocketUserPositionHandler.sessionsBroadcast.entrySet()){
-            if(entry.getValue().getId().equals(broadcastSession.getId())){
-                WebSocketUserPositionHandler.sessionsBroadcast.remove(entry.getKey());
-            }
-        }
-    }
-
-    private ConcurrentWebSocketSessionDecorator[] removeSession(ConcurrentWebSocketSessionDecorator[] oldSessions, WebSocketSession oldSession){
-        ConcurrentWebSocketSessionDecorator[] newSessions = new ConcurrentWebSocketSessionDecorator[oldSessions.length - 1];
-        for(int i=0; i < oldSessions.length; i++){
-            if(!oldSessions[i].getId().equals(oldSession.getId())){
-                newSessions[i] = oldSessions[i];
+            for (ConcurrentWebSocketSessionDecorator sessionDecorator : sessionDecorators.values()) {
+                Set<String> followed = WebSocketUserPositionHandler.sessionsFollowing.get(sessionDecorator.getId());
+                if (followed != null) {
+                    followed.remove(userAndImageId);
+                }
             }
+            sendNotificationsAndCloseSessions(sessionDecorators.values());
         }
-        return newSessions;
     }
 
-    private void sendNotificationsAndCloseSessions(List<ConcurrentWebSocketSessionDecorator> sessionDecorators){
+    private void sendNotificationsAndCloseSessions(Collection<ConcurrentWebSocketSessionDecorator> sessionDecorators){
         for(ConcurrentWebSocketSessionDecorator sessionDecorator : sessionDecorators){
             if(sessionDecorator.isOpen()){
                 try{
@@ -311,4 +245,3 @@ public class WebSocketUserPositionHandler extends CytomineWebSocketHandler {
         }*/
     }
 }
-
@@ -0,0 +1,163 @@
+package be.cytomine.service.stats;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+import be.cytomine.config.properties.ActivityRollupProperties;
+import be.cytomine.config.properties.ApplicationProperties;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Tuple;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TimeZone;
+
+/**
+ * Daily rollup of the project activity (table project_daily_activity), so that the evolution statistics of past days
+ * are read from one row per project and day instead of one row per annotation.
+ * The rollup is refreshed incrementally: each refresh only recomputes the days since the previous refresh
+ * (minus a few days, see ActivityRollupProperties.recomputeDays).
+ * Days are those of ActivityRollupProperties.zone, whatever the zone of the database session or of the JVM.
+ */
+@Slf4j
+@Service
+@Transactional
+public class ProjectActivityRollupService {
+
+    public enum Kind {
+        ANNOTATION("user_annotation"),
+        REVIEWED_ANNOTATION("reviewed_annotation");
+
+        private final String table;
+
+        Kind(String table) {
+            this.table = table;
+        }
+    }
+
+    private final EntityManager entityManager;
+
+    private final ActivityRollupProperties properties;
+
+    public ProjectActivityRollupService(EntityManager entityManager, ApplicationProperties applicationProperties) {
+        this.entityManager = entityManager;
+        this.properties = applicationProperties.getActivityRollup();
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public ZoneId getZone() {
+        return properties.getZone();
+    }
+
+    public LocalDate today() {
+        return LocalDate.now(getZone());
+    }
+
+    /**
+     * Recompute the rollup of the days since the last refresh, up to yesterday (included)
+     * @return false if another refresh of this kind is running
+     */
+    public boolean refresh(Kind kind, LocalDate today) {
+        boolean locked = (Boolean) entityManager.createNativeQuery("SELECT pg_try_advisory_xact_lock(hashtext(:key))")
+                .setParameter("key", "project_daily_activity_" + kind.name())
+                .getSingleResult();
+        if (!locked) {
+            return false;
+        }
+
+        Optional<LocalDate> refreshedUntil = getRefreshedUntil(kind);
+        LocalDate from = refreshedUntil.map(day -> day.minusDays(properties.getRecomputeDays())).orElse(LocalDate.of(1970, 1, 1));
+
+        entityManager.createNativeQuery("DELETE FROM project_daily_activity WHERE kind = :kind AND day >= :from")
+                .setParameter("kind", kind.name())
+                .setParameter("from", from)
+                .executeUpdate();
+        // created is a timestamp without time zone, written in the zone of the JVM
+        int days = entityManager.createNativeQuery(
+                "INSERT INTO project_daily_activity(project_id, kind, day, count) " +
+                "SELECT project_id, :kind, CAST((created AT TIME ZONE :storageZone) AT TIME ZONE :zone AS date), COUNT(*) FROM " + kind.table + " " +
+                "WHERE created >= :from AND created < :today " +
+                "GROUP BY 1, 3")
+                .setParameter("kind", kind.name())
+                .setParameter("storageZone", TimeZone.getDefault().getID())
+                .setParameter("zone", getZone().getId())
+                .setParameter("from", startOf(from))
+                .setParameter("today", startOf(today))
+                .executeUpdate();
+        entityManager.createNativeQuery(
+                "INSERT INTO project_daily_activity_state(kind, refreshed_until) VALUES (:kind, :today) " +
+                "ON CONFLICT (kind) DO UPDATE SET refreshed_until = EXCLUDED.refreshed_until")
+                .setParameter("kind", kind.name())
+                .setParameter("today", today)
+                .executeUpdate();
+
+        log.debug("Activity rollup {} refreshed from {} to {}: {} project days", kind, from, today, days);
+        return true;
+    }
+
+    /**
+     * Start of the day in the zone of the rollup
+     */
+    public Date startOf(LocalDate day) {
+        return Date.from(day.atStartOfDay(getZone()).toInstant());
+    }
+
+    /**
+     * Days before the returned one are complete in the rollup
+     */
+    @Transactional(readOnly = true)
+    public Optional<LocalDate> getRefreshedUntil(Kind kind) {
+        List<?> rows = entityManager.createNativeQuery(
+                "SELECT to_char(refreshed_until, 'YYYY-MM-DD') FROM project_daily_activity_state WHERE kind = :kind")
+                .setParameter("kind", kind.name())
+                .getResultList();
+        return rows.stream().findFirst().map(day -> LocalDate.parse((String) day));
+    }
+
+    /**
+     * Number of items created in the project for each day of [from, until), by number of days since from
+     */
+    @Transactional(readOnly = true)
+    public Map<Long, Long> countByDay(Kind kind, Long projectId, LocalDate from, LocalDate until) {
+        Map<Long, Long> counts = new HashMap<>();
+        if (!from.isBefore(until)) {
+            return counts;
+        }
+        List<Tuple> rows = entityManager.unwrap(Session.class).createNativeQuery(
+                "SELECT day - CAST(:from AS date) AS offset_days, count FROM project_daily_activity " +
+                "WHERE project_id = :project AND kind = :kind AND day >= :from AND day < :until", Tuple.class)
+                .setParameter("from", from)
+                .setParameter("until", until)
+                .setParameter("project", projectId)
+                .setParameter("kind", kind.name())
+                .getResultList();
+        for (Tuple row : rows) {
+            counts.put(((Number) row.get("offset_days")).longValue(), ((Number) row.get("count")).longValue());
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,73 @@
+package be.cytomine.service.stats;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+import be.cytomine.config.properties.ActivityRollupProperties;
+import be.cytomine.config.properties.ApplicationProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically refresh the daily activity rollup (see ProjectActivityRollupService)
+ */
+@Slf4j
+@Component
+public class ProjectActivityRollupWorker {
+
+    private final ProjectActivityRollupService projectActivityRollupService;
+
+    private final ActivityRollupProperties properties;
+
+    private ScheduledExecutorService scheduler;
+
+    public ProjectActivityRollupWorker(ProjectActivityRollupService projectActivityRollupService, ApplicationProperties applicationProperties) {
+        this.projectActivityRollupService = projectActivityRollupService;
+        this.properties = applicationProperties.getActivityRollup();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        long interval = properties.getRefreshInterval().toMillis();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(this::refreshAll, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void refreshAll() {
+        for (ProjectActivityRollupService.Kind kind : ProjectActivityRollupService.Kind.values()) {
+            try {
+                projectActivityRollupService.refresh(kind, projectActivityRollupService.today());
+            } catch (Exception e) {
+                log.error("Cannot refresh activity rollup " + kind, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package be.cytomine.service.stats;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.utils.JsonObject;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runtime metrics of this instance (caches, workers, buffers, locks), exposed to admins by /stats/runtime.json.
+ * Meters are named with dot-separated prefixes ("imageserver.cache.hits"), so that the metrics of a component can be
+ * requested together. Registering a counter or timer again returns the existing one, registering a gauge replaces it.
+ */
+@Component
+public class StatsRegistry {
+
+    private final Map<String, Meter> meters = new ConcurrentSkipListMap<>();
+
+    public Counter counter(String name) {
+        return register(name, Counter.class, new Counter());
+    }
+
+    public Timer timer(String name) {
+        return register(name, Timer.class, new Timer());
+    }
+
+    public void gauge(String name, Supplier<?> value) {
+        meters.put(name, (key, into) -> into.put(key, value.get()));
+    }
+
+    /**
+     * @return Value of a counter or a gauge, null if there is no such meter
+     */
+    public Object get(String name) {
+        return snapshot(name).get(name);
+    }
+
+    /**
+     * @return Values of the meters named prefix or prefix.*, all of them if the prefix is null or empty
+     */
+    public JsonObject snapshot(String prefix) {
+        JsonObject values = new JsonObject();
+        meters.forEach((name, meter) -> {
+            if (prefix == null || prefix.isEmpty() || name.equals(prefix) || name.startsWith(prefix + ".")) {
+                meter.export(name, values);
+            }
+        });
+        return values;
+    }
+
+    private <T extends Meter> T register(String name, Class<T> type, T meter) {
+        Meter registered = meters.computeIfAbsent(name, key -> meter);
+        if (!type.isInstance(registered)) {
+            throw new IllegalArgumentException("Meter " + name + " is already registered with another type");
+        }
+        return type.cast(registered);
+    }
+
+    private interface Meter {
+        void export(String name, JsonObject into);
+    }
+
+    /**
+     * Monotonic count, cheap to increment from many threads
+     */
+    public static class Counter implements Meter {
+
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void increment(long amount) {
+            count.add(amount);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        @Override
+        public void export(String name, JsonObject into) {
+            into.put(name, count());
+        }
+    }
+
+    /**
+     * Count, mean and max of recorded durations, exported in milliseconds as name.count, name.mean and name.max
+     */
+    public static class Timer implements Meter {
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder total = new LongAdder();
+
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        @Override
+        public void export(String name, JsonObject into) {
+            long count = count();
+            into.put(name + ".count", count);
+            into.put(name + ".mean", count == 0 ? 0.0 : total.sum() / 1e6 / count);
+            into.put(name + ".max", max.get() / 1e6);
+        }
+    }
+}
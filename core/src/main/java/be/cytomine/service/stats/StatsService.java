@@ -25,6 +25,7 @@ import be.cytomine.domain.social.AnnotationAction;
 import be.cytomine.domain.social.PersistentImageConsultation;
 import be.cytomine.domain.social.PersistentProjectConnection;
 import be.cytomine.dto.StorageStats;
+import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.repository.ontology.RelationRepository;
 import be.cytomine.repository.ontology.TermRepository;
 import be.cytomine.repository.ontology.UserAnnotationRepository;
@@ -34,13 +35,18 @@ import be.cytomine.service.project.ProjectService;
 import be.cytomine.service.security.UserService;
 import be.cytomine.service.security.SecurityACLService;
 import be.cytomine.utils.JsonObject;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
 import jakarta.persistence.TypedQuery;
 import jakarta.persistence.criteria.*;
 
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -49,6 +55,8 @@ import jakarta.persistence.Tuple;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -59,6 +67,8 @@ import static org.springframework.security.acls.domain.BasePermission.READ;
 @Transactional
 public class StatsService {
 
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
     @Autowired
     EntityManager entityManager;
 
@@ -89,6 +99,9 @@ public class StatsService {
     @Autowired
     private CurrentUserService currentUserService;
 
+    @Autowired
+    private ProjectActivityRollupService projectActivityRollupService;
+
     public Long total(Class domain) {
         return entityManager.createQuery("SELECT COUNT(*) FROM " + domain.getName(), Long.class).getSingleResult();
     }
@@ -139,18 +152,19 @@ public class StatsService {
 
     public List<JsonObject> statAnnotationEvolution(Project project, Term term, int daysRange, Date startDate, Date endDate, boolean reverseOrder, boolean accumulate) {
         securityACLService.check(project, READ);
-        String request = "SELECT created " +
-                "FROM UserAnnotation " +
-                "WHERE project.id = " + project.getId() + " " +
-                (term != null ? "AND id IN (SELECT userAnnotation.id FROM AnnotationTerm WHERE term.id = " + term.getId() + ") " : "") +
-                (startDate != null ? " AND created > cast(date('" + startDate + "') as timestamp)" : "") +
-                (endDate != null ? " AND created < cast(date('" + endDate + "') as timestamp)" : "") +
-                " ORDER BY created ASC";
-
-
-        List<Date> annotationsDates = entityManager.createQuery(request, Date.class).getResultList();
-
-        List<JsonObject> data = aggregateByPeriods(annotationsDates, daysRange, (startDate == null ? project.getCreated() : startDate), (endDate == null ? new Date() : endDate), accumulate);
+        List<JsonObject> data;
+        if (term == null && projectActivityRollupService.isEnabled()) {
+            data = rollupEvolution(ProjectActivityRollupService.Kind.ANNOTATION, "user_annotation", project, daysRange, startDate, endDate, accumulate);
+        } else {
+            Map<String, Object> parameters = new HashMap<>();
+            String where = "project_id = :project" +
+                    (term != null ? " AND id IN (SELECT user_annotation_id FROM annotation_term WHERE term_id = :term)" : "");
+            parameters.put("project", project.getId());
+            if (term != null) {
+                parameters.put("term", term.getId());
+            }
+            data = evolution("user_annotation", where, parameters, project, daysRange, startDate, endDate, accumulate);
+        }
         if (reverseOrder) {
             Collections.reverse(data);
         }
@@ -160,18 +174,19 @@ public class StatsService {
 
     public List<JsonObject> statReviewedAnnotationEvolution(Project project, Term term, int daysRange, Date startDate, Date endDate, boolean reverseOrder, boolean accumulate) {
         securityACLService.check(project, READ);
-
-        String request = "SELECT created " +
-                "FROM reviewed_annotation " +
-                "WHERE project_id = " + project.getId() + " " +
-                (term != null ? "AND id IN (SELECT reviewed_annotation_terms_id FROM reviewed_annotation_term WHERE term_id = " + term.getId() + ") " : "") +
-                (startDate != null ? "AND created > '" + startDate + "'" : "") +
-                (endDate != null ? "AND created < '" + endDate + "'" : "") +
-                "ORDER BY created ASC";
-
-        List<java.util.Date> annotationsDates = entityManager.createNativeQuery(request).getResultList();
-
-        List<JsonObject> data = aggregateByPeriods(annotationsDates, daysRange, (startDate == null ? project.getCreated() : startDate), (endDate == null ? new Date() : endDate), accumulate);
+        List<JsonObject> data;
+        if (term == null && projectActivityRollupService.isEnabled()) {
+            data = rollupEvolution(ProjectActivityRollupService.Kind.REVIEWED_ANNOTATION, "reviewed_annotation", project, daysRange, startDate, endDate, accumulate);
+        } else {
+            Map<String, Object> parameters = new HashMap<>();
+            String where = "project_id = :project" +
+                    (term != null ? " AND id IN (SELECT reviewed_annotation_terms_id FROM reviewed_annotation_term WHERE term_id = :term)" : "");
+            parameters.put("project", project.getId());
+            if (term != null) {
+                parameters.put("term", term.getId());
+            }
+            data = evolution("reviewed_annotation", where, parameters, project, daysRange, startDate, endDate, accumulate);
+        }
         if (reverseOrder) {
             Collections.reverse(data);
         }
@@ -531,93 +546,168 @@ public class StatsService {
 
     public List<JsonObject> statConnectionsEvolution(Project project, int daysRange, Date startDate, Date endDate, boolean accumulate) {
         securityACLService.check(project, READ);
-        Query query = new Query();
-        query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("project").is(project.getId()));
-        if (startDate != null && endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate).lte(endDate));
-        } else if (startDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate));
-        } else if (endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").lte(endDate));
-        }
-        query.with(Sort.by(Sort.Direction.ASC, "created"));
-
-        List<PersistentProjectConnection> persistentProjectConnections = mongoTemplate.find(query, PersistentProjectConnection.class);
-        List<Date> createdDates = persistentProjectConnections.stream().map(x -> x.getCreated()).collect(Collectors.toList());
-        return this.aggregateByPeriods(createdDates, daysRange, (startDate == null ? project.getCreated() : startDate), (endDate == null ? new Date() : endDate), accumulate);
+        return mongoEvolution(PersistentProjectConnection.class, mongoFilters(project, startDate, endDate), project, daysRange, startDate, endDate, accumulate);
     }
 
 
     public List<JsonObject> statImageConsultationsEvolution(Project project, int daysRange, Date startDate, Date endDate, boolean accumulate) {
         securityACLService.check(project, READ);
-        Query query = new Query();
-        query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("project").is(project.getId()));
-        if (startDate != null && endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate).lte(endDate));
-        } else if (startDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate));
-        } else if (endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").lte(endDate));
-        }
-        query.with(Sort.by(Sort.Direction.ASC, "created"));
-
-        List<PersistentImageConsultation> persistentProjectConnections = mongoTemplate.find(query, PersistentImageConsultation.class);
-        List<Date> createdDates = persistentProjectConnections.stream().map(x -> x.getCreated()).collect(Collectors.toList());
-        return this.aggregateByPeriods(createdDates, daysRange, (startDate == null ? project.getCreated() : startDate), (endDate == null ? new Date() : endDate), accumulate);
+        return mongoEvolution(PersistentImageConsultation.class, mongoFilters(project, startDate, endDate), project, daysRange, startDate, endDate, accumulate);
     }
 
     public List<JsonObject> statAnnotationActionsEvolution(Project project, int daysRange, Date startDate, Date endDate, boolean accumulate, String type) {
         securityACLService.check(project, READ);
-        Query query = new Query();
-        query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("project").is(project.getId()));
-        if (startDate != null && endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate).lte(endDate));
-        } else if (startDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").gte(startDate));
-        } else if (endDate != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("created").lte(endDate));
-        }
+        List<Bson> filters = mongoFilters(project, startDate, endDate);
         if (type != null) {
-            query.addCriteria(org.springframework.data.mongodb.core.query.Criteria.where("action").is(type));
+            filters.add(Filters.eq("action", type));
         }
-        query.with(Sort.by(Sort.Direction.ASC, "created"));
+        return mongoEvolution(AnnotationAction.class, filters, project, daysRange, startDate, endDate, accumulate);
+    }
 
-        List<AnnotationAction> persistentProjectConnections = mongoTemplate.find(query, AnnotationAction.class);
-        List<Date> createdDates = persistentProjectConnections.stream().map(x -> x.getCreated()).collect(Collectors.toList());
-        return this.aggregateByPeriods(createdDates, daysRange, (startDate == null ? project.getCreated() : startDate), (endDate == null ? new Date() : endDate), accumulate);
+    private List<Bson> mongoFilters(Project project, Date startDate, Date endDate) {
+        List<Bson> filters = new ArrayList<>();
+        filters.add(Filters.eq("project", project.getId()));
+        if (startDate != null) {
+            filters.add(Filters.gte("created", startDate));
+        }
+        if (endDate != null) {
+            filters.add(Filters.lte("created", endDate));
+        }
+        return filters;
     }
 
+    /**
+     * Evolution of the number of rows of the table matching the condition, counted by the database
+     */
+    private List<JsonObject> evolution(String table, String where, Map<String, Object> parameters, Project project, int daysRange, Date startDate, Date endDate, boolean accumulate) {
+        Date origin = (startDate == null ? project.getCreated() : startDate);
+        if (startDate != null) {
+            where += " AND created > :startDate";
+            parameters.put("startDate", startDate);
+        }
+        if (endDate != null) {
+            where += " AND created < :endDate";
+            parameters.put("endDate", endDate);
+        }
+        Map<Long, Long> counts = countByPeriods(table, where, parameters, origin, daysRange);
+        return aggregateByPeriods(counts, daysRange, origin, (endDate == null ? new Date() : endDate), accumulate);
+    }
 
-    private List<JsonObject> aggregateByPeriods(List<Date> creationDates, int daysRange, Date startDate, Date endDate, boolean accumulate) {
-        List<JsonObject> data = new ArrayList<>();
-        int nbItems = creationDates.size();
-        int count = 0;
-        int idx = 0;
+    /**
+     * Evolution aligned on days: full past days are read from the daily rollup, the others from the table.
+     */
+    private List<JsonObject> rollupEvolution(ProjectActivityRollupService.Kind kind, String table, Project project, int daysRange, Date startDate, Date endDate, boolean accumulate) {
+        checkDaysRange(daysRange);
+        ZoneId zone = projectActivityRollupService.getZone();
+        LocalDate originDay = (startDate == null ? project.getCreated() : startDate).toInstant().atZone(zone).toLocalDate();
+        Date end = (endDate == null ? new Date() : endDate);
+        LocalDate rollupUntil = end.toInstant().atZone(zone).toLocalDate();
+        Optional<LocalDate> refreshedUntil = projectActivityRollupService.getRefreshedUntil(kind);
+        if (refreshedUntil.isEmpty() || refreshedUntil.get().isBefore(originDay)) {
+            rollupUntil = originDay;
+        } else if (refreshedUntil.get().isBefore(rollupUntil)) {
+            rollupUntil = refreshedUntil.get();
+        }
+
+        Map<Long, Long> counts = new HashMap<>();
+        projectActivityRollupService.countByDay(kind, project.getId(), originDay, rollupUntil)
+                .forEach((days, count) -> counts.merge(days / daysRange, count, Long::sum));
+
+        Date origin = projectActivityRollupService.startOf(originDay);
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("project", project.getId());
+        parameters.put("liveFrom", projectActivityRollupService.startOf(rollupUntil));
+        String where = "project_id = :project AND created >= :liveFrom";
+        if (endDate != null) {
+            where += " AND created < :endDate";
+            parameters.put("endDate", endDate);
+        }
+        countByPeriods(table, where, parameters, origin, daysRange)
+                .forEach((period, count) -> counts.merge(period, count, Long::sum));
+
+        return aggregateByPeriods(counts, daysRange, origin, end, accumulate);
+    }
+
+    /**
+     * Number of rows by period of daysRange days since origin (date_bin), rows before origin are in period 0
+     */
+    private Map<Long, Long> countByPeriods(String table, String where, Map<String, Object> parameters, Date origin, int daysRange) {
+        checkDaysRange(daysRange);
+        String request = "SELECT GREATEST(0, CAST(EXTRACT(EPOCH FROM date_bin(CAST(:stride AS interval), created, CAST(:origin AS timestamp)) - CAST(:origin AS timestamp)) / :strideSeconds AS bigint)) AS period, " +
+                "COUNT(*) AS size " +
+                "FROM " + table + " " +
+                "WHERE " + where + " " +
+                "GROUP BY 1";
+        NativeQuery<Tuple> query = entityManager.unwrap(Session.class).createNativeQuery(request, Tuple.class)
+                .setParameter("stride", daysRange + " days")
+                .setParameter("origin", origin)
+                .setParameter("strideSeconds", daysRange * 86400L);
+        parameters.forEach(query::setParameter);
+
+        Map<Long, Long> counts = new HashMap<>();
+        for (Tuple row : query.getResultList()) {
+            counts.merge(((Number) row.get("period")).longValue(), ((Number) row.get("size")).longValue(), Long::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * Evolution of the number of documents of the collection matching the filters, counted by Mongo.
+     * Documents are only projected to their period before being grouped.
+     */
+    private List<JsonObject> mongoEvolution(Class<?> collection, List<Bson> filters, Project project, int daysRange, Date startDate, Date endDate, boolean accumulate) {
+        checkDaysRange(daysRange);
+        Date origin = (startDate == null ? project.getCreated() : startDate);
+        Document period = new Document("$max", List.of(0, new Document("$floor", new Document("$divide", List.of(
+                new Document("$subtract", List.of("$created", origin)),
+                daysRange * DAY_IN_MILLIS)))));
+
+        List<Bson> requests = List.of(
+                Aggregates.match(Filters.and(filters)),
+                Aggregates.project(new Document("_id", 0).append("period", period)),
+                Aggregates.group("$period", Accumulators.sum("size", 1))
+        );
+        List<Document> results = mongoTemplate.getCollection(mongoTemplate.getCollectionName(collection))
+                .aggregate(requests)
+                .into(new ArrayList<>());
+
+        Map<Long, Long> counts = new HashMap<>();
+        for (Document result : results) {
+            counts.merge(((Number) result.get("_id")).longValue(), ((Number) result.get("size")).longValue(), Long::sum);
+        }
+        return aggregateByPeriods(counts, daysRange, origin, (endDate == null ? new Date() : endDate), accumulate);
+    }
 
-        java.util.Date current = startDate;
-        Long endTime = endDate.getTime();
-        Calendar cal = Calendar.getInstance();
+    private void checkDaysRange(int daysRange) {
+        if (daysRange < 1) {
+            throw new WrongArgumentException("daysRange must be greater than 0");
+        }
+    }
+
+    /**
+     * Build the periods of daysRange days between startDate and endDate, with the number of items of each period
+     * @param countsByPeriod Number of items by period index
+     */
+    private List<JsonObject> aggregateByPeriods(Map<Long, Long> countsByPeriod, int daysRange, Date startDate, Date endDate, boolean accumulate) {
+        List<JsonObject> data = new ArrayList<>();
+        long count = 0;
+        long period = 0;
+        long stride = daysRange * DAY_IN_MILLIS;
+        long current = startDate.getTime();
+        long endTime = endDate.getTime();
 
         //for each period (of duration daysRange), compute the number of items
-        while (current.getTime() <= endTime) {
+        while (current <= endTime) {
             JsonObject item = new JsonObject();
-            item.put("date", current.getTime());
-
-            //add a new step
-            cal.setTime(current);
-            cal.add(Calendar.DATE, daysRange);
-            current = cal.getTime();
+            item.put("date", current);
+            current += stride;
 
             if (!accumulate) {
                 count = 0;
             }
+            count += countsByPeriod.getOrDefault(period++, 0L);
 
-            while (idx < nbItems && creationDates.get(idx).getTime() < current.getTime()) {
-                idx++;
-                count++;
-            }
-
-            item.put("endDate", Math.min(current.getTime(), endTime));
+            item.put("endDate", Math.min(current, endTime));
             item.put("size", count);
             data.add(item);
         }
@@ -0,0 +1,98 @@
+package be.cytomine.service.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+import be.cytomine.config.properties.AnnotationClusterGridProperties;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.service.stats.StatsRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically fold the annotation cluster deltas into the cluster cells (see AnnotationClusterGridService).
+ * Several instances may run a compactor: a single compaction runs at a time.
+ */
+@Slf4j
+@Component
+public class AnnotationClusterGridCompactor {
+
+    private final AnnotationClusterGridService annotationClusterGridService;
+
+    private final AnnotationClusterGridProperties properties;
+
+    private ScheduledExecutorService scheduler;
+
+    private final StatsRegistry.Counter folded;
+
+    private final StatsRegistry.Counter compactions;
+
+    public AnnotationClusterGridCompactor(AnnotationClusterGridService annotationClusterGridService, ApplicationProperties applicationProperties, StatsRegistry stats) {
+        this.annotationClusterGridService = annotationClusterGridService;
+        this.properties = applicationProperties.getAnnotationClusterGrid();
+
+        this.folded = stats.counter("annotation.clusters.folded");
+        this.compactions = stats.counter("annotation.clusters.compactions");
+        stats.gauge("annotation.clusters.enabled", properties::isEnabled);
+        stats.gauge("annotation.clusters.pending", annotationClusterGridService::getPendingCount);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            log.info("Annotation cluster grid compaction is disabled");
+            return;
+        }
+        long interval = properties.getPollInterval().toMillis();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(this::compactAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void compactAll() {
+        try {
+            while (compact() == properties.getBatchSize()) {
+                // full batch, there are probably more pending deltas
+            }
+        } catch (Exception e) {
+            log.error("Cannot compact annotation cluster cells", e);
+        }
+    }
+
+    /**
+     * Fold a batch of pending deltas
+     * @return Number of folded deltas
+     */
+    public int compact() {
+        int count = annotationClusterGridService.compact(properties.getBatchSize());
+        if (count > 0) {
+            folded.increment(count);
+            compactions.increment();
+        }
+        return count;
+    }
+}
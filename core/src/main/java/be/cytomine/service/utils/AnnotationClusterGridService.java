@@ -0,0 +1,212 @@
+package be.cytomine.service.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.dto.Kmeans;
+import be.cytomine.exceptions.WrongArgumentException;
+import be.cytomine.repository.AnnotationListing;
+import be.cytomine.repository.UserAnnotationListing;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Tuple;
+import lombok.AllArgsConstructor;
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Serve annotation clusters from the annotation_cluster_cell pyramid.
+ * The pyramid is maintained by database triggers on user_annotation (see liquibase changelog) and by the bulk import,
+ * so that a cluster request only reads the cells covering the bbox instead of aggregating all annotations.
+ * Writers append deltas to annotation_cluster_delta rather than upserting the (shared) cells of every level,
+ * deltas are folded into the cells by compact (see AnnotationClusterGridCompactor) and added to the cells when reading.
+ * Full clusters are the convex hulls of the annotations of the cells. The hull of a cell only grows with the added
+ * annotations: it is recomputed when the deltas of a deleted or moved annotation are compacted.
+ */
+@Service
+@AllArgsConstructor
+public class AnnotationClusterGridService {
+
+    /**
+     * Size (in pixels) of a cell at level 0. Level L cells are BASE_CELL_SIZE * 2^L wide.
+     */
+    public static final int BASE_CELL_SIZE = 256;
+
+    public static final int LEVELS = 9;
+
+    /**
+     * Expected number of cells along the largest side of the bbox, used to choose the pyramid level
+     */
+    public static final int CELLS_PER_BBOX = 32;
+
+    private final EntityManager entityManager;
+
+    /**
+     * The pyramid only aggregates user annotations per slice and user,
+     * so it can only be used if there is no other criteria than the layer and the bbox
+     */
+    public boolean supports(AnnotationListing al) {
+        return al instanceof UserAnnotationListing
+                && al.getBbox() != null
+                && al.getSlices() != null && !al.getSlices().isEmpty()
+                && al.isLayerRequest();
+    }
+
+    public List<Kmeans> doClusterFullRequest(AnnotationListing al) {
+        return selectClusters(al, true);
+    }
+
+    public List<Kmeans> doClusterSoftRequest(AnnotationListing al) {
+        return selectClusters(al, false);
+    }
+
+    public int getLevel(Envelope bbox) {
+        double expectedCellSize = Math.max(bbox.getWidth(), bbox.getHeight()) / CELLS_PER_BBOX;
+        int level = 0;
+        while (level < LEVELS - 1 && getCellSize(level) < expectedCellSize) {
+            level++;
+        }
+        return level;
+    }
+
+    public static long getCellSize(int level) {
+        return (long) BASE_CELL_SIZE << level;
+    }
+
+    /**
+     * Add new annotations to the pyramid, with one delta per annotation.
+     * Used when the insert trigger is disabled (bulk import).
+     */
+    public void addAnnotations(Collection<Long> annotationIds) {
+        if (annotationIds.isEmpty()) {
+            return;
+        }
+        entityManager.createNativeQuery(
+                "INSERT INTO annotation_cluster_delta(slice_id, user_id, x, y, hull, delta) \n" +
+                "SELECT a.slice_id, a.user_id, ST_X(ST_Centroid(a.location)), ST_Y(ST_Centroid(a.location)), ST_ConvexHull(a.location), 1 \n" +
+                "FROM user_annotation a \n" +
+                "WHERE a.id IN (:ids) AND a.deleted IS NULL AND a.location IS NOT NULL AND NOT ST_IsEmpty(a.location)")
+                .setParameter("ids", annotationIds)
+                .executeUpdate();
+    }
+
+    /**
+     * Fold the oldest pending deltas into the cells
+     * @return Number of folded deltas (0 if another compaction is running)
+     */
+    @Transactional
+    public int compact(int maxDeltas) {
+        return ((Number) entityManager.createNativeQuery("SELECT compactAnnotationClusterCells(:max)")
+                .setParameter("max", maxDeltas)
+                .getSingleResult()).intValue();
+    }
+
+    public long getPendingCount() {
+        return ((Number) entityManager.createNativeQuery("SELECT COUNT(*) FROM annotation_cluster_delta")
+                .getSingleResult()).longValue();
+    }
+
+    private List<Kmeans> selectClusters(AnnotationListing al, boolean withHull) {
+        Envelope bbox;
+        try {
+            bbox = new WKTReader().read(al.getBbox()).getEnvelopeInternal();
+        } catch (ParseException e) {
+            throw new WrongArgumentException("Annotation location cannot be converted to geometry: " + al.getBbox());
+        }
+
+        int level = getLevel(bbox);
+        long cellSize = getCellSize(level);
+
+        List<Long> users = new ArrayList<>();
+        if (al.getUser() != null) {
+            users.add(al.getUser());
+        }
+        if (al.getUsers() != null) {
+            users.addAll(al.getUsers());
+        }
+
+        // cells of the level, plus the deltas not folded into them yet (the removed annotations stay in the hulls
+        // until their deltas are folded)
+        String request = "SELECT sum(count_annotation), sum(sum_x), sum(sum_y)" +
+                (withHull ? ", ST_AsText(ST_ConvexHull(ST_Collect(hull))) \n" : " \n") +
+                "FROM ( \n" +
+                "   SELECT cell_x, cell_y, count_annotation, sum_x, sum_y, hull \n" +
+                "   FROM annotation_cluster_cell \n" +
+                "   WHERE slice_id IN (:slices) AND level = :level \n" +
+                (users.isEmpty() ? "" : "   AND user_id IN (:users) \n") +
+                "   UNION ALL \n" +
+                "   SELECT floor(x / :cellSize)::INTEGER, floor(y / :cellSize)::INTEGER, delta, delta * x, delta * y, \n" +
+                "          CASE WHEN delta > 0 THEN hull END \n" +
+                "   FROM annotation_cluster_delta \n" +
+                "   WHERE slice_id IN (:slices) \n" +
+                (users.isEmpty() ? "" : "   AND user_id IN (:users) \n") +
+                ") c \n" +
+                "WHERE cell_x BETWEEN :minCellX AND :maxCellX AND cell_y BETWEEN :minCellY AND :maxCellY \n" +
+                "GROUP BY cell_x, cell_y \n" +
+                "HAVING sum(count_annotation) > 0 \n" +
+                "ORDER BY cell_y, cell_x";
+
+        NativeQuery<Tuple> nativeQuery = entityManager.unwrap(Session.class).createNativeQuery(request, Tuple.class);
+        nativeQuery.setParameter("slices", al.getSlices());
+        nativeQuery.setParameter("level", level);
+        nativeQuery.setParameter("cellSize", cellSize);
+        nativeQuery.setParameter("minCellX", (int) Math.floor(bbox.getMinX() / cellSize));
+        nativeQuery.setParameter("maxCellX", (int) Math.floor(bbox.getMaxX() / cellSize));
+        nativeQuery.setParameter("minCellY", (int) Math.floor(bbox.getMinY() / cellSize));
+        nativeQuery.setParameter("maxCellY", (int) Math.floor(bbox.getMaxY() / cellSize));
+        if (!users.isEmpty()) {
+            nativeQuery.setParameter("users", users);
+        }
+
+        GeometryFactory geometryFactory = new GeometryFactory();
+        List<Kmeans> data = new ArrayList<>();
+        double max = 1;
+        long id = 0;
+        List<Tuple> resultList = nativeQuery.getResultList();
+        for (Tuple tuple : resultList) {
+            long count = ((Number) tuple.get(0)).longValue();
+            Kmeans cluster = new Kmeans();
+            cluster.setId(id++);
+            cluster.setCount(count);
+            if (withHull) {
+                cluster.setLocation((String) tuple.get(3));
+            } else {
+                double x = ((Number) tuple.get(1)).doubleValue() / count;
+                double y = ((Number) tuple.get(2)).doubleValue() / count;
+                cluster.setLocation(geometryFactory.createPoint(new Coordinate(x, y)).toText());
+            }
+            if (count > max) {
+                max = count;
+            }
+            data.add(cluster);
+        }
+
+        for (Kmeans datum : data) {
+            datum.setRatio(((double) datum.getCount() / max));
+        }
+        return data;
+    }
+}
@@ -43,12 +43,19 @@ public class GeometryService {
     }
 
     public Boolean isGeometry(String input) {
+        return parseGeometry(input) != null;
+    }
+
+    /**
+     * Geometry given as WKT or GeoJSON, or null if the input is not a geometry of a supported type
+     */
+    public Geometry parseGeometry(String input) {
         Geometry geometry = parseWKT(input);
         if (geometry == null) {
             geometry = parseGeoJSON(input);
         }
 
-        return geometry != null && SUPPORTED_TYPES.contains(geometry.getGeometryType());
+        return geometry != null && SUPPORTED_TYPES.contains(geometry.getGeometryType()) ? geometry : null;
     }
 
     public String WKTToGeoJSON(String wkt) {
@@ -0,0 +1,157 @@
+package be.cytomine.service.utils;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Postgres LISTEN/NOTIFY channel shared by the instances using the database.
+ * A single thread keeps a connection listening to the channel: it receives the messages of the other instances
+ * and sends the messages of this instance. The connection is opened again if it is lost (messages sent meanwhile are lost).
+ * The connection is opened outside of the pool: it is held as long as the channel runs, and a pooled connection
+ * would be reset (and stop listening) when returned to the pool.
+ */
+@Slf4j
+public class PostgresNotificationChannel {
+
+    // maximum time between two checks of the messages to send
+    private static final int POLL_INTERVAL = 250;
+
+    private static final int MAX_PENDING = 10000;
+
+    private static final long RECONNECT_DELAY = 5000;
+
+    private final DataSourceProperties dataSourceProperties;
+
+    private final String channel;
+
+    private final Consumer<String> receiver;
+
+    private final BlockingQueue<String> outgoing = new LinkedBlockingQueue<>(MAX_PENDING);
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    public PostgresNotificationChannel(DataSourceProperties dataSourceProperties, String channel, Consumer<String> receiver) {
+        if (!channel.matches("[a-z_][a-z0-9_]*")) {
+            throw new IllegalArgumentException("Invalid channel name " + channel);
+        }
+        this.dataSourceProperties = dataSourceProperties;
+        this.channel = channel;
+        this.receiver = receiver;
+    }
+
+    public void start() {
+        running = true;
+        thread = new CustomizableThreadFactory(channel.replace('_', '-') + "-channel-").newThread(this::run);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Send the message to the other instances (and this one), asynchronously
+     */
+    public void publish(String message) {
+        if (!outgoing.offer(message)) {
+            log.debug("Channel " + channel + " is full, message not sent");
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection(
+                dataSourceProperties.determineUrl(),
+                dataSourceProperties.determineUsername(),
+                dataSourceProperties.determinePassword()
+        );
+    }
+
+    private void run() {
+        while (running) {
+            try (Connection connection = connect()) {
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + channel);
+                }
+                PGConnection listener = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = listener.getNotifications(POLL_INTERVAL);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            receive(notification.getParameter());
+                        }
+                    }
+                    send(connection);
+                }
+            } catch (SQLException e) {
+                if (running) {
+                    log.warn("Channel " + channel + " lost, reconnecting: " + e.getMessage());
+                    try {
+                        Thread.sleep(RECONNECT_DELAY);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private void receive(String message) {
+        try {
+            receiver.accept(message);
+        } catch (RuntimeException e) {
+            log.warn("Invalid message " + message + " in channel " + channel + ": " + e.getMessage());
+        }
+    }
+
+    private void send(Connection connection) throws SQLException {
+        List<String> messages = new ArrayList<>();
+        outgoing.drainTo(messages);
+        if (messages.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_notify(?, ?)")) {
+            for (String message : messages) {
+                statement.setString(1, channel);
+                statement.setString(2, message);
+                statement.execute();
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ import be.cytomine.exceptions.WrongArgumentException;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.util.GeometryFixer;
 import org.locationtech.jts.io.ParseException;
 import org.locationtech.jts.io.WKTReader;
 import org.springframework.stereotype.Service;
@@ -27,6 +28,7 @@ import org.springframework.stereotype.Service;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.Query;
 import jakarta.persistence.Tuple;
+import java.util.ArrayList;
 import java.util.List;
 
 @Service
@@ -38,9 +40,13 @@ public class ValidateGeometryService {
 
     // TODO: move this annotation service
     public String tryToMakeItValidIfNotValid(String location) {
+        return tryToMakeItValidIfNotValid(location, true);
+    }
+
+    public String tryToMakeItValidIfNotValid(String location, boolean useDatabase) {
         Geometry geometry = null;
         try {
-            geometry = tryToMakeItValidIfNotValid(new WKTReader().read(location));
+            geometry = tryToMakeItValidIfNotValid(new WKTReader().read(location), useDatabase);
         } catch (Exception e) {
             return location;
         }
@@ -49,6 +55,14 @@ public class ValidateGeometryService {
 
 
     public Geometry tryToMakeItValidIfNotValid(Geometry location) {
+        return tryToMakeItValidIfNotValid(location, true);
+    }
+
+    /**
+     * @param useDatabase False to fix the geometries still invalid after a buffer(0) with JTS (GeometryFixer, the
+     *                    equivalent of ST_MakeValid) instead of PostGIS, when there is no session (e.g. in another thread)
+     */
+    public Geometry tryToMakeItValidIfNotValid(Geometry location, boolean useDatabase) {
         Geometry result = location;
         try {
             String backupLocation = location.toText();
@@ -69,12 +83,18 @@ public class ValidateGeometryService {
                     //user_image already filter nested image
 
                     log.info("Geometry is not valid, even after a buffer(0)!");
-                    String request = "SELECT ST_AsText(ST_MakeValid(ST_AsText('" + backupLocation + "')))";
-                    log.info(request);
-                    Query nativeQuery = entityManager.createNativeQuery("SELECT ST_AsText(ST_MakeValid(ST_AsText('" + backupLocation + "')))", Tuple.class);
-                    List<Tuple> resultList = nativeQuery.getResultList();
-                    for (Tuple tuple : resultList) {
-                        String text = (String)tuple.get(0);
+                    List<String> validLocations = new ArrayList<>();
+                    if (useDatabase) {
+                        String request = "SELECT ST_AsText(ST_MakeValid(ST_AsText('" + backupLocation + "')))";
+                        log.info(request);
+                        Query nativeQuery = entityManager.createNativeQuery("SELECT ST_AsText(ST_MakeValid(ST_AsText('" + backupLocation + "')))", Tuple.class);
+                        for (Object tuple : nativeQuery.getResultList()) {
+                            validLocations.add((String) ((Tuple) tuple).get(0));
+                        }
+                    } else {
+                        validLocations.add(GeometryFixer.fix(new WKTReader().read(backupLocation)).toText());
+                    }
+                    for (String text : validLocations) {
                         geom = new WKTReader().read(text);
                         type = geom.getGeometryType().toUpperCase();
                         if (type.equals("GEOMETRYCOLLECTION")) {
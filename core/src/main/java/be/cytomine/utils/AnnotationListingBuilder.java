@@ -180,6 +180,20 @@ public class AnnotationListingBuilder {
 
         al.setExcludedAnnotation(params.getJSONAttrLong("excludedAnnotation")); // TODO ?
 
+        // Pagination
+        Long max = params.getJSONAttrLong("max", 0L);
+        al.setMax(max > 0 ? max.intValue() : null);
+        al.setOffset(params.getJSONAttrLong("offset", 0L));
+        if (AnnotationListing.SORTABLE_COLUMNS.contains(params.getJSONAttrStr("sort"))) {
+            al.setSort(params.getJSONAttrStr("sort"));
+        }
+        if (params.get("order") != null) {
+            al.setAscending(params.getJSONAttrStr("order").equalsIgnoreCase("asc"));
+        }
+        if (params.get("cursor") != null) {
+            al.seekAfterCursor(params.getJSONAttrStr("cursor"));
+        }
+
         return al;
     }
 
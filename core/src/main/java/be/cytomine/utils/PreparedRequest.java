@@ -1,6 +1,8 @@
 package be.cytomine.utils;
 
 import be.cytomine.exceptions.ServerException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.Getter;
 import lombok.Setter;
 import org.apache.commons.lang3.NotImplementedException;
@@ -9,14 +11,20 @@ import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.stream.Collectors;
 
 import static org.springframework.http.HttpMethod.GET;
@@ -27,6 +35,24 @@ import static org.springframework.http.HttpMethod.POST;
 @Setter
 public class PreparedRequest {
 
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Headers of the client request forwarded to the upstream server when streaming
+     */
+    private static final List<String> STREAMED_REQUEST_HEADERS = List.of(
+            HttpHeaders.RANGE, HttpHeaders.IF_RANGE, HttpHeaders.IF_NONE_MATCH, HttpHeaders.IF_MODIFIED_SINCE
+    );
+
+    /**
+     * Headers of the upstream response sent back to the client when streaming
+     */
+    private static final List<String> STREAMED_RESPONSE_HEADERS = List.of(
+            HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_LENGTH, HttpHeaders.CONTENT_RANGE, HttpHeaders.ACCEPT_RANGES,
+            HttpHeaders.CONTENT_DISPOSITION, HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED, HttpHeaders.CACHE_CONTROL,
+            HttpHeaders.EXPIRES
+    );
+
     private String scheme;
 
     private String host;
@@ -43,10 +69,21 @@ public class PreparedRequest {
 
     private Object body;
 
+    private RestTemplate restTemplate;
+
     public PreparedRequest() {
+        this(null);
+    }
+
+    /**
+     * @param restTemplate client used to send the request, so that connections are pooled and reused across requests.
+     *                     A new unpooled client is used if null.
+     */
+    public PreparedRequest(RestTemplate restTemplate) {
         queryParameters = new LinkedHashMap<>();
         headers = new HttpHeaders();
         path = "";
+        this.restTemplate = restTemplate;
     }
 
     public void setUrl(String url){
@@ -112,11 +149,18 @@ public class PreparedRequest {
         );
     }
 
+    public RestTemplate getRestTemplate() {
+        if (restTemplate == null) {
+            restTemplate = new RestTemplate();
+        }
+        return restTemplate;
+    }
+
     public <T> T toObject(Class<T> returnType) {
         if (method.equals(GET)) {
-            return new RestTemplate().getForObject(this.getURI(), returnType);
+            return getRestTemplate().getForObject(this.getURI(), returnType);
         } else if (method.equals(POST)) {
-            return new RestTemplate().postForObject(this.getURI(), this.body, returnType);
+            return getRestTemplate().postForObject(this.getURI(), this.body, returnType);
         }
         throw new NotImplementedException("toObject is not implemented for method: " + method);
     }
@@ -125,10 +169,10 @@ public class PreparedRequest {
         if (proxy == null) {
             if (method.equals(GET)) {
                 HttpEntity<?> request = new HttpEntity<>(this.headers);
-                return new RestTemplate().exchange(this.getURI(), this.method, request, returnType);
+                return getRestTemplate().exchange(this.getURI(), this.method, request, returnType);
             } else if (method.equals(POST)) {
                 HttpEntity<?> request = new HttpEntity<>(this.body, this.headers);
-                return new RestTemplate().exchange(this.getURI(), this.method, request, returnType);
+                return getRestTemplate().exchange(this.getURI(), this.method, request, returnType);
             }
         }
         else {
@@ -145,4 +189,63 @@ public class PreparedRequest {
         }
         throw new NotImplementedException("toResponseEntity is not implemented for method: " + method);
     }
+
+    /**
+     * Send the request and copy the upstream response (status, headers and body) into the client response.
+     * The body is piped in fixed-size chunks: memory usage does not depend on the size of the response,
+     * and a slow client slows down the read from the upstream server.
+     * Range requests are supported by forwarding the Range/If-Range headers of the client request.
+     */
+    public void stream(HttpServletRequest clientRequest, HttpServletResponse response) throws IOException {
+        if (clientRequest != null) {
+            for (String header : STREAMED_REQUEST_HEADERS) {
+                String value = clientRequest.getHeader(header);
+                if (value != null && !this.headers.containsKey(header)) {
+                    this.headers.set(header, value);
+                }
+            }
+        }
+
+        try (ClientHttpResponse upstream = execute()) {
+            copy(upstream, response);
+        }
+    }
+
+    /**
+     * Send the request, without any error handling: the caller gets the upstream response whatever its status,
+     * and must close it. The body is not read.
+     */
+    public ClientHttpResponse execute() throws IOException {
+        if (!method.equals(GET) && !method.equals(POST)) {
+            throw new NotImplementedException("execute is not implemented for method: " + method);
+        }
+
+        ClientHttpRequest request = getRestTemplate().getRequestFactory().createRequest(this.getURI(), this.method);
+        request.getHeaders().addAll(this.headers);
+        if (method.equals(POST) && this.body != null) {
+            request.getBody().write(this.body.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return request.execute();
+    }
+
+    /**
+     * Copy the status, headers and body of an upstream response into the client response, in fixed-size chunks
+     */
+    public static void copy(ClientHttpResponse upstream, HttpServletResponse response) throws IOException {
+        response.setStatus(upstream.getStatusCode().value());
+        for (String header : STREAMED_RESPONSE_HEADERS) {
+            for (String value : upstream.getHeaders().getOrEmpty(header)) {
+                response.addHeader(header, value);
+            }
+        }
+
+        InputStream in = upstream.getBody();
+        OutputStream out = response.getOutputStream();
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        out.flush();
+    }
 }
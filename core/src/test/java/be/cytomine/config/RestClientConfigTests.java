@@ -0,0 +1,55 @@
+package be.cytomine.config;
+
+import be.cytomine.config.properties.ApplicationProperties;
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.web.client.RestTemplateAutoConfiguration;
+import org.springframework.boot.test.context.runner.WebApplicationContextRunner;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.cloud.gateway.mvc.config.ProxyExchangeArgumentResolver;
+import org.springframework.cloud.gateway.mvc.config.ProxyResponseAutoConfiguration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RestClientConfigTests {
+
+    private final WebApplicationContextRunner contextRunner = new WebApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(RestTemplateAutoConfiguration.class, ProxyResponseAutoConfiguration.class))
+            .withUserConfiguration(RestClientConfig.class)
+            .withBean(ApplicationProperties.class);
+
+    private static HttpClient httpClientOf(RestTemplate restTemplate) {
+        return ((HttpComponentsClientHttpRequestFactory) restTemplate.getRequestFactory()).getHttpClient();
+    }
+
+    @Test
+    void proxy_exchange_uses_the_image_server_pool() {
+        contextRunner.run(context -> {
+            CloseableHttpClient imageServerHttpClient = context.getBean("imageServerHttpClient", CloseableHttpClient.class);
+            ProxyExchangeArgumentResolver resolver = context.getBean(ProxyExchangeArgumentResolver.class);
+            RestTemplate proxyRestTemplate = (RestTemplate) ReflectionTestUtils.getField(resolver, "rest");
+
+            assertThat(httpClientOf(proxyRestTemplate)).isSameAs(imageServerHttpClient);
+            assertThat(httpClientOf(context.getBean("imageServerRestTemplate", RestTemplate.class))).isSameAs(imageServerHttpClient);
+            assertThat(httpClientOf(context.getBean("appEngineRestTemplate", RestTemplate.class)))
+                    .isSameAs(context.getBean("appEngineHttpClient"));
+        });
+    }
+
+    @Test
+    void auto_configured_rest_template_builder_does_not_use_the_image_server_pool() {
+        contextRunner.run(context -> {
+            RestTemplate restTemplate = context.getBean(RestTemplateBuilder.class).build();
+
+            assertThat(restTemplate.getRequestFactory()).isInstanceOf(HttpComponentsClientHttpRequestFactory.class);
+            assertThat(httpClientOf(restTemplate))
+                    .isNotSameAs(context.getBean("imageServerHttpClient"))
+                    .isNotSameAs(context.getBean("generalHttpClient"));
+        });
+    }
+}
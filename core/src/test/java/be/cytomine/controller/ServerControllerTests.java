@@ -21,6 +21,7 @@ import be.cytomine.CytomineCoreApplication;
 import be.cytomine.domain.project.Project;
 import be.cytomine.domain.social.LastConnection;
 import be.cytomine.repositorynosql.social.LastConnectionRepository;
+import be.cytomine.service.social.PresenceService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,6 +34,7 @@ import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 import org.springframework.transaction.annotation.Transactional;
 
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
@@ -51,9 +53,13 @@ public class ServerControllerTests {
     @Autowired
     private LastConnectionRepository lastConnectionRepository;
 
+    @Autowired
+    private PresenceService presenceService;
+
     @BeforeEach
     public void before() {
         lastConnectionRepository.deleteAll();
+        presenceService.clear();
     }
 
 
@@ -108,6 +114,8 @@ public class ServerControllerTests {
                 .andExpect(jsonPath("$.serverURL").hasJsonPath())
                 .andExpect(jsonPath("$.serverID").hasJsonPath());
 
+        assertThat(presenceService.isOnline(builder.given_superadmin().getId(), project.getId())).isTrue();
+
         //TODO 2024.2 - LAST CONNECTION (IN A PROJECT)
 //        List<LastConnection> lastConnection = lastConnectionRepository.findByUserOrderByCreatedDesc(builder.given_superadmin().getId());
 //        assertThat(lastConnection).hasSize(1);
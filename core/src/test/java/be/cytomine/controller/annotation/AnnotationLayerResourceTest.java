@@ -1,5 +1,6 @@
 package be.cytomine.controller.annotation;
 
+import com.jayway.jsonpath.JsonPath;
 import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 import org.junit.jupiter.api.Test;
@@ -14,9 +15,13 @@ import be.cytomine.domain.annotation.Annotation;
 import be.cytomine.domain.annotation.AnnotationLayer;
 import be.cytomine.domain.appengine.TaskRunLayer;
 
-import static org.hamcrest.Matchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -71,6 +76,93 @@ public class AnnotationLayerResourceTest {
             .andExpect(status().isNotFound());
     }
 
+    private Annotation given_a_persisted_annotation(AnnotationLayer annotationLayer, String location) {
+        Annotation annotation = builder.given_a_not_persisted_annotation(annotationLayer);
+        annotation.setLocation(location.getBytes());
+        manager.persist(annotation);
+        return annotation;
+    }
+
+    @Test
+    public void getAnnotationsByLayerInViewportShouldReturnVisibleAnnotationsByPage() throws Exception {
+        AnnotationLayer annotationLayer = builder.given_a_persisted_annotation_layer();
+        Annotation first = given_a_persisted_annotation(annotationLayer, "POLYGON ((10 10, 20 10, 20 20, 10 20, 10 10))");
+        Annotation second = given_a_persisted_annotation(annotationLayer, "{\"type\": \"Point\",\"coordinates\": [50, 50]}");
+        given_a_persisted_annotation(annotationLayer, "POLYGON ((1000 1000, 1010 1000, 1010 1010, 1000 1000))");
+        manager.flush();
+
+        String page = mockMvc.perform(get("/api/annotation-layers/{id}/annotations/viewport", annotationLayer.getId())
+                .param("bbox", "0,0,100,100")
+                .param("limit", "1"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.collection.length()").value(1))
+            .andExpect(jsonPath("$.collection[0].id").value(first.getId()))
+            .andExpect(jsonPath("$.collection[0].location").value("POLYGON((10 10,20 10,20 20,10 20,10 10))"))
+            .andReturn().getResponse().getContentAsString();
+        String cursor = JsonPath.read(page, "$.nextCursor");
+
+        mockMvc.perform(get("/api/annotation-layers/{id}/annotations/viewport", annotationLayer.getId())
+                .param("bbox", "0,0,100,100")
+                .param("limit", "1")
+                .param("cursor", cursor))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.collection.length()").value(1))
+            .andExpect(jsonPath("$.collection[0].id").value(second.getId()))
+            .andExpect(jsonPath("$.nextCursor", nullValue()));
+    }
+
+    @Test
+    public void annotationWithUnparseableLocationIsSavedWithoutGeometry() throws Exception {
+        AnnotationLayer annotationLayer = builder.given_a_persisted_annotation_layer();
+        Annotation invalid = given_a_persisted_annotation(annotationLayer, "POLYGON ((10 10, 20");
+        Annotation feature = given_a_persisted_annotation(annotationLayer, "{\"type\": \"Feature\",\"geometry\": {\"type\": \"Point\",\"coordinates\": [50, 50]}}");
+        manager.flush();
+
+        assertThat(hasGeometry(invalid), is(false));
+        assertThat(hasGeometry(feature), is(false));
+
+        mockMvc.perform(get("/api/annotation-layers/{id}/annotations/viewport", annotationLayer.getId())
+                .param("bbox", "0,0,100,100"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.collection.length()").value(0));
+
+        invalid.setLocation("POLYGON ((10 10, 20 10, 20 20, 10 20, 10 10))".getBytes());
+        manager.flush();
+        assertThat(hasGeometry(invalid), is(true));
+    }
+
+    private boolean hasGeometry(Annotation annotation) {
+        return (Boolean) manager.createNativeQuery("SELECT geom IS NOT NULL FROM annotation WHERE id = :id")
+            .setParameter("id", annotation.getId())
+            .getSingleResult();
+    }
+
+    @Test
+    public void getAnnotationsByLayerInViewportShouldRejectInvalidLevel() throws Exception {
+        AnnotationLayer annotationLayer = builder.given_a_persisted_annotation_layer();
+
+        mockMvc.perform(get("/api/annotation-layers/{id}/annotations/viewport", annotationLayer.getId())
+                .param("bbox", "0,0,100,100")
+                .param("level", "42"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getAnnotationTileShouldReturnVectorTile() throws Exception {
+        AnnotationLayer annotationLayer = builder.given_a_persisted_annotation_layer();
+        given_a_persisted_annotation(annotationLayer, "POLYGON ((10 10, 200 10, 200 200, 10 200, 10 10))");
+        manager.flush();
+
+        mockMvc.perform(get("/api/annotation-layers/{id}/tiles/{level}/{x}/{y}.mvt", annotationLayer.getId(), 0, 0, 0))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(AnnotationLayerController.MAPBOX_VECTOR_TILE))
+            .andExpect(result -> assertThat(result.getResponse().getContentAsByteArray().length, greaterThan(0)));
+
+        mockMvc.perform(get("/api/annotation-layers/{id}/tiles/{level}/{x}/{y}.mvt", annotationLayer.getId(), 0, 4, 4))
+            .andExpect(status().isOk())
+            .andExpect(content().bytes(new byte[0]));
+    }
+
     @Test
     public void findTaskRunLayerShouldReturnTaskRunLayer() throws Exception {
         TaskRunLayer taskRunLayer = builder.given_a_persisted_task_run_layer();
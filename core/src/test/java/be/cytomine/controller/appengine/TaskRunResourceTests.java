@@ -1,5 +1,6 @@
 package be.cytomine.controller.appengine;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -23,12 +24,16 @@ import org.springframework.test.web.servlet.MockMvc;
 import be.cytomine.BasicInstanceBuilder;
 import be.cytomine.CytomineCoreApplication;
 import be.cytomine.domain.appengine.TaskRun;
+import be.cytomine.domain.appengine.TaskRunLayer;
+import be.cytomine.repository.annotation.AnnotationRepository;
+import be.cytomine.repository.appengine.TaskRunLayerRepository;
 import be.cytomine.repository.appengine.TaskRunRepository;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
 import static com.github.tomakehurst.wiremock.client.WireMock.configureFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
@@ -47,6 +52,12 @@ public class TaskRunResourceTests {
     @Autowired
     private TaskRunRepository taskRunRepository;
 
+    @Autowired
+    private TaskRunLayerRepository taskRunLayerRepository;
+
+    @Autowired
+    private AnnotationRepository annotationRepository;
+
     @Autowired
     private MockMvc mockMvc;
 
@@ -214,6 +225,46 @@ public class TaskRunResourceTests {
                 .andExpect(jsonPath("task").isNotEmpty());
     }
 
+    @Test
+    @Transactional
+    public void get_outputs_ingests_geometries_once() throws Exception {
+        TaskRun taskRun = builder.given_a_not_persisted_task_run();
+        taskRunRepository.saveAndFlush(taskRun);
+        UUID taskRunId = taskRun.getTaskRunId();
+        String point = "{\\\"type\\\": \\\"Point\\\", \\\"coordinates\\\": [10, 20]}";
+        String mockResponse = "["
+            + "{\"task_run_id\": \"" + taskRunId + "\", \"param_name\": \"centroid\", \"type\": \"GEOMETRY\", \"value\": \"" + point + "\"},"
+            + "{\"task_run_id\": \"" + taskRunId + "\", \"param_name\": \"count\", \"type\": \"INTEGER\", \"value\": 2},"
+            + "{\"task_run_id\": \"" + taskRunId + "\", \"param_name\": \"nuclei\", \"type\": \"ARRAY\", \"value\": ["
+            + "{\"index\": 0, \"value\": \"POLYGON ((0 0, 0 10, 10 10, 0 0))\"},"
+            + "{\"index\": 1, \"value\": \"not a geometry\"}"
+            + "]}"
+            + "]";
+        String appEngineUriSection = "task-runs/" + taskRunId + "/outputs";
+        stubFor(WireMock.get(urlEqualTo(apiBasePath + appEngineUriSection))
+                .willReturn(
+                        aResponse().withBody(mockResponse)
+                )
+        );
+
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(get("/api/app-engine/project/" + taskRun.getProject().getId() + "/" + appEngineUriSection)
+                            .contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("[0].param_name").value("centroid"));
+        }
+
+        List<TaskRunLayer> layers = taskRunLayerRepository.findAll().stream()
+            .filter(layer -> layer.getTaskRun().getId().equals(taskRun.getId()))
+            .toList();
+        assertEquals(1, layers.size());
+        List<String> locations = annotationRepository.findAllByAnnotationLayer(layers.get(0).getAnnotationLayer()).stream()
+            .map(annotation -> new String(annotation.getLocation(), StandardCharsets.UTF_8))
+            .sorted()
+            .toList();
+        assertEquals(List.of("POINT (10 20)", "POLYGON ((0 0, 0 10, 10 10, 0 0))"), locations);
+    }
+
     protected String getTaskRunBody(UUID taskRunId) {
         ObjectMapper objectMapper = new ObjectMapper();
 
@@ -181,6 +181,22 @@ public class AnnotationDomainResourceTests {
         createAnnotationSet();
     }
 
+    @Test
+    @Transactional
+    public void stream_user_annotations_by_image() throws Exception {
+        restAnnotationDomainControllerMockMvc.perform(get("/api/annotation.json")
+                        .param("image", this.image.getId().toString())
+                        .param("stream", "true")
+                        .param("offset", "1")
+                        .param("max", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.collection", Matchers.hasSize(2)))
+                .andExpect(jsonPath("$.size").value(6))
+                .andExpect(jsonPath("$.offset").value(1))
+                .andExpect(jsonPath("$.perPage").value(2))
+                .andExpect(jsonPath("$.totalPages").value(3));
+    }
+
     @Test
     @Transactional
     public void list_user_annotation_property_show() throws Exception {
@@ -489,6 +489,40 @@ public class ReviewedAnnotationResourceTests {
 
 
 
+    @Test
+    @Transactional
+    @WithMockUser(username = "review_layer_without_access")
+    public void review_full_layer_without_project_access_is_forbidden() throws Exception {
+        UserAnnotation userAnnotation = builder.given_a_user_annotation();
+        userAnnotation.getImage().setReviewStart(new Date());
+        builder.given_a_user("review_layer_without_access");
+
+        restReviewedAnnotationControllerMockMvc.perform(post("/api/imageinstance/{image}/annotation/review.json", userAnnotation.getImage().getId())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("").param("users", userAnnotation.getUser().getId().toString()))
+                .andExpect(status().isForbidden());
+
+        assertThat(reviewedAnnotationRepository.findByParentIdent(userAnnotation.getId())).isEmpty();
+    }
+
+    @Test
+    @Transactional
+    @WithMockUser(username = "unreview_layer_without_access")
+    public void unreview_full_layer_without_project_access_is_forbidden() throws Exception {
+        ReviewedAnnotation reviewedAnnotation = builder.given_a_reviewed_annotation();
+        reviewedAnnotation.getImage().setReviewStart(new Date());
+        builder.given_a_user("unreview_layer_without_access");
+
+        restReviewedAnnotationControllerMockMvc.perform(delete("/api/imageinstance/{image}/annotation/review.json", reviewedAnnotation.getImage().getId())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("").param("users", reviewedAnnotation.getUser().getId().toString()))
+                .andExpect(status().isForbidden());
+
+        assertThat(reviewedAnnotationRepository.findByParentIdent(reviewedAnnotation.getParentIdent())).isPresent();
+    }
+
+
+
     @Disabled("Randomly fail with ProxyExchange, need to find a solution")
     @Test
     @jakarta.transaction.Transactional
@@ -23,6 +23,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import com.github.tomakehurst.wiremock.WireMockServer;
@@ -373,6 +374,81 @@ public class UserAnnotationResourceTests {
     }
 
 
+    @Test
+    @Transactional
+    public void import_valid_user_annotations() throws Exception {
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation();
+        Term term = builder.given_a_term(userAnnotation.getProject().getOntology());
+        JsonObject first = userAnnotation.toJsonObject();
+        first.put("term", List.of(term.getId()));
+        JsonObject second = userAnnotation.toJsonObject();
+        second.put("properties", Map.of("key", "value"));
+
+        restUserAnnotationControllerMockMvc.perform(post("/api/userannotation/import.json")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(JsonObject.toJsonString(List.of(first, second))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value(200));
+
+        AssertionsForClassTypes.assertThat(em.createQuery("SELECT COUNT(ua) FROM UserAnnotation ua WHERE ua.image = :image")
+                .setParameter("image", userAnnotation.getImage())
+                .getSingleResult()).isEqualTo(2L);
+    }
+
+    @Test
+    @Transactional
+    public void import_user_annotations_reports_invalid_ones() throws Exception {
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation();
+        JsonObject valid = userAnnotation.toJsonObject();
+        JsonObject invalid = userAnnotation.toJsonObject();
+        invalid.put("term", List.of(0L));
+
+        restUserAnnotationControllerMockMvc.perform(post("/api/userannotation/import.json")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(JsonObject.toJsonString(List.of(valid, invalid))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value(206))
+                .andExpect(jsonPath("$.data.errors", hasSize(1)));
+    }
+
+    @Test
+    @Transactional
+    public void import_user_annotations_rejects_terms_from_another_ontology() throws Exception {
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation();
+        Term otherOntologyTerm = builder.given_a_term();
+        JsonObject invalid = userAnnotation.toJsonObject();
+        invalid.put("term", List.of(otherOntologyTerm.getId()));
+
+        restUserAnnotationControllerMockMvc.perform(post("/api/userannotation/import.json")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(JsonObject.toJsonString(List.of(invalid))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value(400))
+                .andExpect(jsonPath("$.data.errors", hasSize(1)))
+                .andExpect(jsonPath("$.data.errors[0].status").value(400));
+    }
+
+    @Test
+    @Transactional
+    public void import_user_annotations_adds_a_term_given_twice_once() throws Exception {
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation();
+        Term term = builder.given_a_term(userAnnotation.getProject().getOntology());
+        JsonObject annotation = userAnnotation.toJsonObject();
+        annotation.put("term", List.of(term.getId()));
+        annotation.put("terms", List.of(term.getId()));
+
+        restUserAnnotationControllerMockMvc.perform(post("/api/userannotation/import.json")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(JsonObject.toJsonString(List.of(annotation))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value(200));
+
+        AssertionsForClassTypes.assertThat(em.createQuery("SELECT COUNT(at) FROM AnnotationTerm at WHERE at.term = :term")
+                .setParameter("term", term)
+                .getSingleResult()).isEqualTo(1L);
+    }
+
+
     @Test
     @Transactional
     public void edit_valid_user_annotation() throws Exception {
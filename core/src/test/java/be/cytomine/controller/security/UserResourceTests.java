@@ -31,6 +31,7 @@ import be.cytomine.repositorynosql.social.*;
 import be.cytomine.service.PermissionService;
 import be.cytomine.service.database.SequenceService;
 import be.cytomine.service.social.ImageConsultationService;
+import be.cytomine.service.social.PresenceService;
 import be.cytomine.service.social.ProjectConnectionService;
 import be.cytomine.service.social.UserPositionService;
 import be.cytomine.service.social.UserPositionServiceTests;
@@ -82,6 +83,9 @@ public class UserResourceTests {
     @Autowired
     private LastConnectionRepository lastConnectionRepository;
 
+    @Autowired
+    private PresenceService presenceService;
+
     @Autowired
     private PersistentImageConsultationRepository persistentImageConsultationRepository;
 
@@ -125,6 +129,7 @@ public class UserResourceTests {
     public void init() {
         persistentConnectionRepository.deleteAll();
         lastConnectionRepository.deleteAll();
+        presenceService.clear();
         persistentImageConsultationRepository.deleteAll();
         persistentProjectConnectionRepository.deleteAll();
         projectConnectionRepository.deleteAll();
@@ -153,13 +158,7 @@ public class UserResourceTests {
     }
 
     PersistentConnection given_a_last_connection(User user, Long idProject, Date date) {
-        LastConnection connection = new LastConnection();
-        connection.setId(sequenceService.generateID());
-        connection.setUser(user.getId());
-        connection.setDate(date);
-        connection.setCreated(date);
-        connection.setProject(idProject);
-        lastConnectionRepository.insert(connection); //don't use save (stateless collection)
+        presenceService.heartbeat(user.getId(), idProject, date);
 
         PersistentConnection connectionPersist = new PersistentConnection();
         connectionPersist.setId(sequenceService.generateID());
@@ -49,6 +49,7 @@ import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static be.cytomine.service.social.UserPositionServiceTests.ANOTHER_USER_VIEW;
 import static be.cytomine.service.social.UserPositionServiceTests.USER_VIEW;
@@ -231,12 +232,12 @@ public class UserPositionResourceTests {
     @Transactional
     public void list_followers() throws Exception {
         WebSocketSession session = mock(WebSocketSession.class);
-        when(session.getId()).thenReturn("1234");
         ConcurrentWebSocketSessionDecorator sessionDecoratorA = new ConcurrentWebSocketSessionDecorator(session, 0, 0);
         ConcurrentWebSocketSessionDecorator sessionDecoratorB = new ConcurrentWebSocketSessionDecorator(session, 0, 0);
 
         User userA = builder.given_a_user();
         User userB = builder.given_a_user();
+        when(session.getAttributes()).thenReturn(Map.of("userId", userA.getId().toString()));
 
         ImageInstance imageInstance = builder.given_an_image_instance();
         Long imageId = imageInstance.getId();
@@ -244,8 +245,8 @@ public class UserPositionResourceTests {
         String currentUserAndImageId = currentUserId.toString()+"/"+imageId.toString();
 
         WebSocketUserPositionHandler.sessionsBroadcast.put(currentUserAndImageId, sessionDecoratorA);
-        WebSocketUserPositionHandler.sessionsTracked.put(sessionDecoratorA, new ConcurrentWebSocketSessionDecorator[]{sessionDecoratorB});
-        WebSocketUserPositionHandler.sessions.put(userA.getId().toString(), new ConcurrentWebSocketSessionDecorator[]{sessionDecoratorA});
+        WebSocketUserPositionHandler.sessionsTracked.put(currentUserAndImageId, new ConcurrentHashMap<>(Map.of("1234", sessionDecoratorB)));
+        WebSocketUserPositionHandler.sessions.put(userA.getId().toString(), new ConcurrentHashMap<>(Map.of("1234", sessionDecoratorA)));
         UserPositionService.broadcasters.put(currentUserAndImageId, new ArrayList<>(Collections.singleton(userB)));
 
         restUserPositionControllerMockMvc.perform(get("/api/imageinstance/{image}/followers/{user}.json", imageId, currentUserId))
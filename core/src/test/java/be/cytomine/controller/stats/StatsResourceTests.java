@@ -374,6 +374,14 @@ public class StatsResourceTests {
                 .andExpect(status().isOk());
     }
 
+    @Test
+    void runtime_stats_by_prefix() throws Exception {
+        restStatsControllerMockMvc.perform(get("/api/stats/runtime.json").param("prefix", "imageserver.cache"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$['imageserver.cache.hits']").exists())
+                .andExpect(jsonPath("$['locks.acquired']").doesNotExist());
+    }
+
     @Test
     void allGlobalStats() throws Exception {
         restStatsControllerMockMvc.perform(get("/api/stats/all.json"))
@@ -0,0 +1,170 @@
+package be.cytomine.service.appengine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.utils.JsonObject;
+import be.cytomine.utils.PreparedRequest;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.putRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TaskRunProvisioningPipelineTests {
+
+    private static final int ITEMS = 20;
+
+    private WireMockServer wireMockServer;
+
+    private TaskRunProvisioningPipeline pipeline;
+
+    private final UUID taskRunId = UUID.randomUUID();
+
+    private String itemsPath;
+
+    private String baseUrl;
+
+    @BeforeEach
+    public void setup() {
+        wireMockServer = new WireMockServer(WireMockConfiguration.wireMockConfig().dynamicPort());
+        wireMockServer.start();
+        baseUrl = "http://localhost:" + wireMockServer.port();
+
+        RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory());
+        AppEngineService appEngineService = new AppEngineService();
+        ReflectionTestUtils.setField(appEngineService, "internalProxyUrl", baseUrl);
+        ReflectionTestUtils.setField(appEngineService, "apiBasePath", "/app-engine/v1/");
+        ReflectionTestUtils.setField(appEngineService, "restTemplate", restTemplate);
+
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getTaskRunProvisioning().setWorkers(4);
+        applicationProperties.getTaskRunProvisioning().setParallelism(4);
+        pipeline = new TaskRunProvisioningPipeline(appEngineService, applicationProperties);
+
+        itemsPath = "/app-engine/v1/task-runs/" + taskRunId + "/input-provisions/images/indexes";
+        wireMockServer.stubFor(WireMock.get(urlPathMatching("/ims/image/.*/export"))
+            .willReturn(aResponse().withStatus(HttpStatus.OK.value()).withBody(new byte[64 * 1024]))
+        );
+        wireMockServer.stubFor(WireMock.put(urlPathEqualTo(itemsPath))
+            .willReturn(aResponse().withStatus(HttpStatus.OK.value()).withBody("{\"param_name\": \"images\"}"))
+        );
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pipeline.shutdown();
+        wireMockServer.stop();
+    }
+
+    private List<TaskRunProvisioningPipeline.Item> items() {
+        List<TaskRunProvisioningPipeline.Item> items = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            PreparedRequest request = new PreparedRequest();
+            request.setMethod(HttpMethod.GET);
+            request.setUrl(baseUrl + "/ims");
+            request.addPathFragment("image");
+            request.addPathFragment("slide" + i + ".svs");
+            request.addPathFragment("export");
+            items.add(new TaskRunProvisioningPipeline.Item(request, "slide" + i + ".svs"));
+        }
+        return items;
+    }
+
+    private JsonObject progress() {
+        List<JsonObject> progress = pipeline.getProgress(taskRunId);
+        assertEquals(1, progress.size());
+        return progress.get(0);
+    }
+
+    @Test
+    public void provision_collection_streams_every_item() throws Exception {
+        ResponseEntity<String> response = pipeline.provision(taskRunId, "images", items());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        JsonNode json = new ObjectMapper().readTree(response.getBody());
+        assertEquals(ITEMS, json.size());
+
+        for (int i = 0; i < ITEMS; i++) {
+            wireMockServer.verify(1, putRequestedFor(urlPathEqualTo(itemsPath))
+                .withQueryParam("value", equalTo(String.valueOf(i)))
+                .withRequestBody(containing("filename=\"slide" + i + ".svs\""))
+            );
+        }
+
+        JsonObject progress = progress();
+        assertEquals("COMPLETED", progress.get("state"));
+        assertEquals(ITEMS, progress.get("provisioned"));
+    }
+
+    @Test
+    public void provision_collection_stops_at_first_failed_item() {
+        wireMockServer.stubFor(WireMock.put(urlPathEqualTo(itemsPath))
+            .withQueryParam("value", equalTo("0"))
+            .willReturn(aResponse().withStatus(HttpStatus.BAD_REQUEST.value()).withBody("{\"error_code\": \"invalid\"}"))
+        );
+
+        ResponseEntity<String> response = pipeline.provision(taskRunId, "images", items());
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        // the first item is sent alone, nothing is sent after its failure
+        wireMockServer.verify(1, putRequestedFor(urlPathEqualTo(itemsPath)));
+        assertEquals("FAILED", progress().get("state"));
+    }
+
+    @Test
+    public void provision_collection_fails_when_an_item_cannot_be_transferred() {
+        List<TaskRunProvisioningPipeline.Item> items = items();
+        // an invalid item fails with an unexpected exception, after the first item
+        items.set(5, new TaskRunProvisioningPipeline.Item(null, "slide5.svs"));
+
+        ResponseEntity<String> response = pipeline.provision(taskRunId, "images", items);
+
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
+        assertTrue(response.getBody().contains("slide5.svs"));
+        assertEquals("FAILED", progress().get("state"));
+    }
+
+    @Test
+    public void provision_collection_can_be_cancelled() throws Exception {
+        wireMockServer.stubFor(WireMock.get(urlPathMatching("/ims/image/.*/export"))
+            .willReturn(aResponse().withStatus(HttpStatus.OK.value()).withBody(new byte[1024]).withFixedDelay(200))
+        );
+
+        CompletableFuture<ResponseEntity<String>> provisioning =
+            CompletableFuture.supplyAsync(() -> pipeline.provision(taskRunId, "images", items()));
+        while (pipeline.getProgress(taskRunId).isEmpty() || (int) progress().get("provisioned") == 0) {
+            Thread.sleep(20);
+        }
+        pipeline.cancel(taskRunId);
+
+        ResponseEntity<String> response = provisioning.get(10, TimeUnit.SECONDS);
+        assertEquals(HttpStatus.CONFLICT, response.getStatusCode());
+        JsonObject progress = progress();
+        assertEquals("CANCELLED", progress.get("state"));
+        assertTrue((int) progress.get("provisioned") < ITEMS);
+    }
+}
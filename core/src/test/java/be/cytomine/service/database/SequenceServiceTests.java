@@ -0,0 +1,95 @@
+package be.cytomine.service.database;
+
+import be.cytomine.config.properties.ApplicationProperties;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class SequenceServiceTests {
+
+    @Mock
+    EntityManager entityManager;
+
+    @Mock
+    Query query;
+
+    // simulated database sequence
+    AtomicLong sequence = new AtomicLong();
+
+    int count;
+
+    SequenceService sequenceService;
+
+    @BeforeEach
+    public void createService() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getSequence().setBlockSize(10);
+        sequenceService = new SequenceService(entityManager, applicationProperties);
+
+        when(entityManager.createNativeQuery(anyString())).thenReturn(query);
+        when(query.setParameter(eq("count"), any())).thenAnswer(invocation -> {
+            count = invocation.getArgument(1);
+            return query;
+        });
+        when(query.getResultList()).thenAnswer(invocation ->
+                LongStream.range(0, count).map(i -> sequence.incrementAndGet()).boxed().toList());
+    }
+
+    @Test
+    public void ids_are_reserved_by_blocks() {
+        for (int i = 0; i < 25; i++) {
+            assertThat(sequenceService.generateID()).isEqualTo(i + 1L);
+        }
+        verify(query, times(3)).getResultList();
+    }
+
+    @Test
+    public void large_id_batch_is_reserved_at_once() {
+        List<Long> ids = sequenceService.generateIDs(100);
+
+        assertThat(ids).hasSize(100).isSorted().doesNotHaveDuplicates();
+        verify(query, times(1)).getResultList();
+    }
+
+    @Test
+    public void concurrent_ids_are_unique() throws Exception {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        ids.add(sequenceService.generateID());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(ids).hasSize(8000);
+        verify(query, times(800)).getResultList();
+    }
+}
@@ -0,0 +1,109 @@
+package be.cytomine.service.lock;
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.LockProperties;
+import be.cytomine.service.stats.StatsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LockServiceTests {
+
+    ApplicationProperties applicationProperties;
+
+    StatsRegistry stats;
+
+    LockService lockService;
+
+    @BeforeEach
+    public void createService() {
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getLock().setBackend(LockProperties.Backend.MEMORY);
+        applicationProperties.getLock().setWaitTimeout(Duration.ofMillis(100));
+        applicationProperties.getLock().setMaxLocks(2);
+        stats = new StatsRegistry();
+        lockService = new LockService(applicationProperties, null, stats);
+    }
+
+    @AfterEach
+    public void stopService() {
+        lockService.stop();
+    }
+
+    @Test
+    public void lock_is_exclusive_until_closed() throws Exception {
+        HeldLock lock = lockService.tryLock("project/1").get();
+
+        assertThat(CompletableFuture.supplyAsync(() -> lockService.tryLock("project/1")).get()).isEmpty();
+        assertThat(stats.get("locks.timeouts")).isEqualTo(1L);
+
+        lock.close();
+        lock.close();
+        try (HeldLock next = lockService.tryLock("project/1").get()) {
+            assertThat(next.isValid()).isTrue();
+            assertThat(lock.isValid()).isFalse();
+        }
+        assertThat(stats.get("locks.held")).isEqualTo(0);
+        assertThat(stats.get("locks.entries")).isEqualTo(0);
+    }
+
+    @Test
+    public void locks_with_different_names_are_independent() {
+        try (HeldLock first = lockService.tryLock("project/1").get();
+             HeldLock second = lockService.tryLock("project/2").get()) {
+            assertThat(first.isValid()).isTrue();
+            assertThat(second.isValid()).isTrue();
+            // maxLocks reached
+            assertThat(lockService.tryLock("project/3")).isEmpty();
+        }
+        assertThat(lockService.tryLock("project/3")).isPresent();
+    }
+
+    @Test
+    public void closing_a_released_lock_does_not_release_the_next_holder() throws Exception {
+        HeldLock lock = lockService.tryLock("project/1").get();
+        lock.close();
+        HeldLock next = CompletableFuture.supplyAsync(() -> lockService.tryLock("project/1")).get().get();
+
+        lock.close();
+
+        assertThat(next.isValid()).isTrue();
+        assertThat(CompletableFuture.supplyAsync(() -> lockService.tryLock("project/1")).get()).isEmpty();
+        next.close();
+        assertThat(stats.get("locks.lost")).isEqualTo(0L);
+    }
+
+    @Test
+    public void transaction_lock_is_held_until_completion() throws Exception {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            HeldLock lock = lockService.tryLockUntilCompletion("project/1").get();
+            // acquired once per transaction
+            assertThat(lockService.tryLockUntilCompletion("project/1").get()).isSameAs(lock);
+            assertThat(CompletableFuture.supplyAsync(() -> lockService.tryLock("project/1")).get()).isEmpty();
+
+            TransactionSynchronizationUtils.invokeAfterCompletion(
+                    TransactionSynchronizationManager.getSynchronizations(), TransactionSynchronization.STATUS_COMMITTED);
+
+            assertThat(lock.isValid()).isFalse();
+            assertThat(TransactionSynchronizationManager.getResource(lockService)).isNull();
+            assertThat(CompletableFuture.supplyAsync(() -> lockService.tryLock("project/1")).get()).isPresent();
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void transaction_lock_requires_a_transaction() {
+        assertThatThrownBy(() -> lockService.tryLockUntilCompletion("project/1")).isInstanceOf(IllegalStateException.class);
+    }
+}
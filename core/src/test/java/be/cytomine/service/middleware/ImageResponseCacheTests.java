@@ -0,0 +1,217 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.service.stats.StatsRegistry;
+import be.cytomine.utils.PreparedRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpMethod;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ImageResponseCacheTests {
+
+    private final StatsRegistry stats = new StatsRegistry();
+
+    private ImageResponseCache buildCache(long memorySize, Path diskPath) {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getImageCache().setMemorySize(DataSize.ofBytes(memorySize));
+        applicationProperties.getImageCache().setMaxEntrySize(DataSize.ofBytes(memorySize));
+        applicationProperties.getImageCache().setDiskPath(diskPath != null ? diskPath.toString() : null);
+        return new ImageResponseCache(applicationProperties, stats);
+    }
+
+    @Test
+    void key_depends_on_path_parameters_and_body() {
+        ImageResponseCache cache = buildCache(1000, null);
+
+        PreparedRequest request = new PreparedRequest();
+        request.setMethod(HttpMethod.GET);
+        request.setUrl("http://localhost/ims/image/a.tif/thumb");
+        request.addQueryParameter("length", 256);
+        String key = cache.key(request);
+
+        PreparedRequest same = new PreparedRequest();
+        same.setMethod(HttpMethod.GET);
+        same.setUrl("http://localhost/ims/image/a.tif/thumb");
+        same.addQueryParameter("length", 256);
+        assertThat(cache.key(same)).isEqualTo(key);
+
+        same.addQueryParameter("length", 512);
+        assertThat(cache.key(same)).isNotEqualTo(key);
+
+        request.setBody("{\"location\":\"POINT(1 1)\"}");
+        assertThat(cache.key(request)).isNotEqualTo(key);
+    }
+
+    @Test
+    void hit_after_put_and_etag_match() {
+        ImageResponseCache cache = buildCache(1000, null);
+
+        assertThat(cache.get("a")).isNull();
+        ImageResponseCache.Entry entry = cache.put("a", new byte[]{1, 2, 3}, "image/png", null);
+        assertThat(entry.getEtag()).startsWith("\"");
+
+        ImageResponseCache.Entry cached = cache.get("a");
+        assertThat(cached).isNotNull();
+        assertThat(cached.getBytes()).isEqualTo(new byte[]{1, 2, 3});
+        assertThat(cached.getContentType()).isEqualTo("image/png");
+        assertThat(cached.matches(entry.getEtag())).isTrue();
+        assertThat(cached.matches("\"other\", " + entry.getEtag())).isTrue();
+        assertThat(cached.matches("\"other\"")).isFalse();
+        assertThat(cached.matches(null)).isFalse();
+
+        assertThat(stats.get("imageserver.cache.hits")).isEqualTo(1L);
+        assertThat(stats.get("imageserver.cache.misses")).isEqualTo(1L);
+    }
+
+    @Test
+    void frequently_requested_entries_are_not_evicted_by_one_shot_entries() {
+        ImageResponseCache cache = buildCache(10, null);
+
+        cache.get("popular");
+        cache.put("popular", new byte[6], null, null);
+        for (int i = 0; i < 5; i++) {
+            cache.get("popular");
+        }
+
+        cache.get("one-shot");
+        cache.put("one-shot", new byte[6], null, null);
+
+        assertThat(cache.get("popular")).isNotNull();
+        assertThat(cache.get("one-shot")).isNull();
+        assertThat(stats.get("imageserver.cache.rejections")).isEqualTo(1L);
+
+        for (int i = 0; i < 10; i++) {
+            cache.get("new-popular");
+        }
+        cache.put("new-popular", new byte[6], null, null);
+        assertThat(cache.get("new-popular")).isNotNull();
+        assertThat(stats.get("imageserver.cache.evictions")).isEqualTo(1L);
+    }
+
+    @Test
+    void evicted_entries_are_served_from_disk(@TempDir Path directory) {
+        ImageResponseCache cache = buildCache(10, directory);
+
+        cache.get("a");
+        cache.put("a", new byte[]{1, 2, 3, 4, 5, 6}, "image/png", "\"a\"");
+        for (int i = 0; i < 10; i++) {
+            cache.get("b");
+        }
+        cache.put("b", new byte[6], "image/png", "\"b\"");
+
+        ImageResponseCache.Entry entry = cache.get("a");
+        assertThat(entry).isNotNull();
+        assertThat(entry.getBytes()).isEqualTo(new byte[]{1, 2, 3, 4, 5, 6});
+        assertThat(entry.getEtag()).isEqualTo("\"a\"");
+        assertThat(stats.get("imageserver.cache.diskHits")).isEqualTo(1L);
+        assertThat(directory.resolve(ImageResponseCache.DISK_DIRECTORY).resolve("a")).exists();
+    }
+
+    @Test
+    void entries_requested_as_often_as_the_victim_are_admitted() {
+        ImageResponseCache cache = buildCache(10, null);
+
+        cache.get("a");
+        cache.put("a", new byte[6], null, null);
+        cache.get("b");
+        cache.put("b", new byte[6], null, null);
+
+        assertThat(cache.get("b")).isNotNull();
+        assertThat(cache.get("a")).isNull();
+        assertThat(stats.get("imageserver.cache.rejections")).isEqualTo(0L);
+        assertThat(stats.get("imageserver.cache.evictions")).isEqualTo(1L);
+    }
+
+    @Test
+    void new_entries_go_through_the_window() {
+        ImageResponseCache cache = buildCache(1000, null);
+
+        // window of 10 bytes, main LRU of 990 bytes
+        cache.get("popular");
+        cache.put("popular", new byte[990], null, null);
+        for (int i = 0; i < 5; i++) {
+            cache.get("popular");
+        }
+
+        cache.get("first");
+        cache.put("first", new byte[6], null, null);
+        assertThat(cache.get("first")).isNotNull();
+
+        // pushes "first" out of the window, it is not requested as often as "popular"
+        cache.get("second");
+        cache.put("second", new byte[6], null, null);
+        assertThat(cache.get("second")).isNotNull();
+        assertThat(cache.get("first")).isNull();
+        assertThat(cache.get("popular")).isNotNull();
+    }
+
+    @Test
+    void concurrent_reads_are_counted_in_the_admission() throws Exception {
+        ImageResponseCache cache = buildCache(10, null);
+
+        cache.get("popular");
+        cache.put("popular", new byte[6], null, null);
+
+        ExecutorService readers = Executors.newFixedThreadPool(8);
+        List<Future<?>> reads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            reads.add(readers.submit(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    assertThat(cache.get("popular")).isNotNull();
+                }
+            }));
+        }
+        for (Future<?> read : reads) {
+            read.get();
+        }
+        readers.shutdown();
+
+        cache.get("one-shot");
+        cache.put("one-shot", new byte[6], null, null);
+
+        assertThat(cache.get("popular")).isNotNull();
+        assertThat(stats.get("imageserver.cache.hits")).isEqualTo(8001L);
+        assertThat(stats.get("imageserver.cache.rejections")).isEqualTo(1L);
+    }
+
+    @Test
+    void only_the_cache_directory_is_cleared_on_startup(@TempDir Path directory) throws IOException {
+        Path other = Files.writeString(directory.resolve("other"), "data");
+        Path stale = Files.createDirectories(directory.resolve(ImageResponseCache.DISK_DIRECTORY)).resolve("stale");
+        Files.writeString(stale, "data");
+
+        buildCache(10, directory);
+
+        assertThat(other).exists();
+        assertThat(stale).doesNotExist();
+        assertThat(directory.resolve(ImageResponseCache.DISK_DIRECTORY)).isDirectory();
+    }
+}
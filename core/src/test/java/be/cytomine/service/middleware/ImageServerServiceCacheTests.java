@@ -0,0 +1,153 @@
+package be.cytomine.service.middleware;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.image.AbstractImage;
+import be.cytomine.domain.image.AbstractSlice;
+import be.cytomine.dto.image.ImageParameter;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static be.cytomine.service.middleware.ImageServerService.IMS_API_BASE_PATH;
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Image server requests with the response cache enabled, as in production (it is disabled for the other tests)
+ */
+@SpringBootTest(classes = CytomineCoreApplication.class, properties = "application.imageCache.enabled=true")
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class ImageServerServiceCacheTests {
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    ImageServerService imageServerService;
+
+    @Autowired
+    ImageResponseCache imageResponseCache;
+
+    private static WireMockServer wireMockServer = new WireMockServer(8888);
+
+    @BeforeAll
+    public static void beforeAll() {
+        wireMockServer.start();
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        try {
+            wireMockServer.stop();
+        } catch (Exception e) {
+        }
+    }
+
+    private AbstractSlice given_a_slice_with_a_thumb(byte[] thumb) {
+        AbstractImage image = builder.given_an_abstract_image();
+        image.getUploadedFile().setFilename(UUID.randomUUID() + "/CMU-2/CMU-2.mrxs");
+        image.getUploadedFile().setContentType("MRXS");
+        AbstractSlice slice = builder.given_an_abstract_slice(image, 0, 0, 0);
+        slice.setUploadedFile(image.getUploadedFile());
+
+        configureFor("localhost", 8888);
+        stubFor(get(urlEqualTo(thumbUrl(image)))
+                .willReturn(
+                        aResponse().withBody(thumb).withHeader("Content-Type", "image/png").withHeader("Content-Length", String.valueOf(thumb.length))
+                )
+        );
+        return slice;
+    }
+
+    private static String thumbUrl(AbstractImage image) {
+        return IMS_API_BASE_PATH + "/image/" + URLEncoder.encode(image.getPath(), StandardCharsets.UTF_8).replace("%2F", "/") + "/thumb?z_slices=0&timepoints=0&length=256";
+    }
+
+    private static ImageParameter thumbParameters() {
+        ImageParameter imageParameter = new ImageParameter();
+        imageParameter.setMaxSize(256);
+        imageParameter.setFormat("png");
+        return imageParameter;
+    }
+
+    @Test
+    void cache_is_enabled_by_default() {
+        assertThat(imageResponseCache.isEnabled()).isTrue();
+    }
+
+    @Test
+    void thumb_is_requested_once_to_the_image_server() {
+        byte[] thumb = UUID.randomUUID().toString().getBytes();
+        AbstractSlice slice = given_a_slice_with_a_thumb(thumb);
+
+        ResponseEntity<byte[]> first = imageServerService.thumb(slice, thumbParameters(), null, null);
+        ResponseEntity<byte[]> second = imageServerService.thumb(slice, thumbParameters(), null, null);
+
+        assertThat(first.getBody()).isEqualTo(thumb);
+        assertThat(second.getBody()).isEqualTo(thumb);
+        assertThat(second.getHeaders().getETag()).isEqualTo(first.getHeaders().getETag());
+        verify(1, getRequestedFor(urlEqualTo(thumbUrl(slice.getImage()))));
+    }
+
+    @Test
+    void cached_thumb_is_not_modified_for_the_same_etag() {
+        byte[] thumb = UUID.randomUUID().toString().getBytes();
+        AbstractSlice slice = given_a_slice_with_a_thumb(thumb);
+
+        String etag = imageServerService.thumb(slice, thumbParameters(), null, null).getHeaders().getETag();
+        ResponseEntity<byte[]> response = imageServerService.thumb(slice, thumbParameters(), etag, null);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        verify(1, getRequestedFor(urlEqualTo(thumbUrl(slice.getImage()))));
+    }
+
+    @Test
+    void streamed_thumb_is_served_from_the_cache() throws IOException {
+        byte[] thumb = UUID.randomUUID().toString().getBytes();
+        AbstractSlice slice = given_a_slice_with_a_thumb(thumb);
+
+        MockHttpServletResponse first = new MockHttpServletResponse();
+        imageServerService.thumb(slice, thumbParameters(), null, new MockHttpServletRequest(), first);
+        MockHttpServletResponse second = new MockHttpServletResponse();
+        imageServerService.thumb(slice, thumbParameters(), null, new MockHttpServletRequest(), second);
+
+        assertThat(first.getContentAsByteArray()).isEqualTo(thumb);
+        assertThat(second.getContentAsByteArray()).isEqualTo(thumb);
+        assertThat(second.getContentType()).isEqualTo("image/png");
+        verify(1, getRequestedFor(urlEqualTo(thumbUrl(slice.getImage()))));
+    }
+}
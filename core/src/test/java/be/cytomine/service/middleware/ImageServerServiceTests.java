@@ -40,6 +40,8 @@ import org.locationtech.jts.io.WKTReader;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.security.test.context.support.WithMockUser;
 
 import jakarta.transaction.Transactional;
@@ -216,6 +218,44 @@ public class ImageServerServiceTests {
         assertThat(data).isEqualTo(mockResponse);
     }
 
+    @Test
+    void stream_uploaded_file_download_with_range() throws IOException {
+        UploadedFile uploadedFile = builder.given_a_not_persisted_uploaded_file();
+        uploadedFile.setFilename("1636379100999/CMU-2.zip");
+        uploadedFile.setOriginalFilename("CMU-2.zip");
+        uploadedFile.setContentType("ZIP");
+
+        configureFor("localhost", 8888);
+        byte[] mockResponse = UUID.randomUUID().toString().substring(0, 4).getBytes();
+        String url = "/file/" + URLEncoder.encode(uploadedFile.getPath(), StandardCharsets.UTF_8).replace("%2F", "/")
+                + "/export?filename=" + URLEncoder.encode(uploadedFile.getOriginalFilename(), StandardCharsets.UTF_8);
+
+        stubFor(get(urlEqualTo(IMS_API_BASE_PATH + url))
+                .withHeader("Range", equalTo("bytes=0-3"))
+                .willReturn(
+                        aResponse()
+                                .withStatus(206)
+                                .withHeader("Content-Range", "bytes 0-3/1000")
+                                .withHeader("ETag", "\"abc\"")
+                                .withHeader("X-Internal", "hidden")
+                                .withBody(mockResponse)
+                )
+        );
+
+        MockHttpServletRequest clientRequest = new MockHttpServletRequest();
+        clientRequest.addHeader("Range", "bytes=0-3");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        imageServerService.download(uploadedFile, clientRequest, response);
+        printLastRequest();
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader("Content-Range")).isEqualTo("bytes 0-3/1000");
+        assertThat(response.getHeader("Content-Length")).isEqualTo("4");
+        assertThat(response.getHeader("ETag")).isEqualTo("\"abc\"");
+        assertThat(response.getHeader("X-Internal")).isNull();
+        assertThat(response.getContentAsByteArray()).isEqualTo(mockResponse);
+    }
+
     @Test
     void extract_properties_from_abstract_image() throws IOException {
         AbstractImage image = builder.given_an_abstract_image();
@@ -0,0 +1,122 @@
+package be.cytomine.service.ontology;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.domain.project.Project;
+import jakarta.persistence.EntityManager;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(classes = CytomineCoreApplication.class)
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class AnnotationCounterServiceTests {
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @Autowired
+    AnnotationCounterService annotationCounterService;
+
+    @Autowired
+    AnnotationIndexService annotationIndexService;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @BeforeEach
+    public void deferCounters() {
+        // tests run with immediate counters (see application.yml)
+        entityManager.createNativeQuery("SELECT set_config('cytomine.annotation_counters', 'deferred', true)").getSingleResult();
+        annotationCounterService.compact(Integer.MAX_VALUE);
+    }
+
+    @Test
+    void insert_records_a_delta_instead_of_updating_counters() {
+        Project project = builder.given_a_project();
+        UserAnnotation annotation = builder.given_a_user_annotation(project);
+        entityManager.flush();
+
+        assertThat(countAnnotations(project)).isEqualTo(0L);
+        assertThat(annotationCounterService.getPendingCount(List.of(annotation.getSlice().getId()), annotation.getUser().getId())).isEqualTo(1L);
+    }
+
+    @Test
+    void index_count_includes_pending_deltas() {
+        SliceInstance slice = builder.given_a_slice_instance();
+        UserAnnotation annotation = builder.given_a_user_annotation(slice);
+        builder.given_a_user_annotation(slice);
+        entityManager.flush();
+
+        assertThat(annotationIndexService.count(slice, annotation.getUser())).isEqualTo(2L);
+        assertThat(annotationIndexService.count(List.of(slice), annotation.getUser())).isEqualTo(2L);
+    }
+
+    @Test
+    void compaction_folds_deltas_into_counters() {
+        Project project = builder.given_a_project();
+        UserAnnotation annotation = builder.given_a_user_annotation(project);
+        UserAnnotation deleted = builder.given_a_user_annotation(project);
+        builder.given_a_user_annotation(project);
+        entityManager.flush();
+        entityManager.remove(deleted);
+        entityManager.flush();
+
+        assertThat(annotationCounterService.compact(Integer.MAX_VALUE)).isEqualTo(4);
+
+        assertThat(countAnnotations(project)).isEqualTo(2L);
+        assertThat(((Number) entityManager.createNativeQuery("SELECT count_image_annotations FROM image_instance WHERE id = :id")
+                .setParameter("id", annotation.getImage().getId()).getSingleResult()).longValue()).isEqualTo(1L);
+        assertThat(annotationCounterService.getBacklog().get("pending")).isEqualTo(0L);
+        assertThat(annotationIndexService.count(annotation.getSlice(), annotation.getUser())).isEqualTo(1L);
+    }
+
+    @Test
+    void compaction_adds_to_the_existing_index() {
+        SliceInstance slice = builder.given_a_slice_instance();
+        UserAnnotation annotation = builder.given_a_user_annotation(slice);
+        entityManager.flush();
+        annotationCounterService.compact(Integer.MAX_VALUE);
+        builder.given_a_user_annotation(slice);
+        entityManager.flush();
+        annotationCounterService.compact(Integer.MAX_VALUE);
+
+        List<?> indexes = entityManager.createNativeQuery("SELECT count_annotation FROM annotation_index WHERE slice_id = :slice AND user_id = :user")
+                .setParameter("slice", slice.getId())
+                .setParameter("user", annotation.getUser().getId())
+                .getResultList();
+        assertThat(indexes).hasSize(1);
+        assertThat(((Number) indexes.get(0)).longValue()).isEqualTo(2L);
+    }
+
+    private long countAnnotations(Project project) {
+        return ((Number) entityManager.createNativeQuery("SELECT count_annotations FROM project WHERE id = :id")
+                .setParameter("id", project.getId())
+                .getSingleResult()).longValue();
+    }
+}
@@ -22,6 +22,8 @@ import be.cytomine.domain.CytomineDomain;
 import be.cytomine.domain.image.SliceInstance;
 import be.cytomine.domain.ontology.*;
 import be.cytomine.domain.security.User;
+import be.cytomine.dto.Kmeans;
+import be.cytomine.dto.annotation.AnnotationPage;
 import be.cytomine.dto.annotation.AnnotationResult;
 import be.cytomine.exceptions.WrongArgumentException;
 import be.cytomine.repository.ReviewedAnnotationListing;
@@ -30,8 +32,10 @@ import be.cytomine.repository.ontology.UserAnnotationRepository;
 import be.cytomine.service.AnnotationListingService;
 import be.cytomine.service.CommandService;
 import be.cytomine.service.command.TransactionService;
+import be.cytomine.service.utils.AnnotationClusterGridService;
 import be.cytomine.service.utils.KmeansGeometryService;
 import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -41,6 +45,7 @@ import org.springframework.security.test.context.support.WithMockUser;
 
 import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -79,6 +84,9 @@ public class AnnotationListingServiceTests {
     @Autowired
     KmeansGeometryService kmeansGeometryService;
 
+    @Autowired
+    AnnotationClusterGridService annotationClusterGridService;
+
     @Test
     void search_user_annotation_by_project() {
         UserAnnotation userAnnotation = builder.given_a_user_annotation();
@@ -92,6 +100,140 @@ public class AnnotationListingServiceTests {
                 .doesNotContain(userAnnotationFromAnotherProject.getId());
     }
 
+    @Test
+    void stream_user_annotation_by_project_returns_same_annotations_as_list() throws ParseException {
+        UserAnnotation userAnnotation = builder.given_a_user_annotation();
+        builder.given_a_user_annotation(userAnnotation.getSlice(), "POLYGON((1 1,5 1,5 5,1 5,1 1))", userAnnotation.getUser(), null);
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setProject(userAnnotation.getProject().getId());
+        List listed = annotationListingService.listGeneric(userAnnotationListing);
+
+        List<Object> streamed = new ArrayList<>();
+        userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setProject(userAnnotation.getProject().getId());
+        annotationListingService.streamGeneric(userAnnotationListing, streamed::add);
+
+        assertThat(streamed).hasSize(2);
+        assertThat(streamed).isEqualTo(listed);
+    }
+
+    @Test
+    void list_user_annotation_pages_counts_annotations_not_rows() throws ParseException {
+        UserAnnotation a1 = builder.given_a_user_annotation();
+        UserAnnotation a2 = builder.given_a_user_annotation(a1.getSlice(), "POLYGON((1 1,5 1,5 5,1 5,1 1))", a1.getUser(), null);
+        UserAnnotation a3 = builder.given_a_user_annotation(a1.getSlice(), "POLYGON((1 1,5 1,5 5,1 5,1 1))", a1.getUser(), null);
+        // a3 has 2 rows in the listing
+        builder.given_an_annotation_term(a3, builder.given_a_term(a1.getProject().getOntology()));
+        builder.given_an_annotation_term(a3, builder.given_a_term(a1.getProject().getOntology()));
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setProject(a1.getProject().getId());
+        userAnnotationListing.setMax(2);
+        AnnotationPage page = annotationListingService.listPage(userAnnotationListing, true);
+
+        assertThat(page.getTotal()).isEqualTo(3);
+        assertThat(page.getCollection().stream().map(x -> x.get("id"))).containsExactly(a3.getId(), a2.getId());
+        assertThat((List) page.getCollection().get(0).get("term")).hasSize(2);
+        assertThat(page.getNextCursor()).isNotNull();
+
+        userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setProject(a1.getProject().getId());
+        userAnnotationListing.setMax(2);
+        userAnnotationListing.seekAfterCursor(page.getNextCursor());
+        page = annotationListingService.listPage(userAnnotationListing, false);
+
+        assertThat(page.getTotal()).isNull();
+        assertThat(page.getCollection().stream().map(x -> x.get("id"))).containsExactly(a1.getId());
+        assertThat(page.getNextCursor()).isNull();
+    }
+
+    @Test
+    void list_user_annotation_pages_sorted_by_created() throws ParseException {
+        UserAnnotation a1 = builder.given_a_user_annotation();
+        UserAnnotation a2 = builder.given_a_user_annotation(a1.getSlice(), "POLYGON((1 1,5 1,5 5,1 5,1 1))", a1.getUser(), null);
+        UserAnnotation a3 = builder.given_a_user_annotation(a1.getSlice(), "POLYGON((1 1,5 1,5 5,1 5,1 1))", a1.getUser(), null);
+
+        List<Object> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+            userAnnotationListing.setProject(a1.getProject().getId());
+            userAnnotationListing.setSort("created");
+            userAnnotationListing.setAscending(true);
+            userAnnotationListing.setMax(1);
+            if (cursor != null) {
+                userAnnotationListing.seekAfterCursor(cursor);
+            }
+            AnnotationPage page = annotationListingService.listPage(userAnnotationListing, false);
+            page.getCollection().forEach(x -> ids.add(x.get("id")));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        assertThat(ids).containsExactly(a1.getId(), a2.getId(), a3.getId());
+    }
+
+    @Test
+    void cursor_from_another_sort_is_rejected() {
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        String cursor = userAnnotationListing.encodeCursor(10, 10);
+        userAnnotationListing.setSort("created");
+        Assertions.assertThrows(WrongArgumentException.class, () -> userAnnotationListing.seekAfterCursor(cursor));
+    }
+
+    @Test
+    void search_user_annotation_clusters_from_grid() throws ParseException {
+        UserAnnotation userAnnotation = builder.given_a_user_annotation(builder.given_a_slice_instance(), "POLYGON((1 1,5 1,5 5,1 5,1 1))", builder.given_superadmin(), null);
+        builder.given_a_user_annotation(userAnnotation.getSlice(), "POLYGON((10 10,20 10,20 20,10 20,10 10))", userAnnotation.getUser(), null);
+        builder.given_a_user_annotation(userAnnotation.getSlice(), "POLYGON((100000 100000,100010 100000,100010 100010,100000 100010,100000 100000))", userAnnotation.getUser(), null);
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setSlices(List.of(userAnnotation.getSlice().getId()));
+        userAnnotationListing.setUser(userAnnotation.getUser().getId());
+        userAnnotationListing.setBbox("POLYGON((0 0,1000 0,1000 1000,0 1000,0 0))");
+        userAnnotationListing.setKmeansValue(KmeansGeometryService.KMEANSFULL);
+
+        List<Kmeans> clusters = annotationListingService.executeRequest(userAnnotationListing);
+        assertThat(clusters).hasSize(1);
+        assertThat(clusters.get(0).getCount()).isEqualTo(2);
+        assertThat(new WKTReader().read(clusters.get(0).getLocation())
+                .equalsTopo(new WKTReader().read("POLYGON((1 1,5 1,20 10,20 20,10 20,1 5,1 1))"))).isTrue();
+        assertThat(clusters.get(0).getRatio()).isEqualTo(1d);
+
+        userAnnotationListing.setKmeansValue(KmeansGeometryService.KMEANSSOFT);
+        clusters = annotationListingService.executeRequest(userAnnotationListing);
+        assertThat(clusters).hasSize(1);
+        assertThat(clusters.get(0).getLocation()).isEqualTo("POINT (9 9)");
+    }
+
+    @Test
+    void search_user_annotation_clusters_from_grid_shrinks_after_compaction() throws ParseException {
+        UserAnnotation userAnnotation = builder.given_a_user_annotation(builder.given_a_slice_instance(), "POLYGON((1 1,5 1,5 5,1 5,1 1))", builder.given_superadmin(), null);
+        UserAnnotation removed = builder.given_a_user_annotation(userAnnotation.getSlice(), "POLYGON((10 10,20 10,20 20,10 20,10 10))", userAnnotation.getUser(), null);
+        annotationClusterGridService.compact(Integer.MAX_VALUE);
+
+        entityManager.createNativeQuery("UPDATE user_annotation SET deleted = NOW() WHERE id = :id")
+                .setParameter("id", removed.getId())
+                .executeUpdate();
+
+        UserAnnotationListing userAnnotationListing = new UserAnnotationListing(entityManager);
+        userAnnotationListing.setSlices(List.of(userAnnotation.getSlice().getId()));
+        userAnnotationListing.setUser(userAnnotation.getUser().getId());
+        userAnnotationListing.setBbox("POLYGON((0 0,1000 0,1000 1000,0 1000,0 0))");
+        userAnnotationListing.setKmeansValue(KmeansGeometryService.KMEANSFULL);
+
+        List<Kmeans> clusters = annotationListingService.executeRequest(userAnnotationListing);
+        assertThat(clusters).hasSize(1);
+        assertThat(clusters.get(0).getCount()).isEqualTo(1);
+
+        annotationClusterGridService.compact(Integer.MAX_VALUE);
+        clusters = annotationListingService.executeRequest(userAnnotationListing);
+        assertThat(clusters).hasSize(1);
+        assertThat(clusters.get(0).getCount()).isEqualTo(1);
+        assertThat(new WKTReader().read(clusters.get(0).getLocation())
+                .equalsTopo(new WKTReader().read("POLYGON((1 1,5 1,5 5,1 5,1 1))"))).isTrue();
+    }
+
     @Test
     void search_user_annotation_by_image() {
         UserAnnotation userAnnotation = builder.given_a_user_annotation();
@@ -589,6 +589,59 @@ public class ReviewedAnnotationServiceTests {
     }
 
 
+    @Test
+    void review_all_user_layers_with_terms_and_undo_redo() {
+        ImageInstance image = builder.given_an_image_instance();
+        imageInstanceService.startReview(image);
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation(image.getProject());
+        userAnnotation.setImage(image);
+        builder.persistAndReturn(userAnnotation);
+        AnnotationTerm annotationTerm = builder.given_an_annotation_term(userAnnotation);
+        UserAnnotation alreadyReviewed = builder.given_a_not_persisted_user_annotation(image.getProject());
+        alreadyReviewed.setImage(image);
+        alreadyReviewed.setUser(userAnnotation.getUser());
+        builder.persistAndReturn(alreadyReviewed);
+        ReviewedAnnotation existingReview = builder.given_a_not_persisted_reviewed_annotation();
+        existingReview.putParentAnnotation(alreadyReviewed);
+        builder.persistAndReturn(existingReview);
+
+        List<Long> ids = reviewedAnnotationService.reviewLayer(image.getId(), List.of(userAnnotation.getUser().getId()), null);
+        assertThat(ids).hasSize(1);
+        ReviewedAnnotation review = reviewedAnnotationRepository.findByParentIdent(userAnnotation.getId()).get();
+        assertThat(review.getId()).isEqualTo(ids.get(0));
+        assertThat(review.getTerms()).extracting(Term::getId).containsExactly(annotationTerm.getTerm().getId());
+
+        commandService.undo();
+        assertThat(reviewedAnnotationRepository.findByParentIdent(userAnnotation.getId())).isEmpty();
+        assertThat(reviewedAnnotationRepository.findByParentIdent(alreadyReviewed.getId())).isPresent();
+
+        commandService.redo();
+        assertThat(reviewedAnnotationRepository.findByParentIdent(userAnnotation.getId())).isPresent();
+    }
+
+    @Test
+    void unreview_all_user_layers_and_undo() {
+        ImageInstance image = builder.given_an_image_instance();
+        imageInstanceService.startReview(image);
+        UserAnnotation userAnnotation = builder.given_a_not_persisted_user_annotation(image.getProject());
+        userAnnotation.setImage(image);
+        builder.persistAndReturn(userAnnotation);
+        Term term = builder.given_a_term(image.getProject().getOntology());
+        ReviewedAnnotation existingReview = builder.given_a_not_persisted_reviewed_annotation();
+        existingReview.putParentAnnotation(userAnnotation);
+        existingReview.getTerms().add(term);
+        builder.persistAndReturn(existingReview);
+
+        List<Long> ids = reviewedAnnotationService.unreviewLayer(image.getId(), List.of(userAnnotation.getUser().getId()), null);
+        assertThat(ids).hasSize(1);
+        assertThat(reviewedAnnotationRepository.findByParentIdent(userAnnotation.getId())).isEmpty();
+
+        commandService.undo();
+        ReviewedAnnotation review = reviewedAnnotationRepository.findByParentIdent(userAnnotation.getId()).get();
+        // the terms of the review are restored, not the terms of the annotation
+        assertThat(review.getTerms()).extracting(Term::getId).containsExactly(term.getId());
+    }
+
     @Test
     void review_all_user_layers_not_in_review_mode() {
         ImageInstance image = builder.given_an_image_instance();
@@ -0,0 +1,153 @@
+package be.cytomine.service.search;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.io.ParseException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.controller.ontology.UserAnnotationResourceTests;
+import be.cytomine.domain.ontology.UserAnnotation;
+import be.cytomine.service.stats.StatsRegistry;
+
+import static be.cytomine.service.middleware.ImageServerService.IMS_API_BASE_PATH;
+import static be.cytomine.service.search.RetrievalService.CBIR_API_BASE_PATH;
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(classes = CytomineCoreApplication.class)
+public class CbirIndexWorkerTests {
+
+    @Autowired
+    private BasicInstanceBuilder builder;
+
+    @Autowired
+    private CbirIndexOutbox cbirIndexOutbox;
+
+    @Autowired
+    private CbirIndexWorker cbirIndexWorker;
+
+    @Autowired
+    private StatsRegistry statsRegistry;
+
+    private static WireMockServer wireMockServer;
+
+    @BeforeAll
+    public static void beforeAll() {
+        wireMockServer = new WireMockServer(8888);
+        wireMockServer.start();
+    }
+
+    @AfterAll
+    public static void afterAll() {
+        wireMockServer.stop();
+    }
+
+    @BeforeEach
+    public void setupStub() throws InterruptedException {
+        wireMockServer.resetRequests();
+        wireMockServer.resetMappings();
+
+        /* Simulate call to PIMS */
+        wireMockServer.stubFor(WireMock.post(urlPathMatching(IMS_API_BASE_PATH + "/image/.*/annotation/drawing"))
+            .willReturn(aResponse()
+                .withStatus(HttpStatus.OK.value())
+                .withBody(UUID.randomUUID().toString().getBytes())
+            )
+        );
+
+        /* Simulate call to CBIR */
+        wireMockServer.stubFor(WireMock.post(urlPathEqualTo(CBIR_API_BASE_PATH + "/images"))
+            .willReturn(aResponse().withStatus(HttpStatus.OK.value()))
+        );
+        wireMockServer.stubFor(WireMock.delete(urlPathMatching(CBIR_API_BASE_PATH + "/images/.*"))
+            .willReturn(aResponse().withStatus(HttpStatus.OK.value()))
+        );
+
+        /* Events recorded by other tests */
+        while (cbirIndexWorker.drain() > 0) {
+        }
+    }
+
+    @Test
+    public void index_event_is_processed() throws ParseException, InterruptedException {
+        UserAnnotation annotation = UserAnnotationResourceTests.given_a_user_annotation_with_valid_image_server(builder);
+        cbirIndexOutbox.enqueueIndex(annotation);
+
+        cbirIndexWorker.drain();
+
+        wireMockServer.verify(1, WireMock.postRequestedFor(urlPathEqualTo(CBIR_API_BASE_PATH + "/images"))
+            .withQueryParam("storage", WireMock.equalTo(annotation.getProject().getId().toString()))
+            .withQueryParam("index", WireMock.equalTo("annotation"))
+            .withRequestBody(WireMock.containing("filename=\"" + annotation.getId() + "\"")));
+    }
+
+    @Test
+    public void index_event_followed_by_delete_event_only_deletes() throws ParseException, InterruptedException {
+        UserAnnotation annotation = UserAnnotationResourceTests.given_a_user_annotation_with_valid_image_server(builder);
+        cbirIndexOutbox.enqueueIndex(annotation);
+        cbirIndexOutbox.enqueueDelete(annotation);
+
+        cbirIndexWorker.drain();
+
+        wireMockServer.verify(0, WireMock.postRequestedFor(urlPathEqualTo(CBIR_API_BASE_PATH + "/images"))
+            .withRequestBody(WireMock.containing("filename=\"" + annotation.getId() + "\"")));
+        wireMockServer.verify(1, WireMock.deleteRequestedFor(urlPathEqualTo(CBIR_API_BASE_PATH + "/images/" + annotation.getId())));
+    }
+
+    @Test
+    public void delete_event_waits_for_the_index_event_claimed_by_another_worker() throws ParseException, InterruptedException {
+        UserAnnotation annotation = UserAnnotationResourceTests.given_a_user_annotation_with_valid_image_server(builder);
+        cbirIndexOutbox.enqueueIndex(annotation);
+        // claimed by another instance
+        List<CbirIndexOutbox.Event> claimed = cbirIndexOutbox.claim(10, Duration.ofMinutes(5));
+        cbirIndexOutbox.enqueueDelete(annotation);
+
+        cbirIndexWorker.drain();
+        wireMockServer.verify(0, WireMock.deleteRequestedFor(urlPathEqualTo(CBIR_API_BASE_PATH + "/images/" + annotation.getId())));
+
+        cbirIndexOutbox.acknowledge(claimed.stream().map(CbirIndexOutbox.Event::getId).toList());
+        cbirIndexWorker.drain();
+        wireMockServer.verify(1, WireMock.deleteRequestedFor(urlPathEqualTo(CBIR_API_BASE_PATH + "/images/" + annotation.getId())));
+    }
+
+    @Test
+    public void failed_event_is_retried_after_backoff() throws ParseException, InterruptedException {
+        wireMockServer.stubFor(WireMock.post(urlPathEqualTo(CBIR_API_BASE_PATH + "/images"))
+            .willReturn(aResponse().withStatus(HttpStatus.SERVICE_UNAVAILABLE.value()))
+        );
+        UserAnnotation annotation = UserAnnotationResourceTests.given_a_user_annotation_with_valid_image_server(builder);
+        cbirIndexOutbox.enqueueIndex(annotation);
+        long failures = (Long) statsRegistry.get("retrieval.index.failures");
+
+        cbirIndexWorker.drain();
+        cbirIndexWorker.drain();
+
+        wireMockServer.verify(1, WireMock.postRequestedFor(urlPathEqualTo(CBIR_API_BASE_PATH + "/images"))
+            .withRequestBody(WireMock.containing("filename=\"" + annotation.getId() + "\"")));
+        assertEquals(failures + 1, statsRegistry.get("retrieval.index.failures"));
+        assertTrue((Long) cbirIndexOutbox.getBacklog().get("pending") >= 1);
+    }
+
+    @Test
+    public void backoff_is_exponential_and_bounded() {
+        assertEquals(Duration.ofSeconds(5), cbirIndexWorker.getBackoff(0));
+        assertEquals(Duration.ofSeconds(10), cbirIndexWorker.getBackoff(1));
+        assertEquals(Duration.ofSeconds(40), cbirIndexWorker.getBackoff(3));
+        assertEquals(Duration.ofHours(1), cbirIndexWorker.getBackoff(15));
+    }
+}
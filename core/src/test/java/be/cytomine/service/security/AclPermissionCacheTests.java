@@ -0,0 +1,134 @@
+package be.cytomine.service.security;
+
+import be.cytomine.config.properties.AclCacheProperties;
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.service.stats.StatsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AclPermissionCacheTests {
+
+    ApplicationProperties applicationProperties;
+
+    StatsRegistry stats;
+
+    AclPermissionCache cache;
+
+    AtomicInteger loads;
+
+    @BeforeEach
+    public void createCache() {
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getAclCache().setMaxEntries(2);
+        applicationProperties.getAclCache().setReplication(AclCacheProperties.Replication.NONE);
+        stats = new StatsRegistry();
+        cache = new AclPermissionCache(applicationProperties, null, stats);
+        loads = new AtomicInteger();
+    }
+
+    @AfterEach
+    public void cleanThread() {
+        RequestContextHolder.resetRequestAttributes();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void masks_are_read_once() {
+        assertThat(cache.getMasks(1L, "user", loader(List.of(1, 16)))).containsExactly(1, 16);
+        assertThat(cache.getMasks(1L, "user", loader(List.of(1, 16)))).containsExactly(1, 16);
+
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(stats.get("acl.cache.hits")).isEqualTo(1L);
+        assertThat(stats.get("acl.cache.misses")).isEqualTo(1L);
+    }
+
+    @Test
+    public void masks_are_memoized_in_request() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        cache.getMasks(1L, "user", loader(List.of(1)));
+        cache.clear();
+        cache.getMasks(1L, "user", loader(List.of(1)));
+
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(stats.get("acl.cache.requestHits")).isEqualTo(1L);
+    }
+
+    @Test
+    public void invalidated_masks_are_read_again() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        cache.getMasks(1L, "user", loader(List.of(1)));
+        cache.getMasks(1L, "other", loader(List.of(1)));
+
+        cache.invalidate(1L, "user");
+
+        assertThat(cache.getMasks(1L, "user", loader(List.of(1, 16)))).containsExactly(1, 16);
+        cache.getMasks(1L, "other", loader(List.of(1)));
+        assertThat(loads.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void masks_changed_in_transaction_are_not_cached_before_completion() {
+        TransactionSynchronizationManager.initSynchronization();
+        cache.invalidate(1L, "user");
+        cache.getMasks(1L, "user", loader(List.of(1)));
+        cache.getMasks(1L, "user", loader(List.of(1)));
+        assertThat(loads.get()).isEqualTo(2);
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+        cache.getMasks(1L, "user", loader(List.of()));
+        assertThat(cache.getMasks(1L, "user", loader(List.of()))).isEmpty();
+        assertThat(loads.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void least_recently_used_masks_are_evicted() {
+        cache.getMasks(1L, "user", loader(List.of(1)));
+        cache.getMasks(2L, "user", loader(List.of(1)));
+        cache.getMasks(1L, "user", loader(List.of(1)));
+        cache.getMasks(3L, "user", loader(List.of(1)));
+
+        cache.getMasks(1L, "user", loader(List.of(1)));
+        assertThat(loads.get()).isEqualTo(3);
+        cache.getMasks(2L, "user", loader(List.of(1)));
+        assertThat(loads.get()).isEqualTo(4);
+        assertThat(stats.get("acl.cache.evictions")).isEqualTo(2L);
+    }
+
+    @Test
+    public void masks_invalidated_by_another_instance_are_read_again() {
+        cache.getMasks(1L, "user,name", loader(List.of(1)));
+        cache.getMasks(2L, "user", loader(List.of(1)));
+
+        cache.receive("other-instance,1/user,name");
+        cache.getMasks(1L, "user,name", loader(List.of(1, 16)));
+        cache.getMasks(2L, "user", loader(List.of(1)));
+        assertThat(loads.get()).isEqualTo(3);
+
+        cache.receive("other-instance,*");
+        cache.getMasks(2L, "user", loader(List.of(1)));
+        assertThat(loads.get()).isEqualTo(4);
+    }
+
+    private Supplier<List<Integer>> loader(List<Integer> masks) {
+        return () -> {
+            loads.incrementAndGet();
+            return masks;
+        };
+    }
+}
@@ -48,6 +48,7 @@ import be.cytomine.service.PermissionService;
 import be.cytomine.service.database.SequenceService;
 import be.cytomine.service.search.UserSearchExtension;
 import be.cytomine.service.social.ImageConsultationService;
+import be.cytomine.service.social.PresenceService;
 import be.cytomine.service.social.ProjectConnectionService;
 import be.cytomine.service.social.UserPositionService;
 import be.cytomine.service.social.UserPositionServiceTests;
@@ -89,6 +90,9 @@ public class UserServiceTests {
     @Autowired
     private LastConnectionRepository lastConnectionRepository;
 
+    @Autowired
+    private PresenceService presenceService;
+
     @Autowired
     private PersistentImageConsultationRepository persistentImageConsultationRepository;
 
@@ -148,6 +152,7 @@ public class UserServiceTests {
     public void init() {
         persistentConnectionRepository.deleteAll();
         lastConnectionRepository.deleteAll();
+        presenceService.clear();
         persistentImageConsultationRepository.deleteAll();
         persistentProjectConnectionRepository.deleteAll();
         projectConnectionRepository.deleteAll();
@@ -165,13 +170,7 @@ public class UserServiceTests {
     }
 
     PersistentConnection given_a_last_connection(User user, Long idProject, Date date) {
-            LastConnection connection = new LastConnection();
-            connection.setId(sequenceService.generateID());
-            connection.setUser(user.getId());
-            connection.setDate(date);
-            connection.setCreated(date);
-            connection.setProject(idProject);
-            lastConnectionRepository.insert(connection); //don't use save (stateless collection)
+            presenceService.heartbeat(user.getId(), idProject, date);
 
             PersistentConnection connectionPersist = new PersistentConnection();
             connectionPersist.setId(sequenceService.generateID());
@@ -125,6 +125,29 @@ public class ImageConsultationServiceTests {
     }
 
 
+    @Test
+    void close_counts_active_time_from_positions() {
+        User user = builder.given_superadmin();
+        ImageInstance imageInstance = builder.given_a_slice_instance().getImage();
+        SliceInstance slice = sliceCoordinatesService.getReferenceSlice(imageInstance);
+        Date start = DateUtils.addMinutes(new Date(), -10);
+
+        PersistentImageConsultation consultation = given_a_persistent_image_consultation(user, imageInstance, start);
+        given_a_persistent_user_position(DateUtils.addSeconds(start, 5), user, slice, USER_VIEW);
+        given_a_persistent_user_position(DateUtils.addSeconds(start, 10), user, slice, USER_VIEW);
+        // inactivity of 30 seconds, not counted
+        given_a_persistent_user_position(DateUtils.addSeconds(start, 40), user, slice, USER_VIEW);
+        given_a_persistent_user_position(DateUtils.addSeconds(start, 45), user, slice, USER_VIEW);
+
+        given_a_persistent_image_consultation(user, imageInstance, DateUtils.addSeconds(start, 60));
+
+        AssertionsForClassTypes.assertThat(persistentImageConsultationRepository.findById(consultation.getId()).get().getTime()).isEqualTo(15000L);
+        List<JsonObject> resume = imageConsultationService.resumeByUserAndProject(user.getId(), imageInstance.getProject().getId());
+        assertThat(resume).hasSize(1);
+        AssertionsForClassTypes.assertThat(resume.get(0).get("time")).isEqualTo(15000L);
+        AssertionsForClassTypes.assertThat(resume.get(0).get("frequency")).isEqualTo(2);
+    }
+
     @Test
     void fill_project_connection_update_annotations_counter() {
         User user = builder.given_superadmin();
@@ -0,0 +1,136 @@
+package be.cytomine.service.social;
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.PresenceProperties;
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+
+import java.time.Duration;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class PresenceServiceTests {
+
+    private PresenceService presenceService;
+
+    @BeforeEach
+    public void setUp() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getPresence().setReplication(PresenceProperties.Replication.NONE);
+        applicationProperties.getPresence().setTtl(Duration.ofMinutes(5));
+        presenceService = new PresenceService(applicationProperties, new DataSourceProperties());
+        presenceService.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        presenceService.stop();
+    }
+
+    @Test
+    void heartbeat_makes_user_online_in_project() {
+        presenceService.heartbeat(1L, 10L);
+        presenceService.heartbeat(2L, 20L);
+        presenceService.heartbeat(3L, null);
+
+        assertThat(presenceService.getOnlineUserIds()).containsExactlyInAnyOrder(1L, 2L, 3L);
+        assertThat(presenceService.getOnlineUserIds(10L)).containsExactly(1L);
+        assertThat(presenceService.getOnlineUserIds(30L)).isEmpty();
+        assertThat(presenceService.isOnline(1L, 10L)).isTrue();
+        assertThat(presenceService.isOnline(1L, 20L)).isFalse();
+    }
+
+    @Test
+    void heartbeat_older_than_ttl_is_ignored() {
+        presenceService.heartbeat(1L, 10L, DateUtils.addMinutes(new Date(), -10));
+        presenceService.heartbeat(2L, 10L, DateUtils.addMinutes(new Date(), -1));
+
+        assertThat(presenceService.getOnlineUserIds()).containsExactly(2L);
+        assertThat(presenceService.getOnlineUserIds(10L)).containsExactly(2L);
+    }
+
+    @Test
+    void older_heartbeat_does_not_replace_last_one() {
+        presenceService.heartbeat(1L, 10L);
+        presenceService.heartbeat(1L, 10L, DateUtils.addMinutes(new Date(), -10));
+
+        assertThat(presenceService.isOnline(1L, 10L)).isTrue();
+    }
+
+    @Test
+    void expired_heartbeats_are_removed() throws InterruptedException {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getPresence().setReplication(PresenceProperties.Replication.NONE);
+        applicationProperties.getPresence().setTtl(Duration.ofMillis(50));
+        PresenceService shortPresence = new PresenceService(applicationProperties, new DataSourceProperties());
+
+        shortPresence.heartbeat(1L, 10L);
+        assertThat(shortPresence.getOnlineUserIds(10L)).containsExactly(1L);
+
+        Thread.sleep(100);
+        shortPresence.removeExpired();
+
+        assertThat(shortPresence.getOnlineUserIds()).isEmpty();
+        assertThat(shortPresence.getOnlineUserIds(10L)).isEmpty();
+        assertThat(shortPresence.isOnline(1L, 10L)).isFalse();
+    }
+
+    @Test
+    void heartbeats_of_other_instances_are_recorded() {
+        presenceService.receive("another-instance,1,10");
+        presenceService.receive("another-instance,2,");
+
+        assertThat(presenceService.getOnlineUserIds()).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(presenceService.getOnlineUserIds(10L)).containsExactly(1L);
+    }
+
+    @Test
+    void heartbeat_makes_user_online_on_image() {
+        Date now = new Date();
+        presenceService.heartbeat(1L, 10L, 100L, 1000L, false, now);
+        presenceService.heartbeat(2L, 10L, 100L, 1001L, true, now);
+        presenceService.heartbeat(3L, 10L, 100L, 1000L, false, DateUtils.addMinutes(now, -1));
+        presenceService.heartbeat(4L, 10L, 200L, 2000L, false, now);
+
+        Date since = DateUtils.addSeconds(now, -30);
+        assertThat(presenceService.getOnlineUserIds(100L, null, false, since)).containsExactlyInAnyOrder(1L, 2L);
+        assertThat(presenceService.getOnlineUserIds(100L, 1000L, false, since)).containsExactly(1L);
+        assertThat(presenceService.getOnlineUserIds(100L, null, true, since)).containsExactly(2L);
+        assertThat(presenceService.getOnlineUserIds(300L, null, false, since)).isEmpty();
+        assertThat(presenceService.getOnlineUserIds(10L)).containsExactlyInAnyOrder(1L, 2L, 3L, 4L);
+    }
+
+    @Test
+    void heartbeats_are_broadcast_once_per_interval_since_last_broadcast() {
+        ApplicationProperties applicationProperties = new ApplicationProperties();
+        applicationProperties.getPresence().setReplication(PresenceProperties.Replication.POSTGRES);
+        applicationProperties.getPresence().setTtl(Duration.ofMinutes(5));
+        applicationProperties.getPresence().setBroadcastInterval(Duration.ofMinutes(1));
+        PresenceService replicatedPresence = spy(new PresenceService(applicationProperties, new DataSourceProperties()));
+        doNothing().when(replicatedPresence).publish(anyString());
+
+        // a heartbeat every half interval: the user is never idle for an interval, but is broadcast every interval
+        Date now = new Date();
+        for (int seconds = 240; seconds >= 0; seconds -= 30) {
+            replicatedPresence.heartbeat(1L, 10L, DateUtils.addSeconds(now, -seconds));
+        }
+        replicatedPresence.heartbeat(1L, 10L, 100L, 1000L, false, now);
+
+        verify(replicatedPresence, times(5)).publish(endsWith(",1,10,,,false"));
+        verify(replicatedPresence, times(1)).publish(endsWith(",1,10,100,1000,false"));
+    }
+
+    @Test
+    void image_heartbeats_of_other_instances_are_recorded() {
+        presenceService.receive("another-instance,1,10,100,1000,true");
+
+        assertThat(presenceService.getOnlineUserIds(10L)).containsExactly(1L);
+        assertThat(presenceService.getOnlineUserIds(100L, 1000L, true, DateUtils.addSeconds(new Date(), -30))).containsExactly(1L);
+    }
+}
@@ -22,7 +22,6 @@ import be.cytomine.domain.image.ImageInstance;
 import be.cytomine.domain.ontology.UserAnnotation;
 import be.cytomine.domain.project.Project;
 import be.cytomine.domain.security.User;
-import be.cytomine.domain.social.LastConnection;
 import be.cytomine.domain.social.PersistentImageConsultation;
 import be.cytomine.domain.social.PersistentProjectConnection;
 import be.cytomine.repositorynosql.social.LastConnectionRepository;
@@ -73,6 +72,9 @@ public class ProjectConnectionServiceTests {
     @Autowired
     LastConnectionRepository lastConnectionRepository;
 
+    @Autowired
+    PresenceService presenceService;
+
     @Autowired
     ImageConsultationService imageConsultationService;
 
@@ -80,6 +82,7 @@ public class ProjectConnectionServiceTests {
     public void cleanDB() {
         persistentProjectConnectionRepository.deleteAll();
         lastConnectionRepository.deleteAll();
+        presenceService.clear();
     }
 
     
@@ -603,12 +606,8 @@ public class ProjectConnectionServiceTests {
         return connection;
     }
 
-    LastConnection given_a_last_connection(User user, Project project) {
-        LastConnection lastConnection = new LastConnection();
-        lastConnection.setId(sequenceService.generateID());
-        lastConnection.setProject(project.getId());
-        lastConnection.setUser(user.getId());
-        return lastConnectionRepository.insert(lastConnection);
+    void given_a_last_connection(User user, Project project) {
+        presenceService.heartbeat(user.getId(), project.getId());
     }
 
     PersistentImageConsultation given_a_persistent_image_consultation(User user, ImageInstance imageInstance, Date created) {
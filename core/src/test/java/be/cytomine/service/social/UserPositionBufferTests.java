@@ -0,0 +1,214 @@
+package be.cytomine.service.social;
+
+import be.cytomine.config.properties.ApplicationProperties;
+import be.cytomine.config.properties.UserPositionProperties;
+import be.cytomine.domain.social.LastUserPosition;
+import be.cytomine.domain.social.PersistentUserPosition;
+import be.cytomine.service.stats.StatsRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class UserPositionBufferTests {
+
+    @Mock
+    MongoTemplate mongoTemplate;
+
+    @Mock
+    ImageConsultationActivityService imageConsultationActivityService;
+
+    ApplicationProperties applicationProperties;
+
+    StatsRegistry stats;
+
+    UserPositionBuffer buffer;
+
+    @BeforeEach
+    public void createBuffer() {
+        applicationProperties = new ApplicationProperties();
+        applicationProperties.getUserPosition().setBatchSize(100);
+        stats = new StatsRegistry();
+        buffer = new UserPositionBuffer(mongoTemplate, applicationProperties, imageConsultationActivityService, stats);
+    }
+
+    @Test
+    public void positions_are_read_from_memory_before_flush() {
+        Date now = new Date();
+        buffer.record(lastPosition(1L, 10L, 100L, false, now), persistentPosition(1L));
+
+        verifyNoInteractions(mongoTemplate);
+        assertThat(buffer.getLastPosition(10L, null, 1L, false).get().getId()).isEqualTo(1L);
+        assertThat(buffer.getLastPosition(10L, 100L, 1L, false)).isPresent();
+        assertThat(buffer.getLastPosition(10L, 101L, 1L, false)).isEmpty();
+        assertThat(buffer.getLastPosition(10L, null, 1L, true)).isEmpty();
+    }
+
+    @Test
+    public void latest_broadcast_position_is_kept_with_latest_position() {
+        Date now = new Date();
+        buffer.record(lastPosition(1L, 10L, 100L, true, new Date(now.getTime() - 1000)), persistentPosition(1L));
+        buffer.record(lastPosition(2L, 10L, 100L, false, now), persistentPosition(2L));
+
+        assertThat(buffer.getLastPosition(10L, null, 1L, false).get().getId()).isEqualTo(2L);
+        assertThat(buffer.getLastPosition(10L, null, 1L, true).get().getId()).isEqualTo(1L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void flush_writes_all_persistent_positions_and_newest_last_positions() {
+        Date now = new Date();
+        buffer.record(lastPosition(1L, 10L, 100L, false, new Date(now.getTime() - 1000)), persistentPosition(1L));
+        buffer.record(lastPosition(2L, 10L, 100L, false, now), persistentPosition(2L));
+        buffer.record(lastPosition(3L, 10L, 101L, false, now), persistentPosition(3L));
+
+        buffer.flush();
+
+        ArgumentCaptor<Collection<LastUserPosition>> positions = ArgumentCaptor.forClass(Collection.class);
+        ArgumentCaptor<Collection<PersistentUserPosition>> persistedPositions = ArgumentCaptor.forClass(Collection.class);
+        verify(mongoTemplate).insert(positions.capture(), eq(LastUserPosition.class));
+        verify(mongoTemplate).insert(persistedPositions.capture(), eq(PersistentUserPosition.class));
+        assertThat(positions.getValue()).extracting(LastUserPosition::getId).containsExactly(2L, 3L);
+        assertThat(persistedPositions.getValue()).extracting(PersistentUserPosition::getId).containsExactly(1L, 2L, 3L);
+        verify(imageConsultationActivityService).recordPositions(persistedPositions.getValue());
+        assertThat(stats.get("userposition.buffer.pending")).isEqualTo(0);
+        assertThat(stats.get("userposition.buffer.coalesced")).isEqualTo(1L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void flush_of_a_user_and_image_keeps_the_other_positions_buffered() {
+        Date now = new Date();
+        buffer.record(lastPosition(1L, 10L, 100L, false, now), persistentPosition(1L));
+        LastUserPosition otherUser = lastPosition(2L, 10L, 100L, false, now);
+        otherUser.setUser(2L);
+        buffer.record(otherUser, persistentPosition(2L));
+        buffer.record(lastPosition(3L, 11L, 100L, false, now), persistentPosition(3L));
+
+        buffer.flush(1L, 10L);
+
+        ArgumentCaptor<Collection<PersistentUserPosition>> persistedPositions = ArgumentCaptor.forClass(Collection.class);
+        verify(mongoTemplate).insert(persistedPositions.capture(), eq(PersistentUserPosition.class));
+        assertThat(persistedPositions.getValue()).extracting(PersistentUserPosition::getId).containsExactly(1L);
+        assertThat(stats.get("userposition.buffer.pending")).isEqualTo(2);
+
+        buffer.flush();
+        verify(mongoTemplate, times(2)).insert(persistedPositions.capture(), eq(PersistentUserPosition.class));
+        assertThat(persistedPositions.getValue()).extracting(PersistentUserPosition::getId).containsExactly(2L, 3L);
+    }
+
+    @Test
+    public void full_buffer_is_written_by_the_request() {
+        applicationProperties.getUserPosition().setMaxPending(2);
+        buffer.record(lastPosition(1L, 10L, 100L, false, new Date()), persistentPosition(1L));
+        verifyNoInteractions(mongoTemplate);
+
+        buffer.record(lastPosition(2L, 10L, 100L, false, new Date()), persistentPosition(2L));
+
+        verify(mongoTemplate).insert(any(Collection.class), eq(PersistentUserPosition.class));
+        assertThat(stats.get("userposition.buffer.pending")).isEqualTo(0);
+    }
+
+    @Test
+    public void synchronous_durability_writes_positions_and_reads_database() {
+        applicationProperties.getUserPosition().setDurability(UserPositionProperties.Durability.SYNCHRONOUS);
+        LastUserPosition position = lastPosition(1L, 10L, 100L, false, new Date());
+        PersistentUserPosition persistedPosition = persistentPosition(1L);
+
+        buffer.record(position, persistedPosition);
+
+        verify(mongoTemplate).insert(position);
+        verify(mongoTemplate).insert(persistedPosition);
+        verify(imageConsultationActivityService).recordPositions(List.of(persistedPosition));
+        assertThat(buffer.getLastPosition(10L, null, 1L, false)).isEmpty();
+    }
+
+    @Test
+    public void tracked_positions_are_bounded() {
+        applicationProperties.getUserPosition().setMaxTracked(1);
+        buffer.record(lastPosition(1L, 10L, 100L, false, new Date()), persistentPosition(1L));
+        buffer.record(lastPosition(2L, 11L, 100L, false, new Date()), persistentPosition(2L));
+
+        assertThat(stats.get("userposition.buffer.tracked")).isEqualTo(1);
+        // memory does not know all the positions anymore, reads are merged with the database
+        applicationProperties.getUserPosition().setSingleNode(true);
+        assertThat(buffer.isComplete()).isFalse();
+    }
+
+    @Test
+    public void memory_is_complete_only_on_a_single_node() {
+        buffer.record(lastPosition(1L, 10L, 100L, false, new Date()), persistentPosition(1L));
+        assertThat(buffer.isComplete()).isFalse();
+        assertThat(buffer.getLastPosition(10L, null, 1L, false)).isPresent();
+
+        applicationProperties.getUserPosition().setSingleNode(true);
+        assertThat(buffer.isComplete()).isTrue();
+    }
+
+    @Test
+    public void failed_batches_are_retried() {
+        when(mongoTemplate.insert(any(Collection.class), eq(LastUserPosition.class))).thenThrow(new RuntimeException("unavailable"));
+        LastUserPosition position = lastPosition(1L, 10L, 100L, false, new Date());
+        PersistentUserPosition persistedPosition = persistentPosition(1L);
+        buffer.record(position, persistedPosition);
+
+        buffer.flush();
+        assertThat(stats.get("userposition.buffer.failed")).isEqualTo(1);
+        verifyNoInteractions(imageConsultationActivityService);
+
+        buffer.retryFailed();
+        verify(mongoTemplate).save(position);
+        verify(mongoTemplate).save(persistedPosition);
+        verify(imageConsultationActivityService).recordPositions(List.of(persistedPosition));
+        assertThat(stats.get("userposition.buffer.failed")).isEqualTo(0);
+        assertThat(stats.get("userposition.buffer.written")).isEqualTo(1L);
+        assertThat(stats.get("userposition.buffer.lost")).isEqualTo(0L);
+    }
+
+    @Test
+    public void positions_are_lost_after_the_last_retry() {
+        applicationProperties.getUserPosition().setMaxRetries(2);
+        when(mongoTemplate.insert(any(Collection.class), eq(LastUserPosition.class))).thenThrow(new RuntimeException("unavailable"));
+        when(mongoTemplate.save(any(LastUserPosition.class))).thenThrow(new RuntimeException("unavailable"));
+        buffer.record(lastPosition(1L, 10L, 100L, false, new Date()), persistentPosition(1L));
+
+        buffer.flush();
+        buffer.retryFailed();
+        assertThat(stats.get("userposition.buffer.failed")).isEqualTo(1);
+        buffer.retryFailed();
+
+        assertThat(stats.get("userposition.buffer.failed")).isEqualTo(0);
+        assertThat(stats.get("userposition.buffer.lost")).isEqualTo(1L);
+        verifyNoInteractions(imageConsultationActivityService);
+    }
+
+    private static LastUserPosition lastPosition(Long id, Long image, Long slice, boolean broadcast, Date created) {
+        LastUserPosition position = new LastUserPosition();
+        position.setId(id);
+        position.setUser(1L);
+        position.setImage(image);
+        position.setSlice(slice);
+        position.setBroadcast(broadcast);
+        position.setCreated(created);
+        return position;
+    }
+
+    private static PersistentUserPosition persistentPosition(Long id) {
+        PersistentUserPosition position = new PersistentUserPosition();
+        position.setId(id);
+        return position;
+    }
+}
@@ -391,15 +391,15 @@ public class UserPositionServiceTests {
     @Test
     public void list_followers() {
         WebSocketSession session = mock(WebSocketSession.class);
-        when(session.getId()).thenReturn("1234");
 
         ConcurrentWebSocketSessionDecorator sessionDecorator = new ConcurrentWebSocketSessionDecorator(session, 0, 0);
 
         User user = builder.given_a_user();
+        when(session.getAttributes()).thenReturn(Map.of("userId", user.getId().toString()));
 
         WebSocketUserPositionHandler.sessionsBroadcast.put(user.getId().toString()+"/514", sessionDecorator);
-        WebSocketUserPositionHandler.sessionsTracked.put(sessionDecorator, new ConcurrentWebSocketSessionDecorator[]{new ConcurrentWebSocketSessionDecorator(session, 0, 0)});
-        WebSocketUserPositionHandler.sessions.put(user.getId().toString(), new ConcurrentWebSocketSessionDecorator[]{new ConcurrentWebSocketSessionDecorator(session, 0, 0)});
+        WebSocketUserPositionHandler.sessionsTracked.put(user.getId().toString()+"/514", new ConcurrentHashMap<>(Map.of("1234", new ConcurrentWebSocketSessionDecorator(session, 0, 0))));
+        WebSocketUserPositionHandler.sessions.put(user.getId().toString(), new ConcurrentHashMap<>(Map.of("1234", new ConcurrentWebSocketSessionDecorator(session, 0, 0))));
 
         List<String> users = userPositionService.listFollowers(user.getId(), 514L);
 
@@ -410,15 +410,15 @@ public class UserPositionServiceTests {
     @Test
     public void list_distinct_followers() {
         WebSocketSession session = mock(WebSocketSession.class);
-        when(session.getId()).thenReturn("1234");
 
         ConcurrentWebSocketSessionDecorator sessionDecorator = new ConcurrentWebSocketSessionDecorator(session, 0, 0);
 
         User user = builder.given_a_user();
+        when(session.getAttributes()).thenReturn(Map.of("userId", user.getId().toString()));
 
         WebSocketUserPositionHandler.sessionsBroadcast.put(user.getId().toString()+"/514", sessionDecorator);
-        WebSocketUserPositionHandler.sessionsTracked.put(sessionDecorator, new ConcurrentWebSocketSessionDecorator[]{new ConcurrentWebSocketSessionDecorator(session, 0, 0)});
-        WebSocketUserPositionHandler.sessions.put(user.getId().toString(), new ConcurrentWebSocketSessionDecorator[]{new ConcurrentWebSocketSessionDecorator(session, 0, 0)});
+        WebSocketUserPositionHandler.sessionsTracked.put(user.getId().toString()+"/514", new ConcurrentHashMap<>(Map.of("1234", new ConcurrentWebSocketSessionDecorator(session, 0, 0))));
+        WebSocketUserPositionHandler.sessions.put(user.getId().toString(), new ConcurrentHashMap<>(Map.of("1234", new ConcurrentWebSocketSessionDecorator(session, 0, 0))));
         UserPositionService.broadcasters.put("89/514", List.of(user));
 
         List<String> users = userPositionService.listFollowers(89L, 514L);
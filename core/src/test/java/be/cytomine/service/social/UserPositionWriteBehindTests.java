@@ -0,0 +1,118 @@
+package be.cytomine.service.social;
+
+/*
+* Copyright (c) 2009-2022. Authors: see NOTICE file.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import be.cytomine.BasicInstanceBuilder;
+import be.cytomine.CytomineCoreApplication;
+import be.cytomine.domain.image.SliceInstance;
+import be.cytomine.domain.security.User;
+import be.cytomine.domain.social.LastUserPosition;
+import be.cytomine.repositorynosql.social.LastUserPositionRepository;
+import be.cytomine.repositorynosql.social.PersistentUserPositionRepository;
+import jakarta.transaction.Transactional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+
+import java.util.Date;
+import java.util.Optional;
+
+import static be.cytomine.service.social.UserPositionServiceTests.USER_VIEW;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * User positions with the default (write-behind) durability, the other tests write them synchronously
+ */
+@SpringBootTest(classes = CytomineCoreApplication.class, properties = "application.userPosition.durability=WRITE_BEHIND")
+@AutoConfigureMockMvc
+@WithMockUser(authorities = "ROLE_SUPER_ADMIN", username = "superadmin")
+@Transactional
+public class UserPositionWriteBehindTests {
+
+    @Autowired
+    UserPositionService userPositionService;
+
+    @Autowired
+    UserPositionBuffer userPositionBuffer;
+
+    @Autowired
+    LastUserPositionRepository lastUserPositionRepository;
+
+    @Autowired
+    PersistentUserPositionRepository persistentUserPositionRepository;
+
+    @Autowired
+    PresenceService presenceService;
+
+    @Autowired
+    BasicInstanceBuilder builder;
+
+    @BeforeEach
+    public void cleanDB() {
+        userPositionBuffer.flush();
+        lastUserPositionRepository.deleteAll();
+        persistentUserPositionRepository.deleteAll();
+    }
+
+    @Test
+    void buffered_position_is_read_before_and_after_flush() {
+        assertThat(userPositionBuffer.isWriteBehind()).isTrue();
+        User user = builder.given_superadmin();
+        SliceInstance slice = builder.given_a_slice_instance();
+
+        userPositionService.add(new Date(), user, slice, slice.getImage(), USER_VIEW, 1, 5.0, false);
+
+        Optional<LastUserPosition> position = userPositionService.lastPositionByUser(slice.getImage(), slice, user, false);
+        assertThat(position).isPresent();
+        assertThat(userPositionService.listOnlineUsersByImage(slice.getImage(), slice, false)).containsExactly(user.getId());
+
+        userPositionBuffer.flush();
+        assertThat(lastUserPositionRepository.count()).isEqualTo(1);
+        assertThat(persistentUserPositionRepository.count()).isEqualTo(1);
+        assertThat(userPositionService.lastPositionByUser(slice.getImage(), slice, user, false).get().getId())
+                .isEqualTo(position.get().getId());
+        assertThat(userPositionService.listOnlineUsersByImage(slice.getImage(), slice, false)).containsExactly(user.getId());
+    }
+
+    @Test
+    void positions_of_other_instances_are_read_from_the_database() {
+        User user = builder.given_superadmin();
+        User otherUser = builder.given_a_user();
+        SliceInstance slice = builder.given_a_slice_instance();
+
+        userPositionService.add(new Date(), user, slice, slice.getImage(), USER_VIEW, 1, 5.0, false);
+        // position written by another instance
+        LastUserPosition other = new LastUserPosition();
+        other.setId(-1L);
+        other.setUser(otherUser.getId());
+        other.setImage(slice.getImage().getId());
+        other.setSlice(slice.getId());
+        other.setCreated(new Date());
+        other.setBroadcast(false);
+        lastUserPositionRepository.insert(other);
+        // and broadcast by its presence registry
+        presenceService.receive("another-instance," + otherUser.getId() + "," + slice.getProject().getId() + ","
+                + slice.getImage().getId() + "," + slice.getId() + ",false");
+
+        assertThat(userPositionService.listOnlineUsersByImage(slice.getImage(), slice, false))
+                .containsExactlyInAnyOrder(user.getId(), otherUser.getId());
+        assertThat(userPositionService.lastPositionByUser(slice.getImage(), slice, otherUser, false)).isPresent();
+    }
+}
@@ -22,8 +22,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
-import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
@@ -45,12 +47,14 @@ public class WebSocketUserPositionTests {
         WebSocketUserPositionHandler.sessions = new ConcurrentHashMap<>();
         WebSocketUserPositionHandler.sessionsTracked = new ConcurrentHashMap<>();
         WebSocketUserPositionHandler.sessionsBroadcast = new ConcurrentHashMap<>();
+        WebSocketUserPositionHandler.sessionsFollowing = new ConcurrentHashMap<>();
     }
 
     @Test
     public void create_session_for_not_connected_user() {
         WebSocketSession session = mock(WebSocketSession.class);
         when(session.getAttributes()).thenReturn(sessionAttributes("54", "imageId", "false"));
+        when(session.getId()).thenReturn("1");
 
         assertThat(WebSocketUserPositionHandler.sessionsBroadcast.get("54/imageId")).isNull();
         assertThat(WebSocketUserPositionHandler.sessions.get("54")).isNull();
@@ -63,6 +67,7 @@ public class WebSocketUserPositionTests {
     public void create_broadcast_session_for_not_connected_user() {
         WebSocketSession session = mock(WebSocketSession.class);
         when(session.getAttributes()).thenReturn(sessionAttributes("54", "imageId", "true"));
+        when(session.getId()).thenReturn("1");
 
         assertThat(WebSocketUserPositionHandler.sessionsBroadcast.get("54/imageId")).isNull();
         assertThat(WebSocketUserPositionHandler.sessions.get("54")).isNull();
@@ -74,17 +79,19 @@ public class WebSocketUserPositionTests {
     @Test
     public void add_session_for_already_connected_user() {
         ConcurrentWebSocketSessionDecorator sessionDecorator = mock(ConcurrentWebSocketSessionDecorator.class);
+        when(sessionDecorator.getId()).thenReturn("1");
         connectSession(sessionDecorator, "54", "imageId", "false");
         connectSession(sessionDecorator, "89", "imageId", "false");
-        assertThat(WebSocketUserPositionHandler.sessions.get("54").length).isEqualTo(1);
-        assertThat(WebSocketUserPositionHandler.sessions.get("89").length).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessions.get("54").size()).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessions.get("89").size()).isEqualTo(1);
 
         WebSocketSession session = mock(WebSocketSession.class);
         when(session.getAttributes()).thenReturn(sessionAttributes("54", "imageId", "false"));
+        when(session.getId()).thenReturn("2");
 
         webSocketUserPositionHandler.afterConnectionEstablished(session);
-        assertThat(WebSocketUserPositionHandler.sessions.get("54").length).isEqualTo(2);
-        assertThat(WebSocketUserPositionHandler.sessions.get("89").length).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessions.get("54").size()).isEqualTo(2);
+        assertThat(WebSocketUserPositionHandler.sessions.get("89").size()).isEqualTo(1);
     }
 
     @Test
@@ -95,6 +102,7 @@ public class WebSocketUserPositionTests {
         String imageInstanceId = builder.given_an_image_instance().getId().toString();
         String userAndImageId = userId+"/"+imageInstanceId;
 
+        when(sessionDecorator.getId()).thenReturn("1234");
         connectSession(sessionDecorator, userId, imageInstanceId,"true");
 
         // Should have created a broadcast session
@@ -104,17 +112,16 @@ public class WebSocketUserPositionTests {
         WebSocketSession session = mock(WebSocketSession.class);
         when(session.getAttributes()).thenReturn(sessionAttributes(userId, imageInstanceId, "false"));
         when(session.getId()).thenReturn("1234");
-        when(sessionDecorator.getId()).thenReturn("1234");
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId));
 
-        ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId).size()).isEqualTo(1);
     }
 
     @Test
     public void add_track_session_to_already_tracked_user() {
         ConcurrentWebSocketSessionDecorator followerSession = mock(ConcurrentWebSocketSessionDecorator.class);
         ConcurrentWebSocketSessionDecorator broadcastSession = mock(ConcurrentWebSocketSessionDecorator.class);
+        when(followerSession.getId()).thenReturn("5678");
 
         String userId = builder.given_a_user().getId().toString();
         String imageInstanceId = builder.given_an_image_instance().getId().toString();
@@ -124,19 +131,16 @@ public class WebSocketUserPositionTests {
         initFollowingSession(userAndImageId, broadcastSession, followerSession);
 
         //Should have added session to sessions tracked
-        ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId).size()).isEqualTo(1);
 
         WebSocketSession session = mock(WebSocketSession.class);
-        connectSession(session, userId, imageInstanceId,"false");
-
         when(session.getId()).thenReturn("1234");
-        when(followerSession.getId()).thenReturn("5678");
+        connectSession(session, userId, imageInstanceId,"false");
 
         // Ask a new follow on the broadcast session
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId));
 
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(2);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId).size()).isEqualTo(2);
     }
 
     @Test
@@ -159,12 +163,11 @@ public class WebSocketUserPositionTests {
         // Ask a new follow on the broadcast session
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId));
 
-        ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(2);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId).size()).isEqualTo(2);
 
         // Ask a follow on the broadcast session with already tracking session
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId));
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(2);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId).size()).isEqualTo(2);
     }
 
     @Test
@@ -173,6 +176,9 @@ public class WebSocketUserPositionTests {
         ConcurrentWebSocketSessionDecorator followerSession2 = mock(ConcurrentWebSocketSessionDecorator.class);
         ConcurrentWebSocketSessionDecorator followerSession3 = mock(ConcurrentWebSocketSessionDecorator.class);
         ConcurrentWebSocketSessionDecorator broadcastSession = mock(ConcurrentWebSocketSessionDecorator.class);
+        when(followerSession1.getId()).thenReturn("1");
+        when(followerSession2.getId()).thenReturn("2");
+        when(followerSession3.getId()).thenReturn("3");
 
         String userId1 = builder.given_a_user().getId().toString();
         String userId2 = builder.given_a_user().getId().toString();
@@ -181,15 +187,11 @@ public class WebSocketUserPositionTests {
         initFollowingSession(userAndImageId, broadcastSession, followerSession1);
 
         //Should have added session to sessions tracked
-        ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId).size()).isEqualTo(1);
 
         // Simulate that user is connected to Cytomine with 2 sessions
         connectSession(followerSession2, userId2, imageInstanceId,"false");
         connectSession(followerSession3, userId2, imageInstanceId,"false");
-        when(followerSession1.getId()).thenReturn("1");
-        when(followerSession2.getId()).thenReturn("2");
-        when(followerSession3.getId()).thenReturn("3");
 
         // Ask for session 2 only to follow the broadcast session
         WebSocketSession session = mock(WebSocketSession.class);
@@ -197,18 +199,19 @@ public class WebSocketUserPositionTests {
         when(session.getId()).thenReturn("2");
 
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId1));
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(2);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId).size()).isEqualTo(2);
 
         // Ask for session 3 only to follow the broadcast session
         when(session.getId()).thenReturn("3");
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId1));
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(3);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId).size()).isEqualTo(3);
     }
 
     @Test
     public void remove_tracking_sessions_from_tracked_sessions() throws Exception {
         ConcurrentWebSocketSessionDecorator followerSession = mock(ConcurrentWebSocketSessionDecorator.class);
         ConcurrentWebSocketSessionDecorator broadcastSession = mock(ConcurrentWebSocketSessionDecorator.class);
+        when(followerSession.getId()).thenReturn("1234");
 
         String userId = builder.given_a_user().getId().toString();
         String imageInstanceId = builder.given_an_image_instance().getId().toString();
@@ -218,24 +221,25 @@ public class WebSocketUserPositionTests {
         initFollowingSession(userAndImageId, broadcastSession, followerSession);
 
         // Broadcast session should be followed by follower session
-        ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId).size()).isEqualTo(1);
 
         WebSocketSession session = mock(WebSocketSession.class);
         when(session.getAttributes()).thenReturn(sessionAttributes(userId, imageInstanceId, "false"));
         when(session.getId()).thenReturn("1234");
-        when(followerSession.getId()).thenReturn("1234");
 
         // Close the followerSession (by calling afterConnectionClosed with mock session with same session id)
         webSocketUserPositionHandler.afterConnectionClosed(session, CloseStatus.NO_STATUS_CODE);
 
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(0);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId).size()).isEqualTo(0);
+        assertThat(WebSocketUserPositionHandler.sessionsFollowing.get("1234")).isNull();
     }
 
     @Test
     public void remove_broadcasting_sessions_from_tracked_sessions() throws Exception {
         ConcurrentWebSocketSessionDecorator followerSession = mock(ConcurrentWebSocketSessionDecorator.class);
         ConcurrentWebSocketSessionDecorator broadcastSession = mock(ConcurrentWebSocketSessionDecorator.class);
+        when(followerSession.getId()).thenReturn("5678");
+        when(broadcastSession.getId()).thenReturn("1234");
 
         String userId = builder.given_a_user().getId().toString();
         String imageInstanceId = builder.given_an_image_instance().getId().toString();
@@ -244,20 +248,18 @@ public class WebSocketUserPositionTests {
         connectSession(followerSession, userId, imageInstanceId,"false");
         initFollowingSession(userAndImageId, broadcastSession, followerSession);
 
-        ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId).size()).isEqualTo(1);
 
         WebSocketSession session = mock(WebSocketSession.class);
         when(session.getAttributes()).thenReturn(sessionAttributes(userId, imageInstanceId, "true"));
         when(session.getId()).thenReturn("1234");
-        when(followerSession.getId()).thenReturn("5678");
-        when(broadcastSession.getId()).thenReturn("1234");
 
         // Close the broadcastSession (by calling afterConnectionClosed with mock session with same session id)
         webSocketUserPositionHandler.afterConnectionClosed(session, CloseStatus.NO_STATUS_CODE);
 
         assertThat(WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId)).isNull();
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession)).isNull();
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId)).isNull();
+        assertThat(WebSocketUserPositionHandler.sessionsFollowing.get("5678")).isEmpty();
     }
 
     @Test
@@ -266,10 +268,10 @@ public class WebSocketUserPositionTests {
         String imageInstanceId = builder.given_an_image_instance().getId().toString();
 
         WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("1234");
         connectSession(session, userId, imageInstanceId, "true");
 
         when(session.getAttributes()).thenReturn(sessionAttributes(userId, imageInstanceId, "false"));
-        when(session.getId()).thenReturn("1234");
         webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId));
 
         when(session.isOpen()).thenReturn(true);
@@ -278,6 +280,40 @@ public class WebSocketUserPositionTests {
         verify(session, Mockito.timeout(2000).times(1)).sendMessage(new TextMessage("position"));
     }
 
+    @Test
+    public void update_position_of_tracked_user_only_send_latest_position_to_slow_follower() throws Exception {
+        String userId = builder.given_a_user().getId().toString();
+        String imageInstanceId = builder.given_an_image_instance().getId().toString();
+
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("1234");
+        connectSession(session, userId, imageInstanceId, "true");
+
+        when(session.getAttributes()).thenReturn(sessionAttributes(userId, imageInstanceId, "false"));
+        webSocketUserPositionHandler.handleMessage(session, new TextMessage(userId));
+
+        // The follower is blocked on the first position while the broadcaster keeps moving
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(session.isOpen()).thenReturn(true);
+        doAnswer(invocation -> {
+            if (invocation.getArgument(0).equals(new TextMessage("position-1"))) {
+                sending.countDown();
+                release.await(2, TimeUnit.SECONDS);
+            }
+            return null;
+        }).when(session).sendMessage(any());
+
+        webSocketUserPositionHandler.sendPositionToFollowers(userId, imageInstanceId, "position-1");
+        assertThat(sending.await(2, TimeUnit.SECONDS)).isTrue();
+        webSocketUserPositionHandler.sendPositionToFollowers(userId, imageInstanceId, "position-2");
+        webSocketUserPositionHandler.sendPositionToFollowers(userId, imageInstanceId, "position-3");
+        release.countDown();
+
+        verify(session, Mockito.timeout(2000).times(1)).sendMessage(new TextMessage("position-3"));
+        verify(session, never()).sendMessage(new TextMessage("position-2"));
+    }
+
     @Test
     public void update_position_of_not_tracked_user_do_nothing(){
         String userId = builder.given_a_user().getId().toString();
@@ -290,23 +326,22 @@ public class WebSocketUserPositionTests {
         WebSocketSession session = mock(WebSocketSession.class);
         ConcurrentWebSocketSessionDecorator followerSession = mock(ConcurrentWebSocketSessionDecorator.class);
         ConcurrentWebSocketSessionDecorator broadcastSession = mock(ConcurrentWebSocketSessionDecorator.class);
+        when(session.getId()).thenReturn("1");
+        when(followerSession.getId()).thenReturn("1");
 
         String userId = builder.given_a_user().getId().toString();
         String userAndImageId = userId+"/imageId";
         connectSession(session, userId, "imageId", "false");
         initFollowingSession(userAndImageId, broadcastSession, followerSession);
 
-        assertThat(WebSocketUserPositionHandler.sessions.get(userId).length).isEqualTo(1);
-        ConcurrentWebSocketSessionDecorator createdSession = WebSocketUserPositionHandler.sessionsBroadcast.get(userAndImageId);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessions.get(userId).size()).isEqualTo(1);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId).size()).isEqualTo(1);
 
-        when(session.getId()).thenReturn("1");
-        when(followerSession.getId()).thenReturn("1");
         // Close the session (by calling afterConnectionClosed with mock session with same session id)
         webSocketUserPositionHandler.afterConnectionClosed(session, CloseStatus.NO_STATUS_CODE);
 
-        assertThat(WebSocketUserPositionHandler.sessions.get(userId).length).isEqualTo(0);
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(createdSession).length).isEqualTo(0);
+        assertThat(WebSocketUserPositionHandler.sessions.get(userId).size()).isEqualTo(0);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId).size()).isEqualTo(0);
     }
 
 
@@ -317,8 +352,10 @@ public class WebSocketUserPositionTests {
 
     private void initFollowingSession(String userAndImageId, ConcurrentWebSocketSessionDecorator broadcastSession, ConcurrentWebSocketSessionDecorator followerSession){
         WebSocketUserPositionHandler.sessionsBroadcast.put(userAndImageId, broadcastSession);
-        WebSocketUserPositionHandler.sessionsTracked.put(broadcastSession, new ConcurrentWebSocketSessionDecorator[]{followerSession});
-        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(broadcastSession).length).isEqualTo(1);
+        WebSocketUserPositionHandler.sessionsTracked.put(userAndImageId, new ConcurrentHashMap<>(Map.of(followerSession.getId(), followerSession)));
+        WebSocketUserPositionHandler.sessionsFollowing.put(followerSession.getId(), ConcurrentHashMap.newKeySet());
+        WebSocketUserPositionHandler.sessionsFollowing.get(followerSession.getId()).add(userAndImageId);
+        assertThat(WebSocketUserPositionHandler.sessionsTracked.get(userAndImageId).size()).isEqualTo(1);
     }
 
     private Map<String, Object> sessionAttributes(String userId, String imageId, String broadcast){
@@ -0,0 +1,44 @@
+package be.cytomine.service.stats;
+
+import be.cytomine.utils.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class StatsRegistryTests {
+
+    StatsRegistry stats = new StatsRegistry();
+
+    @Test
+    void counters_are_shared_by_name() {
+        stats.counter("cache.hits").increment();
+        stats.counter("cache.hits").increment(2);
+
+        assertThat(stats.get("cache.hits")).isEqualTo(3L);
+        assertThat(stats.get("cache.misses")).isNull();
+        assertThrows(IllegalArgumentException.class, () -> stats.timer("cache.hits"));
+    }
+
+    @Test
+    void snapshot_selects_the_meters_of_a_prefix() {
+        stats.counter("cache.hits").increment();
+        stats.gauge("cache.size", () -> 12);
+        stats.counter("cachex.hits").increment();
+        stats.timer("lock.wait").record(TimeUnit.MILLISECONDS.toNanos(4));
+        stats.timer("lock.wait").record(TimeUnit.MILLISECONDS.toNanos(2));
+
+        JsonObject cache = stats.snapshot("cache");
+        assertThat(cache).containsOnlyKeys("cache.hits", "cache.size");
+        assertThat(cache.get("cache.size")).isEqualTo(12);
+
+        JsonObject lock = stats.snapshot("lock");
+        assertThat(lock.get("lock.wait.count")).isEqualTo(2L);
+        assertThat(lock.get("lock.wait.mean")).isEqualTo(3.0);
+        assertThat(lock.get("lock.wait.max")).isEqualTo(4.0);
+
+        assertThat(stats.snapshot(null)).hasSize(6);
+    }
+}
@@ -46,6 +46,7 @@ import org.springframework.security.test.context.support.WithMockUser;
 import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 
+import java.time.LocalDate;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -81,6 +82,9 @@ public class StatsServiceTests {
     @Autowired
     StatsService statsService;
 
+    @Autowired
+    ProjectActivityRollupService projectActivityRollupService;
+
     @Autowired
     ImageConsultationService imageConsultationService;
 
@@ -243,6 +247,40 @@ public class StatsServiceTests {
 
     }
 
+    @Test
+    void stats_user_annotation_evolution_counts_by_period_in_database() {
+        Project project = builder.given_a_project();
+        for (int days : new int[] {-1, -3, -10, -40}) {
+            UserAnnotation annotation = builder.given_a_user_annotation(project);
+            annotation.setCreated(DateUtils.addDays(new Date(), days));
+            builder.persistAndReturn(annotation);
+        }
+
+        List<JsonObject> jsonObjects = statsService.statAnnotationEvolution(project, null, 7, DateUtils.addDays(new Date(), -30), DateUtils.addDays(new Date(), 0), false, true);
+
+        assertThat(jsonObjects).hasSize(5);
+        assertThat(jsonObjects.get(1).getJSONAttrLong("size")).isEqualTo(0);
+        assertThat(jsonObjects.get(2).getJSONAttrLong("size")).isEqualTo(1);
+        assertThat(jsonObjects.get(3).getJSONAttrLong("size")).isEqualTo(2);
+        assertThat(jsonObjects.get(4).getJSONAttrLong("size")).isEqualTo(3);
+    }
+
+    @Test
+    void activity_rollup_counts_annotations_by_day() {
+        Project project = builder.given_a_project();
+        UserAnnotation annotation = builder.given_a_user_annotation(project);
+        annotation.setCreated(DateUtils.addDays(new Date(), -3));
+        builder.persistAndReturn(annotation);
+        entityManager.flush();
+        LocalDate today = projectActivityRollupService.today();
+
+        assertThat(projectActivityRollupService.refresh(ProjectActivityRollupService.Kind.ANNOTATION, today)).isTrue();
+
+        assertThat(projectActivityRollupService.getRefreshedUntil(ProjectActivityRollupService.Kind.ANNOTATION)).contains(today);
+        Map<Long, Long> counts = projectActivityRollupService.countByDay(ProjectActivityRollupService.Kind.ANNOTATION, project.getId(), today.minusDays(5), today);
+        assertThat(counts).containsEntry(2L, 1L).hasSize(1);
+    }
+
     @Test
     void stats_uder_slide() {
         Project project = builder.given_a_project();
@@ -1,6 +1,7 @@
 package be.cytomine.utils;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
 
 import java.util.List;
 
@@ -66,4 +67,15 @@ public class PreparedRequestUtilsTests {
         pr.addQueryParameter("e", 3);
         assertThat(pr.getURI().toString()).isEqualTo("https://domain.com:10900/basepath/b/c?e=3");
     }
+
+    @Test
+    public void reuse_given_rest_template() {
+        RestTemplate restTemplate = new RestTemplate();
+        PreparedRequest pr = new PreparedRequest(restTemplate);
+        assertThat(pr.getRestTemplate()).isSameAs(restTemplate);
+
+        pr = new PreparedRequest();
+        assertThat(pr.getRestTemplate()).isNotNull();
+        assertThat(pr.getRestTemplate()).isSameAs(pr.getRestTemplate());
+    }
 }
@@ -30,9 +30,10 @@ if [ "$ADD_DB_EXTENSIONS" -ne "0" ]; then
             CREATE EXTENSION IF NOT EXISTS fuzzystrmatch;
             CREATE EXTENSION IF NOT EXISTS postgis_tiger_geocoder;
 EOSQL
-   echo "Loading ltree into $DB"
+   echo "Loading ltree and btree_gist into $DB"
    psql -U "$POSTGRES_USER" --dbname="$DB" <<-'EOSQL'
             CREATE EXTENSION IF NOT EXISTS ltree;
+            CREATE EXTENSION IF NOT EXISTS btree_gist;
 EOSQL
 fi
 
@@ -1 +1,2 @@
-CREATE EXTENSION IF NOT EXISTS ltree;
\ No newline at end of file
+CREATE EXTENSION IF NOT EXISTS ltree;
+CREATE EXTENSION IF NOT EXISTS btree_gist;
\ No newline at end of file